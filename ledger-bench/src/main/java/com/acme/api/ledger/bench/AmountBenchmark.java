@@ -0,0 +1,144 @@
+package com.acme.api.ledger.bench;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * BigDecimal amounts (how transactions used to be stored) against long minor
+ * units (how they are stored now).
+ *
+ * fold*: summing a whole ledger, what balance() used to do on every call.
+ * accumulate*: updating the running balance on every append.
+ * allocate*: one stored entry, run with -prof gc and compare
+ * gc.alloc.rate.norm to get the heap cost per transaction.
+ *
+ * java -jar ledger-bench/target/benchmarks.jar AmountBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AmountBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+
+    // Shape of a stored entry before amounts were minor units
+    record BigDecimalTransaction(
+            Transaction.Operation operation,
+            BigDecimal amount,
+            String description,
+            String reference,
+            Currency currency) {
+    }
+
+    @Param({ "1000", "100000" })
+    int size;
+
+    BigDecimalTransaction[] bigDecimalTransactions;
+
+    Transaction[] transactions;
+
+    long[] unscaled;
+
+    int next;
+
+    final AtomicReference<BigDecimal> bigDecimalBalance = new AtomicReference<>(BigDecimal.ZERO);
+
+    final AtomicLong balance = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+
+        bigDecimalTransactions = new BigDecimalTransaction[size];
+        transactions = new Transaction[size];
+        unscaled = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            Transaction.Operation operation = i % 3 == 0
+                    ? Transaction.Operation.WITHDRAWAL
+                    : Transaction.Operation.DEPOSIT;
+            long cents = random.nextLong(1, 10_000_000);
+
+            unscaled[i] = cents;
+            bigDecimalTransactions[i] = new BigDecimalTransaction(
+                    operation, BigDecimal.valueOf(cents, 2), "Benchmark", "REF-" + i, EUR);
+            transactions[i] = new Transaction(operation, cents, "Benchmark", "REF-" + i, EUR);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal foldBigDecimal() {
+        BigDecimal total = BigDecimal.ZERO;
+
+        for (BigDecimalTransaction tx : bigDecimalTransactions) {
+            total = total.add(tx.operation() == Transaction.Operation.DEPOSIT ? tx.amount() : tx.amount().negate());
+        }
+
+        return total;
+    }
+
+    @Benchmark
+    public long foldMinorUnits() {
+        long total = 0;
+
+        for (Transaction tx : transactions) {
+            total = Math.addExact(total, tx.signedAmount());
+        }
+
+        return total;
+    }
+
+    @Benchmark
+    public BigDecimal accumulateBigDecimal() {
+        BigDecimalTransaction tx = bigDecimalTransactions[nextIndex()];
+        BigDecimal delta = tx.operation() == Transaction.Operation.DEPOSIT ? tx.amount() : tx.amount().negate();
+
+        return bigDecimalBalance.accumulateAndGet(delta, BigDecimal::add);
+    }
+
+    @Benchmark
+    public long accumulateMinorUnits() {
+        return balance.accumulateAndGet(transactions[nextIndex()].signedAmount(), Math::addExact);
+    }
+
+    @Benchmark
+    public BigDecimalTransaction allocateBigDecimal() {
+        int i = nextIndex();
+
+        return new BigDecimalTransaction(
+                Transaction.Operation.DEPOSIT, BigDecimal.valueOf(unscaled[i], 2), "Benchmark", "REF", EUR);
+    }
+
+    @Benchmark
+    public Transaction allocateMinorUnits() {
+        return new Transaction(Transaction.Operation.DEPOSIT, unscaled[nextIndex()], "Benchmark", "REF", EUR);
+    }
+
+    private int nextIndex() {
+        int i = next;
+
+        next = i + 1 == size ? 0 : i + 1;
+
+        return i;
+    }
+}
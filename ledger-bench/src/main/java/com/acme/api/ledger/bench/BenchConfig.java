@@ -0,0 +1,337 @@
+package com.acme.api.ledger.bench;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.acme.api.ledger.config.LedgerConfig;
+
+import io.quarkus.runtime.configuration.MemorySize;
+
+/**
+ * LedgerConfig for benchmarks that build the repository by hand, outside
+ * Quarkus. Only the settings benchmarks vary are parameters, the rest keep the
+ * application.yml defaults.
+ */
+final class BenchConfig {
+    private BenchConfig() {
+    }
+
+    /**
+     * The repository logs every transaction at INFO, which would make the
+     * benchmarks measure the console.
+     */
+    static void quietLogs() {
+        Logger.getLogger("com.acme").setLevel(Level.WARNING);
+    }
+
+    static LedgerConfig of(LedgerConfig.Backend backend, Path data, boolean wal, LedgerConfig.Durability durability,
+            boolean snapshots) {
+        return new LedgerConfig() {
+            @Override
+            public Store store() {
+                return () -> backend;
+            }
+
+            @Override
+            public Wal wal() {
+                return new Wal() {
+                    @Override
+                    public boolean enabled() {
+                        return wal;
+                    }
+
+                    @Override
+                    public Path directory() {
+                        return data.resolve("wal");
+                    }
+
+                    @Override
+                    public Durability durability() {
+                        return durability;
+                    }
+
+                    @Override
+                    public MemorySize segmentSize() {
+                        return new MemorySize(BigInteger.valueOf(64L << 20));
+                    }
+
+                    @Override
+                    public Duration flushInterval() {
+                        return Duration.ofMillis(100);
+                    }
+                };
+            }
+
+            @Override
+            public Snapshot snapshot() {
+                return new Snapshot() {
+                    @Override
+                    public boolean enabled() {
+                        return snapshots;
+                    }
+
+                    @Override
+                    public Path directory() {
+                        return data.resolve("snapshots");
+                    }
+
+                    @Override
+                    public Duration interval() {
+                        // Only the ones the benchmark asks for
+                        return Duration.ofDays(1);
+                    }
+
+                    @Override
+                    public int shards() {
+                        return 0;
+                    }
+                };
+            }
+
+            @Override
+            public Idempotency idempotency() {
+                return new Idempotency() {
+                    @Override
+                    public Duration ttl() {
+                        return Duration.ofHours(24);
+                    }
+
+                    @Override
+                    public int maxEntries() {
+                        return 1_000_000;
+                    }
+                };
+            }
+
+            @Override
+            public Sequencer sequencer() {
+                return new Sequencer() {
+                    @Override
+                    public int shards() {
+                        return 0;
+                    }
+
+                    @Override
+                    public int ringSize() {
+                        return 1024;
+                    }
+                };
+            }
+
+            @Override
+            public Execution execution() {
+                return () -> ExecutionMode.WORKER;
+            }
+
+            @Override
+            public Tiering tiering() {
+                return new Tiering() {
+                    @Override
+                    public boolean enabled() {
+                        return false;
+                    }
+
+                    @Override
+                    public Path directory() {
+                        return data.resolve("cold");
+                    }
+
+                    @Override
+                    public MemorySize heapBudget() {
+                        return new MemorySize(BigInteger.valueOf(512L << 20));
+                    }
+
+                    @Override
+                    public Duration keepRecent() {
+                        return Duration.ofDays(1);
+                    }
+
+                    @Override
+                    public Duration interval() {
+                        return Duration.ofMinutes(1);
+                    }
+                };
+            }
+
+            @Override
+            public Retention retention() {
+                return new Retention() {
+                    @Override
+                    public boolean enabled() {
+                        return false;
+                    }
+
+                    @Override
+                    public Duration keep() {
+                        return Duration.ofDays(90);
+                    }
+
+                    @Override
+                    public Duration period() {
+                        return Duration.ofDays(1);
+                    }
+
+                    @Override
+                    public Duration interval() {
+                        return Duration.ofHours(1);
+                    }
+
+                    @Override
+                    public Optional<Path> archive() {
+                        return Optional.empty();
+                    }
+                };
+            }
+
+            @Override
+            public Feed feed() {
+                return new Feed() {
+                    @Override
+                    public int bufferSize() {
+                        return 1024;
+                    }
+
+                    @Override
+                    public Overflow overflow() {
+                        return Overflow.DISCONNECT;
+                    }
+
+                    @Override
+                    public Duration heartbeat() {
+                        return Duration.ofSeconds(15);
+                    }
+                };
+            }
+
+            @Override
+            public Admission admission() {
+                return new Admission() {
+                    @Override
+                    public boolean enabled() {
+                        return false;
+                    }
+
+                    @Override
+                    public int ledgerRate() {
+                        return 1000;
+                    }
+
+                    @Override
+                    public int ledgerBurst() {
+                        return 2000;
+                    }
+
+                    @Override
+                    public int clientRate() {
+                        return 1000;
+                    }
+
+                    @Override
+                    public int clientBurst() {
+                        return 2000;
+                    }
+
+                    @Override
+                    public String clientHeader() {
+                        return "X-Client-Id";
+                    }
+
+                    @Override
+                    public Optional<List<String>> trustedProxies() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public int buckets() {
+                        return 65536;
+                    }
+                };
+            }
+
+            @Override
+            public Cluster cluster() {
+                return new Cluster() {
+                    @Override
+                    public boolean enabled() {
+                        return false;
+                    }
+
+                    @Override
+                    public Optional<String> self() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Optional<List<String>> nodes() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public int virtualNodes() {
+                        return 256;
+                    }
+
+                    @Override
+                    public Duration connectTimeout() {
+                        return Duration.ofSeconds(2);
+                    }
+
+                    @Override
+                    public int maxConnections() {
+                        return 256;
+                    }
+                };
+            }
+
+            @Override
+            public Replication replication() {
+                return new Replication() {
+                    @Override
+                    public ReplicationRole role() {
+                        return ReplicationRole.NONE;
+                    }
+
+                    @Override
+                    public int port() {
+                        return 28181;
+                    }
+
+                    @Override
+                    public Optional<String> leader() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Duration heartbeat() {
+                        return Duration.ofSeconds(1);
+                    }
+
+                    @Override
+                    public Duration readTimeout() {
+                        return Duration.ofSeconds(2);
+                    }
+                };
+            }
+
+            @Override
+            public Limits limits() {
+                return new Limits() {
+                    @Override
+                    public MemorySize maxBodySize() {
+                        return new MemorySize(BigInteger.valueOf(10L << 20));
+                    }
+
+                    @Override
+                    public MemorySize importBodySize() {
+                        return new MemorySize(BigInteger.valueOf(1L << 30));
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.acme.api.ledger.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+
+/**
+ * Commits through the single-writer sequencer from 8 request threads
+ * (commit) or from one (commitSingleThread), either all on one ledger (every
+ * commit lands on the same writer) or spread over many (spread over the
+ * writers). Alternates deposits and withdrawals so every withdrawal goes
+ * through the balance check and the balance stays positive.
+ * The write-ahead log is off: this measures the pipeline, not the disk.
+ *
+ * Throughput gives commits per second, sample time gives the latency
+ * percentiles (p0.99).
+ *
+ * java -jar ledger-bench/target/benchmarks.jar CommitBenchmark
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CommitBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+
+    @Param({ "1", "1000" })
+    int ledgers;
+
+    Path data;
+
+    InMemoryLedgerRepository repository;
+
+    LedgerKey[] keys;
+
+    @State(Scope.Thread)
+    public static class Client {
+        long sequence;
+
+        String name = UUID.randomUUID().toString();
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        BenchConfig.quietLogs();
+
+        data = Files.createTempDirectory("ledger-commit");
+        repository = new InMemoryLedgerRepository(
+                BenchConfig.of(LedgerConfig.Backend.HEAP, data, false, LedgerConfig.Durability.ASYNC, false));
+        keys = new LedgerKey[ledgers];
+
+        for (int i = 0; i < ledgers; i++) {
+            keys[i] = new LedgerKey(UUID.randomUUID(), EUR);
+            repository.save(keys[i]);
+        }
+    }
+
+    @Benchmark
+    public Map.Entry<UUID, Transaction> commit(Client client) {
+        long n = client.sequence++;
+        LedgerKey key = keys[(int) ((n >>> 1) % keys.length)];
+        Transaction.Operation operation = (n & 1) == 0
+                ? Transaction.Operation.DEPOSIT
+                : Transaction.Operation.WITHDRAWAL;
+
+        return repository.add(key, new Transaction(operation, 100, "Commit", client.name + n, EUR));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Map.Entry<UUID, Transaction> commitSingleThread(Client client) {
+        return commit(client);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        repository.close();
+        Files.deleteIfExists(data);
+    }
+}
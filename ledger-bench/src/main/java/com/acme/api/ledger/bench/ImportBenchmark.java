@@ -0,0 +1,122 @@
+package com.acme.api.ledger.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.BulkLoad;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+
+/**
+ * Fills a new ledger with the same transactions through a bulk load
+ * (bulkLoad: installed a chunk at a time as it is staged, the first chunk's
+ * skip list built in one pass) or through non-atomic batches of 10,000 (batches: the path of the
+ * batch endpoint). Parsing is left out, both start from model transactions.
+ * The write-ahead log is off: this measures the store, not the disk.
+ *
+ * java -jar ledger-bench/target/benchmarks.jar ImportBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final int BATCH = 10_000;
+
+    @Param({ "100000", "1000000" })
+    int rows;
+
+    Path data;
+
+    InMemoryLedgerRepository repository;
+
+    List<Transaction> transactions;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        BenchConfig.quietLogs();
+
+        transactions = new ArrayList<>(rows);
+
+        // Two deposits per withdrawal, the balance never goes below zero
+        for (int i = 0; i < rows; i++) {
+            Transaction.Operation operation = i % 3 == 2
+                    ? Transaction.Operation.WITHDRAWAL
+                    : Transaction.Operation.DEPOSIT;
+
+            transactions.add(new Transaction(operation, 100 + i % 100, "Imported", "IMPORT-" + i, EUR));
+        }
+    }
+
+    // A new store per iteration, the ledgers of the last one are dropped with it
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        data = Files.createTempDirectory("ledger-import");
+        repository = new InMemoryLedgerRepository(
+                BenchConfig.of(LedgerConfig.Backend.HEAP, data, false, LedgerConfig.Durability.ASYNC, false));
+    }
+
+    @Benchmark
+    public int bulkLoad() {
+        BulkLoad load = repository.bulkLoad(newLedger(), false);
+
+        for (int i = 0; i < transactions.size(); i++) {
+            load.stage(i + 1, null, null, transactions.get(i));
+        }
+
+        return repository.load(load);
+    }
+
+    @Benchmark
+    public int batches() {
+        LedgerKey key = newLedger();
+        int committed = 0;
+
+        for (int from = 0; from < transactions.size(); from += BATCH) {
+            committed += repository.addAll(key, transactions.subList(from,
+                    Math.min(transactions.size(), from + BATCH)), false).size();
+        }
+
+        return committed;
+    }
+
+    private LedgerKey newLedger() {
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+
+        repository.save(key);
+
+        return key;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        repository.close();
+        Files.deleteIfExists(data);
+    }
+}
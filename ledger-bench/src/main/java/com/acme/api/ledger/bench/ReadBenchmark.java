@@ -0,0 +1,146 @@
+package com.acme.api.ledger.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.BulkLoad;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+
+/**
+ * Reads against ledger size, on a ledger filled once per trial with its
+ * transactions spread evenly over the last HOURS hours.
+ *
+ * balance: the running balance, should not move with the size.
+ * balanceAsOf: balance at an instant in the middle of the ledger.
+ * historyPage: the first page of the history endpoint (100 transactions).
+ * historyPageDeep: a page resumed from a cursor in the middle of the ledger.
+ * historyAll: walking every transaction, what NDJSON streaming does.
+ *
+ * java -jar ledger-bench/target/benchmarks.jar ReadBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+    private static final int HOURS = 1000;
+    private static final int PAGE = 100;
+
+    @Param({ "1000", "100000", "1000000" })
+    int size;
+
+    @Param({ "HEAP", "OFF_HEAP" })
+    LedgerConfig.Backend backend;
+
+    Path data;
+
+    InMemoryLedgerRepository repository;
+
+    LedgerKey key;
+
+    Instant start;
+
+    Instant end;
+
+    Instant middle;
+
+    UUID cursor;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        BenchConfig.quietLogs();
+
+        data = Files.createTempDirectory("ledger-read");
+        repository = new InMemoryLedgerRepository(
+                BenchConfig.of(backend, data, false, LedgerConfig.Durability.ASYNC, false));
+        key = new LedgerKey(UUID.randomUUID(), EUR);
+        repository.save(key);
+
+        // Imported with past timestamps, so balanceAsOf goes through the hourly checkpoints
+        end = Instant.now();
+        start = end.minus(Duration.ofHours(HOURS));
+
+        long span = Duration.between(start, end).toMillis();
+        BulkLoad load = repository.bulkLoad(key, false);
+
+        for (int i = 0; i < size; i++) {
+            load.stage(i + 1, null, start.plusMillis(span * i / size),
+                    new Transaction(Transaction.Operation.DEPOSIT, 1 + i % 10_000, "Read", "REF-" + i, EUR));
+        }
+
+        repository.load(load);
+
+        try (Stream<Map.Entry<UUID, Transaction>> all = repository.history(key, start, end, null)) {
+            Map.Entry<UUID, Transaction> half = all.skip(size / 2).findFirst().orElseThrow();
+
+            cursor = half.getKey();
+            middle = Instant.ofEpochMilli(cursor.getMostSignificantBits() >>> 16);
+        }
+    }
+
+    @Benchmark
+    public long balance() {
+        return repository.balance(key);
+    }
+
+    @Benchmark
+    public long balanceAsOf() {
+        return repository.balance(key, middle);
+    }
+
+    @Benchmark
+    public List<Map.Entry<UUID, Transaction>> historyPage() {
+        try (Stream<Map.Entry<UUID, Transaction>> history = repository.history(key, start, end, null)) {
+            return history.limit(PAGE + 1).toList();
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<UUID, Transaction>> historyPageDeep() {
+        try (Stream<Map.Entry<UUID, Transaction>> history = repository.history(key, start, end, cursor)) {
+            return history.limit(PAGE + 1).toList();
+        }
+    }
+
+    @Benchmark
+    public long historyAll() {
+        try (Stream<Map.Entry<UUID, Transaction>> history = repository.history(key, start, end, null)) {
+            return history.mapToLong(entry -> entry.getValue().amount()).sum();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        repository.close();
+        Files.deleteIfExists(data);
+    }
+}
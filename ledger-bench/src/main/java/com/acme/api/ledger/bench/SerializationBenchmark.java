@@ -0,0 +1,164 @@
+package com.acme.api.ledger.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.apispec.dto.BatchTransactionItem;
+import com.acme.api.ledger.apispec.dto.BatchTransactionRequest;
+import com.acme.api.ledger.apispec.dto.TransactionsResponse;
+import com.acme.api.ledger.mapper.BinaryCodec;
+import com.acme.api.ledger.mapper.TransactionMapper;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * The REST side of a history page: mapping stored transactions to the
+ * generated DTOs (toDtoList) and writing the response with Jackson
+ * (serialize), or both as the endpoint does (page). The same transactions
+ * streamed as NDJSON (ndjson) or in the binary format (binary), and a batch
+ * request of that size read from JSON (readBatchJson) or binary
+ * (readBatchBinary). The bytes each one takes are checked by
+ * SerializationBenchmarkTest.
+ *
+ * java -jar ledger-bench/target/benchmarks.jar SerializationBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+
+    @Param({ "100", "500" })
+    int pageSize;
+
+    TransactionMapper mapper = new TransactionMapper();
+
+    ObjectWriter writer = new ObjectMapper().writerFor(TransactionsResponse.class);
+
+    List<Map.Entry<UUID, Transaction>> page;
+
+    TransactionsResponse response;
+
+    ObjectWriter lineWriter = new ObjectMapper().writerFor(com.acme.api.ledger.apispec.dto.Transaction.class);
+
+    ObjectReader batchReader = new ObjectMapper().readerFor(BatchTransactionRequest.class);
+
+    byte[] batchJson;
+
+    byte[] batchBinary;
+
+    @Setup
+    public void setup() {
+        page = new ArrayList<>(pageSize);
+
+        for (int i = 0; i < pageSize; i++) {
+            Transaction.Operation operation = i % 3 == 0
+                    ? Transaction.Operation.WITHDRAWAL
+                    : Transaction.Operation.DEPOSIT;
+
+            page.add(Map.entry(UUID.randomUUID(),
+                    new Transaction(operation, 1 + i * 137L, "Groceries and more", "REF-" + i, EUR)));
+        }
+
+        response = response(mapper.toDtoList(page));
+
+        BatchTransactionRequest batch = new BatchTransactionRequest().transactions(page.stream()
+                .map(entry -> new BatchTransactionItem()
+                        .type(BatchTransactionItem.TypeEnum.fromValue(entry.getValue().operation().name()))
+                        .value(mapper.toDecimal(entry.getValue().amount(), EUR))
+                        .description(entry.getValue().description())
+                        .reference(entry.getValue().reference()))
+                .toList());
+
+        try {
+            batchJson = new ObjectMapper().writeValueAsBytes(batch);
+            batchBinary = BinaryCodec.writeBatch(batch, EUR.scale());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public List<com.acme.api.ledger.apispec.dto.Transaction> toDtoList() {
+        return mapper.toDtoList(page);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return writer.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] page() throws JsonProcessingException {
+        return writer.writeValueAsBytes(response(mapper.toDtoList(page)));
+    }
+
+    @Benchmark
+    public byte[] ndjson() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize * 128);
+
+        for (Map.Entry<UUID, Transaction> entry : page) {
+            bytes.write(lineWriter.writeValueAsBytes(mapper.toDto(entry.getKey(), entry.getValue())));
+            bytes.write('\n');
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] binary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize * 64);
+        BinaryCodec.HistoryWriter out = new BinaryCodec.HistoryWriter(bytes, EUR);
+
+        for (Map.Entry<UUID, Transaction> entry : page) {
+            out.write(entry.getKey(), entry.getValue());
+        }
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public BatchTransactionRequest readBatchJson() throws IOException {
+        return batchReader.readValue(batchJson);
+    }
+
+    @Benchmark
+    public BatchTransactionRequest readBatchBinary() throws IOException {
+        return BinaryCodec.readBatch(ByteBuffer.wrap(batchBinary));
+    }
+
+    private static TransactionsResponse response(List<com.acme.api.ledger.apispec.dto.Transaction> transactions) {
+        return new TransactionsResponse()
+                .id(UUID.randomUUID())
+                .currency("EUR")
+                .transactions(transactions);
+    }
+}
@@ -0,0 +1,111 @@
+package com.acme.api.ledger.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+
+/**
+ * Boot time against ledger size: replaying the whole write-ahead log (wal)
+ * against loading a snapshot with nothing after it (snapshot). Each
+ * measurement builds a repository from the same data directory, which is
+ * filled once per trial.
+ *
+ * java -jar ledger-bench/target/benchmarks.jar StartupBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final Currency EUR = Currency.of("EUR");
+    private static final int LEDGERS = 100;
+
+    @Param({ "100000", "1000000" })
+    int transactions;
+
+    @Param({ "wal", "snapshot" })
+    String recovery;
+
+    @Param({ "HEAP", "OFF_HEAP" })
+    LedgerConfig.Backend backend;
+
+    Path data;
+
+    LedgerConfig config;
+
+    InMemoryLedgerRepository booted;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        BenchConfig.quietLogs();
+
+        data = Files.createTempDirectory("ledger-startup");
+        config = BenchConfig.of(backend, data, true, LedgerConfig.Durability.ASYNC, recovery.equals("snapshot"));
+
+        InMemoryLedgerRepository repository = new InMemoryLedgerRepository(config);
+        LedgerKey[] keys = new LedgerKey[LEDGERS];
+
+        for (int i = 0; i < LEDGERS; i++) {
+            keys[i] = new LedgerKey(UUID.randomUUID(), EUR);
+            repository.save(keys[i]);
+        }
+
+        for (int i = 0; i < transactions; i++) {
+            repository.add(keys[i % LEDGERS],
+                    new Transaction(Transaction.Operation.DEPOSIT, 1 + i % 10_000, "Startup", "REF-" + i, EUR));
+        }
+
+        // Snapshot mode snapshots on close, the log is left with nothing after it
+        repository.close();
+    }
+
+    @Benchmark
+    public InMemoryLedgerRepository boot() {
+        booted = new InMemoryLedgerRepository(config);
+
+        return booted;
+    }
+
+    @TearDown(Level.Iteration)
+    public void shutdown() {
+        if (booted != null) {
+            booted.close();
+            booted = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void clean() throws IOException {
+        try (Stream<Path> files = Files.walk(data)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.acme.api.ledger.bench.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Latency histogram in the spirit of HdrHistogram, in microseconds: exact
+ * below 128, then 64 linear buckets per power of two, so any recorded value
+ * is reported within 1.6% of what it was. Covers up to two hours in a
+ * fixed 1.8k counters. Safe for concurrent recording.
+ */
+final class LatencyHistogram {
+    private static final int EXACT = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+
+    // Values up to 2^33 microseconds
+    private static final int MAGNITUDES = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(EXACT + (MAGNITUDES - SUB_BITS) * SUB_BUCKETS);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+
+        counts.incrementAndGet(Math.min(indexOf(value), counts.length() - 1));
+        max.accumulate(value);
+    }
+
+    long count() {
+        long total = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+
+        return total;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Smallest value such that the given fraction (0.99 for p99) of the
+     * recorded values are at or below it, as the upper end of its bucket.
+     */
+    long percentile(double fraction) {
+        long total = count();
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max());
+            }
+        }
+
+        return max();
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long highestOf(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long sub = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
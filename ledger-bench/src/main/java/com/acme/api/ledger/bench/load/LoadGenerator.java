@@ -0,0 +1,412 @@
+package com.acme.api.ledger.bench.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Drives the REST API of a locally started ledger with a mix of calls and
+ * reports throughput and latency percentiles per endpoint.
+ *
+ * Each client is a virtual thread sending one request at a time through the
+ * JDK HttpClient. Without a rate this is a closed loop: a slow response
+ * delays the next request, so latencies are what a client of that many
+ * threads sees. With a rate every client follows a fixed schedule and latency
+ * is measured from when the request was due, so stalls of the server are not
+ * hidden by clients that stopped sending (coordinated omission).
+ *
+ * Ledgers are picked with a Zipf distribution: skew 0 is uniform, around 1
+ * a handful of hot accounts get most of the traffic.
+ *
+ * java -cp ledger-bench/target/benchmarks.jar com.acme.api.ledger.bench.load.LoadGenerator \
+ * --url=http://localhost:28081/api/v1 --duration=30s --clients=64 --ledgers=1000 --skew=1.1 \
+ * --mix=create:1,deposit:40,withdrawal:20,balance:25,history:14
+ */
+public final class LoadGenerator {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    // Each client has its own admission budget on a server that trusts this host
+    private static final String CLIENT_HEADER = "X-Client-Id";
+    // 1,000,000.00 per ledger, so withdrawals are not all rejected
+    private static final long FUNDING_CENTS = 100_000_000;
+
+    enum Endpoint {
+        CREATE,
+        DEPOSIT,
+        WITHDRAWAL,
+        BALANCE,
+        HISTORY
+    }
+
+    record Options(
+            URI url,
+            Duration duration,
+            Duration warmup,
+            int clients,
+            int ledgers,
+            double skew,
+            int rate,
+            String currency,
+            Map<Endpoint, Integer> mix) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new TreeMap<>(Map.of(
+                    "url", "http://localhost:28081/api/v1",
+                    "duration", "30s",
+                    "warmup", "5s",
+                    "clients", "64",
+                    "ledgers", "1000",
+                    "skew", "0",
+                    "rate", "0",
+                    "currency", "EUR",
+                    "mix", "create:1,deposit:40,withdrawal:20,balance:25,history:14"));
+
+            for (String arg : args) {
+                String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+
+                if (pair.length != 2 || !values.containsKey(pair[0])) {
+                    throw new IllegalArgumentException("Unknown option %s, expected one of %s (--name=value)"
+                            .formatted(arg, values.keySet()));
+                }
+
+                values.put(pair[0], pair[1]);
+            }
+
+            Map<Endpoint, Integer> mix = new EnumMap<>(Endpoint.class);
+
+            for (String weight : values.get("mix").split(",")) {
+                String[] pair = weight.split(":", 2);
+
+                mix.put(Endpoint.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(pair[1].trim()));
+            }
+
+            return new Options(
+                    URI.create(values.get("url").replaceFirst("/$", "")),
+                    duration(values.get("duration")),
+                    duration(values.get("warmup")),
+                    Integer.parseInt(values.get("clients")),
+                    Integer.parseInt(values.get("ledgers")),
+                    Double.parseDouble(values.get("skew")),
+                    Integer.parseInt(values.get("rate")),
+                    values.get("currency"),
+                    mix);
+        }
+
+        // 30s, 2m, 500ms
+        private static Duration duration(String value) {
+            return value.endsWith("ms")
+                    ? Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)))
+                    : Duration.parse("PT" + value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Options options;
+
+    private final HttpClient client;
+
+    private final List<UUID> ledgers = new ArrayList<>();
+
+    private final Map<Endpoint, LatencyHistogram> latencies = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, Map<Integer, LongAdder>> statuses = new EnumMap<>(Endpoint.class);
+
+    private final int mixTotal;
+
+    private final LongAdder sent = new LongAdder();
+
+    private LoadGenerator(Options options) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.mixTotal = options.mix().values().stream().mapToInt(Integer::intValue).sum();
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new LatencyHistogram());
+            statuses.put(endpoint, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LoadGenerator generator = new LoadGenerator(options);
+
+        System.out.printf("Creating and funding %d ledgers at %s%n", options.ledgers(), options.url());
+        generator.setup();
+
+        System.out.printf("Running %d clients for %s (+%s warmup), skew %.2f, %s%n",
+                options.clients(), options.duration(), options.warmup(), options.skew(),
+                options.rate() > 0 ? options.rate() + " req/s" : "closed loop");
+        generator.run();
+
+        generator.report();
+    }
+
+    private void setup() throws InterruptedException, ExecutionException {
+        for (int i = 0; i < options.ledgers(); i++) {
+            ledgers.add(UUID.randomUUID());
+        }
+
+        List<Future<?>> pending = new ArrayList<>();
+
+        // As many connections as clients, each creating its share of ledgers
+        try (ExecutorService setup = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < options.clients(); c++) {
+                int first = c;
+
+                pending.add(setup.submit(() -> {
+                    for (int i = first; i < ledgers.size(); i += options.clients()) {
+                        UUID ledger = ledgers.get(i);
+
+                        expect(201, post(first, "/ledgers", createBody(ledger)));
+                        expect(201, post(first, transactionPath(ledger, "deposit"),
+                                transactionBody(FUNDING_CENTS, "Funding", "FUND-" + ledger)));
+                    }
+
+                    return null;
+                }));
+            }
+        }
+
+        for (Future<?> done : pending) {
+            done.get();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmup().toNanos();
+        long end = measureFrom + options.duration().toNanos();
+        Zipf picker = new Zipf(ledgers.size(), options.skew());
+
+        // Between two requests of the same client, when following a rate
+        long period = options.rate() > 0 ? TimeUnit.SECONDS.toNanos(options.clients()) / options.rate() : 0;
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < options.clients(); c++) {
+                int id = c;
+
+                clients.submit(() -> client(id, picker, start, measureFrom, end, period));
+            }
+
+            long lastSent = 0;
+
+            long lastTime = start;
+
+            while (System.nanoTime() < end) {
+                Thread.sleep(Math.max(1, Math.min(5_000, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+
+                long now = System.nanoTime();
+                long count = sent.sum();
+
+                System.out.printf("%6.1fs %10.0f req/s%n",
+                        (now - start) / 1e9, (count - lastSent) / ((now - lastTime) / 1e9));
+                lastSent = count;
+                lastTime = now;
+            }
+        }
+    }
+
+    private void client(int id, Zipf picker, long start, long measureFrom, long end, long period) {
+        SplittableRandom random = new SplittableRandom(id);
+        long sequence = 0;
+        long due = start + (period > 0 ? random.nextLong(period) : 0);
+
+        while (true) {
+            if (period > 0) {
+                long wait;
+
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                due = System.nanoTime();
+            }
+
+            if (due >= end) {
+                return;
+            }
+
+            Endpoint endpoint = pick(random);
+            UUID ledger = ledgers.get(picker.next(random));
+            int status;
+
+            try {
+                status = send(id, endpoint, ledger, random, "C%d-%d".formatted(id, sequence++)).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+
+            sent.increment();
+
+            if (due >= measureFrom) {
+                latencies.get(endpoint).record((System.nanoTime() - due) / 1_000);
+                statuses.get(endpoint).computeIfAbsent(status, _ -> new LongAdder()).increment();
+            }
+
+            due += period;
+        }
+    }
+
+    private HttpResponse<Void> send(int id, Endpoint endpoint, UUID ledger, SplittableRandom random,
+            String reference) throws IOException, InterruptedException {
+        long amount = 1 + random.nextLong(10_000);
+
+        return switch (endpoint) {
+            case CREATE -> post(id, "/ledgers", createBody(UUID.randomUUID()));
+            case DEPOSIT -> post(id, transactionPath(ledger, "deposit"),
+                    transactionBody(amount, "Load", reference));
+            case WITHDRAWAL -> post(id, transactionPath(ledger, "withdrawal"),
+                    transactionBody(amount, "Load", reference));
+            case BALANCE -> get(id, "/ledgers/%s/balance/%s".formatted(ledger, options.currency()));
+            case HISTORY -> get(id, "/ledgers/%s/transactions/%s?limit=100".formatted(ledger, options.currency()));
+        };
+    }
+
+    private Endpoint pick(SplittableRandom random) {
+        int roll = random.nextInt(mixTotal);
+
+        for (Map.Entry<Endpoint, Integer> weight : options.mix().entrySet()) {
+            roll -= weight.getValue();
+
+            if (roll < 0) {
+                return weight.getKey();
+            }
+        }
+
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private HttpResponse<Void> post(int id, String path, String body) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(options.url() + path))
+                .timeout(TIMEOUT)
+                .header(CLIENT_HEADER, "load-" + id)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private HttpResponse<Void> get(int id, String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(options.url() + path))
+                .timeout(TIMEOUT)
+                .header(CLIENT_HEADER, "load-" + id)
+                .GET()
+                .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private String transactionPath(UUID ledger, String operation) {
+        return "/ledgers/%s/transactions/%s/%s".formatted(ledger, options.currency(), operation);
+    }
+
+    private String createBody(UUID ledger) {
+        return "{\"id\":\"%s\",\"currency\":\"%s\"}".formatted(ledger, options.currency());
+    }
+
+    // Amount in cents
+    private static String transactionBody(long cents, String description, String reference) {
+        return "{\"value\":%d.%02d,\"description\":\"%s\",\"reference\":\"%s\"}"
+                .formatted(cents / 100, cents % 100, description, reference);
+    }
+
+    private static void expect(int status, HttpResponse<?> response) {
+        if (response.statusCode() != status) {
+            throw new IllegalStateException("%s %s returned %d".formatted(
+                    response.request().method(), response.request().uri(), response.statusCode()));
+        }
+    }
+
+    private void report() {
+        double seconds = options.duration().toNanos() / 1e9;
+        long total = 0;
+
+        System.out.printf("%n%-10s %9s %9s %9s %9s %9s %9s  %s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "statuses");
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            LatencyHistogram histogram = latencies.get(endpoint);
+            long count = histogram.count();
+
+            if (count == 0) {
+                continue;
+            }
+
+            total += count;
+
+            System.out.printf("%-10s %9d %9.0f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                    endpoint.name().toLowerCase(Locale.ROOT),
+                    count,
+                    count / seconds,
+                    histogram.percentile(0.50) / 1e3,
+                    histogram.percentile(0.99) / 1e3,
+                    histogram.percentile(0.999) / 1e3,
+                    histogram.max() / 1e3,
+                    new TreeMap<>(statuses.get(endpoint)).entrySet().stream()
+                            .map(entry -> (entry.getKey() < 0 ? "io-error" : entry.getKey()) + "=" + entry.getValue())
+                            .collect(Collectors.joining(" ")));
+        }
+
+        System.out.printf("%-10s %9d %9.0f%n", "total", total, total / seconds);
+    }
+
+    /**
+     * Zipf distribution over [0, n): rank k is picked with a weight of
+     * 1 / (k + 1)^skew, sampled with a binary search on the cumulative weights.
+     */
+    private static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double skew) {
+            cumulative = new double[n];
+
+            double sum = 0;
+
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, skew);
+                cumulative[k] = sum;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            double target = random.nextDouble() * cumulative[cumulative.length - 1];
+            int low = 0;
+            int high = cumulative.length - 1;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (cumulative[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+    }
+}
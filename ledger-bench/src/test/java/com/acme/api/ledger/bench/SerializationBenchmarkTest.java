@@ -0,0 +1,44 @@
+package com.acme.api.ledger.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+public class SerializationBenchmarkTest {
+    @Test
+    public void testBinaryIsSmallerThanJson() throws IOException {
+        SerializationBenchmark benchmark = benchmark(100);
+        int page = benchmark.page().length;
+        int ndjson = benchmark.ndjson().length;
+        int binary = benchmark.binary().length;
+
+        // About 5.3 KB against 13.5 KB for a page of 100
+        assertTrue(2 * binary < page, binary + " binary bytes against " + page + " for the JSON page");
+        assertTrue(2 * binary < ndjson, binary + " binary bytes against " + ndjson + " for NDJSON");
+        assertTrue(benchmark.batchBinary.length < benchmark.batchJson.length,
+                benchmark.batchBinary.length + " binary bytes against " + benchmark.batchJson.length
+                        + " for the JSON batch");
+    }
+
+    @Test
+    public void testEveryFormatHoldsThePage() throws IOException {
+        SerializationBenchmark benchmark = benchmark(500);
+
+        assertEquals(500, benchmark.toDtoList().size());
+        assertEquals(500, benchmark.readBatchJson().getTransactions().size());
+        assertEquals(500, benchmark.readBatchBinary().getTransactions().size());
+        assertEquals(500, new String(benchmark.ndjson()).lines().count());
+    }
+
+    private static SerializationBenchmark benchmark(int pageSize) {
+        SerializationBenchmark benchmark = new SerializationBenchmark();
+
+        benchmark.pageSize = pageSize;
+        benchmark.setup();
+
+        return benchmark;
+    }
+}
@@ -0,0 +1,95 @@
+package com.acme.api.ledger.bench.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testExactBelow128() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int micros = 0; micros < 128; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(128, histogram.count());
+        assertEquals(127, histogram.max());
+        assertEquals(63, histogram.percentile(0.5));
+        assertEquals(126, histogram.percentile(0.99));
+        assertEquals(127, histogram.percentile(1));
+    }
+
+    @Test
+    public void testBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 128 and 129 share the first bucket past the exact range, 1000 is in [1000, 1007]
+        histogram.record(128);
+        histogram.record(1_000);
+        histogram.record(2_000);
+
+        assertEquals(129, histogram.percentile(0.3));
+        assertEquals(1_007, histogram.percentile(0.6));
+
+        // Never above the largest value recorded
+        assertEquals(2_000, histogram.percentile(1));
+    }
+
+    @Test
+    public void testWithinBucketPrecision() {
+        SplittableRandom random = new SplittableRandom(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            long micros = random.nextLong(128, 1L << 33);
+            LatencyHistogram histogram = new LatencyHistogram();
+
+            histogram.record(micros);
+            histogram.record(micros + 1_000_000_000_000L);
+
+            long reported = histogram.percentile(0.5);
+
+            assertTrue(reported >= micros && reported <= micros + micros / 64, micros + " reported as " + reported);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 90 fast requests, 9 slow ones, one very slow
+        for (int i = 0; i < 90; i++) {
+            histogram.record(50);
+        }
+
+        for (int i = 0; i < 9; i++) {
+            histogram.record(5_000);
+        }
+
+        histogram.record(1_000_000);
+
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.percentile(0.5));
+        assertEquals(50, histogram.percentile(0.9));
+        assertEquals(5_055, histogram.percentile(0.99));
+        assertEquals(1_000_000, histogram.percentile(0.999));
+    }
+
+    @Test
+    public void testOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.percentile(0.99));
+
+        // Negative values count as 0, values past two hours land in the last bucket
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.count());
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals((1L << 33) - 1, histogram.percentile(1));
+    }
+}
@@ -3,6 +3,7 @@ package com.acme.api.ledger;
 import jakarta.ws.rs.ApplicationPath;
 import jakarta.ws.rs.core.Application;
 
-@ApplicationPath("/api/v1")
+@ApplicationPath(App.PATH)
 public class App extends Application {
+    public static final String PATH = "/api/v1";
 }
@@ -0,0 +1,472 @@
+package com.acme.api.ledger.cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acme.api.ledger.App;
+import com.acme.api.ledger.apispec.dto.ClusterMembership;
+import com.acme.api.ledger.apispec.dto.RebalanceResponse;
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Membership of this node in a cluster of ledger nodes, and where each ledger
+ * lives. Ledgers are sharded by consistent hashing of their id, see
+ * {@link HashRing}: every node knows the ring, so any node can take a request
+ * and forward it to the owner (see {@link ClusterRouter}).
+ *
+ * A membership change is a rebalance coordinated by one node: all nodes
+ * switch to the new ring while remembering the previous one, each hands off
+ * the ledgers it no longer owns (sealed, streamed to the owner, dropped), and
+ * once every node is done the previous ring is forgotten. Meanwhile a ledger
+ * is served wherever it is, see {@link #route(UUID, int)}.
+ */
+@ApplicationScoped
+public class Cluster {
+    /**
+     * Header counting the nodes a request went through, it bounds forwarding
+     * while nodes disagree about the ring.
+     */
+    public static final String HOPS = "X-Ledger-Hops";
+
+    static final int MAX_HOPS = 3;
+
+    private static final int HANDOFF_PARALLELISM = 8;
+
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+
+    private final String self;
+
+    private final int virtualNodes;
+
+    private final InMemoryLedgerRepository repository;
+
+    private final ObjectMapper json;
+
+    private final HttpClient http;
+
+    // Replaced as a whole, readers never see a ring without its previous one
+    private volatile Membership membership;
+
+    // Ledger ids being handed off from or to this node, they answer 503
+    private final Set<UUID> moving = ConcurrentHashMap.newKeySet();
+
+    // Ledger ids handed off since the last settle, the new owner has them
+    private final Set<UUID> handedOff = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The previous ring is kept until every node has handed off, ledgers not
+     * moved yet are still on its owners.
+     */
+    private record Membership(HashRing ring, HashRing previous) {
+    }
+
+    /**
+     * Where a request for a ledger goes.
+     */
+    public sealed interface Route {
+    }
+
+    public record Local() implements Route {
+    }
+
+    public record Forward(String node) implements Route {
+    }
+
+    public record Moving() implements Route {
+    }
+
+    // Forwarded too many times, nodes disagree about the ring
+    public record Lost() implements Route {
+    }
+
+    private static final Route LOCAL = new Local();
+
+    private static final Route MOVING = new Moving();
+
+    private static final Route LOST = new Lost();
+
+    /**
+     * Ledger ids handed off and ids left behind (still sealed, they answer
+     * 503 until a rebalance succeeds).
+     */
+    public record Rebalance(int moved, int failed) {
+    }
+
+    @Inject
+    public Cluster(LedgerConfig config, InMemoryLedgerRepository repository, ObjectMapper json) {
+        LedgerConfig.Cluster cluster = config.cluster();
+
+        this.enabled = cluster.enabled();
+        this.virtualNodes = cluster.virtualNodes();
+        this.repository = repository;
+        this.json = json;
+
+        if (!enabled) {
+            this.self = null;
+            this.http = null;
+
+            return;
+        }
+
+        this.self = normalize(cluster.self()
+                .orElseThrow(() -> new IllegalStateException("ledger.cluster.self is required in a cluster")));
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(cluster.connectTimeout())
+                .build();
+
+        List<String> nodes = cluster.nodes().map(Cluster::normalize).orElse(List.of(self));
+
+        membership = new Membership(new HashRing(nodes, virtualNodes), null);
+
+        if (!membership.ring().contains(self)) {
+            Log.warnf("Node %s is not one of the cluster nodes %s, it owns no ledger", self, nodes);
+        }
+
+        Log.infof("Cluster node %s of %s, %d ledgers held", self, membership.ring().nodes(), repository.ids().size());
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public List<String> nodes() {
+        return enabled ? membership.ring().nodes() : List.of();
+    }
+
+    /**
+     * Ledger ids held by this node.
+     */
+    public int ledgers() {
+        return repository.ids().size();
+    }
+
+    /**
+     * Where a request for the ledger id goes, given the number of nodes that
+     * forwarded it already. A ledger held here is served here, whoever owns
+     * it: during a rebalance it may not have moved yet. Otherwise the request
+     * goes to the owner, and the owner asks the previous owner when it does
+     * not have the ledger yet. The previous owner has the last word: unless
+     * it handed the ledger off, the ledger does not exist.
+     */
+    public Route route(UUID id, int hops) {
+        if (!enabled) {
+            return LOCAL;
+        }
+
+        if (moving.contains(id)) {
+            return MOVING;
+        }
+
+        if (repository.holds(id)) {
+            return LOCAL;
+        }
+
+        Membership current = membership;
+        String owner = current.ring().owner(id);
+        String before = current.previous() != null ? current.previous().owner(id) : owner;
+
+        if (owner.equals(self)) {
+            return before.equals(self) || hops >= MAX_HOPS ? LOCAL : new Forward(before);
+        }
+
+        if (before.equals(self) && !handedOff.contains(id)) {
+            return LOCAL;
+        }
+
+        return hops >= MAX_HOPS ? LOST : new Forward(owner);
+    }
+
+    /**
+     * Where a new ledger with the given id is created: on its owner, even
+     * while a rebalance is under way.
+     */
+    public Route create(UUID id, int hops) {
+        if (!enabled) {
+            return LOCAL;
+        }
+
+        if (moving.contains(id)) {
+            return MOVING;
+        }
+
+        String owner = membership.ring().owner(id);
+
+        if (owner.equals(self)) {
+            return LOCAL;
+        }
+
+        return hops >= MAX_HOPS ? LOST : new Forward(owner);
+    }
+
+    /**
+     * Whether the ledger id is neither here nor owned by this node.
+     */
+    public boolean remote(UUID id) {
+        return enabled && !repository.holds(id) && !membership.ring().owner(id).equals(self);
+    }
+
+    /**
+     * A random ledger id owned by this node, so a ledger created without an
+     * id stays here. Takes about as many tries as there are nodes.
+     */
+    public UUID newLedgerId() {
+        UUID id = UUID.randomUUID();
+
+        if (!enabled) {
+            return id;
+        }
+
+        HashRing ring = membership.ring();
+
+        if (!ring.contains(self)) {
+            return id;
+        }
+
+        while (!ring.owner(id).equals(self)) {
+            id = UUID.randomUUID();
+        }
+
+        return id;
+    }
+
+    /**
+     * Sends a request on to another node, adding one hop.
+     */
+    public HttpResponse<byte[]> forward(String node, String method, String path, byte[] body, String contentType,
+            int hops) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + App.PATH + path))
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", contentType)
+                .header(HOPS, String.valueOf(hops + 1))
+                .build();
+
+        return http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Moves the cluster to the given nodes, coordinated from here: the new
+     * ring goes to every node old and new, then every node hands off, then
+     * the previous ring is dropped everywhere. The last step is skipped when
+     * anything failed, so running it again picks up where it stopped.
+     */
+    public Rebalance rebalance(List<String> nodes) throws IOException, InterruptedException {
+        List<String> target = normalize(nodes);
+        Set<String> all = new LinkedHashSet<>(membership.ring().nodes());
+
+        all.addAll(target);
+
+        Log.infof("Rebalancing the cluster from %s to %s", membership.ring().nodes(), target);
+
+        byte[] ring = json.writeValueAsBytes(new ClusterMembership().nodes(target));
+
+        for (String node : all) {
+            call(node, "PUT", "/cluster/ring", ring);
+        }
+
+        int moved = 0;
+        int failed = 0;
+
+        for (String node : all) {
+            try {
+                RebalanceResponse handed = json.readValue(call(node, "POST", "/cluster/handoff", null),
+                        RebalanceResponse.class);
+
+                moved += handed.getMoved();
+                failed += handed.getFailed();
+            } catch (IOException e) {
+                Log.errorf("Handoff of node %s failed: %s", node, e);
+
+                failed++;
+            }
+        }
+
+        if (failed == 0) {
+            for (String node : all) {
+                call(node, "POST", "/cluster/settle", null);
+            }
+        }
+
+        Log.infof("Rebalance to %s: %d ledgers moved, %d failed", target, moved, failed);
+
+        return new Rebalance(moved, failed);
+    }
+
+    /**
+     * Switches to a new ring, keeping the one ledgers are still placed by
+     * until {@link #settle()}.
+     */
+    public void ring(List<String> nodes) {
+        Membership current = membership;
+        HashRing previous = current.previous() != null ? current.previous() : current.ring();
+
+        membership = new Membership(new HashRing(normalize(nodes), virtualNodes), previous);
+
+        Log.infof("Cluster ring of node %s is now %s", self, membership.ring().nodes());
+    }
+
+    public void settle() {
+        membership = new Membership(membership.ring(), null);
+        handedOff.clear();
+    }
+
+    /**
+     * Hands off every ledger held here that another node owns: sealed, so
+     * no write is lost, streamed to the owner and dropped once it has it.
+     * A ledger that fails stays sealed and keeps answering 503, the next
+     * handoff tries again. A sealed ledger owned here again is unsealed.
+     */
+    public Rebalance handoff() {
+        HashRing ring = membership.ring();
+        AtomicInteger moved = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(HANDOFF_PARALLELISM,
+                Thread.ofVirtual().name("ledger-handoff-", 0).factory())) {
+            for (UUID id : repository.ids()) {
+                String owner = ring.owner(id);
+
+                if (owner.equals(self)) {
+                    if (moving.remove(id)) {
+                        repository.unseal(id);
+                    }
+
+                    continue;
+                }
+
+                executor.execute(() -> {
+                    if (handoff(id, owner)) {
+                        moved.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+        }
+
+        Log.infof("Handoff of node %s: %d ledgers moved, %d failed", self, moved.get(), failed.get());
+
+        return new Rebalance(moved.get(), failed.get());
+    }
+
+    private boolean handoff(UUID id, String owner) {
+        moving.add(id);
+
+        // Closed whatever the owner answered: an export blocked on a full
+        // pipe then fails and its thread ends
+        try (PipedInputStream in = new PipedInputStream(PIPE_SIZE)) {
+            repository.seal(id);
+
+            PipedOutputStream out = new PipedOutputStream(in);
+
+            // The owner reads the export as it is written, closing the pipe
+            // early fails the import
+            Thread.ofVirtual().name("ledger-export-" + id).start(() -> {
+                try (out) {
+                    repository.export(id, out);
+                } catch (IOException | RuntimeException e) {
+                    Log.errorf("Export of ledger %s failed: %s", id, e);
+                }
+            });
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(owner + App.PATH + "/cluster/ledgers/" + id))
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> in))
+                    .header("Content-Type", "application/octet-stream")
+                    .build();
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+
+            if (response.statusCode() / 100 != 2) {
+                Log.errorf("Handoff of ledger %s to %s failed: %d %s", id, owner, response.statusCode(),
+                        response.body());
+
+                return false;
+            }
+
+            handedOff.add(id);
+            repository.drop(id);
+            moving.remove(id);
+
+            Log.debugf("Ledger %s handed off to %s", id, owner);
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.errorf("Handoff of ledger %s to %s failed: %s", id, owner, e);
+
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    /**
+     * Takes a ledger handed off by another node. It answers 503 until the
+     * whole ledger is here, and keeps doing so if the import fails half way,
+     * until the previous owner sends it again.
+     */
+    public long receive(UUID id, InputStream in) throws IOException {
+        moving.add(id);
+
+        long count = repository.importLedger(id, in);
+
+        moving.remove(id);
+
+        Log.debugf("Ledger %s received, %d transactions", id, count);
+
+        return count;
+    }
+
+    // Admin calls between nodes, a failure fails the whole step
+    private byte[] call(String node, String method, String path, byte[] body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + App.PATH + path))
+                .method(method, body != null
+                        ? HttpRequest.BodyPublishers.ofByteArray(body)
+                        : HttpRequest.BodyPublishers.noBody())
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("%s %s%s answered %d".formatted(method, node, path, response.statusCode()));
+        }
+
+        return response.body();
+    }
+
+    private static List<String> normalize(List<String> nodes) {
+        return nodes.stream().map(Cluster::normalize).distinct().toList();
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.strip();
+
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
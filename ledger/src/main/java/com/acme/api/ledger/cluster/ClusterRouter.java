@@ -0,0 +1,213 @@
+package com.acme.api.ledger.cluster;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.UUID;
+
+import com.acme.api.ledger.App;
+import com.acme.api.ledger.apispec.dto.BackoffResponse;
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.resource.AdmissionControl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.quarkus.logging.Log;
+import io.quarkus.vertx.http.runtime.RouteConstants;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Forwards requests for ledgers owned by other nodes, on the event loop and
+ * before they reach the resources: the body is streamed to the owner and its
+ * response streamed back (feeds included), nothing is buffered. Requests for
+ * ledgers served here go on to the resources untouched.
+ *
+ * Creating a ledger with a given id is forwarded by the resource, the id is
+ * in the body.
+ */
+@ApplicationScoped
+public class ClusterRouter {
+    private static final String LEDGER = App.PATH + "/ledgers/:id";
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host");
+
+    private final Cluster cluster;
+
+    private final ObjectMapper json;
+
+    private final AdmissionControl admission;
+
+    private final String clientHeader;
+
+    private final HttpClient client;
+
+    @Inject
+    public ClusterRouter(Cluster cluster, LedgerConfig config, AdmissionControl admission, ObjectMapper json,
+            Vertx vertx) {
+        this.cluster = cluster;
+        this.json = json;
+        this.admission = admission;
+        this.clientHeader = config.admission().clientHeader();
+        this.client = cluster.enabled()
+                ? vertx.createHttpClient(new HttpClientOptions()
+                        .setConnectTimeout((int) config.cluster().connectTimeout().toMillis()),
+                        new PoolOptions().setHttp1MaxSize(config.cluster().maxConnections()))
+                : null;
+    }
+
+    void routes(@Observes Router router) {
+        if (!cluster.enabled()) {
+            return;
+        }
+
+        router.route(LEDGER).order(RouteConstants.ROUTE_ORDER_BEFORE_DEFAULT).handler(this::route);
+        router.route(LEDGER + "/*").order(RouteConstants.ROUTE_ORDER_BEFORE_DEFAULT).handler(this::route);
+    }
+
+    private void route(RoutingContext ctx) {
+        UUID id;
+
+        try {
+            id = UUID.fromString(ctx.pathParam("id"));
+        } catch (IllegalArgumentException e) {
+            // The resource rejects it
+            ctx.next();
+
+            return;
+        }
+
+        int hops = hops(ctx.request());
+
+        switch (cluster.route(id, hops)) {
+            case Cluster.Local _ -> ctx.next();
+            case Cluster.Forward forward -> forward(ctx, forward.node(), hops);
+            case Cluster.Moving _ -> unavailable(ctx, "Ledger %s is moving to another node".formatted(id));
+            case Cluster.Lost _ -> unavailable(ctx, "Ledger %s not found after %d hops".formatted(id, hops));
+        }
+    }
+
+    private void forward(RoutingContext ctx, String node, int hops) {
+        HttpServerRequest request = ctx.request();
+        URI target = URI.create(node);
+        boolean https = "https".equals(target.getScheme());
+        String remote = remote(request);
+        RequestOptions options = new RequestOptions()
+                .setMethod(request.method())
+                .setHost(target.getHost())
+                .setPort(target.getPort() > 0 ? target.getPort() : https ? 443 : 80)
+                .setSsl(https)
+                .setURI(request.uri());
+
+        request.headers().forEach(header -> {
+            if (!HOP_BY_HOP.contains(header.getKey().toLowerCase())) {
+                options.addHeader(header.getKey(), header.getValue());
+            }
+        });
+
+        options.putHeader(Cluster.HOPS, String.valueOf(hops + 1));
+        options.addHeader(FORWARDED_FOR, remote);
+
+        // Admission control on the owner throttles the client, not this node,
+        // which it trusts to name it: never as the client named itself
+        options.putHeader(clientHeader, admission.client(request));
+
+        boolean body = request.headers().contains(HttpHeaders.CONTENT_LENGTH)
+                || request.headers().contains(HttpHeaders.TRANSFER_ENCODING);
+
+        // Until the owner is connected, the body is piped to it afterwards
+        if (body) {
+            request.pause();
+        }
+
+        Log.debugf("Forwarding %s %s to %s", request.method(), request.uri(), node);
+
+        client.request(options)
+                .compose(upstream -> body ? upstream.send(request) : upstream.send())
+                .onSuccess(upstream -> relay(ctx, upstream))
+                .onFailure(e -> {
+                    Log.warnf("Forwarding %s %s to %s failed: %s", request.method(), request.uri(), node, e);
+
+                    if (!ctx.response().headWritten()) {
+                        unavailable(ctx, "Node %s of the ledger cannot be reached".formatted(node));
+                    } else {
+                        ctx.response().reset();
+                    }
+                });
+    }
+
+    private void relay(RoutingContext ctx, HttpClientResponse upstream) {
+        HttpServerResponse response = ctx.response();
+
+        response.setStatusCode(upstream.statusCode());
+
+        upstream.headers().forEach(header -> {
+            if (!HOP_BY_HOP.contains(header.getKey().toLowerCase())) {
+                response.headers().add(header.getKey(), header.getValue());
+            }
+        });
+
+        if (!response.headers().contains(HttpHeaders.CONTENT_LENGTH)) {
+            response.setChunked(true);
+        }
+
+        // A client leaving a feed closes the stream from the owner too
+        response.closeHandler(_ -> {
+            if (!response.ended()) {
+                upstream.request().reset();
+            }
+        });
+
+        upstream.pipeTo(response);
+    }
+
+    private void unavailable(RoutingContext ctx, String message) {
+        BackoffResponse dto = new BackoffResponse();
+
+        dto.setMessage(message);
+        dto.setRetryAfter(1);
+
+        Log.warnf("Unavailable: %s", message);
+
+        try {
+            ctx.response()
+                    .setStatusCode(503)
+                    .putHeader(HttpHeaders.RETRY_AFTER, "1")
+                    .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                    .end(json.writeValueAsString(dto));
+        } catch (JsonProcessingException e) {
+            ctx.fail(e);
+        }
+    }
+
+    private static int hops(HttpServerRequest request) {
+        String hops = request.getHeader(Cluster.HOPS);
+
+        try {
+            return hops != null ? Integer.parseInt(hops) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String remote(HttpServerRequest request) {
+        SocketAddress remote = request.remoteAddress();
+
+        return remote != null ? remote.hostAddress() : "";
+    }
+}
@@ -0,0 +1,107 @@
+package com.acme.api.ledger.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Consistent hashing of ledger ids over the nodes of the cluster. Every node
+ * puts a number of points (virtual nodes) on a ring of 64-bit hashes, a ledger
+ * belongs to the first point at or after the hash of its id. Adding or
+ * removing a node only moves the ledgers between its points and the ones
+ * before them, about 1/N of them.
+ *
+ * The currency accounts of a ledger share its id, so they are always on the
+ * same node. Immutable, a membership change builds a new ring.
+ */
+final class HashRing {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<String> nodes;
+
+    // Sorted, owners[i] is the node of points[i]
+    private final long[] points;
+
+    private final String[] owners;
+
+    HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+
+        this.nodes = nodes.stream().distinct().sorted().toList();
+
+        List<Point> ring = new ArrayList<>(this.nodes.size() * virtualNodes);
+
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.add(new Point(hash(node + "#" + i), node));
+            }
+        }
+
+        ring.sort(Comparator.comparingLong(Point::hash));
+
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i).hash();
+            owners[i] = ring.get(i).node();
+        }
+    }
+
+    private record Point(long hash, String node) {
+    }
+
+    String owner(UUID id) {
+        int i = Arrays.binarySearch(points, hash(id));
+
+        if (i < 0) {
+            i = -i - 1;
+        }
+
+        // Past the last point the ring wraps around to the first
+        return owners[i == points.length ? 0 : i];
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    // Client-generated ids may be anything but random, the bits are mixed again
+    static long hash(UUID id) {
+        return mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+    }
+
+    // FNV-1a, mixed so that similar names do not land next to each other
+    static long hash(String value) {
+        long hash = FNV_OFFSET;
+
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return mix(hash);
+    }
+
+    // Finalizer of MurmurHash3
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+}
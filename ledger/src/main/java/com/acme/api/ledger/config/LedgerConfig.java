@@ -0,0 +1,411 @@
+package com.acme.api.ledger.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+/**
+ * Ledger settings from application.yml, everything lives under the
+ * {@code ledger} prefix.
+ */
+@ConfigMapping(prefix = "ledger")
+public interface LedgerConfig {
+
+    Store store();
+
+    Wal wal();
+
+    Snapshot snapshot();
+
+    Idempotency idempotency();
+
+    Sequencer sequencer();
+
+    Execution execution();
+
+    Tiering tiering();
+
+    Retention retention();
+
+    Feed feed();
+
+    Admission admission();
+
+    Cluster cluster();
+
+    Replication replication();
+
+    Limits limits();
+
+    interface Store {
+        /**
+         * Where the transactions of each ledger are kept: {@code heap} (a
+         * ConcurrentSkipListMap per ledger) or {@code off-heap} (append-only
+         * column segments outside the Java heap).
+         */
+        @WithDefault("heap")
+        Backend backend();
+    }
+
+    interface Wal {
+        /**
+         * Without the write-ahead log everything is lost on restart.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("data/wal")
+        Path directory();
+
+        /**
+         * {@code sync} fsyncs every commit, {@code batch} shares one fsync
+         * between concurrent commits (group commit) and {@code async} fsyncs
+         * every flush interval without making commits wait.
+         */
+        @WithDefault("batch")
+        Durability durability();
+
+        @WithDefault("64M")
+        MemorySize segmentSize();
+
+        /**
+         * How often the async durability level flushes.
+         */
+        @WithDefault("100ms")
+        Duration flushInterval();
+    }
+
+    interface Snapshot {
+        /**
+         * Periodic snapshots of the store, boot loads the latest one and only
+         * replays the write-ahead log written after it. Without the log,
+         * whatever happened after the last snapshot is lost on restart.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("data/snapshots")
+        Path directory();
+
+        /**
+         * Time between the end of a snapshot and the start of the next one.
+         * One more is taken on shutdown.
+         */
+        @WithDefault("10m")
+        Duration interval();
+
+        /**
+         * Files per snapshot, loaded in parallel on boot. 0 means one per core.
+         */
+        @WithDefault("0")
+        int shards();
+    }
+
+    interface Idempotency {
+        /**
+         * How long a reference (or Idempotency-Key) is remembered, a retry
+         * within it gets the original transaction id back.
+         */
+        @WithDefault("24h")
+        Duration ttl();
+
+        /**
+         * Bound on the keys remembered across all ledgers, the oldest go first.
+         */
+        @WithDefault("1000000")
+        int maxEntries();
+    }
+
+    interface Sequencer {
+        /**
+         * Writer threads, each ledger is always written by the same one. 0
+         * means one per core.
+         */
+        @WithDefault("0")
+        int shards();
+
+        /**
+         * Pending writes per writer (rounded up to a power of two), request
+         * threads spin while it is full.
+         */
+        @WithDefault("1024")
+        int ringSize();
+    }
+
+    interface Tiering {
+        /**
+         * Spills the oldest transactions of the heap backend to compressed
+         * segments on disk once the heap budget is exceeded. The off-heap
+         * backend ignores it.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Where cold segments go. They are rebuilt from the snapshot and the
+         * write-ahead log, the .seg files there are deleted on boot.
+         */
+        @WithDefault("data/cold")
+        Path directory();
+
+        /**
+         * Estimated heap the transactions may take before least recently used
+         * ledgers are demoted.
+         */
+        @WithDefault("512M")
+        MemorySize heapBudget();
+
+        /**
+         * Transactions younger than this always stay in memory.
+         */
+        @WithDefault("1d")
+        Duration keepRecent();
+
+        /**
+         * How often the heap budget is checked.
+         */
+        @WithDefault("1m")
+        Duration interval();
+    }
+
+    interface Retention {
+        /**
+         * Rolls the transactions of the heap backend older than keep into
+         * summary entries, one per operation and period, that preserve the
+         * balance. The off-heap backend ignores it.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Transactions younger than this keep their full detail.
+         */
+        @WithDefault("90d")
+        Duration keep();
+
+        /**
+         * What a pair of summary entries covers, a whole number of hours.
+         */
+        @WithDefault("1d")
+        Duration period();
+
+        /**
+         * How often the compactor looks for periods to roll up.
+         */
+        @WithDefault("1h")
+        Duration interval();
+
+        /**
+         * When set, the detail of every compacted period is written to a file
+         * there (cold segment format, fsynced) before it is dropped. The files
+         * end in .archive, so this may be the tiering directory.
+         */
+        Optional<Path> archive();
+    }
+
+    interface Feed {
+        /**
+         * Transactions buffered per subscriber between their commit and their
+         * delivery.
+         */
+        @WithDefault("1024")
+        int bufferSize();
+
+        /**
+         * What a full buffer does: {@code disconnect} ends the subscription,
+         * the client resumes from the last event it got, and {@code drop}
+         * skips transactions until there is room again. Subscribers may pick
+         * their own.
+         */
+        @WithDefault("disconnect")
+        Overflow overflow();
+
+        /**
+         * A comment is sent after this long without transactions, so closed
+         * connections are noticed.
+         */
+        @WithDefault("15s")
+        Duration heartbeat();
+    }
+
+    interface Admission {
+        /**
+         * Token buckets per ledger and per client. A request over either
+         * limit gets 429 with a Retry-After before doing any work.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Sustained requests per second to one ledger (account and currency).
+         */
+        @WithDefault("1000")
+        int ledgerRate();
+
+        /**
+         * Requests one ledger may take at once on top of the rate.
+         */
+        @WithDefault("2000")
+        int ledgerBurst();
+
+        @WithDefault("1000")
+        int clientRate();
+
+        @WithDefault("2000")
+        int clientBurst();
+
+        /**
+         * Header naming the client, only believed from a trusted proxy: the
+         * client is otherwise its remote address.
+         */
+        @WithDefault("X-Client-Id")
+        String clientHeader();
+
+        /**
+         * Addresses allowed to name the client in the header, a reverse
+         * proxy or the other nodes of the cluster, which forward it. None by
+         * default, anyone else could send a new name with every request.
+         */
+        Optional<List<String>> trustedProxies();
+
+        /**
+         * Most ledgers, and most clients, with a bucket at a time. Full
+         * buckets are dropped to make room, once none is, the keys left out
+         * share a few buckets until some fill up.
+         */
+        @WithDefault("65536")
+        int buckets();
+    }
+
+    interface Cluster {
+        /**
+         * Ledgers sharded over the nodes by consistent hashing of their id,
+         * each node forwards requests for ledgers it does not own.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Base URL other nodes reach this one at, e.g.
+         * {@code http://10.0.0.1:28081}. Required when enabled.
+         */
+        Optional<String> self();
+
+        /**
+         * Base URLs of every node, this one included. Only read on boot,
+         * changed at runtime with {@code PUT /cluster}.
+         */
+        Optional<List<String>> nodes();
+
+        /**
+         * Points per node on the hash ring, more spread ledgers more evenly.
+         */
+        @WithDefault("256")
+        int virtualNodes();
+
+        @WithDefault("2s")
+        Duration connectTimeout();
+
+        /**
+         * Connections kept open to each other node for forwarded requests.
+         */
+        @WithDefault("256")
+        int maxConnections();
+    }
+
+    interface Replication {
+        /**
+         * {@code none}, {@code leader} (ships its write-ahead log to
+         * followers, which needs the log enabled) or {@code follower} (a
+         * read-only copy of a leader, kept in memory only).
+         */
+        @WithDefault("none")
+        ReplicationRole role();
+
+        /**
+         * TCP port a leader takes followers on.
+         */
+        @WithDefault("28181")
+        int port();
+
+        /**
+         * host:port of the leader's replication port, e.g.
+         * {@code localhost:28181}. Required for a follower.
+         */
+        Optional<String> leader();
+
+        /**
+         * A leader with nothing to ship tells its followers so this often,
+         * a follower that hears nothing for three times as long reconnects.
+         */
+        @WithDefault("1s")
+        Duration heartbeat();
+
+        /**
+         * How long a read on a follower waits for the transaction given in
+         * X-Read-After before it gives up with 503.
+         */
+        @WithDefault("2s")
+        Duration readTimeout();
+    }
+
+    interface Limits {
+        /**
+         * Largest request body of every route but bulk imports.
+         */
+        @WithDefault("10M")
+        MemorySize maxBodySize();
+
+        /**
+         * Largest bulk import body, streamed rather than read whole. The
+         * server-wide quarkus.http.limits.max-body-size must be at least this.
+         */
+        @WithDefault("1G")
+        MemorySize importBodySize();
+    }
+
+    interface Execution {
+        /**
+         * Where balance, history, deposit and withdrawal requests run:
+         * {@code worker} (the blocking worker pool), {@code event-loop} (on
+         * the I/O thread, commits complete asynchronously) or
+         * {@code virtual-threads} (one virtual thread per request, for
+         * backends that block).
+         */
+        @WithDefault("worker")
+        ExecutionMode mode();
+    }
+
+    enum ExecutionMode {
+        WORKER,
+        EVENT_LOOP,
+        VIRTUAL_THREADS
+    }
+
+    enum ReplicationRole {
+        NONE,
+        LEADER,
+        FOLLOWER
+    }
+
+    enum Overflow {
+        DISCONNECT,
+        DROP
+    }
+
+    enum Durability {
+        SYNC,
+        BATCH,
+        ASYNC
+    }
+
+    enum Backend {
+        HEAP,
+        OFF_HEAP
+    }
+}
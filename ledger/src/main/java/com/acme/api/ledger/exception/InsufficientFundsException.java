@@ -0,0 +1,8 @@
+package com.acme.api.ledger.exception;
+
+public class InsufficientFundsException extends RuntimeException {
+
+    public InsufficientFundsException(String message) {
+        super(message);
+    }
+}
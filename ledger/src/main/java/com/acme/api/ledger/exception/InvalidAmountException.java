@@ -0,0 +1,8 @@
+package com.acme.api.ledger.exception;
+
+public class InvalidAmountException extends RuntimeException {
+
+    public InvalidAmountException(String message) {
+        super(message);
+    }
+}
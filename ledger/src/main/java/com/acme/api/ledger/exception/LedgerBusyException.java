@@ -0,0 +1,8 @@
+package com.acme.api.ledger.exception;
+
+public class LedgerBusyException extends RuntimeException {
+
+    public LedgerBusyException(String message) {
+        super(message);
+    }
+}
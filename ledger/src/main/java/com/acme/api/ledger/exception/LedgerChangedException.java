@@ -0,0 +1,8 @@
+package com.acme.api.ledger.exception;
+
+public class LedgerChangedException extends RuntimeException {
+
+    public LedgerChangedException(String message) {
+        super(message);
+    }
+}
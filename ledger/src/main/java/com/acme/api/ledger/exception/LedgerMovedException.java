@@ -0,0 +1,8 @@
+package com.acme.api.ledger.exception;
+
+public class LedgerMovedException extends RuntimeException {
+
+    public LedgerMovedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,59 @@
+package com.acme.api.ledger.mapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.acme.api.ledger.apispec.dto.BatchTransactionRequest;
+import com.acme.api.ledger.apispec.dto.ValidationResponse;
+
+import io.quarkus.logging.Log;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Reads batch requests sent as {@value BinaryCodec#MEDIA_TYPE}, the rest of
+ * the endpoint does not know the difference.
+ */
+@Provider
+@Consumes(BinaryCodec.MEDIA_TYPE)
+public class BinaryBatchReader implements MessageBodyReader<BatchTransactionRequest> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == BatchTransactionRequest.class;
+    }
+
+    @Override
+    public BatchTransactionRequest readFrom(Class<BatchTransactionRequest> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
+            InputStream entityStream) throws IOException {
+        // Bounded by the request body limit, decoding from memory is what makes it cheap
+        ByteBuffer body = ByteBuffer.wrap(entityStream.readAllBytes());
+
+        try {
+            return BinaryCodec.readBatch(body);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage("Invalid binary batch: %s".formatted(e instanceof BufferUnderflowException
+                    ? "truncated"
+                    : e.getMessage()));
+
+            Log.warnf("Validation error: %s", dto.getMessage());
+
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(dto)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.acme.api.ledger.mapper;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.acme.api.ledger.apispec.dto.BatchTransactionItem;
+import com.acme.api.ledger.apispec.dto.BatchTransactionRequest;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Compact alternative to JSON for history streams and batch requests, served
+ * and accepted as {@value #MEDIA_TYPE}. Big-endian, with the same transaction
+ * layout as the write-ahead log:
+ *
+ * history: version (byte) | scale (byte), then per transaction
+ * id (2 longs) | type (byte) | amount (long) | description and reference
+ * (short length plus UTF-8 bytes), until the end of the stream
+ *
+ * batch: version (byte) | atomic (byte) | scale (byte) | count (int), then per
+ * transaction the same without the id
+ *
+ * Type is 0 for a deposit and 1 for a withdrawal. Amounts are scaled longs,
+ * the value times ten to the scale: a history uses the minor units of its
+ * currency, a batch says which scale it uses and is validated like JSON.
+ *
+ * Everything goes through a heap ByteBuffer, the stream only sees whole
+ * buffers: DataOutputStream would cost a call into the stream per field.
+ */
+public final class BinaryCodec {
+    public static final String MEDIA_TYPE = "application/x-ledger-binary";
+
+    public static final MediaType MEDIA_TYPE_TYPE = MediaType.valueOf(MEDIA_TYPE);
+
+    static final byte VERSION = 1;
+
+    // Same bound as the JSON schema
+    static final int MAX_BATCH = 10_000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // Id, type, amount and both string lengths
+    private static final int FIXED_BYTES = 16 + 1 + 8 + 2 + 2;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Writes a history to the stream, buffering whole transactions. Nothing
+     * reaches the stream before a buffer fills up or {@link #flush()}.
+     */
+    public static final class HistoryWriter implements Flushable {
+        private final OutputStream out;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        public HistoryWriter(OutputStream out, Currency currency) {
+            this.out = out;
+
+            buffer.put(VERSION);
+            buffer.put((byte) currency.scale());
+        }
+
+        public void write(UUID id, Transaction transaction) throws IOException {
+            byte[] description = transaction.description().getBytes(StandardCharsets.UTF_8);
+            byte[] reference = transaction.reference().getBytes(StandardCharsets.UTF_8);
+            int size = FIXED_BYTES + description.length + reference.length;
+
+            if (buffer.remaining() < size) {
+                drain();
+            }
+
+            // Only strings of more than 16k bytes, far over the API limits
+            ByteBuffer target = buffer.remaining() >= size ? buffer : ByteBuffer.allocate(size);
+
+            target.putLong(id.getMostSignificantBits());
+            target.putLong(id.getLeastSignificantBits());
+            target.put((byte) transaction.operation().ordinal());
+            target.putLong(transaction.amount());
+            putString(target, description);
+            putString(target, reference);
+
+            if (target != buffer) {
+                out.write(target.array(), 0, target.position());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Batch request in the binary layout, the amounts scaled by the given
+     * scale. Meant for clients and benchmarks, the API only reads batches.
+     */
+    public static byte[] writeBatch(BatchTransactionRequest request, int scale) {
+        List<BatchTransactionItem> items = request.getTransactions();
+        List<byte[]> strings = new ArrayList<>(items.size() * 2);
+        int size = 1 + 1 + 1 + 4;
+
+        for (BatchTransactionItem item : items) {
+            byte[] description = item.getDescription().getBytes(StandardCharsets.UTF_8);
+            byte[] reference = item.getReference().getBytes(StandardCharsets.UTF_8);
+
+            strings.add(description);
+            strings.add(reference);
+            size += 1 + 8 + 2 + description.length + 2 + reference.length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+
+        out.put(VERSION);
+        out.put((byte) (Boolean.TRUE.equals(request.getAtomic()) ? 1 : 0));
+        out.put((byte) scale);
+        out.putInt(items.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            BatchTransactionItem item = items.get(i);
+
+            out.put((byte) (item.getType() == BatchTransactionItem.TypeEnum.DEPOSIT ? 0 : 1));
+            out.putLong(item.getValue().setScale(scale).unscaledValue().longValueExact());
+            putString(out, strings.get(i * 2));
+            putString(out, strings.get(i * 2 + 1));
+        }
+
+        return out.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException   if the version, a type or the count
+     *                                    is not valid
+     * @throws java.nio.BufferUnderflowException if the input ends early
+     */
+    public static BatchTransactionRequest readBatch(ByteBuffer in) {
+        byte version = in.get();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary format version %d".formatted(version));
+        }
+
+        boolean atomic = in.get() != 0;
+        int scale = in.get();
+        int count = in.getInt();
+
+        if (count < 0 || count > MAX_BATCH) {
+            throw new IllegalArgumentException("Batch must have between 0 and %d transactions".formatted(MAX_BATCH));
+        }
+
+        List<BatchTransactionItem> items = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            items.add(new BatchTransactionItem()
+                    .type(switch (in.get()) {
+                        case 0 -> BatchTransactionItem.TypeEnum.DEPOSIT;
+                        case 1 -> BatchTransactionItem.TypeEnum.WITHDRAWAL;
+                        default -> throw new IllegalArgumentException("Unknown transaction type");
+                    })
+                    .value(BigDecimal.valueOf(in.getLong(), scale))
+                    .description(getString(in))
+                    .reference(getString(in)));
+        }
+
+        return new BatchTransactionRequest().atomic(atomic).transactions(items);
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        ByteBuffer bytes = in.slice(in.position(), length);
+
+        in.position(in.position() + length);
+
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+}
@@ -0,0 +1,491 @@
+package com.acme.api.ledger.mapper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.acme.api.ledger.apispec.dto.TransactionRow;
+import com.acme.api.ledger.exception.InvalidAmountException;
+import com.acme.api.ledger.exception.InvalidImportException;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Rows of bulk imports and exports, one {@link TransactionRow} per NDJSON
+ * line or CSV record (RFC 4180, a quoted field may span lines).
+ *
+ * Reading, the calling thread only splits the body into chunks of CHUNK_ROWS
+ * records. Parsing, converting and validating a chunk runs on the common
+ * fork-join pool, and the rows are handed back in body order. At most two
+ * chunks per core are in flight, so memory does not grow with the body.
+ */
+@ApplicationScoped
+public class RowCodec {
+    public static final String CSV = "text/csv";
+
+    public static final MediaType CSV_TYPE = MediaType.valueOf(CSV);
+
+    static final int CHUNK_ROWS = 8192;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // CSV columns, in the order they are exported
+    private static final String[] COLUMNS = { "id", "type", "value", "description", "reference", "timestamp" };
+    private static final int ID = 0;
+    private static final int TYPE = 1;
+    private static final int VALUE = 2;
+    private static final int DESCRIPTION = 3;
+    private static final int REFERENCE = 4;
+    private static final int TIMESTAMP = 5;
+
+    private final ObjectMapper json;
+
+    private final ObjectReader rows;
+
+    private final TransactionMapper mapper;
+
+    private final Validator validator;
+
+    public enum Format {
+        NDJSON,
+        CSV
+    }
+
+    /**
+     * A record of the body: its transaction, or why it cannot be one. Id and
+     * timestamp are null when the row has none.
+     */
+    public record Row(long line, UUID id, Instant timestamp, Transaction transaction, String error) {
+    }
+
+    // Records of a chunk and the line each starts on
+    private record Chunk(List<String> records, long[] lines) {
+    }
+
+    @Inject
+    public RowCodec(ObjectMapper json, TransactionMapper mapper, Validator validator) {
+        this.json = json;
+        this.rows = json.readerFor(TransactionRow.class);
+        this.mapper = mapper;
+        this.validator = validator;
+    }
+
+    /**
+     * Reads the body to the end, handing every row to the consumer in body
+     * order on the calling thread. Blank lines are skipped. Returns the number
+     * of rows.
+     *
+     * @throws InvalidImportException if a CSV body does not start with a
+     *                                header naming the required columns
+     */
+    public long read(InputStream in, Format format, Currency currency, Consumer<Row> consumer) throws IOException {
+        Reader decoded = new InputStreamReader(in, StandardCharsets.UTF_8);
+        BufferedReader lines = format == Format.NDJSON ? new BufferedReader(decoded, BUFFER_SIZE) : null;
+        CsvRecords csv = format == Format.CSV ? new CsvRecords(decoded) : null;
+        int[] columns = csv != null ? header(csv.next()) : null;
+        int maxInFlight = 2 * ForkJoinPool.getCommonPoolParallelism();
+        ArrayDeque<CompletableFuture<List<Row>>> inFlight = new ArrayDeque<>();
+        long line = columns != null ? 1 : 0;
+        long count = 0;
+
+        List<String> records = new ArrayList<>(CHUNK_ROWS);
+        long[] starts = new long[CHUNK_ROWS];
+        String record;
+
+        while ((record = csv != null ? csv.next() : lines.readLine()) != null) {
+            long start = ++line;
+
+            // A quoted field may span lines
+            if (csv != null) {
+                line += csv.breaks();
+            }
+
+            if (record.isBlank()) {
+                continue;
+            }
+
+            starts[records.size()] = start;
+            records.add(record);
+
+            if (records.size() == CHUNK_ROWS) {
+                inFlight.add(parse(new Chunk(records, starts), columns, currency));
+                records = new ArrayList<>(CHUNK_ROWS);
+                starts = new long[CHUNK_ROWS];
+
+                if (inFlight.size() >= maxInFlight) {
+                    count += drain(inFlight.poll(), consumer);
+                }
+            }
+        }
+
+        if (!records.isEmpty()) {
+            inFlight.add(parse(new Chunk(records, starts), columns, currency));
+        }
+
+        while (!inFlight.isEmpty()) {
+            count += drain(inFlight.poll(), consumer);
+        }
+
+        return count;
+    }
+
+    private CompletableFuture<List<Row>> parse(Chunk chunk, int[] columns, Currency currency) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Row> parsed = new ArrayList<>(chunk.records().size());
+
+            for (int i = 0; i < chunk.records().size(); i++) {
+                long line = chunk.lines()[i];
+                String record = chunk.records().get(i);
+
+                parsed.add(columns != null ? csvRow(line, record, columns, currency) : jsonRow(line, record, currency));
+            }
+
+            return parsed;
+        }, ForkJoinPool.commonPool());
+    }
+
+    private static long drain(CompletableFuture<List<Row>> chunk, Consumer<Row> consumer) {
+        List<Row> parsed = chunk.join();
+
+        parsed.forEach(consumer);
+
+        return parsed.size();
+    }
+
+    private Row jsonRow(long line, String record, Currency currency) {
+        try {
+            return row(line, rows.readValue(record), currency);
+        } catch (JsonProcessingException e) {
+            return new Row(line, null, null, null, e.getOriginalMessage());
+        }
+    }
+
+    private Row csvRow(long line, String record, int[] columns, Currency currency) {
+        TransactionRow row;
+
+        try {
+            String[] cells = cells(record);
+            String id = cell(cells, columns[ID]);
+            String type = cell(cells, columns[TYPE]);
+            String value = cell(cells, columns[VALUE]);
+            String timestamp = cell(cells, columns[TIMESTAMP]);
+
+            row = new TransactionRow()
+                    .id(id != null ? UUID.fromString(id) : null)
+                    .type(type != null ? TransactionRow.TypeEnum.fromValue(type) : null)
+                    .value(value != null ? new BigDecimal(value) : null)
+                    .description(cell(cells, columns[DESCRIPTION]))
+                    .reference(cell(cells, columns[REFERENCE]))
+                    .timestamp(timestamp != null ? Date.from(OffsetDateTime.parse(timestamp).toInstant()) : null);
+        } catch (NumberFormatException e) {
+            return new Row(line, null, null, null, "Value must be a decimal number");
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return new Row(line, null, null, null, e.getMessage());
+        }
+
+        return row(line, row, currency);
+    }
+
+    // Converted and validated like a transaction of a batch
+    private Row row(long line, TransactionRow row, Currency currency) {
+        if (row.getType() == null || row.getValue() == null) {
+            return new Row(line, null, null, null, "Type and value are required");
+        }
+
+        Transaction transaction;
+
+        try {
+            transaction = mapper.toModel(row, currency);
+        } catch (InvalidAmountException e) {
+            return new Row(line, null, null, null, e.getMessage());
+        }
+
+        Set<ConstraintViolation<Transaction>> violations = validator.validate(transaction);
+
+        if (!violations.isEmpty()) {
+            return new Row(line, null, null, null, violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.joining(", ")));
+        }
+
+        Instant timestamp = row.getTimestamp() != null ? row.getTimestamp().toInstant() : null;
+
+        return new Row(line, row.getId(), timestamp, transaction, null);
+    }
+
+    // Index of every known column in the header, -1 when it is not there
+    private static int[] header(String header) {
+        if (header == null) {
+            throw new InvalidImportException("CSV body must start with a header row");
+        }
+
+        // Spreadsheets like to start with a byte order mark
+        String[] names = cells(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        int[] columns = new int[COLUMNS.length];
+
+        Arrays.fill(columns, -1);
+
+        for (int i = 0; i < names.length; i++) {
+            int column = Arrays.asList(COLUMNS).indexOf(names[i].trim().toLowerCase(Locale.ROOT));
+
+            if (column >= 0) {
+                columns[column] = i;
+            }
+        }
+
+        if (columns[TYPE] < 0 || columns[VALUE] < 0 || columns[DESCRIPTION] < 0 || columns[REFERENCE] < 0) {
+            throw new InvalidImportException(
+                    "CSV header must name the type, value, description and reference columns, got: " + header);
+        }
+
+        return columns;
+    }
+
+    // Empty cells and missing columns are null
+    private static String cell(String[] cells, int column) {
+        return column >= 0 && column < cells.length && !cells[column].isEmpty() ? cells[column] : null;
+    }
+
+    /**
+     * Cells of a CSV record: separated by commas, quoted ones may hold
+     * commas, line breaks and doubled quotes.
+     */
+    static String[] cells(String record) {
+        List<String> cells = new ArrayList<>(COLUMNS.length);
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+
+            if (quoted) {
+                if (c != '"') {
+                    cell.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Quoted cell is not closed");
+        }
+
+        cells.add(cell.toString());
+
+        return cells.toArray(String[]::new);
+    }
+
+    /**
+     * Splits a CSV body into records. A record ends at a line break (CRLF, LF
+     * or CR) outside quotes, which is dropped; line breaks inside quotes are
+     * kept as they are, so a cell holding CRLF reads back as CRLF.
+     */
+    static final class CsvRecords {
+        private final Reader in;
+
+        private final char[] buffer = new char[BUFFER_SIZE];
+
+        private int position;
+
+        private int limit;
+
+        private int breaks;
+
+        CsvRecords(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * The next record, null at the end of the body. A quote left open
+         * runs to the end of the body.
+         */
+        String next() throws IOException {
+            if (!fill()) {
+                return null;
+            }
+
+            StringBuilder record = new StringBuilder();
+            boolean quoted = false;
+
+            breaks = 0;
+
+            while (fill()) {
+                char c = buffer[position++];
+
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == '\r' || c == '\n') {
+                    // CRLF is one break
+                    boolean crlf = c == '\r' && fill() && buffer[position] == '\n';
+
+                    if (!quoted) {
+                        if (crlf) {
+                            position++;
+                        }
+
+                        return record.toString();
+                    }
+
+                    if (crlf) {
+                        record.append(c);
+                        c = buffer[position++];
+                    }
+
+                    breaks++;
+                }
+
+                record.append(c);
+            }
+
+            return record.toString();
+        }
+
+        // Line breaks inside quotes in the last record
+        int breaks() {
+            return breaks;
+        }
+
+        // False at the end of the body
+        private boolean fill() throws IOException {
+            while (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+
+                if (limit < 0) {
+                    limit = 0;
+
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Writer of the rows of an export, starting with the header row for CSV.
+     */
+    public RowWriter writer(OutputStream out, Format format) throws IOException {
+        return new RowWriter(out, format);
+    }
+
+    /**
+     * Straight from the model, buffered: nothing reaches the stream before a
+     * buffer fills up or {@link #flush()}. The timestamp of a row is the one
+     * in its id.
+     */
+    public final class RowWriter implements Flushable {
+        private final JsonGenerator ndjson;
+
+        private final Writer csv;
+
+        private RowWriter(OutputStream out, Format format) throws IOException {
+            if (format == Format.NDJSON) {
+                ndjson = json.getFactory().createGenerator(new BufferedOutputStream(out, BUFFER_SIZE));
+                ndjson.setRootValueSeparator(null);
+                csv = null;
+            } else {
+                ndjson = null;
+                csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+                csv.write(String.join(",", COLUMNS));
+                csv.write("\r\n");
+            }
+        }
+
+        public void write(UUID id, Transaction transaction) throws IOException {
+            BigDecimal value = mapper.toDecimal(transaction.amount(), transaction.currency());
+            String timestamp = Instant.ofEpochMilli(id.getMostSignificantBits() >>> 16).toString();
+
+            if (ndjson != null) {
+                ndjson.writeStartObject();
+                ndjson.writeStringField("id", id.toString());
+                ndjson.writeStringField("type", transaction.operation().name());
+                ndjson.writeNumberField("value", value);
+                ndjson.writeStringField("description", transaction.description());
+                ndjson.writeStringField("reference", transaction.reference());
+                ndjson.writeStringField("timestamp", timestamp);
+                ndjson.writeEndObject();
+                ndjson.writeRaw('\n');
+
+                return;
+            }
+
+            csv.write(id.toString());
+            csv.write(',');
+            csv.write(transaction.operation().name());
+            csv.write(',');
+            csv.write(value.toPlainString());
+            csv.write(',');
+            csv.write(quoted(transaction.description()));
+            csv.write(',');
+            csv.write(quoted(transaction.reference()));
+            csv.write(',');
+            csv.write(timestamp);
+            csv.write("\r\n");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (ndjson != null) {
+                ndjson.flush();
+            } else {
+                csv.flush();
+            }
+        }
+
+        private static String quoted(String cell) {
+            if (cell.indexOf(',') < 0 && cell.indexOf('"') < 0 && cell.indexOf('\n') < 0 && cell.indexOf('\r') < 0) {
+                return cell;
+            }
+
+            return '"' + cell.replace("\"", "\"\"") + '"';
+        }
+    }
+}
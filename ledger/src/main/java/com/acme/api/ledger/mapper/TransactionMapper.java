@@ -1,23 +1,33 @@
 package com.acme.api.ledger.mapper;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import com.acme.api.ledger.apispec.dto.BatchTransactionItem;
 import com.acme.api.ledger.apispec.dto.Transaction;
+import com.acme.api.ledger.apispec.dto.TransactionRow;
+import com.acme.api.ledger.exception.InvalidAmountException;
+import com.acme.api.ledger.model.Currency;
 
 import jakarta.enterprise.context.ApplicationScoped;
 
 // Mapper to convert internal Transaction model to API Transaction DTO,
-// basically zips the UUID with the Transaction
+// basically zips the UUID with the Transaction. It is also the only place
+// where amounts move between BigDecimal (API) and minor units (storage).
 
 @ApplicationScoped
 public class TransactionMapper {
+    // Same bound the API always had: 15 integer digits
+    private static final int MAX_INTEGER_DIGITS = 15;
+
     public Transaction toDto(UUID id, com.acme.api.ledger.model.Transaction transaction) {
         return new Transaction()
                 .id(id)
                 .type(Transaction.TypeEnum.fromValue(transaction.operation().toString()))
-                .value(transaction.amount())
+                .value(toDecimal(transaction.amount(), transaction.currency()))
                 .description(transaction.description())
                 .reference(transaction.reference());
     }
@@ -27,4 +37,78 @@ public class TransactionMapper {
                 .map(entry -> toDto(entry.getKey(), entry.getValue()))
                 .toList();
     }
+
+    /**
+     * Converts a batch item to the internal model. Batches skip the service
+     * method validation, so the amount is also checked to be positive here.
+     */
+    public com.acme.api.ledger.model.Transaction toModel(BatchTransactionItem item, Currency currency) {
+        return toModel(item.getType().value(), item.getValue(), item.getDescription(), item.getReference(), currency);
+    }
+
+    /**
+     * Same for a row of a bulk import, its id and timestamp are left to the
+     * caller.
+     */
+    public com.acme.api.ledger.model.Transaction toModel(TransactionRow row, Currency currency) {
+        return toModel(row.getType().value(), row.getValue(), row.getDescription(), row.getReference(), currency);
+    }
+
+    private com.acme.api.ledger.model.Transaction toModel(String type, BigDecimal value, String description,
+            String reference, Currency currency) {
+        long amount = toMinorUnits(value, currency);
+
+        if (amount <= 0) {
+            throw new InvalidAmountException("Amount must be greater than zero");
+        }
+
+        return new com.acme.api.ledger.model.Transaction(
+                com.acme.api.ledger.model.Transaction.Operation.valueOf(type),
+                amount,
+                description,
+                reference,
+                currency);
+    }
+
+    /**
+     * Converts an API amount to minor units of the currency, rejecting values
+     * that do not fit the currency scale instead of rounding them.
+     */
+    public long toMinorUnits(BigDecimal value, Currency currency) {
+        BigDecimal normalized = value.stripTrailingZeros();
+
+        if (normalized.scale() > currency.scale()) {
+            throw new InvalidAmountException(
+                    "Amount must have at most %d decimal places for %s".formatted(currency.scale(), currency));
+        }
+
+        if (normalized.precision() - normalized.scale() > MAX_INTEGER_DIGITS) {
+            throw new InvalidAmountException(
+                    "Amount must have at most %d integer digits".formatted(MAX_INTEGER_DIGITS));
+        }
+
+        return normalized.movePointRight(currency.scale()).longValueExact();
+    }
+
+    /**
+     * Converts minor units of one currency to minor units of another at the
+     * given rate, rounding half even to the scale of the target currency.
+     */
+    public long convert(long minorUnits, Currency from, BigDecimal rate, Currency to) {
+        long converted = toDecimal(minorUnits, from)
+                .multiply(rate)
+                .setScale(to.scale(), RoundingMode.HALF_EVEN)
+                .unscaledValue()
+                .longValueExact();
+
+        if (converted <= 0) {
+            throw new InvalidAmountException("Converted amount must be greater than zero in %s".formatted(to));
+        }
+
+        return converted;
+    }
+
+    public BigDecimal toDecimal(long minorUnits, Currency currency) {
+        return BigDecimal.valueOf(minorUnits, currency.scale());
+    }
 }
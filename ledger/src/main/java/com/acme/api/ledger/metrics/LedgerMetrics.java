@@ -0,0 +1,240 @@
+package com.acme.api.ledger.metrics;
+
+import java.time.Duration;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Ledger meters, exposed on /q/metrics next to the HTTP server timers.
+ *
+ * Every counter is registered up front and looked up by ordinal, so recording
+ * on the request path is one increment: no tag arrays, no registry lookup.
+ * Store gauges are read on scrape from a snapshot of the store statistics
+ * that is at most a second old.
+ */
+@ApplicationScoped
+public class LedgerMetrics {
+    private static final long STATS_TTL_NANOS = Duration.ofSeconds(1).toNanos();
+
+    // [operation][status]
+    private final Counter[][] commits;
+
+    private final Counter[] batched;
+
+    private final Counter[] transfers;
+
+    private final Counter currentBalances;
+
+    private final Counter pastBalances;
+
+    private final DistributionSummary historySizes;
+
+    private final Counter importedRows;
+
+    private final Counter rejectedRows;
+
+    private final Counter throttledClients;
+
+    private final Counter throttledLedgers;
+
+    private final Counter refusedWrites;
+
+    private final Counter laggingReads;
+
+    private final InMemoryLedgerRepository store;
+
+    private volatile InMemoryLedgerRepository.Stats stats;
+
+    private volatile long statsAt;
+
+    @Inject
+    public LedgerMetrics(MeterRegistry registry, InMemoryLedgerRepository store, LedgerConfig config) {
+        this.store = store;
+
+        Transaction.Operation[] operations = Transaction.Operation.values();
+        CommitResult.Status[] statuses = CommitResult.Status.values();
+
+        commits = new Counter[operations.length][statuses.length];
+        batched = new Counter[statuses.length];
+        transfers = new Counter[statuses.length];
+
+        for (CommitResult.Status status : statuses) {
+            String tag = status.name().toLowerCase();
+
+            for (Transaction.Operation operation : operations) {
+                commits[operation.ordinal()][status.ordinal()] = Counter.builder("ledger.commits")
+                        .description("Single transaction commits by outcome")
+                        .tags("operation", operation.name().toLowerCase(), "status", tag)
+                        .register(registry);
+            }
+
+            batched[status.ordinal()] = Counter.builder("ledger.batch.transactions")
+                    .description("Transactions of batches by outcome")
+                    .tag("status", tag)
+                    .register(registry);
+
+            transfers[status.ordinal()] = Counter.builder("ledger.transfers")
+                    .description("Transfers between ledgers by outcome")
+                    .tag("status", tag)
+                    .register(registry);
+        }
+
+        currentBalances = Counter.builder("ledger.balance.reads").tag("as_of", "false").register(registry);
+        pastBalances = Counter.builder("ledger.balance.reads").tag("as_of", "true").register(registry);
+
+        importedRows = Counter.builder("ledger.import.rows")
+                .description("Rows of bulk imports by outcome")
+                .tag("status", "imported")
+                .register(registry);
+        rejectedRows = Counter.builder("ledger.import.rows")
+                .description("Rows of bulk imports by outcome")
+                .tag("status", "rejected")
+                .register(registry);
+
+        throttledClients = Counter.builder("ledger.admission.throttled")
+                .description("Requests refused with 429 by admission control")
+                .tag("limit", "client")
+                .register(registry);
+        throttledLedgers = Counter.builder("ledger.admission.throttled")
+                .description("Requests refused with 429 by admission control")
+                .tag("limit", "ledger")
+                .register(registry);
+        refusedWrites = Counter.builder("ledger.replication.refused.writes")
+                .description("Writes refused with 405 by this follower")
+                .register(registry);
+        laggingReads = Counter.builder("ledger.replication.lagging.reads")
+                .description("Reads answered 503 by this follower, still behind their X-Read-After")
+                .register(registry);
+
+        historySizes = DistributionSummary.builder("ledger.history.size")
+                .description("Transactions returned per history read")
+                .baseUnit("transactions")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(1_000_000.0)
+                .register(registry);
+
+        Tags backend = Tags.of("backend", config.store().backend().name().toLowerCase());
+
+        Gauge.builder("ledger.ledgers", this, metrics -> metrics.stats().ledgers())
+                .description("Ledgers in the store, one per account and currency")
+                .register(registry);
+        Gauge.builder("ledger.transactions", this, metrics -> metrics.stats().transactions())
+                .description("Transactions stored, in memory and demoted")
+                .register(registry);
+        Gauge.builder("ledger.largest", this, metrics -> metrics.stats().largestLedger())
+                .description("Transactions of the largest ledger")
+                .register(registry);
+        Gauge.builder("ledger.store.bytes", this, metrics -> metrics.stats().estimatedBytes())
+                .description("Estimated memory taken by the transactions")
+                .baseUnit("bytes")
+                .tags(backend)
+                .register(registry);
+        Gauge.builder("ledger.cold.bytes", this, metrics -> metrics.stats().coldBytes())
+                .description("Compressed transactions demoted to disk")
+                .baseUnit("bytes")
+                .register(registry);
+
+        // Cheap enough to read on every scrape, no snapshot
+        Gauge.builder("ledger.feed.subscribers", store, repository -> repository.feedStats().subscribers())
+                .description("Open transaction feed subscriptions")
+                .register(registry);
+        FunctionCounter.builder("ledger.feed.dropped", store, repository -> repository.feedStats().dropped())
+                .description("Transactions a full feed buffer dropped")
+                .register(registry);
+        FunctionCounter.builder("ledger.feed.disconnects", store,
+                repository -> repository.feedStats().disconnected())
+                .description("Feed subscriptions ended because their buffer was full")
+                .register(registry);
+        FunctionCounter.builder("ledger.compaction.transactions", store,
+                repository -> repository.compactionStats().transactions())
+                .description("Transactions past retention replaced by summaries")
+                .register(registry);
+        FunctionCounter.builder("ledger.compaction.summaries", store,
+                repository -> repository.compactionStats().summaries())
+                .description("Summaries written by retention")
+                .register(registry);
+        FunctionCounter.builder("ledger.compaction.reclaimed", store,
+                repository -> repository.compactionStats().reclaimedBytes())
+                .description("Estimated memory reclaimed by retention")
+                .baseUnit("bytes")
+                .register(registry);
+
+        switch (config.replication().role()) {
+            case LEADER -> Gauge.builder("ledger.replication.followers", store,
+                    repository -> repository.replicationStats().followers())
+                    .description("Followers connected to this leader")
+                    .register(registry);
+            case FOLLOWER -> Gauge.builder("ledger.replication.lag", store,
+                    repository -> repository.replicationStats().lagMillis())
+                    .description("Time since this follower last had every transaction of the leader")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            case NONE -> {
+            }
+        }
+    }
+
+    public void commit(Transaction.Operation operation, CommitResult.Status status) {
+        commits[operation.ordinal()][status.ordinal()].increment();
+    }
+
+    public void batched(CommitResult.Status status) {
+        batched[status.ordinal()].increment();
+    }
+
+    public void transfer(CommitResult.Status status) {
+        transfers[status.ordinal()].increment();
+    }
+
+    public void balance(boolean asOf) {
+        (asOf ? pastBalances : currentBalances).increment();
+    }
+
+    public void throttled(boolean client) {
+        (client ? throttledClients : throttledLedgers).increment();
+    }
+
+    public void refusedWrite() {
+        refusedWrites.increment();
+    }
+
+    public void laggingRead() {
+        laggingReads.increment();
+    }
+
+    public void imported(long imported, long rejected) {
+        importedRows.increment(imported);
+        rejectedRows.increment(rejected);
+    }
+
+    public void history(long size) {
+        historySizes.record(size);
+    }
+
+    // Five gauges per scrape, one pass over the store
+    private InMemoryLedgerRepository.Stats stats() {
+        long now = System.nanoTime();
+        InMemoryLedgerRepository.Stats current = stats;
+
+        if (current == null || now - statsAt > STATS_TTL_NANOS) {
+            current = store.stats();
+            stats = current;
+            statsAt = now;
+        }
+
+        return current;
+    }
+}
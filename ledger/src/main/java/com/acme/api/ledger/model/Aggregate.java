@@ -0,0 +1,58 @@
+package com.acme.api.ledger.model;
+
+/**
+ * Count, sum, min and max of the deposits and of the withdrawals of a ledger
+ * over a period, amounts in minor units. Min and max of a side without
+ * transactions are meaningless, check its count first.
+ *
+ * Sums saturate at Long.MAX_VALUE instead of overflowing: unlike the balance,
+ * nothing bounds the total deposited over a long period.
+ */
+public record Aggregate(Totals deposits, Totals withdrawals) {
+    public static final Aggregate EMPTY = new Aggregate(Totals.EMPTY, Totals.EMPTY);
+
+    public record Totals(long count, long sum, long min, long max) {
+        public static final Totals EMPTY = new Totals(0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+
+        public Totals plus(long amount) {
+            return new Totals(count + 1, saturated(sum, amount), Math.min(min, amount), Math.max(max, amount));
+        }
+
+        public Totals plus(Totals other) {
+            if (other.count == 0) {
+                return this;
+            }
+
+            if (count == 0) {
+                return other;
+            }
+
+            return new Totals(count + other.count, saturated(sum, other.sum), Math.min(min, other.min),
+                    Math.max(max, other.max));
+        }
+
+        /**
+         * a + b of two sums that are not negative, Long.MAX_VALUE when it
+         * overflows.
+         */
+        public static long saturated(long a, long b) {
+            long sum = a + b;
+
+            return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+        }
+    }
+
+    public Aggregate plus(Transaction transaction) {
+        return transaction.operation() == Transaction.Operation.DEPOSIT
+                ? new Aggregate(deposits.plus(transaction.amount()), withdrawals)
+                : new Aggregate(deposits, withdrawals.plus(transaction.amount()));
+    }
+
+    public Aggregate plus(Aggregate other) {
+        return new Aggregate(deposits.plus(other.deposits), withdrawals.plus(other.withdrawals));
+    }
+
+    public long count() {
+        return deposits.count + withdrawals.count;
+    }
+}
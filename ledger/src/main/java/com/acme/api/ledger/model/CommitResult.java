@@ -0,0 +1,17 @@
+package com.acme.api.ledger.model;
+
+import java.util.UUID;
+
+/**
+ * Outcome of one transaction of a batch. The id is set when the transaction
+ * was committed, now or by an earlier request with the same reference.
+ */
+public record CommitResult(UUID id, Status status) {
+    public enum Status {
+        COMMITTED,
+        REPLAYED,
+        CONFLICT,
+        OVERFLOW,
+        INSUFFICIENT_FUNDS
+    }
+}
@@ -1,11 +1,19 @@
 package com.acme.api.ledger.model;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
 
 public record Currency(
         @NotNull(message = "Currency code cannot be null") @Pattern(regexp = "^[A-Z]{3}$", message = "Currency must be a valid ISO 4217 code (3 uppercase letters)") String code) {
 
+    // Amounts are accepted with at most 2 decimal places, so no currency can be
+    // stored with a finer scale than that, even if ISO 4217 says so (BHD, KWD).
+    public static final int MAX_SCALE = 2;
+
+    private static final ConcurrentHashMap<String, Integer> SCALES = new ConcurrentHashMap<>();
+
     public static Currency of(String code) {
         return new Currency(code);
     }
@@ -14,6 +22,25 @@ public record Currency(
         return code;
     }
 
+    /**
+     * Number of minor unit digits amounts in this currency are stored with,
+     * e.g. 2 for EUR (cents) and 0 for JPY. Unknown codes default to
+     * {@link #MAX_SCALE}.
+     */
+    public int scale() {
+        return SCALES.computeIfAbsent(code, Currency::defaultScale);
+    }
+
+    private static int defaultScale(String code) {
+        try {
+            int digits = java.util.Currency.getInstance(code).getDefaultFractionDigits();
+
+            return digits < 0 ? MAX_SCALE : Math.min(digits, MAX_SCALE);
+        } catch (IllegalArgumentException e) {
+            return MAX_SCALE;
+        }
+    }
+
     @Override
     public String toString() {
         return code;
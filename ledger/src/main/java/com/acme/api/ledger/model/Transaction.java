@@ -1,18 +1,21 @@
 package com.acme.api.ledger.model;
 
-import java.math.BigDecimal;
-
 import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.Size;
 
+/**
+ * Amounts are fixed point: a long in minor units of the currency (see
+ * {@link Currency#scale()}), e.g. 1050 for 10.50 EUR. BigDecimal only exists at
+ * the REST edge.
+ */
 public record Transaction(
 
         @NotNull(message = "Operation model cannot be null") Operation operation,
 
-        @NotNull(message = "Amount cannot be null") @Positive(message = "Amount must be greater than zero") @Digits(integer = 15, fraction = 2, message = "Amount must have at most 15 digits and 2 decimal places") BigDecimal amount,
+        @Positive(message = "Amount must be greater than zero") @Digits(integer = 17, fraction = 0, message = "Amount must have at most 17 digits in minor units") long amount,
 
         @NotBlank(message = "Description cannot be null or blank") @Size(min = 1, max = 255, message = "Description must be between 1 and 255 characters") String description,
 
@@ -24,4 +27,12 @@ public record Transaction(
         DEPOSIT,
         WITHDRAWAL
     }
+
+    /**
+     * Amount with the sign it has on the balance: positive for deposits,
+     * negative for withdrawals.
+     */
+    public long signedAmount() {
+        return operation == Operation.DEPOSIT ? amount : -amount;
+    }
 }
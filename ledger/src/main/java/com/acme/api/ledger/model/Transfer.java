@@ -0,0 +1,12 @@
+package com.acme.api.ledger.model;
+
+import java.util.UUID;
+
+/**
+ * Ids of the two legs of a committed transfer: the withdrawal from the source
+ * ledger and the deposit to the target one. The credit id is null when a
+ * retry finds the debit but the target ledger no longer remembers the
+ * reference.
+ */
+public record Transfer(UUID debitId, UUID creditId) {
+}
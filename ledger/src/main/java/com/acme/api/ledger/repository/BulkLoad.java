@@ -0,0 +1,227 @@
+package com.acme.api.ledger.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import com.acme.api.ledger.exception.LedgerChangedException;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Transactions staged for a bulk import into one ledger, checked in file
+ * order as they come: ids must increase past the last transaction of the
+ * ledger and the running balance must stay at zero or above. A row that
+ * breaks either is rejected on its own, like in a batch that is not atomic.
+ *
+ * A load that is not atomic installs its rows CHUNK at a time while they are
+ * staged, so only one chunk is held on the heap. An atomic one keeps them all
+ * until {@link InMemoryLedgerRepository#load(BulkLoad)}, since nothing may be
+ * visible before the last row is checked. Either way a chunk is only
+ * installed if the ledger did not change since the load left it.
+ *
+ * A row with an id keeps it, it must be a UUIDv7. Otherwise the id is made
+ * from the timestamp of the row, or the current time, counting up from the
+ * previous id within the same millisecond. References are not checked
+ * against earlier transactions, an import is not a retry.
+ *
+ * Not thread-safe, a single thread stages the rows.
+ */
+public final class BulkLoad {
+    // Rejections kept for the report, the others are only counted
+    static final int MAX_REJECTIONS = 100;
+
+    // Rows per task on the ledger writer, and staged at most by a load that is not atomic
+    static final int CHUNK = 16_384;
+
+    // Version 7 in the high bits, variant 10 in the low ones, no random bits
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = Long.MIN_VALUE;
+
+    private final LedgerKey key;
+
+    private final boolean atomic;
+
+    // Installs the staged rows of a load that is not atomic
+    private final Consumer<BulkLoad> installer;
+
+    // Last id and balance of the ledger when the load started, then after
+    // each chunk it installed
+    private UUID base;
+
+    private long baseBalance;
+
+    // Staged and not installed yet
+    private List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>();
+
+    private int staged;
+
+    private int installed;
+
+    private final List<Rejection> rejections = new ArrayList<>();
+
+    private long rejected;
+
+    private UUID last;
+
+    private long balance;
+
+    public record Rejection(long line, String message) {
+    }
+
+    BulkLoad(LedgerKey key, UUID base, long baseBalance, boolean atomic, Consumer<BulkLoad> installer) {
+        this.key = key;
+        this.atomic = atomic;
+        this.installer = installer;
+        this.base = base;
+        this.baseBalance = baseBalance;
+        this.last = base;
+        this.balance = baseBalance;
+    }
+
+    /**
+     * Stages the transaction of the given line, or rejects it if its id is
+     * not after the previous one, its time is in the future or it would
+     * overdraw or overflow the balance. Id and timestamp may be null.
+     *
+     * @throws LedgerChangedException if the load is not atomic and a
+     *                                transaction was committed to the ledger
+     *                                since it installed its last chunk
+     */
+    public void stage(long line, UUID id, Instant timestamp, Transaction transaction) {
+        long now = System.currentTimeMillis();
+        long millis;
+        UUID assigned;
+
+        if (id != null) {
+            if (id.version() != 7) {
+                reject(line, "Id %s is not a UUIDv7".formatted(id));
+
+                return;
+            }
+
+            millis = id.getMostSignificantBits() >>> 16;
+            assigned = id;
+        } else {
+            millis = timestamp != null ? timestamp.toEpochMilli() : now;
+
+            if (millis < 0) {
+                reject(line, "Timestamp %s is before 1970".formatted(timestamp));
+
+                return;
+            }
+
+            assigned = new UUID(millis << 16 | VERSION, VARIANT);
+
+            if (last != null && assigned.compareTo(last) <= 0 && millis == last.getMostSignificantBits() >>> 16) {
+                assigned = new UUID(last.getMostSignificantBits(), last.getLeastSignificantBits() + 1);
+            }
+        }
+
+        if (millis > now) {
+            reject(line, "Transaction time %s is in the future".formatted(Instant.ofEpochMilli(millis)));
+
+            return;
+        }
+
+        if (last != null && assigned.compareTo(last) <= 0) {
+            reject(line, "Transaction at %s is not after the previous transaction %s".formatted(
+                    Instant.ofEpochMilli(millis), last));
+
+            return;
+        }
+
+        long delta = transaction.signedAmount();
+        long next;
+
+        try {
+            next = Math.addExact(balance, delta);
+        } catch (ArithmeticException e) {
+            reject(line, "Transaction would overflow the balance of %s".formatted(key));
+
+            return;
+        }
+
+        if (delta < 0 && next < 0) {
+            reject(line, "Withdrawal of %d exceeds the balance of %d".formatted(-delta, balance));
+
+            return;
+        }
+
+        entries.add(Map.entry(assigned, transaction));
+        staged++;
+        last = assigned;
+        balance = next;
+
+        if (!atomic && entries.size() >= CHUNK) {
+            installer.accept(this);
+        }
+    }
+
+    /**
+     * Counts a line that could not be read or is invalid, the first
+     * MAX_REJECTIONS are kept with their message.
+     */
+    public void reject(long line, String message) {
+        if (rejections.size() < MAX_REJECTIONS) {
+            rejections.add(new Rejection(line, message));
+        }
+
+        rejected++;
+    }
+
+    public LedgerKey key() {
+        return key;
+    }
+
+    public boolean atomic() {
+        return atomic;
+    }
+
+    // Rows that passed the checks, installed or not
+    public int staged() {
+        return staged;
+    }
+
+    public int installed() {
+        return installed;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    public List<Rejection> rejections() {
+        return rejections;
+    }
+
+    UUID base() {
+        return base;
+    }
+
+    long baseBalance() {
+        return baseBalance;
+    }
+
+    List<Map.Entry<UUID, Transaction>> entries() {
+        return entries;
+    }
+
+    /**
+     * The chunk is in the ledger, which is left with the given balance. Run
+     * by the writer of the ledger.
+     */
+    void installed(List<Map.Entry<UUID, Transaction>> chunk, long balance) {
+        base = chunk.getLast().getKey();
+        baseBalance = balance;
+        installed += chunk.size();
+    }
+
+    // Every staged row is installed, the next ones start a new list
+    void drained() {
+        entries = new ArrayList<>();
+    }
+}
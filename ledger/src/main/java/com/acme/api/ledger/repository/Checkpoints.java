@@ -0,0 +1,134 @@
+package com.acme.api.ledger.repository;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Net amount of a ledger per hour (bucketed by the UUIDv7 timestamp of each
+ * transaction), plus the running total through the end of each sealed hour.
+ * The balance before any hour is then one floor lookup in the running totals
+ * plus the few hours not sealed yet.
+ *
+ * An hour is sealed once it is GRACE_BUCKETS behind the clock: only then are
+ * its running totals cached, under the lock. A write that lands in a sealed
+ * hour (out of order: recovery, a clock that went back) takes the lock and
+ * moves every running total from that hour on. So does a write to the hour
+ * sealed next: the clock may seal it between the check and the write, and a
+ * total cached meanwhile would miss the write for good. Writes to later hours,
+ * all the usual ones, are lock-free.
+ */
+final class Checkpoints {
+    static final long BUCKET_MILLIS = 3_600_000;
+
+    // Writers are assumed to record a transaction within this many hours of
+    // generating its id
+    private static final long GRACE_BUCKETS = 2;
+
+    private final ConcurrentSkipListMap<Long, LongAdder> buckets = new ConcurrentSkipListMap<>();
+
+    // Running total through the end of each sealed bucket, guarded by the lock
+    private final ConcurrentSkipListMap<Long, Long> totals = new ConcurrentSkipListMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    void record(UUID id, long signedAmount) {
+        long bucket = bucketOf(id);
+
+        if (bucket > sealedThrough() + 1) {
+            buckets.computeIfAbsent(bucket, _ -> new LongAdder()).add(signedAmount);
+
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            buckets.computeIfAbsent(bucket, _ -> new LongAdder()).add(signedAmount);
+            totals.tailMap(bucket, true).replaceAll((_, total) -> total + signedAmount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the buckets from first to last (both inclusive) by a single
+     * one at last holding the given net amount, for a compacted period whose
+     * summaries all fall in its last hour. Running totals after it move by
+     * the difference, none when the summaries were made from the same
+     * transactions.
+     */
+    void compact(long first, long last, long net) {
+        lock.lock();
+
+        try {
+            Map<Long, LongAdder> period = buckets.subMap(first, true, last, true);
+            long previous = 0;
+
+            for (LongAdder bucket : period.values()) {
+                previous += bucket.sum();
+            }
+
+            period.clear();
+            totals.subMap(first, true, last, true).clear();
+
+            if (net != 0) {
+                LongAdder bucket = new LongAdder();
+
+                bucket.add(net);
+                buckets.put(last, bucket);
+            }
+
+            long moved = net - previous;
+
+            if (moved != 0) {
+                totals.tailMap(last, false).replaceAll((_, total) -> total + moved);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Net amount of every transaction in buckets before the given one.
+     */
+    long totalBefore(long bucket) {
+        lock.lock();
+
+        try {
+            Map.Entry<Long, Long> cached = totals.lowerEntry(bucket);
+            long total = cached != null ? cached.getValue() : 0;
+            long sealed = sealedThrough();
+
+            Map<Long, LongAdder> pending = cached != null
+                    ? buckets.subMap(cached.getKey(), false, bucket, false)
+                    : buckets.headMap(bucket, false);
+
+            for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+                total += entry.getValue().sum();
+
+                if (entry.getKey() <= sealed) {
+                    totals.put(entry.getKey(), total);
+                }
+            }
+
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static long bucketOf(long millis) {
+        return Math.floorDiv(millis, BUCKET_MILLIS);
+    }
+
+    static long bucketOf(UUID id) {
+        return bucketOf(id.getMostSignificantBits() >>> 16);
+    }
+
+    private static long sealedThrough() {
+        return bucketOf(System.currentTimeMillis()) - GRACE_BUCKETS;
+    }
+}
@@ -0,0 +1,424 @@
+package com.acme.api.ledger.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Immutable run of a ledger's oldest transactions on disk, in id order. The
+ * file is a sequence of Deflate compressed blocks of up to 256 transactions,
+ * each encoded like the write-ahead log payload:
+ *
+ * id (2 longs) | operation (byte) | amount (long) | description and reference
+ * (short length plus UTF-8 bytes)
+ *
+ * Only the first id, offset and lengths of every block stay in memory (about
+ * 40 bytes per 256 transactions): a range lookup is a binary search over them
+ * and then a sequential read of the blocks that overlap the range.
+ */
+final class ColdSegment implements AutoCloseable {
+    static final int BLOCK_ENTRIES = 256;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final Currency currency;
+
+    private final int size;
+
+    private final UUID last;
+
+    // Per block: first id, file offset, compressed and raw length
+    private final long[] firstMsb;
+    private final long[] firstLsb;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] rawLengths;
+
+    private ColdSegment(Path file, Currency currency, int size, UUID last, long[] firstMsb, long[] firstLsb,
+            long[] offsets, int[] lengths, int[] rawLengths) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.currency = currency;
+        this.size = size;
+        this.last = last;
+        this.firstMsb = firstMsb;
+        this.firstLsb = firstLsb;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.rawLengths = rawLengths;
+    }
+
+    /**
+     * Writes the entries, which must come in id order, to a new segment file.
+     * It is not fsynced: segments only hold what the snapshot and the
+     * write-ahead log already have, and are rebuilt from them on boot.
+     */
+    static ColdSegment write(Path file, Currency currency, Iterator<Map.Entry<UUID, Transaction>> entries) {
+        int blocks = 0;
+        long[] firstMsb = new long[16];
+        long[] firstLsb = new long[16];
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        int[] rawLengths = new int[16];
+        int size = 0;
+        UUID last = null;
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(BLOCK_ENTRIES * 64);
+        DataOutputStream block = new DataOutputStream(raw);
+        byte[] compressed = new byte[BLOCK_ENTRIES * 64];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long offset = 0;
+
+            while (entries.hasNext()) {
+                Map.Entry<UUID, Transaction> entry = entries.next();
+
+                if (size % BLOCK_ENTRIES == 0) {
+                    if (blocks == offsets.length) {
+                        firstMsb = Arrays.copyOf(firstMsb, blocks * 2);
+                        firstLsb = Arrays.copyOf(firstLsb, blocks * 2);
+                        offsets = Arrays.copyOf(offsets, blocks * 2);
+                        lengths = Arrays.copyOf(lengths, blocks * 2);
+                        rawLengths = Arrays.copyOf(rawLengths, blocks * 2);
+                    }
+
+                    firstMsb[blocks] = entry.getKey().getMostSignificantBits();
+                    firstLsb[blocks] = entry.getKey().getLeastSignificantBits();
+                    offsets[blocks] = offset;
+                    blocks++;
+                }
+
+                encode(block, entry.getKey(), entry.getValue());
+                last = entry.getKey();
+                size++;
+
+                if (size % BLOCK_ENTRIES == 0 || !entries.hasNext()) {
+                    byte[] bytes = raw.toByteArray();
+
+                    deflater.reset();
+                    deflater.setInput(bytes);
+                    deflater.finish();
+
+                    int length = 0;
+
+                    while (!deflater.finished()) {
+                        if (length == compressed.length) {
+                            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                        }
+
+                        length += deflater.deflate(compressed, length, compressed.length - length);
+                    }
+
+                    out.write(ByteBuffer.wrap(compressed, 0, length), offset);
+                    lengths[blocks - 1] = length;
+                    rawLengths[blocks - 1] = bytes.length;
+                    offset += length;
+                    raw.reset();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+
+        try {
+            return new ColdSegment(file, currency, size, last, Arrays.copyOf(firstMsb, blocks),
+                    Arrays.copyOf(firstLsb, blocks), Arrays.copyOf(offsets, blocks), Arrays.copyOf(lengths, blocks),
+                    Arrays.copyOf(rawLengths, blocks));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the entries like {@link #write} to a file that is kept rather
+     * than rebuilt: it is fsynced and not left open. Returns the number of
+     * entries written.
+     */
+    static int archive(Path file, Currency currency, Iterator<Map.Entry<UUID, Transaction>> entries) {
+        ColdSegment segment = write(file, currency, entries);
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            segment.channel.close();
+            out.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return segment.size;
+    }
+
+    /**
+     * Every entry of a segment file in id order, without the block index a
+     * segment keeps in memory: each block is a Deflate stream of its own, so
+     * they are inflated one after the other. Reads the whole file, for
+     * archives (see {@link #archive}).
+     */
+    static List<Map.Entry<UUID, Transaction>> read(Path file, Currency currency) {
+        List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>();
+        byte[] raw = new byte[BLOCK_ENTRIES * 64];
+        Inflater inflater = new Inflater();
+
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            int offset = 0;
+
+            while (offset < bytes.length) {
+                inflater.reset();
+                inflater.setInput(bytes, offset, bytes.length - offset);
+
+                int length = 0;
+
+                while (!inflater.finished()) {
+                    if (length == raw.length) {
+                        raw = Arrays.copyOf(raw, raw.length * 2);
+                    }
+
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+
+                    if (inflated == 0 && inflater.needsInput()) {
+                        throw new IllegalStateException("Cold segment %s is truncated".formatted(file));
+                    }
+
+                    length += inflated;
+                }
+
+                offset = bytes.length - inflater.getRemaining();
+
+                ByteBuffer block = ByteBuffer.wrap(raw, 0, length);
+
+                while (block.hasRemaining()) {
+                    entries.add(decode(block, currency));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Cold segment %s is corrupt".formatted(file), e);
+        } finally {
+            inflater.end();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Transactions with ids between from and to (both inclusive), in id order.
+     * Blocks are read and inflated as the stream gets to them.
+     */
+    Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to) {
+        if (size == 0 || to.compareTo(first()) < 0 || from.compareTo(last) > 0) {
+            return Stream.empty();
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Cursor(blockOf(from), from, to),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    int size() {
+        return size;
+    }
+
+    UUID first() {
+        return new UUID(firstMsb[0], firstLsb[0]);
+    }
+
+    UUID last() {
+        return last;
+    }
+
+    long bytes() {
+        int blocks = offsets.length;
+
+        return blocks == 0 ? 0 : offsets[blocks - 1] + lengths[blocks - 1];
+    }
+
+    /**
+     * Closes and deletes the file. Readers still on it fail.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Last block whose first id is at or before the given one, 0 if none is
+    private int blockOf(UUID id) {
+        int low = 0;
+        int high = offsets.length - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (new UUID(firstMsb[middle], firstLsb[middle]).compareTo(id) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private ByteBuffer read(int block) {
+        ByteBuffer compressed = ByteBuffer.allocate(lengths[block]);
+
+        try {
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, offsets[block] + compressed.position()) < 0) {
+                    throw new IOException("Cold segment %s is truncated".formatted(file));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(compressed.array());
+            inflater.inflate(raw);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Cold segment %s is corrupt".formatted(file), e);
+        } finally {
+            inflater.end();
+        }
+
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static void encode(DataOutputStream out, UUID id, Transaction transaction) throws IOException {
+        byte[] description = transaction.description().getBytes(StandardCharsets.UTF_8);
+        byte[] reference = transaction.reference().getBytes(StandardCharsets.UTF_8);
+
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeByte(transaction.operation().ordinal());
+        out.writeLong(transaction.amount());
+        out.writeShort(description.length);
+        out.write(description);
+        out.writeShort(reference.length);
+        out.write(reference);
+    }
+
+    private Map.Entry<UUID, Transaction> decode(ByteBuffer block) {
+        return decode(block, currency);
+    }
+
+    private static Map.Entry<UUID, Transaction> decode(ByteBuffer block, Currency currency) {
+        UUID id = new UUID(block.getLong(), block.getLong());
+        Transaction.Operation operation = Transaction.Operation.values()[block.get()];
+        long amount = block.getLong();
+        String description = string(block);
+        String reference = string(block);
+
+        return Map.entry(id, new Transaction(operation, amount, description, reference, currency));
+    }
+
+    private static String string(ByteBuffer block) {
+        byte[] bytes = new byte[Short.toUnsignedInt(block.getShort())];
+
+        block.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private final class Cursor implements Iterator<Map.Entry<UUID, Transaction>> {
+        private final UUID from;
+
+        private final UUID to;
+
+        private int block;
+
+        private ByteBuffer current;
+
+        private Map.Entry<UUID, Transaction> next;
+
+        Cursor(int block, UUID from, UUID to) {
+            this.block = block;
+            this.from = from;
+            this.to = to;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<UUID, Transaction> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<UUID, Transaction> entry = next;
+
+            advance();
+
+            return entry;
+        }
+
+        private void advance() {
+            next = null;
+
+            while (true) {
+                if (current == null || !current.hasRemaining()) {
+                    if (block == offsets.length) {
+                        return;
+                    }
+
+                    current = read(block++);
+                }
+
+                Map.Entry<UUID, Transaction> entry = decode(current);
+
+                if (entry.getKey().compareTo(to) > 0) {
+                    block = offsets.length;
+                    current = null;
+
+                    return;
+                }
+
+                if (entry.getKey().compareTo(from) >= 0) {
+                    next = entry;
+
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.acme.api.ledger.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Subscriptions to the transactions committed to each ledger. The ledger
+ * writer publishes every append here right after it is visible in the store,
+ * handing it to the buffer of each subscription without ever waiting on it:
+ * what a full buffer does is up to the subscription, see {@link Subscription}.
+ */
+final class Feed {
+    private final ConcurrentHashMap<LedgerKey, Set<Subscription>> subscribers = new ConcurrentHashMap<>();
+
+    // Subscriptions of all ledgers, while there are none publishing is one read
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder disconnected = new LongAdder();
+
+    void add(Subscription subscription) {
+        subscribers.compute(subscription.key(), (_, subscriptions) -> {
+            Set<Subscription> current = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+
+            if (current.add(subscription)) {
+                active.incrementAndGet();
+            }
+
+            return current;
+        });
+    }
+
+    void remove(Subscription subscription) {
+        subscribers.computeIfPresent(subscription.key(), (_, subscriptions) -> {
+            if (subscriptions.remove(subscription)) {
+                active.decrementAndGet();
+            }
+
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    /**
+     * Called by the writer of the ledger, in id order.
+     */
+    void publish(LedgerKey key, UUID id, Transaction transaction) {
+        if (active.get() == 0) {
+            return;
+        }
+
+        Set<Subscription> subscriptions = subscribers.get(key);
+
+        if (subscriptions != null) {
+            Map.Entry<UUID, Transaction> entry = Map.entry(id, transaction);
+
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(entry);
+            }
+        }
+    }
+
+    /**
+     * The committed transactions of a batch, results in batch order.
+     */
+    void publish(LedgerKey key, List<Transaction> transactions, List<CommitResult> results) {
+        if (active.get() == 0) {
+            return;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).status() == CommitResult.Status.COMMITTED) {
+                publish(key, results.get(i).id(), transactions.get(i));
+            }
+        }
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    InMemoryLedgerRepository.FeedStats stats() {
+        return new InMemoryLedgerRepository.FeedStats(active.get(), dropped.sum(), disconnected.sum());
+    }
+
+    /**
+     * Ends the subscriptions of one ledger, it is no longer in the store.
+     */
+    void end(LedgerKey key) {
+        Set<Subscription> subscriptions = subscribers.remove(key);
+
+        if (subscriptions != null) {
+            active.addAndGet(-subscriptions.size());
+            subscriptions.forEach(Subscription::end);
+        }
+    }
+
+    /**
+     * Ends every subscription, their next read returns null.
+     */
+    void close() {
+        subscribers.values().forEach(subscriptions -> subscriptions.forEach(Subscription::end));
+        subscribers.clear();
+        active.set(0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.acme.api.ledger.repository;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Recent idempotency keys (the reference of a transaction, or the
+ * Idempotency-Key header) per ledger, with the transaction they committed.
+ *
+ * A commit first claims its key. The first claim wins and commits; claims
+ * that come after it (retries) get the winner's claim back and wait for its
+ * id instead of committing again. That is one hash lookup per retry, with no
+ * lock other than the map's own bins.
+ *
+ * The index is bounded in time and size: claims are queued in the order they
+ * were made and dropped from the head once they are older than the TTL or
+ * the queue grows beyond max entries. The bound is on the queue, not the
+ * map, since released claims (failed commits) and expired ones replaced by
+ * a new claim leave the map but stay queued until they reach the head. A
+ * claim still committing is never dropped, a retry must find it to wait for
+ * it: eviction stops at it until it resolves, which takes as long as one
+ * commit, and the queue may go over max entries meanwhile.
+ *
+ * One thread evicts at a time, the others skip it: the head it peeked is
+ * the one it polls, so the queue stays in creation order.
+ */
+final class IdempotencyIndex {
+    private final ConcurrentHashMap<Key, Claim> claims = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Claim> order = new ConcurrentLinkedQueue<>();
+
+    // Length of the queue, ConcurrentLinkedQueue.size() walks it
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final long ttlMillis;
+
+    private final int maxEntries;
+
+    record Key(LedgerKey ledger, String key) {
+    }
+
+    /**
+     * A claimed key: the transaction it was claimed for and its id, completed
+     * once committed.
+     */
+    record Claim(Key key, Transaction transaction, CompletableFuture<UUID> id, long createdMillis) {
+        boolean isFor(Transaction other) {
+            return transaction.equals(other);
+        }
+    }
+
+    IdempotencyIndex(Duration ttl, int maxEntries) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxEntries = maxEntries;
+    }
+
+    Claim newClaim(LedgerKey ledger, String key, Transaction transaction) {
+        return new Claim(new Key(ledger, key), transaction, new CompletableFuture<>(), System.currentTimeMillis());
+    }
+
+    /**
+     * Claims the key, like putIfAbsent: returns null if the caller now owns
+     * the claim (and must either complete it with the id or release it), or
+     * the claim that got there first.
+     */
+    Claim claim(Claim claim) {
+        while (true) {
+            Claim existing = claims.putIfAbsent(claim.key(), claim);
+
+            if (existing == null) {
+                enqueue(claim);
+                evict(claim.createdMillis());
+
+                return null;
+            }
+
+            if (!existing.id().isDone() || !isExpired(existing, claim.createdMillis())) {
+                return existing;
+            }
+
+            claims.remove(claim.key(), existing);
+        }
+    }
+
+    /**
+     * The commit behind an owned claim failed: forget it so a retry can
+     * commit, and fail whoever is waiting on it.
+     */
+    void release(Claim claim, Throwable cause) {
+        claims.remove(claim.key(), claim);
+        claim.id().completeExceptionally(cause);
+    }
+
+    /**
+     * Id committed under the key, null if there is none (yet) or its commit
+     * failed.
+     */
+    UUID committed(LedgerKey ledger, String key) {
+        Claim claim = claims.get(new Key(ledger, key));
+
+        if (claim == null || !claim.id().isDone() || claim.id().isCompletedExceptionally()) {
+            return null;
+        }
+
+        return claim.id().join();
+    }
+
+    /**
+     * Indexes a transaction that is already committed, used on recovery.
+     */
+    void restore(LedgerKey ledger, String key, UUID id, Transaction transaction, long createdMillis) {
+        Key k = new Key(ledger, key);
+        Claim claim = new Claim(k, transaction, CompletableFuture.completedFuture(id), createdMillis);
+
+        if (claims.putIfAbsent(k, claim) == null) {
+            enqueue(claim);
+            evict(System.currentTimeMillis());
+        }
+    }
+
+    long ttlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Claims queued for eviction, including released and replaced ones: what
+     * the index holds on to.
+     */
+    int size() {
+        return queued.get();
+    }
+
+    private void enqueue(Claim claim) {
+        order.offer(claim);
+        queued.incrementAndGet();
+    }
+
+    private void evict(long now) {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            Claim head;
+
+            while ((head = order.peek()) != null && head.id().isDone()
+                    && (queued.get() > maxEntries || isExpired(head, now))) {
+                order.poll();
+                queued.decrementAndGet();
+
+                // A no-op for a released or replaced claim, already gone from the map
+                claims.remove(head.key(), head);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private boolean isExpired(Claim claim, long now) {
+        return now - claim.createdMillis() > ttlMillis;
+    }
+}
@@ -0,0 +1,27 @@
+package com.acme.api.ledger.repository;
+
+import java.util.UUID;
+
+/**
+ * Bounds of transaction ids in {@link UUID#compareTo(UUID)} order, the order
+ * of every store, and stepping past a given id for exclusive ranges.
+ */
+final class Ids {
+    // Below and above any UUID
+    static final UUID FIRST = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+    static final UUID LAST = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private Ids() {
+    }
+
+    /**
+     * Smallest UUID greater than the given one: a range starting there is the
+     * one after the id, without it.
+     */
+    static UUID successor(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+
+        return lsb == Long.MAX_VALUE ? new UUID(msb + 1, Long.MIN_VALUE) : new UUID(msb, lsb + 1);
+    }
+}
@@ -1,45 +1,294 @@
 package com.acme.api.ledger.repository;
 
-import java.math.BigDecimal;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.exception.InsufficientFundsException;
+import com.acme.api.ledger.exception.LedgerBusyException;
+import com.acme.api.ledger.exception.LedgerChangedException;
+import com.acme.api.ledger.exception.LedgerMovedException;
 import com.acme.api.ledger.exception.LedgerNotFoundException;
 import com.acme.api.ledger.exception.TransactionAlreadyExistsException;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.Currency;
 import com.acme.api.ledger.model.LedgerKey;
 import com.acme.api.ledger.model.Transaction;
-import com.fasterxml.uuid.Generators;
+import com.acme.api.ledger.model.Transfer;
 
 import io.quarkus.logging.Log;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
+// Eager, so the snapshot and write-ahead log are loaded on boot and not on the first request
+@Startup
 @ApplicationScoped
 public class InMemoryLedgerRepository {
+    private static final Consumer<UUID> NO_WRITE_AHEAD = id -> {
+    };
+
+    private static final Consumer<List<Map.Entry<UUID, Transaction>>> NO_BATCH_WRITE_AHEAD = entries -> {
+    };
+
+    // Transactions an aggregation scan leaves to a single fork/join task
+    private static final long SCAN_SLICE = 16_384;
+
+    // Transactions per record of a ledger export
+    private static final int EXPORT_CHUNK = 1024;
+
+    private static final int EXPORT_BUFFER = 64 * 1024;
+
     /**
      * Initially I was using a ConcurrentSkipListMap for the store, but is not
      * thread safe. ConcurrentSkipListMap is thread safe and maintains order,
      * consumes more memory but not a problem here.
      *
      * https://docs.oracle.com/en/java/javase/25/docs/api/java.base/java/util/concurrent/ConcurrentSkipListMap.html
+     *
+     * Each skip list lives inside a {@link Ledger} next to its running balance.
+     * With the off-heap backend the skip list is replaced by column segments,
+     * see {@link OffHeapTransactionStore}.
+     */
+    private final ConcurrentHashMap<LedgerKey, Ledger> store = new ConcurrentHashMap<>();
+
+    /**
+     * Currency accounts of every ledger id, sorted by currency code. The lists
+     * are immutable and replaced under the lock of their id, together with the
+     * insert into the store, so a key is never in here before its ledger is.
      */
-    private final ConcurrentHashMap<LedgerKey, ConcurrentSkipListMap<UUID, Transaction>> store = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, List<LedgerKey>> accounts = new ConcurrentHashMap<>();
+
+    private final LedgerConfig.Backend backend;
+
+    // Null when the write-ahead log is disabled
+    private final WriteAheadLog wal;
+
+    private final IdempotencyIndex idempotency;
+
+    // Single writer per ledger, every append goes through it
+    private final Sequencer sequencer;
+
+    // Null when snapshots are disabled
+    private final Snapshots snapshots;
+
+    private final ScheduledExecutorService snapshotter;
+
+    // Null when tiering is disabled, the backend is off-heap or this node is a follower
+    private final Tiering tiering;
+
+    private final ScheduledExecutorService demoter;
+
+    // Null when retention is disabled, the backend is off-heap or this node is a follower
+    private final Retention retention;
+
+    private final ScheduledExecutorService compactor;
+
+    // Demotion and compaction both move a ledger's oldest transactions, one at a time
+    private final Object housekeeping = new Object();
+
+    // Subscribers of each ledger, the writer publishes every commit to them
+    private final Feed feed = new Feed();
+
+    private final LedgerConfig.Feed feedConfig;
+
+    // Ledger ids being handed off to another node, see seal()
+    private final Set<UUID> sealed = ConcurrentHashMap.newKeySet();
+
+    // Log offset of the latest snapshot, if the log did not move past it there is nothing new to write
+    private long snapshotOffset = -1;
+
+    private final LedgerConfig.ReplicationRole role;
+
+    // Leader only
+    private final LogShipper shipper;
+
+    // Follower only, it applies the leader's log instead of writing one
+    private final LogFollower follower;
+
+    private final Duration readTimeout;
+
+    @Inject
+    public InMemoryLedgerRepository(LedgerConfig config) {
+        this(config, new Sequencer(config.sequencer().shards(), config.sequencer().ringSize()));
+    }
+
+    // With the given writers, which it closes
+    InMemoryLedgerRepository(LedgerConfig config, Sequencer sequencer) {
+        this.sequencer = sequencer;
+        this.backend = config.store().backend();
+        this.feedConfig = config.feed();
+
+        Log.infof("Ledger store backend: %s", backend);
+
+        idempotency = new IdempotencyIndex(config.idempotency().ttl(), config.idempotency().maxEntries());
+
+        LedgerConfig.Tiering tieringConfig = config.tiering();
+
+        if (tieringConfig.enabled() && backend == LedgerConfig.Backend.OFF_HEAP) {
+            Log.warnf("Tiering only applies to the heap backend, the %s backend keeps everything in memory", backend);
+        }
+
+        LedgerConfig.Wal walConfig = config.wal();
+        LedgerConfig.Snapshot snapshotConfig = config.snapshot();
+        LedgerConfig.Replication replication = config.replication();
+        boolean following = replication.role() == LedgerConfig.ReplicationRole.FOLLOWER;
+        LedgerConfig.Retention retentionConfig = config.retention();
+
+        // Before loading, restored ledgers get their tiered store right away. A
+        // follower applies the leader's records off the writers, a demotion
+        // completing meanwhile would lose them from the hot tier
+        tiering = tieringConfig.enabled() && backend == LedgerConfig.Backend.HEAP && !following
+                ? new Tiering(tieringConfig)
+                : null;
+
+        if (retentionConfig.enabled() && backend == LedgerConfig.Backend.OFF_HEAP) {
+            Log.warnf("Retention only applies to the heap backend, the %s backend keeps every transaction", backend);
+        }
+
+        // A follower gets the compactions of its leader through the log
+        retention = retentionConfig.enabled() && backend == LedgerConfig.Backend.HEAP && !following
+                ? new Retention(retentionConfig)
+                : null;
+        long from = 0;
+
+        if (following && (walConfig.enabled() || snapshotConfig.enabled())) {
+            Log.infof("Followers keep no write-ahead log or snapshots, they start over from the leader");
+        }
+
+        if (snapshotConfig.enabled() && !following) {
+            snapshots = new Snapshots(snapshotConfig.directory(), snapshotConfig.shards());
+            from = snapshots.load(this::restored);
+        } else {
+            snapshots = null;
+        }
+
+        if (walConfig.enabled() && !following) {
+            wal = new WriteAheadLog(
+                    walConfig.directory(),
+                    walConfig.durability(),
+                    walConfig.segmentSize().asLongValue(),
+                    walConfig.flushInterval());
+
+            // Only the tail the snapshot does not cover
+            wal.replay(from, this::apply);
+            snapshotOffset = from;
+        } else {
+            wal = null;
+        }
+
+        restoreIdempotency();
+
+        if (snapshots != null) {
+            long interval = snapshotConfig.interval().toMillis();
+
+            snapshotter = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("ledger-snapshotter").daemon().factory());
+            snapshotter.scheduleWithFixedDelay(this::scheduledSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotter = null;
+        }
+
+        if (tiering != null) {
+            long interval = tieringConfig.interval().toMillis();
+
+            demoter = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("ledger-demoter").daemon().factory());
+            demoter.scheduleWithFixedDelay(this::scheduledDemotion, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            demoter = null;
+        }
+
+        if (retention != null) {
+            long interval = retentionConfig.interval().toMillis();
+
+            compactor = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("ledger-compactor").daemon().factory());
+            compactor.scheduleWithFixedDelay(this::scheduledCompaction, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+
+        role = replication.role();
+        readTimeout = replication.readTimeout();
+
+        switch (role) {
+            case LEADER -> {
+                if (wal == null) {
+                    throw new IllegalStateException("A replication leader needs the write-ahead log enabled");
+                }
+
+                shipper = new LogShipper(this, wal, replication.port(), replication.heartbeat());
+                follower = null;
+            }
+            case FOLLOWER -> {
+                String leader = replication.leader().orElseThrow(
+                        () -> new IllegalStateException("ledger.replication.leader is required for a follower"));
+
+                shipper = null;
+                follower = new LogFollower(leader, replication.heartbeat(), this::apply, this::reset);
+            }
+            default -> {
+                shipper = null;
+                follower = null;
+            }
+        }
+    }
 
+    /**
+     * @throws LedgerMovedException if the ledger id is being handed off to
+     *                              another node
+     */
     public boolean save(LedgerKey key) {
-        if (store.containsKey(key)) {
+        if (sealed.contains(key.id())) {
+            throw new LedgerMovedException("Ledger %s is moving to another node".formatted(key.id()));
+        }
+
+        if (!insert(key)) {
             Log.warnf("Ledger already exists: %s", key);
 
             return false;
         }
 
-        ConcurrentSkipListMap<UUID, Transaction> transactions = new ConcurrentSkipListMap<>();
-
-        store.put(key, transactions);
+        // A transaction of this ledger may reach the log before this record,
+        // replay creates the ledger on the first record that mentions it
+        if (wal != null) {
+            wal.applied(wal.append(new WalRecord.LedgerCreated(key)));
+            wal.flushed().join();
+        }
 
-        Log.debugf("Store: %s", store.toString());
+        Log.debugf("Ledger created: %s, %d ledgers", key, store.size());
 
         return true;
     }
@@ -48,33 +297,542 @@ public class InMemoryLedgerRepository {
         return store.containsKey(key);
     }
 
+    /**
+     * Whether any currency account of the ledger id is in the store.
+     */
+    public boolean holds(UUID id) {
+        return accounts.containsKey(id);
+    }
+
+    /**
+     * Ledger ids in the store, each once.
+     */
+    public List<UUID> ids() {
+        return List.copyOf(accounts.keySet());
+    }
+
+    /**
+     * Current balance of every currency account of the ledger, by currency
+     * code. Empty when the ledger does not exist.
+     */
+    public Map<Currency, Long> balances(UUID id) {
+        List<LedgerKey> keys = accounts.getOrDefault(id, List.of());
+        Map<Currency, Long> balances = new LinkedHashMap<>();
+
+        for (LedgerKey key : keys) {
+            Ledger ledger = store.get(key);
+
+            // Dropped meanwhile, by a handoff or a forget
+            if (ledger != null) {
+                balances.put(key.currency(), ledger.balance());
+            }
+        }
+
+        return balances;
+    }
+
     public Map.Entry<UUID, Transaction> add(LedgerKey key, Transaction transaction) {
-        ConcurrentSkipListMap<UUID, Transaction> transactions = getTransactionsOrThrow(key);
+        return add(key, transaction, null);
+    }
+
+    /**
+     * Follows the transactions committed to the ledger from now on, or from
+     * the given id on when there is one (resuming a previous subscription).
+     * The overflow policy of the subscription's buffer defaults to the
+     * configured one. The caller must close it.
+     */
+    public Subscription subscribe(LedgerKey key, UUID after, LedgerConfig.Overflow overflow) {
+        Ledger ledger = getLedgerOrThrow(key);
+
+        return new Subscription(key, ledger, feed, after, feedConfig.bufferSize(),
+                overflow != null ? overflow : feedConfig.overflow(), this::awaitDurable);
+    }
+
+    /**
+     * Adds the transaction unless its idempotency key (the given one, or the
+     * reference when there is none) was used in this ledger within the TTL.
+     * A retry of the same transaction gets the original id back, a different
+     * transaction with a used key is rejected.
+     *
+     * The append itself runs on the writer of the ledger, see
+     * {@link Sequencer}: the request thread waits for it without holding
+     * any lock.
+     *
+     * @throws TransactionAlreadyExistsException if the key belongs to another
+     *                                           transaction
+     * @throws InsufficientFundsException       if a withdrawal would take the
+     *                                           balance below zero
+     */
+    public Map.Entry<UUID, Transaction> add(LedgerKey key, Transaction transaction, String idempotencyKey) {
+        return join(addAsync(key, transaction, idempotencyKey));
+    }
+
+    /**
+     * {@link #add(LedgerKey, Transaction, String)} without blocking the
+     * caller: the future completes on the ledger writer, or on the
+     * write-ahead log flusher once the transaction is durable. Failures,
+     * including an unknown ledger, complete it exceptionally.
+     */
+    public CompletableFuture<Map.Entry<UUID, Transaction>> addAsync(LedgerKey key, Transaction transaction,
+            String idempotencyKey) {
+        Ledger ledger;
+
+        try {
+            ledger = getLedgerOrThrow(key);
+        } catch (LedgerNotFoundException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String dedupe = idempotencyKey != null ? idempotencyKey : transaction.reference();
+        IdempotencyIndex.Claim claim = idempotency.newClaim(key, dedupe, transaction);
+        IdempotencyIndex.Claim existing = idempotency.claim(claim);
+
+        if (existing != null) {
+            if (!existing.isFor(transaction)) {
+                Log.warnf("Idempotency key %s of ledger %s already used by another transaction", dedupe, key);
+
+                return CompletableFuture.failedFuture(new TransactionAlreadyExistsException(
+                        "Ledger %s -> idempotency key %s already used by another transaction".formatted(key, dedupe)));
+            }
+
+            return durable(existing.id()).thenApply(trxId -> {
+                Log.debugf("Transaction replayed in service %s: transaction id=%s", key, trxId);
+
+                return Map.entry(trxId, existing.transaction());
+            });
+        }
+
+        CompletableFuture<UUID> appended;
+
+        try {
+            appended = sequencer.submit(key, () -> append(ledger, key, transaction));
+        } catch (RuntimeException e) {
+            idempotency.release(claim, e);
+
+            return CompletableFuture.failedFuture(e);
+        }
+
+        appended.whenComplete((trxId, e) -> {
+            if (e != null) {
+                idempotency.release(claim, e);
+            } else {
+                claim.id().complete(trxId);
+            }
+        });
+
+        // Readers may see the transaction before its fsync, but the caller only
+        // gets the id once it is durable (group committed with its neighbours)
+        return durable(appended).thenApply(trxId -> {
+            Log.debugf("Transaction added to service %s: transaction id=%s, model=%s", key, trxId,
+                    transaction.operation());
+
+            return Map.entry(trxId, transaction);
+        });
+    }
+
+    private UUID append(Ledger ledger, LedgerKey key, Transaction transaction) {
+        LoggedAppend logged = wal != null ? new LoggedAppend(key, transaction) : null;
+        UUID trxId;
+
+        try {
+            trxId = ledger.append(transaction, logged != null ? logged : NO_WRITE_AHEAD);
+        } finally {
+            if (logged != null && logged.offset >= 0) {
+                wal.applied(logged.offset);
+            }
+        }
+
+        if (trxId == null) {
+            Log.warnf("Transaction id collision in ledger %s", key);
+
+            throw new TransactionAlreadyExistsException("Ledger %s -> transaction id collision".formatted(key));
+        }
+
+        feed.publish(key, trxId, transaction);
+
+        return trxId;
+    }
+
+    /**
+     * Moves money between two ledgers, of the same currency or not: the debit
+     * is a withdrawal from one and the credit a deposit to the other, with
+     * the amount the caller converted. Both legs are committed or neither is.
+     *
+     * The work runs with both ledgers held (see
+     * {@link Sequencer#submit(LedgerKey, LedgerKey, Supplier)}), there is no
+     * lock over the store and no writer waits for another. The idempotency key is claimed in both ledgers, a
+     * retry gets the ids of both legs back.
+     *
+     * The future fails with the exceptions of
+     * {@link #addAsync(LedgerKey, Transaction, String)}: an overdraft of the
+     * source, an overflow of either balance or a key used by another
+     * transaction of either ledger.
+     */
+    public CompletableFuture<Transfer> transferAsync(LedgerKey from, Transaction debit, LedgerKey to,
+            Transaction credit, String idempotencyKey) {
+        if (from.equals(to)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Cannot transfer from %s to itself".formatted(from)));
+        }
+
+        Ledger source;
+        Ledger target;
+
+        try {
+            source = getLedgerOrThrow(from);
+            target = getLedgerOrThrow(to);
+        } catch (LedgerNotFoundException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String dedupe = idempotencyKey != null ? idempotencyKey : debit.reference();
+        IdempotencyIndex.Claim debitClaim = idempotency.newClaim(from, dedupe, debit);
+        IdempotencyIndex.Claim existing = idempotency.claim(debitClaim);
+
+        if (existing != null) {
+            if (!existing.isFor(debit)) {
+                Log.warnf("Idempotency key %s of ledger %s already used by another transaction", dedupe, from);
+
+                return CompletableFuture.failedFuture(new TransactionAlreadyExistsException(
+                        "Ledger %s -> idempotency key %s already used by another transaction".formatted(from,
+                                dedupe)));
+            }
+
+            // The credit claim is completed before the debit one
+            return durable(existing.id()).thenApply(debitId -> {
+                Log.debugf("Transfer replayed from %s to %s: debit id=%s", from, to, debitId);
+
+                return new Transfer(debitId, idempotency.committed(to, dedupe));
+            });
+        }
+
+        IdempotencyIndex.Claim creditClaim = idempotency.newClaim(to, dedupe, credit);
+
+        if (idempotency.claim(creditClaim) != null) {
+            TransactionAlreadyExistsException e = new TransactionAlreadyExistsException(
+                    "Ledger %s -> idempotency key %s already used by another transaction".formatted(to, dedupe));
+
+            Log.warnf("Idempotency key %s of ledger %s already used by another transaction", dedupe, to);
+            idempotency.release(debitClaim, e);
+
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Transfer> moved;
+
+        try {
+            moved = sequencer.submit(from, to, () -> transfer(source, from, debit, target, to, credit));
+        } catch (RuntimeException e) {
+            idempotency.release(creditClaim, e);
+            idempotency.release(debitClaim, e);
+
+            return CompletableFuture.failedFuture(e);
+        }
+
+        moved.whenComplete((transfer, e) -> {
+            if (e != null) {
+                idempotency.release(creditClaim, e);
+                idempotency.release(debitClaim, e);
+            } else {
+                creditClaim.id().complete(transfer.creditId());
+                debitClaim.id().complete(transfer.debitId());
+            }
+        });
+
+        return durable(moved).thenApply(transfer -> {
+            Log.debugf("Transfer from %s to %s: debit id=%s, credit id=%s", from, to, transfer.debitId(),
+                    transfer.creditId());
+
+            return transfer;
+        });
+    }
+
+    /**
+     * Runs with both ledgers held. The credit is appended from
+     * the write-ahead callback of the debit, before the debit is published:
+     * the two legs are logged as one record once both balances are checked,
+     * and if anything fails neither ledger keeps its leg.
+     */
+    private Transfer transfer(Ledger source, LedgerKey from, Transaction debit, Ledger target, LedgerKey to,
+            Transaction credit) {
+        LoggedTransfer logged = wal != null ? new LoggedTransfer(from, debit, to, credit) : null;
+        UUID[] creditId = new UUID[1];
+        List<CommitResult> debited;
+
+        try {
+            // appendAll, unlike append, never comes back with a taken id: once
+            // the credit is published the debit must not fail
+            debited = source.appendAll(List.of(debit), true, entries -> {
+                UUID debitId = entries.getFirst().getKey();
+
+                creditId[0] = target.append(credit, logged != null
+                        ? id -> logged.accept(debitId, id)
+                        : NO_WRITE_AHEAD);
+
+                if (creditId[0] == null) {
+                    Log.warnf("Transaction id collision in ledger %s", to);
+
+                    throw new TransactionAlreadyExistsException("Ledger %s -> transaction id collision".formatted(to));
+                }
+            });
+        } finally {
+            if (logged != null && logged.offset >= 0) {
+                wal.applied(logged.offset);
+            }
+        }
+
+        Transfer transfer = new Transfer(debited.getFirst().id(), creditId[0]);
+
+        feed.publish(from, transfer.debitId(), debit);
+        feed.publish(to, transfer.creditId(), credit);
+
+        return transfer;
+    }
+
+    /**
+     * The result once it is durable. For a replay it is the id committed by
+     * the claim that won, if that commit failed the retry fails the same way.
+     */
+    private <T> CompletableFuture<T> durable(CompletableFuture<T> result) {
+        if (wal == null) {
+            return result;
+        }
+
+        return result.thenCompose(value -> wal.flushed().thenApply(_ -> value));
+    }
+
+    // Blocks until everything appended so far is durable
+    private void awaitDurable() {
+        if (wal != null) {
+            wal.flushed().join();
+        }
+    }
+
+    // Waits for the result, rethrowing what the work behind it threw
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a batch to one ledger with a single lookup, a single write-ahead
+     * record and a single wait for its fsync. Each transaction is deduplicated
+     * by its reference like {@link #add(LedgerKey, Transaction, String)}:
+     * retried ones get their original id back and are not appended again.
+     *
+     * Returns one result per transaction, in batch order. In an atomic batch
+     * either every new transaction is appended or none: a reference conflict
+     * throws, and so do a balance overflow and an overdraft. A reference still
+     * committing for another request is waited for before anything is
+     * appended, and if that commit failed the batch fails the same way.
+     *
+     * @throws TransactionAlreadyExistsException if an atomic batch reuses the
+     *                                           reference of another
+     *                                           transaction
+     * @throws ArithmeticException               if an atomic batch would
+     *                                           overflow the balance
+     * @throws InsufficientFundsException       if an atomic batch would take
+     *                                           the balance below zero
+     */
+    public List<CommitResult> addAll(LedgerKey key, List<Transaction> transactions, boolean atomic) {
+        Ledger ledger = getLedgerOrThrow(key);
+        IdempotencyIndex.Claim[] owned = new IdempotencyIndex.Claim[transactions.size()];
+        IdempotencyIndex.Claim[] earlier = new IdempotencyIndex.Claim[transactions.size()];
+        Set<String> claimed = new HashSet<>();
+        boolean conflict = false;
+
+        for (int i : claimOrder(transactions, atomic)) {
+            Transaction transaction = transactions.get(i);
+            IdempotencyIndex.Claim claim = idempotency.newClaim(key, transaction.reference(), transaction);
+            IdempotencyIndex.Claim existing = idempotency.claim(claim);
+
+            if (existing == null) {
+                owned[i] = claim;
+                claimed.add(transaction.reference());
+
+                continue;
+            }
+
+            earlier[i] = existing;
+            conflict |= !existing.isFor(transaction);
+
+            // Settled before anything is appended, see claimOrder
+            if (atomic && !conflict && !claimed.contains(transaction.reference())) {
+                try {
+                    existing.id().join();
+                } catch (CompletionException e) {
+                    RuntimeException failed = e.getCause() instanceof RuntimeException cause ? cause : e;
+
+                    release(owned, failed);
+
+                    throw failed;
+                }
+            }
+        }
 
-        UUID trxId = Generators.timeBasedEpochGenerator().generate();
+        List<Transaction> fresh = new ArrayList<>(transactions.size());
 
-        if (store.get(key).containsKey(trxId)) {
-            Log.warnf("Transaction already exists in ledger %s with transaction id %s", key, trxId);
+        for (int i = 0; i < transactions.size(); i++) {
+            if (owned[i] != null) {
+                fresh.add(transactions.get(i));
+            }
+        }
+
+        if (atomic && conflict) {
+            TransactionAlreadyExistsException e = new TransactionAlreadyExistsException(
+                    "Ledger %s -> batch reuses the reference of another transaction".formatted(key));
+
+            release(owned, e);
+
+            throw e;
+        }
+
+        List<CommitResult> appended;
+
+        try {
+            appended = join(sequencer.submit(key, () -> appendAll(ledger, key, fresh, atomic)));
+        } catch (RuntimeException e) {
+            release(owned, e);
+
+            throw e;
+        }
+
+        List<CommitResult> results = new ArrayList<>(transactions.size());
+        int next = 0;
+
+        // Our own claims are settled first, only then we wait on other
+        // requests' claims: two batches waiting on each other cannot deadlock
+        for (IdempotencyIndex.Claim claim : owned) {
+            if (claim == null) {
+                continue;
+            }
+
+            CommitResult result = appended.get(next++);
+
+            switch (result.status()) {
+                case COMMITTED -> claim.id().complete(result.id());
+                case OVERFLOW -> idempotency.release(claim, new ArithmeticException("Balance overflow"));
+                default -> idempotency.release(claim, new InsufficientFundsException("Insufficient funds"));
+            }
+        }
+
+        next = 0;
+
+        for (int i = 0; i < transactions.size(); i++) {
+            if (owned[i] != null) {
+                results.add(appended.get(next++));
+            } else if (!earlier[i].isFor(transactions.get(i))) {
+                results.add(new CommitResult(null, CommitResult.Status.CONFLICT));
+            } else {
+                results.add(replayedInBatch(earlier[i]));
+            }
+        }
+
+        if (wal != null) {
+            wal.flushed().join();
+        }
+
+        Log.debugf("Batch of %d transactions added to service %s", transactions.size(), key);
+
+        return results;
+    }
+
+    /**
+     * The order a batch claims its references in. An atomic batch waits for
+     * the claims of other requests as it meets them, while it holds its own:
+     * in reference order a batch only ever waits for references above the
+     * ones it holds, like ordered locking, so two atomic batches cannot wait
+     * on each other. Other batches and single commits never wait while they
+     * hold a claim.
+     */
+    private static List<Integer> claimOrder(List<Transaction> transactions, boolean atomic) {
+        List<Integer> order = new ArrayList<>(transactions.size());
+
+        for (int i = 0; i < transactions.size(); i++) {
+            order.add(i);
+        }
+
+        if (atomic) {
+            order.sort(Comparator.comparing(i -> transactions.get(i).reference(),
+                    Comparator.nullsFirst(Comparator.naturalOrder())));
+        }
+
+        return order;
+    }
+
+    private List<CommitResult> appendAll(Ledger ledger, LedgerKey key, List<Transaction> transactions,
+            boolean atomic) {
+        LoggedBatch logged = wal != null ? new LoggedBatch(key) : null;
+        List<CommitResult> results;
 
-            throw new TransactionAlreadyExistsException("Ledger %s -> transaction %s".formatted(key, trxId));
+        try {
+            results = ledger.appendAll(transactions, atomic, logged != null ? logged : NO_BATCH_WRITE_AHEAD);
+        } finally {
+            if (logged != null && logged.offset >= 0) {
+                wal.applied(logged.offset);
+            }
         }
 
-        transactions.put(trxId, transaction);
+        feed.publish(key, transactions, results);
 
-        Log.infof("Transaction added to service %s: transaction id=%s, model=%s", key, trxId, transaction.operation());
+        return results;
+    }
+
+    private CommitResult replayedInBatch(IdempotencyIndex.Claim claim) {
+        try {
+            return new CommitResult(claim.id().join(), CommitResult.Status.REPLAYED);
+        } catch (CompletionException e) {
+            // The original failed, nothing was committed under this reference
+            return new CommitResult(null, switch (e.getCause()) {
+                case ArithmeticException _ -> CommitResult.Status.OVERFLOW;
+                case InsufficientFundsException _ -> CommitResult.Status.INSUFFICIENT_FUNDS;
+                default -> CommitResult.Status.CONFLICT;
+            });
+        }
+    }
 
-        return Map.entry(trxId, transaction);
+    private void release(IdempotencyIndex.Claim[] claims, RuntimeException cause) {
+        for (IdempotencyIndex.Claim claim : claims) {
+            if (claim != null) {
+                idempotency.release(claim, cause);
+            }
+        }
     }
 
-    public List<Map.Entry<UUID, Transaction>> history(LedgerKey key, Instant start, Instant end) {
-        ConcurrentSkipListMap<UUID, Transaction> transactions = getTransactionsOrThrow(key);
+    /**
+     * Transactions between start and end, in id (time) order, and only the
+     * ones after the given id when there is one: the cursor of keyset paging.
+     * The stream is lazy, nothing is copied until it is consumed.
+     */
+    public Stream<Map.Entry<UUID, Transaction>> history(LedgerKey key, Instant start, Instant end, UUID after) {
+        Ledger ledger = getLedgerOrThrow(key);
         List<UUID> _uuids = range(start, end);
+        UUID from = _uuids.get(0);
+
+        if (after != null && after.compareTo(from) >= 0) {
+            from = Ids.successor(after);
+        }
+
+        if (from.compareTo(_uuids.get(1)) > 0) {
+            return Stream.empty();
+        }
+
+        return ledger.range(from, _uuids.get(1));
+    }
 
-        return transactions
-                .subMap(_uuids.get(0), true, _uuids.get(1), true)
-                .entrySet()
-                .stream()
-                .toList();
+    /**
+     * Every transaction of the ledger in id order, lazy like history: an
+     * export walks the store without copying it.
+     */
+    public Stream<Map.Entry<UUID, Transaction>> transactions(LedgerKey key) {
+        return getLedgerOrThrow(key).all();
     }
 
     // LLM gen. function, bitwise operations are archived in brain's tape storage 😅
@@ -93,22 +851,915 @@ public class InMemoryLedgerRepository {
         return List.of(new UUID(startMsb, startLsb), new UUID(endMsb, endLsb));
     }
 
-    public BigDecimal balance(LedgerKey key) {
-        ConcurrentSkipListMap<UUID, Transaction> transactions = getTransactionsOrThrow(key);
+    public long balance(LedgerKey key) {
+        // Running balance maintained by add(), O(1)
+        return getLedgerOrThrow(key).balance();
+    }
+
+    /**
+     * Balance including every transaction up to the given instant: the
+     * running total before its hour plus a scan of that hour alone.
+     */
+    public long balance(LedgerKey key, Instant asOf) {
+        Ledger ledger = getLedgerOrThrow(key);
+
+        if (!asOf.isBefore(Instant.now())) {
+            return ledger.balance();
+        }
+
+        long bucket = Checkpoints.bucketOf(asOf.toEpochMilli());
+        List<UUID> _uuids = range(Instant.ofEpochMilli(bucket * Checkpoints.BUCKET_MILLIS), asOf);
+
+        try (Stream<Map.Entry<UUID, Transaction>> tail = ledger.range(_uuids.get(0), _uuids.get(1))) {
+            return ledger.balanceBefore(bucket) + tail.mapToLong(entry -> entry.getValue().signedAmount()).sum();
+        }
+    }
+
+    /**
+     * Deposit and withdrawal totals of the transactions between start and end
+     * (both inclusive). The hours the period covers whole come from the
+     * rollups kept on append, only the partial hours at its edges are
+     * scanned. A transaction committed while it runs may or may not count.
+     */
+    public Aggregate aggregate(LedgerKey key, Instant start, Instant end) {
+        Ledger ledger = getLedgerOrThrow(key);
+        long from = start.toEpochMilli();
+        long to = end.toEpochMilli();
+
+        // Hours that start at or after the start and end at or before the end
+        long first = Math.ceilDiv(from, Checkpoints.BUCKET_MILLIS);
+        long last = Math.floorDiv(to + 1, Checkpoints.BUCKET_MILLIS) - 1;
+
+        if (first > last) {
+            return scan(ledger, from, to);
+        }
+
+        Aggregate total = ledger.hours(first, last);
+
+        if (from < first * Checkpoints.BUCKET_MILLIS) {
+            total = total.plus(scan(ledger, from, first * Checkpoints.BUCKET_MILLIS - 1));
+        }
+
+        if (to >= (last + 1) * Checkpoints.BUCKET_MILLIS) {
+            total = total.plus(scan(ledger, (last + 1) * Checkpoints.BUCKET_MILLIS, to));
+        }
+
+        return total;
+    }
+
+    /**
+     * {@link #aggregate(LedgerKey, Instant, Instant)} of every currency account
+     * of the ledger, by currency code. Empty when the ledger does not exist.
+     */
+    public Map<Currency, Aggregate> aggregate(UUID id, Instant start, Instant end) {
+        Map<Currency, Aggregate> aggregates = new LinkedHashMap<>();
+
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            aggregates.put(key.currency(), aggregate(key, start, end));
+        }
+
+        return aggregates;
+    }
+
+    // Transactions between two instants within at most two hours. The rollups
+    // say how many there are, enough of them are split over the common
+    // fork/join pool
+    private Aggregate scan(Ledger ledger, long from, long to) {
+        long estimated = ledger.hours(Checkpoints.bucketOf(from), Checkpoints.bucketOf(to)).count();
+
+        return new Scan(ledger, from, to, estimated).invoke();
+    }
+
+    /**
+     * Size of the store in one pass over the ledgers, meant for metrics
+     * scrapes rather than request paths.
+     */
+    public Stats stats() {
+        long transactions = 0;
+        long largest = 0;
+        long bytes = 0;
+        long coldBytes = 0;
+
+        for (Ledger ledger : store.values()) {
+            int size = ledger.size();
+
+            transactions += size;
+            largest = Math.max(largest, size);
+            bytes += ledger.estimatedBytes();
+            coldBytes += ledger.coldBytes();
+        }
+
+        return new Stats(store.size(), transactions, largest, bytes, coldBytes);
+    }
+
+    /**
+     * Estimated bytes are heap for the heap backend, native memory for the
+     * off-heap one. Cold bytes are the compressed segments on disk.
+     */
+    public record Stats(int ledgers, long transactions, long largestLedger, long estimatedBytes, long coldBytes) {
+    }
+
+    public CompactionStats compactionStats() {
+        return retention != null ? retention.stats() : new CompactionStats(0, 0, 0);
+    }
+
+    /**
+     * Transactions replaced by summaries, summaries written and estimated
+     * bytes reclaimed by retention since boot.
+     */
+    public record CompactionStats(long transactions, long summaries, long reclaimedBytes) {
+    }
+
+    public FeedStats feedStats() {
+        return feed.stats();
+    }
+
+    /**
+     * Open subscriptions, and the transactions dropped and subscriptions
+     * disconnected since boot because a buffer was full.
+     */
+    public record FeedStats(int subscribers, long dropped, long disconnected) {
+    }
+
+    /**
+     * Whether this node is a read-only follower of another one.
+     */
+    public boolean following() {
+        return follower != null;
+    }
+
+    public ReplicationStats replicationStats() {
+        if (follower != null) {
+            LogFollower.Status status = follower.status();
+
+            return new ReplicationStats(role, follower.leader(), status.connected(), status.applied(),
+                    status.leaderOffset(), status.lagMillis(), 0);
+        }
+
+        return new ReplicationStats(role, null, false, -1, -1, 0, shipper != null ? shipper.followers() : 0);
+    }
+
+    /**
+     * Follower side: the leader's log offset applied so far and the leader's
+     * latest durable one (-1 before the first message), and how long ago the
+     * follower last had everything the leader had. Leader side: the number of
+     * connected followers.
+     */
+    public record ReplicationStats(LedgerConfig.ReplicationRole role, String leader, boolean connected,
+            long appliedOffset, long leaderOffset, long lagMillis, int followers) {
+    }
+
+    /**
+     * Completes with true once the transaction is in the ledger (in any
+     * currency account of the id without a currency), or with false when a
+     * follower still does not have it after the read timeout. Complete right
+     * away on other nodes, they have every transaction they committed.
+     */
+    public CompletableFuture<Boolean> replicated(UUID id, Currency currency, UUID transactionId) {
+        if (follower == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return follower.await(() -> contains(id, currency, transactionId), readTimeout);
+    }
+
+    private boolean contains(UUID id, Currency currency, UUID transactionId) {
+        List<LedgerKey> keys = currency != null
+                ? List.of(new LedgerKey(id, currency))
+                : accounts.getOrDefault(id, List.of());
+
+        for (LedgerKey key : keys) {
+            Ledger ledger = store.get(key);
+
+            if (ledger == null) {
+                continue;
+            }
+
+            try (Stream<Map.Entry<UUID, Transaction>> found = ledger.range(transactionId, transactionId)) {
+                if (found.findAny().isPresent()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops taking writes to the ledger id, to hand it off to another node:
+     * appends to its currency accounts and new accounts fail with
+     * {@link LedgerMovedException} from now on. Returns once the appends
+     * submitted before are committed and durable, reads keep working until
+     * the ledger is dropped.
+     */
+    public void seal(UUID id) {
+        sealed.add(id);
+
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            Ledger ledger = store.get(key);
+
+            // Dropped meanwhile
+            if (ledger == null) {
+                continue;
+            }
+
+            join(sequencer.submitOrWait(key, () -> {
+                ledger.seal();
+
+                return null;
+            }));
+        }
+
+        awaitDurable();
+    }
+
+    /**
+     * Takes writes to a sealed ledger id again, it is not handed off after
+     * all.
+     */
+    public void unseal(UUID id) {
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            Ledger ledger = store.get(key);
+
+            // Dropped meanwhile
+            if (ledger != null) {
+                ledger.unseal();
+            }
+        }
+
+        sealed.remove(id);
+    }
+
+    /**
+     * Writes every currency account of a sealed ledger id to the stream as
+     * length-prefixed log records: the creation of each account, then its
+     * transactions in id order, EXPORT_CHUNK per record. A zero length ends
+     * the export. Returns the number of transactions written.
+     */
+    public long export(UUID id, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, EXPORT_BUFFER));
+        long count = 0;
+
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            count += dump(key, record -> frame(data, record));
+        }
+
+        data.writeInt(0);
+        data.flush();
+
+        return count;
+    }
+
+    /**
+     * Writes the whole store as log records, for a follower that has none of
+     * the log this node kept. Returns the log offset to ship from afterwards:
+     * records past it may be in the dump already, a follower skips them.
+     */
+    long dump(WalRecord.Sink out) throws IOException {
+        // Taken before walking the store, like a snapshot
+        long offset = wal.recoveryPoint();
+
+        for (LedgerKey key : store.keySet()) {
+            dump(key, out);
+        }
+
+        return offset;
+    }
+
+    /**
+     * The creation of the account, then its transactions in id order,
+     * EXPORT_CHUNK per record. Returns the number of transactions written.
+     */
+    private long dump(LedgerKey key, WalRecord.Sink out) throws IOException {
+        Ledger ledger = store.get(key);
+        long count = 0;
+
+        // Dropped meanwhile
+        if (ledger == null) {
+            return 0;
+        }
+
+        out.write(new WalRecord.LedgerCreated(key));
+
+        try (Stream<Map.Entry<UUID, Transaction>> all = ledger.all()) {
+            Iterator<Map.Entry<UUID, Transaction>> transactions = all.iterator();
+            List<Map.Entry<UUID, Transaction>> chunk = new ArrayList<>(EXPORT_CHUNK);
+
+            while (transactions.hasNext()) {
+                chunk.add(transactions.next());
+
+                if (chunk.size() == EXPORT_CHUNK || !transactions.hasNext()) {
+                    out.write(new WalRecord.TransactionsAppended(key, chunk));
+                    count += chunk.size();
+                    chunk = new ArrayList<>(EXPORT_CHUNK);
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Merges a ledger written by {@link #export(UUID, OutputStream)} into the
+     * store, logged like any other write. Missing accounts are created and
+     * transactions already here are skipped, so importing the same export
+     * again is harmless. Idempotency keys within the TTL are indexed and the
+     * ledger is durable when it returns. Returns the number of transactions
+     * read.
+     *
+     * @throws IllegalArgumentException if a record is not an account or
+     *                                  transactions of the ledger id
+     * @throws EOFException             if the export ends early
+     */
+    public long importLedger(UUID id, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, EXPORT_BUFFER));
+        long count = 0;
+        int length;
+
+        while ((length = data.readInt()) > 0) {
+            byte[] body = new byte[length];
+
+            data.readFully(body);
+
+            WalRecord record = WalRecord.decode(ByteBuffer.wrap(body));
+
+            if (!record.key().id().equals(id)) {
+                throw new IllegalArgumentException("Export of %s has a record of %s".formatted(id, record.key()));
+            }
+
+            switch (record) {
+                case WalRecord.LedgerCreated created -> {
+                    if (insert(created.key()) && wal != null) {
+                        wal.applied(wal.append(created));
+                    }
+                }
+                case WalRecord.TransactionsAppended appended -> {
+                    Ledger ledger = getLedgerOrThrow(appended.key());
+
+                    join(sequencer.submitOrWait(appended.key(), () -> {
+                        merge(ledger, appended);
+
+                        return null;
+                    }));
+                    count += appended.transactions().size();
+                }
+                default -> throw new IllegalArgumentException(
+                        "Unexpected record in the export of %s: %s".formatted(id, record.key()));
+            }
+        }
+
+        List<UUID> recent = recent();
+
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            restoreIdempotency(key, store.get(key), recent);
+        }
+
+        awaitDurable();
+
+        return count;
+    }
+
+    /**
+     * Starts a bulk import into the ledger, see {@link BulkLoad}. The last id
+     * and the balance it starts from are read on the writer, so they match.
+     */
+    public BulkLoad bulkLoad(LedgerKey key, boolean atomic) {
+        Ledger ledger = getLedgerOrThrow(key);
+
+        return join(sequencer.submitOrWait(key,
+                () -> new BulkLoad(key, ledger.last(), ledger.balance(), atomic, this::install)));
+    }
+
+    /**
+     * Installs what is left staged of a bulk load, BulkLoad.CHUNK
+     * transactions per task on the writer of the ledger: the commits of the
+     * other ledgers of that writer run between two chunks. Idempotency keys
+     * within the TTL are indexed and the transactions are durable when it
+     * returns. Returns the number of transactions stored by the whole load.
+     *
+     * An atomic load refuses the appends to its ledger from its first chunk
+     * to its last one, with {@link LedgerBusyException}. A handoff sealing
+     * the ledger in between still stops it after the chunks installed so far.
+     *
+     * @throws LedgerChangedException if a transaction was committed to the
+     *                                ledger since the load started, or since
+     *                                its last chunk
+     * @throws LedgerMovedException   if the ledger is sealed
+     */
+    public int load(BulkLoad load) {
+        install(load);
+        awaitDurable();
+
+        Log.debugf("Bulk load of %d transactions installed in %s", load.installed(), load.key());
+
+        return load.installed();
+    }
+
+    // The staged transactions of the load, a chunk per writer task, each
+    // indexed once it is in
+    private void install(BulkLoad load) {
+        LedgerKey key = load.key();
+        Ledger ledger = getLedgerOrThrow(key);
+        List<Map.Entry<UUID, Transaction>> staged = load.entries();
+        boolean holding = load.atomic() && staged.size() > BulkLoad.CHUNK;
+        long since = System.currentTimeMillis() - idempotency.ttlMillis();
+
+        try {
+            for (int from = 0; from < staged.size(); from += BulkLoad.CHUNK) {
+                List<Map.Entry<UUID, Transaction>> chunk = staged.subList(from,
+                        Math.min(staged.size(), from + BulkLoad.CHUNK));
+                boolean first = from == 0;
+
+                join(sequencer.submitOrWait(key, () -> {
+                    install(ledger, load, chunk);
+
+                    if (holding && first) {
+                        ledger.loading();
+                    }
+
+                    return null;
+                }));
+
+                for (Map.Entry<UUID, Transaction> entry : chunk) {
+                    long created = entry.getKey().getMostSignificantBits() >>> 16;
+
+                    if (created >= since) {
+                        idempotency.restore(key, entry.getValue().reference(), entry.getKey(), entry.getValue(),
+                                created);
+                    }
+                }
+            }
+        } finally {
+            if (holding) {
+                ledger.loaded();
+            }
+
+            load.drained();
+        }
+    }
+
+    // Runs on the writer of the ledger, logged EXPORT_CHUNK per record
+    private void install(Ledger ledger, BulkLoad load, List<Map.Entry<UUID, Transaction>> chunk) {
+        LedgerKey key = load.key();
+
+        if (!Objects.equals(ledger.last(), load.base()) || ledger.balance() != load.baseBalance()) {
+            throw new LedgerChangedException(load.installed() == 0
+                    ? "Ledger %s changed while the import was read, nothing was imported".formatted(key)
+                    : "Ledger %s changed while the import was read, %d transactions were imported before"
+                            .formatted(key, load.installed()));
+        }
+
+        List<Long> offsets = new ArrayList<>();
+        Consumer<List<Map.Entry<UUID, Transaction>>> logged = wal == null ? NO_BATCH_WRITE_AHEAD : entries -> {
+            for (int from = 0; from < entries.size(); from += EXPORT_CHUNK) {
+                List<Map.Entry<UUID, Transaction>> record = entries.subList(from,
+                        Math.min(entries.size(), from + EXPORT_CHUNK));
+
+                offsets.add(wal.append(new WalRecord.TransactionsAppended(key, record)));
+            }
+        };
+
+        try {
+            ledger.load(chunk, logged);
+        } finally {
+            offsets.forEach(offset -> wal.applied(offset));
+        }
+
+        load.installed(chunk, ledger.balance());
+        chunk.forEach(entry -> feed.publish(key, entry.getKey(), entry.getValue()));
+    }
+
+    // Runs on the writer of the ledger, restore skips the ids it already has
+    private void merge(Ledger ledger, WalRecord.TransactionsAppended record) {
+        long offset = wal != null ? wal.append(record) : -1;
+
+        try {
+            record.transactions().forEach(entry -> ledger.restore(entry.getKey(), entry.getValue()));
+        } finally {
+            if (offset >= 0) {
+                wal.applied(offset);
+            }
+        }
+    }
+
+    // Compactions are logged like any other write, see Retention.install()
+    private Retention.Journal journal() {
+        return new Retention.Journal() {
+            @Override
+            public long append(WalRecord.Compacted record) {
+                return wal != null ? wal.append(record) : -1;
+            }
+
+            @Override
+            public void applied(long offset) {
+                if (offset >= 0) {
+                    wal.applied(offset);
+                }
+            }
+        };
+    }
+
+    private static void frame(DataOutputStream out, WalRecord record) throws IOException {
+        byte[] body = record.encode();
+
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * Removes every currency account of the ledger id, once it is on another
+     * node. Logged, so a restart does not bring it back, and its
+     * subscriptions end. Its idempotency keys are left to expire.
+     */
+    public void drop(UUID id) {
+        for (LedgerKey key : accounts.getOrDefault(id, List.of())) {
+            // Not applied before it is out of the store, a snapshot taken
+            // meanwhile still replays the record
+            long offset = wal != null ? wal.append(new WalRecord.LedgerDropped(key)) : -1;
+
+            try {
+                forget(key);
+            } finally {
+                if (offset >= 0) {
+                    wal.applied(offset);
+                }
+            }
+
+            feed.end(key);
+        }
+
+        sealed.remove(id);
+        awaitDurable();
+
+        Log.debugf("Ledger dropped: %s, %d ledgers", id, store.size());
+    }
+
+    /**
+     * Writes a snapshot of the store and drops the log segments it makes
+     * redundant. Runs in the background every snapshot interval and on
+     * shutdown; writers keep going while it runs.
+     */
+    public synchronized void snapshot() {
+        if (snapshots == null) {
+            throw new IllegalStateException("Snapshots are disabled");
+        }
+
+        // Taken before walking the store: every record before it is already
+        // applied, the ones after are replayed on top of the snapshot
+        long offset = wal != null ? wal.recoveryPoint() : 0;
+
+        if (wal != null && offset == snapshotOffset) {
+            Log.debugf("Nothing logged since the last snapshot at offset %d", offset);
+
+            return;
+        }
+
+        snapshots.write(offset, store);
+        snapshotOffset = offset;
+
+        if (wal != null) {
+            wal.truncate(offset);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (follower != null) {
+            follower.close();
+        }
+
+        // Before the log closes under it
+        if (shipper != null) {
+            shipper.close();
+        }
+
+        // A demotion in flight needs the sequencer to complete
+        if (demoter != null) {
+            demoter.shutdownNow();
+
+            try {
+                demoter.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Same for a compaction
+        if (compactor != null) {
+            compactor.shutdownNow();
+
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Lets the writes already submitted finish, so they are in the snapshot
+        sequencer.close();
+        feed.close();
+
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+
+            // Refused by a failed log, the log still has to close
+            scheduledSnapshot();
+        }
+
+        if (wal != null) {
+            wal.close();
+        }
+
+        store.values().forEach(Ledger::close);
+    }
+
+    /**
+     * Puts back the references committed within the TTL, so retries are still
+     * recognised after a restart. Idempotency-Key headers are not logged and
+     * are lost.
+     */
+    private void restoreIdempotency() {
+        List<UUID> recent = recent();
+
+        store.forEach((key, ledger) -> restoreIdempotency(key, ledger, recent));
+    }
+
+    private void restoreIdempotency(LedgerKey key, Ledger ledger, List<UUID> _uuids) {
+        try (Stream<Map.Entry<UUID, Transaction>> recent = ledger.range(_uuids.get(0), _uuids.get(1))) {
+            recent.forEach(entry -> idempotency.restore(key, entry.getValue().reference(), entry.getKey(),
+                    entry.getValue(), entry.getKey().getMostSignificantBits() >>> 16));
+        }
+    }
+
+    // Ids committed within the idempotency TTL
+    private List<UUID> recent() {
+        Instant now = Instant.now();
+
+        return range(now.minusMillis(idempotency.ttlMillis()), now.plus(Duration.ofDays(1)));
+    }
+
+    private void scheduledDemotion() {
+        try {
+            synchronized (housekeeping) {
+                tiering.demote(store, sequencer);
+            }
+        } catch (RuntimeException e) {
+            Log.errorf(e, "Demotion failed");
+        }
+    }
+
+    private void scheduledCompaction() {
+        try {
+            synchronized (housekeeping) {
+                retention.compact(store, sequencer, journal());
+            }
+        } catch (RuntimeException e) {
+            Log.errorf(e, "Compaction failed");
+        }
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            // Thrown out of here the executor would cancel the next ones
+            Log.errorf(e, "Snapshot failed");
+        }
+    }
+
+    /**
+     * Logs the transaction once the store gives it an id, and keeps the log
+     * offset so it can be reported as applied afterwards.
+     */
+    private final class LoggedAppend implements Consumer<UUID> {
+        private final LedgerKey key;
+
+        private final Transaction transaction;
+
+        private long offset = -1;
+
+        LoggedAppend(LedgerKey key, Transaction transaction) {
+            this.key = key;
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void accept(UUID id) {
+            offset = wal.append(new WalRecord.TransactionAppended(key, id, transaction));
+        }
+    }
+
+    /**
+     * Same as {@link LoggedAppend} for a batch, logged as one record.
+     */
+    private final class LoggedBatch implements Consumer<List<Map.Entry<UUID, Transaction>>> {
+        private final LedgerKey key;
+
+        private long offset = -1;
+
+        LoggedBatch(LedgerKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public void accept(List<Map.Entry<UUID, Transaction>> entries) {
+            offset = wal.append(new WalRecord.TransactionsAppended(key, entries));
+        }
+    }
+
+    /**
+     * Aggregation scan over the ids between two instants. Skip list sub-maps
+     * do not split, so the period itself is halved until each piece should
+     * hold about SCAN_SLICE transactions (assuming they are spread evenly)
+     * and every piece scans its own sub-range of the store.
+     */
+    private final class Scan extends RecursiveTask<Aggregate> {
+        private final Ledger ledger;
+
+        private final long from;
+
+        private final long to;
+
+        private final long estimated;
+
+        Scan(Ledger ledger, long from, long to, long estimated) {
+            this.ledger = ledger;
+            this.from = from;
+            this.to = to;
+            this.estimated = estimated;
+        }
+
+        @Override
+        protected Aggregate compute() {
+            if (estimated <= SCAN_SLICE || from == to) {
+                List<UUID> _uuids = range(Instant.ofEpochMilli(from), Instant.ofEpochMilli(to));
+
+                try (Stream<Map.Entry<UUID, Transaction>> range = ledger.range(_uuids.get(0), _uuids.get(1))) {
+                    return range.map(Map.Entry::getValue).collect(Rollups.summing());
+                }
+            }
+
+            long middle = from + (to - from) / 2;
+            Scan left = new Scan(ledger, from, middle, estimated / 2);
+
+            left.fork();
+
+            Aggregate right = new Scan(ledger, middle + 1, to, estimated - estimated / 2).compute();
+
+            return left.join().plus(right);
+        }
+    }
+
+    /**
+     * Both legs of a transfer as one record, see {@link LoggedAppend}.
+     */
+    private final class LoggedTransfer {
+        private final LedgerKey from;
+
+        private final Transaction debit;
+
+        private final LedgerKey to;
+
+        private final Transaction credit;
+
+        private long offset = -1;
+
+        LoggedTransfer(LedgerKey from, Transaction debit, LedgerKey to, Transaction credit) {
+            this.from = from;
+            this.debit = debit;
+            this.to = to;
+            this.credit = credit;
+        }
+
+        void accept(UUID debitId, UUID creditId) {
+            offset = wal.append(new WalRecord.Transferred(from, debitId, debit, to, creditId, credit));
+        }
+    }
+
+    // Replay on boot, and every record a follower gets: its subscribers see
+    // what is new to it, on boot there are none
+    private void apply(WalRecord record) {
+        if (record instanceof WalRecord.LedgerDropped dropped) {
+            forget(dropped.key());
+            feed.end(dropped.key());
+
+            return;
+        }
+
+        LedgerKey key = record.key();
+        Ledger ledger = restored(key);
+
+        switch (record) {
+            case WalRecord.Transferred transferred -> {
+                restore(ledger, key, transferred.debitId(), transferred.debit());
+                restore(restored(transferred.to()), transferred.to(), transferred.creditId(), transferred.credit());
+            }
+            case WalRecord.TransactionAppended appended -> restore(ledger, key, appended.id(), appended.transaction());
+            case WalRecord.TransactionsAppended appended -> appended.transactions()
+                    .forEach(entry -> restore(ledger, key, entry.getKey(), entry.getValue()));
+            // Not published, subscribers already saw what it summarises
+            case WalRecord.Compacted compacted -> ledger.compact(compacted.first(), compacted.last(),
+                    compacted.summaries());
+            case WalRecord.LedgerCreated _, WalRecord.LedgerDropped _ -> {
+            }
+        }
+    }
+
+    private void restore(Ledger ledger, LedgerKey key, UUID id, Transaction transaction) {
+        if (ledger.restore(id, transaction)) {
+            feed.publish(key, id, transaction);
+        }
+    }
+
+    // A follower starting over from the leader's store
+    private void reset() {
+        for (LedgerKey key : List.copyOf(store.keySet())) {
+            forget(key);
+            feed.end(key);
+        }
+    }
+
+    /**
+     * Adds a new ledger to the store and its key to the accounts of its id in
+     * one step. False when the ledger already exists. The ledger is only
+     * built when it goes in: an off-heap or tiered one holds memory and files
+     * a losing copy would leak.
+     */
+    private boolean insert(LedgerKey key) {
+        boolean[] inserted = new boolean[1];
+
+        accounts.compute(key.id(), (_, keys) -> {
+            store.computeIfAbsent(key, _ -> {
+                inserted[0] = true;
+
+                return newLedger(key);
+            });
+
+            if (!inserted[0]) {
+                return keys;
+            }
+
+            if (keys == null) {
+                return List.of(key);
+            }
+
+            List<LedgerKey> added = new ArrayList<>(keys);
+
+            added.add(key);
+            added.sort(Comparator.comparing(account -> account.currency().value()));
+
+            return List.copyOf(added);
+        });
+
+        return inserted[0];
+    }
+
+    /**
+     * Removes a ledger from the store and its key from the accounts of its id
+     * in one step, the reverse of {@link #insert(LedgerKey)}.
+     */
+    private void forget(LedgerKey key) {
+        Ledger[] removed = new Ledger[1];
+
+        accounts.computeIfPresent(key.id(), (_, keys) -> {
+            removed[0] = store.remove(key);
+
+            List<LedgerKey> rest = keys.stream().filter(account -> !account.equals(key)).toList();
+
+            return rest.isEmpty() ? null : rest;
+        });
+
+        if (removed[0] != null) {
+            removed[0].close();
+        }
+    }
+
+    // Recovery, the first snapshot entry or log record of a ledger creates it
+    private Ledger restored(LedgerKey key) {
+        Ledger ledger = store.get(key);
+
+        if (ledger == null) {
+            insert(key);
+            ledger = store.get(key);
+        }
+
+        return ledger;
+    }
 
-        // This operations sucks in big ledgers -> O(n)
-        return transactions.values().stream()
-                .map(tx -> tx.operation() == Transaction.Operation.DEPOSIT ? tx.amount() : tx.amount().negate())
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    private Ledger newLedger(LedgerKey key) {
+        return new Ledger(switch (backend) {
+            case HEAP -> tiering != null ? tiering.newStore(key) : new SkipListTransactionStore();
+            case OFF_HEAP -> new OffHeapTransactionStore(key.currency());
+        });
     }
 
-    private ConcurrentSkipListMap<UUID, Transaction> getTransactionsOrThrow(LedgerKey key) {
-        ConcurrentSkipListMap<UUID, Transaction> transactions = store.get(key);
+    private Ledger getLedgerOrThrow(LedgerKey key) {
+        Ledger ledger = store.get(key);
 
-        if (transactions == null) {
+        if (ledger == null) {
             throw new LedgerNotFoundException(String.format("Ledger not found: %s", key));
         }
 
-        return transactions;
+        return ledger;
     }
 }
@@ -0,0 +1,502 @@
+package com.acme.api.ledger.repository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.exception.InsufficientFundsException;
+import com.acme.api.ledger.exception.LedgerBusyException;
+import com.acme.api.ledger.exception.LedgerMovedException;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * A single currency account: the transactions ordered by UUIDv7 plus a running
+ * balance kept in step with them, so reading the balance does not need to walk
+ * all the transactions. The balance is in minor units of the currency.
+ */
+final class Ledger implements AutoCloseable {
+    private final TransactionStore transactions;
+
+    private final AtomicLong balance = new AtomicLong();
+
+    private final Checkpoints checkpoints = new Checkpoints();
+
+    private final Rollups rollups = new Rollups();
+
+    // Last append or range read, for least recently used demotion. Only
+    // written when it moved by more than a second, reads of a busy ledger
+    // should not all write the same field
+    private volatile long accessed = System.currentTimeMillis();
+
+    // Set by the writer once the ledger is handed off to another node
+    private volatile boolean sealed;
+
+    // Set by the writer while an atomic bulk load spans several of its tasks
+    private volatile boolean loading;
+
+    // Set by the writer from the swap of a compacted period until the
+    // transactions it replaces are all removed, see summarise()
+    private volatile Dropping dropping;
+
+    private record Dropping(UUID first, UUID last, Set<UUID> kept) {
+        boolean overlaps(UUID from, UUID to) {
+            return first.compareTo(to) <= 0 && last.compareTo(from) >= 0;
+        }
+
+        boolean hides(UUID id) {
+            return id.compareTo(first) >= 0 && id.compareTo(last) <= 0 && !kept.contains(id);
+        }
+    }
+
+    Ledger(TransactionStore transactions) {
+        this.transactions = transactions;
+    }
+
+    /**
+     * The balance moves once the write-ahead callback returned and before the
+     * transaction is published in the store: a balance read never sees an
+     * amount whose log write then fails, and any transaction visible through
+     * history() is already part of the balance. Returns the new transaction
+     * id, or null (leaving the balance untouched) if the generated id is
+     * already taken, which only an id restored on boot can be.
+     *
+     * Only the writer of the ledger (see {@link Sequencer}) appends, so the
+     * balance check and the update that follows it cannot interleave with
+     * another append.
+     *
+     * @throws ArithmeticException         if the balance would overflow,
+     *                                     nothing is stored in that case
+     * @throws InsufficientFundsException if a withdrawal would take the
+     *                                     balance below zero
+     * @throws LedgerMovedException        if the ledger is sealed
+     * @throws LedgerBusyException         if an atomic bulk load is being
+     *                                     installed
+     */
+    UUID append(Transaction transaction, Consumer<UUID> writeAhead) {
+        checkOpen();
+        checkIdle();
+        touch();
+
+        long previous = balance.get();
+        long delta = transaction.signedAmount();
+        long next = checked(previous, delta);
+
+        UUID id;
+
+        try {
+            id = transactions.append(transaction, trxId -> {
+                writeAhead.accept(trxId);
+                balance.set(next);
+            });
+        } catch (RuntimeException e) {
+            balance.set(previous);
+
+            throw e;
+        }
+
+        if (id == null) {
+            balance.set(previous);
+        } else {
+            checkpoints.record(id, delta);
+            rollups.record(id, transaction);
+        }
+
+        return id;
+    }
+
+    /**
+     * Appends a batch in one pass, checking each transaction against the
+     * balance left by the ones before it. Atomic batches either store all of
+     * them or, if one would overflow or overdraw the balance, none. Otherwise
+     * each transaction that would is left out on its own.
+     *
+     * Returns one result per transaction in batch order, with the id of the
+     * stored ones and the reason for the ones left out.
+     *
+     * @throws ArithmeticException         if an atomic batch would overflow
+     *                                     the balance
+     * @throws InsufficientFundsException if an atomic batch would take the
+     *                                     balance below zero
+     * @throws LedgerMovedException        if the ledger is sealed
+     * @throws LedgerBusyException         if an atomic bulk load is being
+     *                                     installed
+     */
+    List<CommitResult> appendAll(List<Transaction> batch, boolean atomic,
+            Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead) {
+        checkOpen();
+        checkIdle();
+        touch();
+
+        List<Transaction> accepted = atomic ? batch : new ArrayList<>(batch.size());
+        CommitResult.Status[] rejected = new CommitResult.Status[batch.size()];
+        long previous = balance.get();
+        long running = previous;
+
+        for (int i = 0; i < batch.size(); i++) {
+            Transaction transaction = batch.get(i);
+
+            try {
+                running = checked(running, transaction.signedAmount());
+            } catch (ArithmeticException | InsufficientFundsException e) {
+                if (atomic) {
+                    throw e;
+                }
+
+                rejected[i] = e instanceof ArithmeticException
+                        ? CommitResult.Status.OVERFLOW
+                        : CommitResult.Status.INSUFFICIENT_FUNDS;
+
+                continue;
+            }
+
+            if (!atomic) {
+                accepted.add(transaction);
+            }
+        }
+
+        long after = running;
+        List<UUID> ids;
+
+        // Like append, the balance moves between the write-ahead and the store
+        try {
+            ids = accepted.isEmpty() ? List.of() : transactions.appendAll(accepted, entries -> {
+                writeAhead.accept(entries);
+                balance.set(after);
+            });
+        } catch (RuntimeException e) {
+            balance.set(previous);
+
+            throw e;
+        }
+
+        List<CommitResult> results = new ArrayList<>(batch.size());
+        int next = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (rejected[i] != null) {
+                results.add(new CommitResult(null, rejected[i]));
+
+                continue;
+            }
+
+            UUID id = ids.get(next++);
+
+            checkpoints.record(id, batch.get(i).signedAmount());
+            rollups.record(id, batch.get(i));
+            results.add(new CommitResult(id, CommitResult.Status.COMMITTED));
+        }
+
+        return results;
+    }
+
+    /**
+     * Installs a bulk import, see {@link BulkLoad}: ids are assigned,
+     * increasing and greater than every stored one, and the balance was
+     * checked row by row from the one the load started with. The write-ahead
+     * callback gets all of them before any becomes visible, like appendAll.
+     * Only called by the writer of the ledger.
+     *
+     * @throws ArithmeticException  if the balance would overflow, nothing is
+     *                              logged or stored in that case
+     * @throws LedgerMovedException if the ledger is sealed
+     */
+    void load(List<Map.Entry<UUID, Transaction>> sorted, Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead) {
+        checkOpen();
+        touch();
+
+        long previous = balance.get();
+        long running = previous;
+
+        for (Map.Entry<UUID, Transaction> entry : sorted) {
+            running = Math.addExact(running, entry.getValue().signedAmount());
+        }
+
+        writeAhead.accept(sorted);
+        balance.set(running);
+
+        try {
+            transactions.load(sorted);
+        } catch (RuntimeException e) {
+            balance.set(previous);
+
+            throw e;
+        }
+
+        for (Map.Entry<UUID, Transaction> entry : sorted) {
+            checkpoints.record(entry.getKey(), entry.getValue().signedAmount());
+            rollups.record(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Replaces the transactions with ids from first to last, a period rolled
+     * up by {@link Retention}, by its summaries, which all fall in the last
+     * hour of that range. The summaries are published before the
+     * transactions they replace are hidden and dropped: a stream opened
+     * meanwhile may see both, never neither. The balance moves by the
+     * difference between them, none when the summaries were made from those
+     * transactions. Summaries already there are kept as they are, so a
+     * replay over a snapshot taken after the compaction, or halfway through
+     * it, ends in the same state. Hourly checkpoints and rollups of the
+     * period are rebuilt from the summaries. Only called by the writer of the
+     * ledger, or on replay.
+     *
+     * Returns false, changing nothing, when the store cannot drop that range.
+     */
+    boolean compact(UUID first, UUID last, List<Map.Entry<UUID, Transaction>> summaries) {
+        UUID removable = transactions.removableFrom();
+
+        if (removable == null || first.compareTo(removable) < 0) {
+            return false;
+        }
+
+        Set<UUID> kept = ids(summaries);
+        long dropped;
+
+        try (Stream<Map.Entry<UUID, Transaction>> period = transactions.range(first, last)) {
+            dropped = period.filter(entry -> !kept.contains(entry.getKey()))
+                    .mapToLong(entry -> entry.getValue().signedAmount())
+                    .sum();
+        }
+
+        summarise(first, last, summaries, dropped);
+        drop(first, last);
+        dropped();
+
+        return true;
+    }
+
+    /**
+     * The first half of {@link #compact(UUID, UUID, List)}, for a period
+     * whose transactions the caller already added up off the writer: dropped
+     * is their net amount, the summaries left out. The summaries go in and
+     * the balance, checkpoints and rollups move, while the transactions they
+     * replace stay in the store, hidden from every read, until
+     * {@link #drop(UUID, UUID)} took them all out and {@link #dropped()} is
+     * called. Only called by the writer of the ledger.
+     */
+    void summarise(UUID first, UUID last, List<Map.Entry<UUID, Transaction>> summaries, long dropped) {
+        Dropping previous = dropping;
+
+        // Left halfway by a failed pass, finished whole before it is forgotten
+        if (previous != null) {
+            transactions.remove(previous.first(), previous.last(), previous.kept());
+        }
+
+        long net = 0;
+        long added = 0;
+        Aggregate totals = Aggregate.EMPTY;
+
+        for (Map.Entry<UUID, Transaction> summary : summaries) {
+            long amount = summary.getValue().signedAmount();
+
+            net = Math.addExact(net, amount);
+            totals = totals.plus(summary.getValue());
+
+            if (transactions.put(summary.getKey(), summary.getValue())) {
+                added += amount;
+            }
+        }
+
+        balance.accumulateAndGet(added - dropped, Math::addExact);
+        dropping = new Dropping(first, last, ids(summaries));
+        checkpoints.compact(Checkpoints.bucketOf(first), Checkpoints.bucketOf(last), net);
+        rollups.compact(Checkpoints.bucketOf(first), Checkpoints.bucketOf(last), totals);
+    }
+
+    /**
+     * Removes the hidden transactions with ids from first to last, a slice
+     * of the period being compacted. Only called by the writer of the
+     * ledger.
+     */
+    void drop(UUID first, UUID last) {
+        transactions.remove(first, last, dropping.kept());
+    }
+
+    // Every hidden transaction is removed
+    void dropped() {
+        dropping = null;
+    }
+
+    private static Set<UUID> ids(List<Map.Entry<UUID, Transaction>> summaries) {
+        Set<UUID> ids = new HashSet<>();
+
+        for (Map.Entry<UUID, Transaction> summary : summaries) {
+            ids.add(summary.getKey());
+        }
+
+        return ids;
+    }
+
+    /**
+     * No append is taken from now on. Called by the writer of the ledger, so
+     * every append submitted before it is already in the store.
+     */
+    void seal() {
+        sealed = true;
+    }
+
+    // The handoff was called off, the ledger stays here
+    void unseal() {
+        sealed = false;
+    }
+
+    private void checkOpen() {
+        if (sealed) {
+            throw new LedgerMovedException("Ledger is moving to another node");
+        }
+    }
+
+    /**
+     * Appends are refused until {@link #loaded()}, so an atomic bulk load
+     * installed over several writer tasks is not interleaved with them. Called
+     * by the writer of the ledger.
+     */
+    void loading() {
+        loading = true;
+    }
+
+    void loaded() {
+        loading = false;
+    }
+
+    private void checkIdle() {
+        if (loading) {
+            throw new LedgerBusyException("Ledger is importing");
+        }
+    }
+
+    // Deposits are always taken (short of overflow), withdrawals only while
+    // they leave a balance of zero or more
+    private static long checked(long balance, long delta) {
+        long next = Math.addExact(balance, delta);
+
+        if (delta < 0 && next < 0) {
+            throw new InsufficientFundsException(
+                    "Withdrawal of %d exceeds the balance of %d".formatted(-delta, balance));
+        }
+
+        return next;
+    }
+
+    /**
+     * Puts back a transaction that already has an id, used on recovery and
+     * by followers. Ids seen before are ignored so replaying the same record
+     * twice is harmless. False for those.
+     */
+    boolean restore(UUID id, Transaction transaction) {
+        if (!transactions.put(id, transaction)) {
+            return false;
+        }
+
+        balance.accumulateAndGet(transaction.signedAmount(), Math::addExact);
+        checkpoints.record(id, transaction.signedAmount());
+        rollups.record(id, transaction);
+
+        return true;
+    }
+
+    Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to) {
+        touch();
+
+        return scan(from, to);
+    }
+
+    /**
+     * Every transaction in id order. Writers are not blocked, the stream sees
+     * the ones published before it gets to their position.
+     */
+    Stream<Map.Entry<UUID, Transaction>> all() {
+        return scan(Ids.FIRST, Ids.LAST);
+    }
+
+    // Like range, for background passes that should not count as an access
+    Stream<Map.Entry<UUID, Transaction>> scan(UUID from, UUID to) {
+        Dropping current = dropping;
+        Stream<Map.Entry<UUID, Transaction>> range = transactions.range(from, to);
+
+        // A stream opened before the swap may see the summaries next to what they replace
+        if (current == null || !current.overlaps(from, to)) {
+            return range;
+        }
+
+        return range.filter(entry -> !current.hides(entry.getKey()));
+    }
+
+    long balance() {
+        return balance.get();
+    }
+
+    // Greatest id, null for an empty ledger
+    UUID last() {
+        return transactions.last();
+    }
+
+    // Lowest id compaction may drop from, null if the store cannot drop any
+    UUID removableFrom() {
+        return transactions.removableFrom();
+    }
+
+    int size() {
+        return transactions.size();
+    }
+
+    long estimatedBytes() {
+        return transactions.estimatedBytes();
+    }
+
+    /**
+     * Bytes of the cold tier on disk, 0 without one.
+     */
+    long coldBytes() {
+        return transactions instanceof TieredTransactionStore tiered ? tiered.coldBytes() : 0;
+    }
+
+    /**
+     * The tiered store, null if the ledger keeps everything in memory.
+     */
+    TieredTransactionStore tiered() {
+        return transactions instanceof TieredTransactionStore tiered ? tiered : null;
+    }
+
+    long accessed() {
+        return accessed;
+    }
+
+    private void touch() {
+        long now = System.currentTimeMillis();
+
+        if (now - accessed > 1000) {
+            accessed = now;
+        }
+    }
+
+    /**
+     * Net amount of the transactions in hours before the given one (see
+     * {@link Checkpoints#bucketOf(long)}), without walking them.
+     */
+    long balanceBefore(long bucket) {
+        return checkpoints.totalBefore(bucket);
+    }
+
+    /**
+     * Totals of the transactions in the hours from first to last (see
+     * {@link Checkpoints#bucketOf(long)}), without walking them.
+     */
+    Aggregate hours(long first, long last) {
+        return rollups.between(first, last);
+    }
+
+    @Override
+    public void close() {
+        transactions.close();
+    }
+}
@@ -0,0 +1,272 @@
+package com.acme.api.ledger.repository;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Follower side of replication, see {@link LogShipper} for the protocol:
+ * reads the leader's log as it is shipped and applies every record to the
+ * store, like a replay on boot. Nothing is written locally, a restarted
+ * follower starts over from the leader's store.
+ *
+ * Reconnects whenever the leader goes quiet for three heartbeats or the
+ * connection drops, asking for the log from where it stopped.
+ */
+final class LogFollower implements AutoCloseable {
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final String leader;
+
+    private final InetSocketAddress address;
+
+    private final long heartbeatMillis;
+
+    private final Consumer<WalRecord> apply;
+
+    private final Runnable reset;
+
+    // Reads waiting for a transaction to be applied, see await()
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    private final Thread reader;
+
+    private volatile SocketChannel channel;
+
+    private volatile boolean closed;
+
+    // Offsets of the leader's log: applied up to here, durable up to there on the leader
+    private volatile long applied = -1;
+
+    private volatile long leaderOffset = -1;
+
+    private volatile long caughtUpAt = System.currentTimeMillis();
+
+    private volatile long heardAt;
+
+    private record Waiter(BooleanSupplier applied, CompletableFuture<Boolean> future) {
+    }
+
+    /**
+     * Applied replication state, lag in milliseconds: how long ago the
+     * follower last had everything the leader had. Zero while it keeps up.
+     */
+    record Status(boolean connected, long applied, long leaderOffset, long lagMillis) {
+    }
+
+    LogFollower(String leader, Duration heartbeat, Consumer<WalRecord> apply, Runnable reset) {
+        int colon = leader.lastIndexOf(':');
+
+        if (colon < 0) {
+            throw new IllegalArgumentException("Leader address must be host:port, got " + leader);
+        }
+
+        this.leader = leader;
+        this.address = new InetSocketAddress(leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)));
+        this.heartbeatMillis = heartbeat.toMillis();
+        this.apply = apply;
+        this.reset = reset;
+        this.reader = Thread.ofPlatform().name("ledger-log-follower").daemon().start(this::follow);
+
+        Log.infof("Replication follower of %s", leader);
+    }
+
+    String leader() {
+        return leader;
+    }
+
+    Status status() {
+        long now = System.currentTimeMillis();
+        boolean connected = channel != null;
+        boolean caughtUp = applied >= 0 && applied >= leaderOffset;
+
+        // Heartbeats keep a follower that is up to date at zero, missing ones show
+        long lag = connected && caughtUp
+                ? Math.max(0, now - heardAt - heartbeatMillis)
+                : now - caughtUpAt;
+
+        return new Status(connected, applied, leaderOffset, lag);
+    }
+
+    /**
+     * Completes with true once the condition holds, checked after every
+     * message from the leader, or with false after the timeout.
+     */
+    CompletableFuture<Boolean> await(BooleanSupplier condition, Duration timeout) {
+        Waiter waiter = new Waiter(condition, new CompletableFuture<>());
+
+        waiters.add(waiter);
+
+        // Applied before the waiter was queued
+        if (condition.getAsBoolean()) {
+            waiter.future().complete(true);
+        }
+
+        return waiter.future()
+                .completeOnTimeout(false, timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((_, _) -> waiters.remove(waiter));
+    }
+
+    private void follow() {
+        while (!closed) {
+            try (SocketChannel connected = SocketChannel.open(address)) {
+                connected.socket().setTcpNoDelay(true);
+                // Read through the socket adaptor, the channel alone has no timeout
+                connected.socket().setSoTimeout((int) (3 * heartbeatMillis));
+                channel = connected;
+
+                DataOutputStream out = new DataOutputStream(connected.socket().getOutputStream());
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(connected.socket().getInputStream(), READ_BUFFER));
+
+                out.writeLong(applied);
+                out.flush();
+
+                Log.infof("Connected to leader %s, from offset %d", leader, applied);
+
+                read(in);
+            } catch (SocketTimeoutException e) {
+                Log.warnf("Leader %s silent for %d ms, reconnecting", leader, 3 * heartbeatMillis);
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    Log.warnf("Replication from %s interrupted, retrying: %s", leader, e);
+                }
+            } finally {
+                channel = null;
+            }
+
+            if (!closed) {
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        byte[] body = new byte[4096];
+
+        while (!closed) {
+            byte type = in.readByte();
+
+            heardAt = System.currentTimeMillis();
+
+            switch (type) {
+                case LogShipper.BOOTSTRAP -> {
+                    Log.infof("Leader %s is sending its store, starting over", leader);
+
+                    applied = -1;
+                    reset.run();
+                }
+                case LogShipper.DUMP -> {
+                    int length = in.readInt();
+
+                    body = read(in, body, length);
+                    apply.accept(WalRecord.decode(ByteBuffer.wrap(body, 0, length)));
+                }
+                case LogShipper.LOG -> {
+                    long offset = in.readLong();
+                    long durable = in.readLong();
+                    long count = in.readLong();
+
+                    if (applied >= 0 && offset != applied) {
+                        throw new IOException("Log from offset %d, expected %d".formatted(offset, applied));
+                    }
+
+                    leaderOffset = durable;
+
+                    for (long read = 0; read < count;) {
+                        int length = in.readInt();
+                        int checksum = in.readInt();
+
+                        body = read(in, body, length);
+
+                        CRC32C crc = new CRC32C();
+
+                        crc.update(body, 0, length);
+
+                        if ((int) crc.getValue() != checksum) {
+                            throw new IOException("Checksum mismatch in the log at offset " + (offset + read));
+                        }
+
+                        apply.accept(WalRecord.decode(ByteBuffer.wrap(body, 0, length)));
+                        read += 2 * Integer.BYTES + length;
+                        applied = offset + read;
+                    }
+
+                    caughtUp();
+                }
+                case LogShipper.HEARTBEAT -> {
+                    applied = in.readLong();
+                    leaderOffset = in.readLong();
+
+                    caughtUp();
+                }
+                default -> throw new IOException("Unknown replication message " + type);
+            }
+        }
+    }
+
+    private void caughtUp() {
+        if (applied >= leaderOffset) {
+            caughtUpAt = System.currentTimeMillis();
+        }
+
+        for (Waiter waiter : waiters) {
+            if (waiter.applied().getAsBoolean()) {
+                waiter.future().complete(true);
+            }
+        }
+    }
+
+    private static byte[] read(DataInputStream in, byte[] buffer, int length) throws IOException {
+        if (length <= 0) {
+            throw new IOException("Invalid record length " + length);
+        }
+
+        byte[] body = buffer.length >= length ? buffer : new byte[Math.max(length, buffer.length * 2)];
+
+        in.readFully(body, 0, length);
+
+        return body;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+
+        try {
+            SocketChannel current = channel;
+
+            if (current != null) {
+                current.close();
+            }
+
+            reader.join();
+        } catch (IOException e) {
+            Log.warnf("Closing the connection to leader %s failed: %s", leader, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
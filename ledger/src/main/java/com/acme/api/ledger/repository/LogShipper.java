@@ -0,0 +1,197 @@
+package com.acme.api.ledger.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Leader side of replication: followers connect over TCP and get the
+ * write-ahead log as it is on disk, copied from the segment files to the
+ * socket without going through the heap. Only durable records are shipped,
+ * so a follower never sees a transaction the leader could lose. One thread
+ * per follower, they are expected to be few.
+ *
+ * A follower new to the leader, or behind the log a snapshot truncated,
+ * gets the whole store first and the log from the point the dump started.
+ *
+ * Protocol, big-endian, type byte first:
+ * - follower, once: the offset it wants the log from (long), -1 for none
+ * - BOOTSTRAP: the follower empties its store, DUMP messages follow
+ * - DUMP: length (int) | record body, a ledger as the leader has it now
+ * - LOG: offset (long) | durable end (long) | length (long) | log frames
+ * - HEARTBEAT: offset shipped up to (long) | durable end (long)
+ */
+final class LogShipper implements AutoCloseable {
+    static final byte BOOTSTRAP = 'B';
+    static final byte DUMP = 'D';
+    static final byte LOG = 'L';
+    static final byte HEARTBEAT = 'H';
+
+    private static final int DUMP_BUFFER = 64 * 1024;
+
+    private final InMemoryLedgerRepository repository;
+
+    private final WriteAheadLog wal;
+
+    private final long heartbeatNanos;
+
+    private final ServerSocketChannel server;
+
+    private final Set<SocketChannel> followers = ConcurrentHashMap.newKeySet();
+
+    private final Thread acceptor;
+
+    private volatile boolean closed;
+
+    LogShipper(InMemoryLedgerRepository repository, WriteAheadLog wal, int port, Duration heartbeat) {
+        this.repository = repository;
+        this.wal = wal;
+        this.heartbeatNanos = heartbeat.toNanos();
+
+        try {
+            server = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot take followers on port " + port, e);
+        }
+
+        acceptor = Thread.ofPlatform().name("ledger-log-shipper").daemon().start(this::accept);
+
+        Log.infof("Replication leader, taking followers on port %d", port);
+    }
+
+    int followers() {
+        return followers.size();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                SocketChannel follower = server.accept();
+
+                follower.socket().setTcpNoDelay(true);
+                followers.add(follower);
+
+                Thread.ofPlatform().name("ledger-log-shipper-" + follower.getRemoteAddress()).daemon()
+                        .start(() -> ship(follower));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                Log.errorf("Accepting a follower failed: %s", e);
+            }
+        }
+    }
+
+    private void ship(SocketChannel follower) {
+        String remote = follower.socket().getRemoteSocketAddress().toString();
+        ByteBuffer header = ByteBuffer.allocate(1 + 3 * Long.BYTES);
+
+        try (follower; WriteAheadLog.Tail tail = wal.tail()) {
+            long position = new DataInputStream(Channels.newInputStream(follower)).readLong();
+
+            Log.infof("Follower %s connected, wants the log from offset %d", remote, position);
+
+            while (!closed) {
+                long durable = wal.awaitDurable(position, heartbeatNanos);
+
+                // New, or from another history
+                if (position < 0 || position > durable) {
+                    position = bootstrap(follower, remote);
+
+                    continue;
+                }
+
+                if (position == durable) {
+                    write(follower, header.clear().put(HEARTBEAT).putLong(position).putLong(durable).flip());
+
+                    continue;
+                }
+
+                long count;
+
+                try {
+                    count = tail.available(position, durable);
+                } catch (NoSuchFileException e) {
+                    Log.infof("Follower %s is behind the log kept here: %s", remote, e.getMessage());
+
+                    position = bootstrap(follower, remote);
+
+                    continue;
+                }
+
+                write(follower, header.clear().put(LOG).putLong(position).putLong(durable).putLong(count).flip());
+                tail.transferTo(position, count, follower);
+                position += count;
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Log.infof("Follower %s disconnected: %s", remote, e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    private long bootstrap(SocketChannel follower, String remote) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(follower), DUMP_BUFFER));
+        long[] records = new long[1];
+
+        out.writeByte(BOOTSTRAP);
+
+        long offset = repository.dump(record -> {
+            byte[] body = record.encode();
+
+            out.writeByte(DUMP);
+            out.writeInt(body.length);
+            out.write(body);
+            records[0]++;
+        });
+
+        out.flush();
+
+        Log.infof("Sent the store to follower %s, %d records, shipping the log from offset %d", remote, records[0],
+                offset);
+
+        return offset;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            server.close();
+            acceptor.join();
+
+            for (SocketChannel follower : followers) {
+                follower.close();
+            }
+        } catch (IOException e) {
+            Log.warnf("Closing the log shipper failed: %s", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
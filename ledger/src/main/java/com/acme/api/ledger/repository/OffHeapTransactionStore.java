@@ -0,0 +1,565 @@
+package com.acme.api.ledger.repository;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+import com.fasterxml.uuid.Generators;
+import com.fasterxml.uuid.NoArgGenerator;
+
+/**
+ * Off-heap backend. Rows are appended in id order to column chunks allocated
+ * from a shared {@link Arena}, description and reference go to an off-heap
+ * string arena. Per ledger the heap only holds the chunk handles and a sparse
+ * time index, appends allocate nothing the GC has to trace.
+ *
+ * Each chunk stores its columns one after the other so scans stay sequential:
+ *
+ * msb | lsb | amount | description ptr | reference ptr (longs)
+ * description length | reference length (ints) | operation (byte)
+ *
+ * Chunks start at 64 rows and double up to 8192, so the many small ledgers do
+ * not pay for big empty segments.
+ *
+ * Appends are serialized per ledger (the id is generated under the lock, which
+ * keeps rows sorted by id), reads never lock: the volatile size is published
+ * after a row is completely written.
+ *
+ * Range streams are lazy, so each one holds the arena open until it is
+ * exhausted or closed: {@link #close()} frees the memory right away when no
+ * stream is reading, otherwise the last one to finish does.
+ */
+final class OffHeapTransactionStore implements TransactionStore {
+    private static final int MIN_CHUNK_SHIFT = 6;
+    private static final int MAX_CHUNK_SHIFT = 13;
+    private static final int GEOMETRIC_CHUNKS = MAX_CHUNK_SHIFT - MIN_CHUNK_SHIFT + 1;
+    private static final int GEOMETRIC_ROWS = ((1 << GEOMETRIC_CHUNKS) - 1) << MIN_CHUNK_SHIFT;
+
+    private static final int ROW_BYTES = 5 * Long.BYTES + 2 * Integer.BYTES + Byte.BYTES;
+
+    // One index entry (the most significant bits of the first row's id, which
+    // start with its millisecond) every INDEX_STRIDE rows
+    private static final int INDEX_STRIDE = 256;
+
+    private static final Transaction.Operation[] OPERATIONS = Transaction.Operation.values();
+
+    // Set in readers once the store is closed, the low bits count open streams
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final Currency currency;
+
+    private final NoArgGenerator ids = Generators.timeBasedEpochGenerator();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private final StringArena strings = new StringArena();
+
+    // Created on the first append, plenty of ledgers never get a transaction
+    private Arena arena;
+
+    private long lastMsb;
+
+    private long lastLsb;
+
+    private volatile MemorySegment[] chunks = new MemorySegment[0];
+
+    private volatile long[] index = new long[0];
+
+    private volatile int size;
+
+    private final AtomicInteger readers = new AtomicInteger();
+
+    OffHeapTransactionStore(Currency currency) {
+        this.currency = currency;
+    }
+
+    @Override
+    public UUID append(Transaction transaction, Consumer<UUID> writeAhead) {
+        appendLock.lock();
+
+        try {
+            UUID id = nextId(lastMsb, lastLsb, size > 0);
+
+            // Logged under the lock, so the log also sees this ledger in id order
+            writeAhead.accept(id);
+            write(id, transaction);
+
+            return id;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public List<UUID> appendAll(List<Transaction> transactions,
+            Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead) {
+        appendLock.lock();
+
+        try {
+            List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>(transactions.size());
+            long msb = lastMsb;
+            long lsb = lastLsb;
+            boolean any = size > 0;
+
+            for (Transaction transaction : transactions) {
+                UUID id = nextId(msb, lsb, any);
+
+                entries.add(Map.entry(id, transaction));
+                msb = id.getMostSignificantBits();
+                lsb = id.getLeastSignificantBits();
+                any = true;
+            }
+
+            writeAhead.accept(entries);
+
+            List<UUID> appended = new ArrayList<>(entries.size());
+
+            for (Map.Entry<UUID, Transaction> entry : entries) {
+                write(entry.getKey(), entry.getValue());
+                appended.add(entry.getKey());
+            }
+
+            return appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Rows must stay sorted, so ids can only be put in increasing order. That
+     * is how the write-ahead log replays them; an id that is already stored is
+     * skipped.
+     */
+    @Override
+    public boolean put(UUID id, Transaction transaction) {
+        appendLock.lock();
+
+        try {
+            long msb = id.getMostSignificantBits();
+            long lsb = id.getLeastSignificantBits();
+
+            if (size > 0 && compare(msb, lsb, lastMsb, lastLsb) <= 0) {
+                int row = firstRow(msb, lsb, false, size, chunks);
+
+                if (row < size && msb(row, chunks) == msb && lsb(row, chunks) == lsb) {
+                    return false;
+                }
+
+                throw new IllegalStateException(
+                        "Off-heap store only accepts ids in increasing order, got %s after %s"
+                                .formatted(id, new UUID(lastMsb, lastLsb)));
+            }
+
+            write(id, transaction);
+
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public UUID last() {
+        appendLock.lock();
+
+        try {
+            return size > 0 ? new UUID(lastMsb, lastLsb) : null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // The columns are append-only, compaction leaves these ledgers alone
+    @Override
+    public UUID removableFrom() {
+        return null;
+    }
+
+    @Override
+    public void remove(UUID from, UUID to, Set<UUID> kept) {
+    }
+
+    /**
+     * @throws IllegalStateException if the store is closed
+     */
+    @Override
+    public Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to) {
+        acquire();
+
+        try {
+            int rows = size;
+            MemorySegment[] snapshot = chunks;
+
+            int first = firstRow(from.getMostSignificantBits(), from.getLeastSignificantBits(), false, rows,
+                    snapshot);
+            int last = firstRow(to.getMostSignificantBits(), to.getLeastSignificantBits(), true, rows, snapshot);
+            Rows reader = new Rows(first, Math.max(first, last), snapshot);
+
+            return StreamSupport.stream(reader, false).onClose(reader::release);
+        } catch (RuntimeException e) {
+            release();
+
+            throw e;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long estimatedBytes() {
+        long bytes = strings.allocated();
+        int allocated = chunks.length;
+
+        for (int chunk = 0; chunk < allocated; chunk++) {
+            bytes += capacity(chunk) * ROW_BYTES;
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        int previous = readers.getAndUpdate(state -> state | CLOSED);
+
+        // Closed before, or a stream still reading frees it when done
+        if (previous == 0) {
+            free();
+        }
+    }
+
+    private void acquire() {
+        int state;
+
+        do {
+            state = readers.get();
+
+            if (state < 0) {
+                throw new IllegalStateException("Off-heap store is closed");
+            }
+        } while (!readers.compareAndSet(state, state + 1));
+    }
+
+    private void release() {
+        if (readers.decrementAndGet() == CLOSED) {
+            free();
+        }
+    }
+
+    // Runs once, when the store is closed and no stream is reading
+    private void free() {
+        appendLock.lock();
+
+        try {
+            if (arena != null) {
+                arena.close();
+                arena = null;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * New id greater than the given last one. The generator is monotonic, the
+     * fallback only kicks in if the wall clock goes backwards between appends.
+     * Called with the append lock held.
+     */
+    private UUID nextId(long lastMsb, long lastLsb, boolean hasLast) {
+        UUID id = ids.generate();
+
+        if (hasLast && compare(id.getMostSignificantBits(), id.getLeastSignificantBits(), lastMsb, lastLsb) <= 0) {
+            id = new UUID(lastMsb, lastLsb + 1);
+        }
+
+        return id;
+    }
+
+    // Called with the append lock held, id is greater than any stored one
+    private void write(UUID id, Transaction transaction) {
+        // Streams still reading may keep the arena open, it takes no more rows
+        if (readers.get() < 0) {
+            throw new IllegalStateException("Off-heap store is closed");
+        }
+
+        if (arena == null) {
+            arena = Arena.ofShared();
+        }
+
+        int row = size;
+        byte[] description = transaction.description().getBytes(StandardCharsets.UTF_8);
+        byte[] reference = transaction.reference().getBytes(StandardCharsets.UTF_8);
+
+        MemorySegment chunk = chunkForAppend(row);
+        long capacity = capacity(chunkIndex(row));
+        long offset = row - chunkStart(chunkIndex(row));
+
+        chunk.setAtIndex(ValueLayout.JAVA_LONG, offset, id.getMostSignificantBits());
+        chunk.setAtIndex(ValueLayout.JAVA_LONG, capacity + offset, id.getLeastSignificantBits());
+        chunk.setAtIndex(ValueLayout.JAVA_LONG, 2 * capacity + offset, transaction.amount());
+        chunk.setAtIndex(ValueLayout.JAVA_LONG, 3 * capacity + offset, strings.put(description));
+        chunk.setAtIndex(ValueLayout.JAVA_LONG, 4 * capacity + offset, strings.put(reference));
+        chunk.setAtIndex(ValueLayout.JAVA_INT, 10 * capacity + offset, description.length);
+        chunk.setAtIndex(ValueLayout.JAVA_INT, 11 * capacity + offset, reference.length);
+        chunk.set(ValueLayout.JAVA_BYTE, 48 * capacity + offset, (byte) transaction.operation().ordinal());
+
+        if (row % INDEX_STRIDE == 0) {
+            int slot = row / INDEX_STRIDE;
+            long[] current = index;
+
+            if (slot == current.length) {
+                current = Arrays.copyOf(current, Math.max(4, slot * 2));
+            }
+
+            current[slot] = id.getMostSignificantBits();
+            index = current;
+        }
+
+        lastMsb = id.getMostSignificantBits();
+        lastLsb = id.getLeastSignificantBits();
+        size = row + 1;
+    }
+
+    /**
+     * First row whose id is greater or equal (or strictly greater, if after is
+     * set) than the given one. The sparse index narrows the search to the
+     * stride the id falls in, from there it is a short sequential scan.
+     */
+    private int firstRow(long msb, long lsb, boolean after, int rows, MemorySegment[] snapshot) {
+        long[] strideMsbs = index;
+        int strides = Math.min((rows + INDEX_STRIDE - 1) / INDEX_STRIDE, strideMsbs.length);
+
+        // Last stride starting strictly before the target msb, every row before
+        // it is smaller than the id we look for. Signed, like compare(), so
+        // bounds that are not UUIDv7 (a full scan from the smallest UUID) work
+        int low = 0;
+        int high = strides - 1;
+        int stride = 0;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (strideMsbs[mid] < msb) {
+                stride = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int row = stride * INDEX_STRIDE;
+
+        while (row < rows) {
+            int cmp = compare(msb(row, snapshot), lsb(row, snapshot), msb, lsb);
+
+            if (after ? cmp > 0 : cmp >= 0) {
+                break;
+            }
+
+            row++;
+        }
+
+        return row;
+    }
+
+    private Map.Entry<UUID, Transaction> entry(int row, MemorySegment[] snapshot) {
+        int chunk = chunkIndex(row);
+        MemorySegment segment = snapshot[chunk];
+        long capacity = capacity(chunk);
+        long offset = row - chunkStart(chunk);
+
+        UUID id = new UUID(
+                segment.getAtIndex(ValueLayout.JAVA_LONG, offset),
+                segment.getAtIndex(ValueLayout.JAVA_LONG, capacity + offset));
+
+        Transaction transaction = new Transaction(
+                OPERATIONS[segment.get(ValueLayout.JAVA_BYTE, 48 * capacity + offset)],
+                segment.getAtIndex(ValueLayout.JAVA_LONG, 2 * capacity + offset),
+                strings.get(segment.getAtIndex(ValueLayout.JAVA_LONG, 3 * capacity + offset),
+                        segment.getAtIndex(ValueLayout.JAVA_INT, 10 * capacity + offset)),
+                strings.get(segment.getAtIndex(ValueLayout.JAVA_LONG, 4 * capacity + offset),
+                        segment.getAtIndex(ValueLayout.JAVA_INT, 11 * capacity + offset)),
+                currency);
+
+        return Map.entry(id, transaction);
+    }
+
+    /**
+     * Rows of a range stream, in order. Gives its hold on the arena back once,
+     * when the last row was read or the stream is closed, whichever is first.
+     */
+    private final class Rows implements Spliterator<Map.Entry<UUID, Transaction>> {
+        private final int end;
+
+        private final MemorySegment[] snapshot;
+
+        private int row;
+
+        private boolean released;
+
+        Rows(int first, int end, MemorySegment[] snapshot) {
+            this.row = first;
+            this.end = end;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<UUID, Transaction>> action) {
+            if (row >= end) {
+                release();
+
+                return false;
+            }
+
+            action.accept(entry(row++, snapshot));
+
+            return true;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<UUID, Transaction>> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - row;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | SIZED | IMMUTABLE;
+        }
+
+        void release() {
+            if (!released) {
+                released = true;
+                OffHeapTransactionStore.this.release();
+            }
+        }
+    }
+
+    private long msb(int row, MemorySegment[] snapshot) {
+        int chunk = chunkIndex(row);
+
+        return snapshot[chunk].getAtIndex(ValueLayout.JAVA_LONG, row - chunkStart(chunk));
+    }
+
+    private long lsb(int row, MemorySegment[] snapshot) {
+        int chunk = chunkIndex(row);
+
+        return snapshot[chunk].getAtIndex(ValueLayout.JAVA_LONG, capacity(chunk) + row - chunkStart(chunk));
+    }
+
+    private MemorySegment chunkForAppend(int row) {
+        int chunk = chunkIndex(row);
+        MemorySegment[] current = chunks;
+
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, chunk + 1);
+            current[chunk] = arena.allocate(capacity(chunk) * ROW_BYTES, Long.BYTES);
+            chunks = current;
+        }
+
+        return current[chunk];
+    }
+
+    private static int chunkIndex(int row) {
+        if (row < GEOMETRIC_ROWS) {
+            return 31 - Integer.numberOfLeadingZeros((row >>> MIN_CHUNK_SHIFT) + 1);
+        }
+
+        return GEOMETRIC_CHUNKS + ((row - GEOMETRIC_ROWS) >>> MAX_CHUNK_SHIFT);
+    }
+
+    private static int chunkStart(int chunk) {
+        if (chunk < GEOMETRIC_CHUNKS) {
+            return ((1 << chunk) - 1) << MIN_CHUNK_SHIFT;
+        }
+
+        return GEOMETRIC_ROWS + ((chunk - GEOMETRIC_CHUNKS) << MAX_CHUNK_SHIFT);
+    }
+
+    private static long capacity(int chunk) {
+        return 1L << Math.min(MIN_CHUNK_SHIFT + chunk, MAX_CHUNK_SHIFT);
+    }
+
+    // Same ordering as UUID.compareTo, which is what the heap backend sorts by
+    private static int compare(long msb, long lsb, long otherMsb, long otherLsb) {
+        int cmp = Long.compare(msb, otherMsb);
+
+        return cmp != 0 ? cmp : Long.compare(lsb, otherLsb);
+    }
+
+    /**
+     * UTF-8 bytes packed one after the other in off-heap pages. A pointer is
+     * the page number in the high 32 bits and the offset in the low 32 bits,
+     * the length is stored in its own column.
+     */
+    private final class StringArena {
+        private static final int MIN_PAGE = 4 * 1024;
+        private static final int MAX_PAGE = 1024 * 1024;
+
+        private volatile MemorySegment[] pages = new MemorySegment[0];
+
+        private long used;
+
+        // Called with the append lock held
+        long put(byte[] bytes) {
+            MemorySegment[] current = pages;
+            int page = current.length - 1;
+
+            if (page < 0 || current[page].byteSize() - used < bytes.length) {
+                long pageSize = page < 0 ? MIN_PAGE : Math.min(current[page].byteSize() * 2, MAX_PAGE);
+
+                current = Arrays.copyOf(current, current.length + 1);
+                current[++page] = arena.allocate(Math.max(pageSize, bytes.length), 1);
+                pages = current;
+                used = 0;
+            }
+
+            long pointer = ((long) page << 32) | used;
+
+            MemorySegment.copy(bytes, 0, current[page], ValueLayout.JAVA_BYTE, used, bytes.length);
+            used += bytes.length;
+
+            return pointer;
+        }
+
+        long allocated() {
+            long bytes = 0;
+
+            for (MemorySegment page : pages) {
+                bytes += page.byteSize();
+            }
+
+            return bytes;
+        }
+
+        String get(long pointer, int length) {
+            byte[] bytes = new byte[length];
+
+            MemorySegment.copy(pages[(int) (pointer >>> 32)], ValueLayout.JAVA_BYTE, pointer & 0xFFFF_FFFFL,
+                    bytes, 0, length);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
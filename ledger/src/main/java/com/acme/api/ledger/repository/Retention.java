@@ -0,0 +1,431 @@
+package com.acme.api.ledger.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Bounds the memory of long-lived ledgers. Periods (aligned on the epoch)
+ * that ended more than keep ago get their transactions replaced by at most
+ * two summaries, the total of their deposits and of their withdrawals, so
+ * the balance is the same. Both have ids in the last millisecond of the
+ * period and carry the count in their description. A period that only holds
+ * one transaction per operation, its summaries included, is left alone.
+ *
+ * Periods are tallied, and archived when asked, on the compacting thread,
+ * like {@link Tiering} prepares a demotion. The ledger writer only checks the
+ * period against its hourly rollups and swaps the summaries in, logged like
+ * any other write. The transactions they replace are hidden from readers at
+ * once and removed SLICE at a time, one writer task each, so a commit waits
+ * for one slice at most.
+ */
+final class Retention {
+    // Version 7 in the high bits, variant 10 in the low ones, no random bits
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = Long.MIN_VALUE;
+
+    private static final String REFERENCE = "COMPACTED";
+
+    // Transactions removed per task on the ledger writer
+    static final int SLICE = 4096;
+
+    private final Duration keep;
+
+    private final long period;
+
+    // Null when compacted transactions are not archived
+    private final Path archive;
+
+    private final AtomicLong compacted = new AtomicLong();
+
+    private final AtomicLong summaries = new AtomicLong();
+
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    /**
+     * Where compactions are logged. The record of a period is appended when
+     * its summaries are swapped in, and only applied once the last of the
+     * transactions they replace is removed: a snapshot taken in between
+     * replays it.
+     */
+    interface Journal {
+        // Offset of the record, negative when there is no log
+        long append(WalRecord.Compacted record);
+
+        void applied(long offset);
+    }
+
+    /**
+     * Deposits and withdrawals of one period. Their sums are exact, a period
+     * that would overflow them is not compacted. Totals are what the hourly
+     * rollups of the period must still add up to when it is swapped, dropped
+     * the net amount of its transactions but the summaries and slices the id
+     * ending each SLICE of them.
+     */
+    private record Period(long index, int deposits, long deposited, int withdrawals, long withdrawn,
+            Aggregate totals, long dropped, List<UUID> slices) {
+        int count() {
+            return deposits + withdrawals;
+        }
+
+        // Fewer summaries than transactions
+        boolean worthIt() {
+            return count() > (deposits > 0 ? 1 : 0) + (withdrawals > 0 ? 1 : 0);
+        }
+    }
+
+    Retention(LedgerConfig.Retention config) {
+        this.keep = config.keep();
+        this.period = config.period().toMillis();
+        this.archive = config.archive().orElse(null);
+
+        if (period < Checkpoints.BUCKET_MILLIS || period % Checkpoints.BUCKET_MILLIS != 0) {
+            throw new IllegalStateException(
+                    "ledger.retention.period must be a whole number of hours, got " + config.period());
+        }
+
+        if (archive != null) {
+            try {
+                Files.createDirectories(archive);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * One pass over the store.
+     */
+    void compact(Map<LedgerKey, Ledger> store, Sequencer sequencer, Journal journal) {
+        long started = System.nanoTime();
+        // Periods that end at or before it are old enough
+        long end = Math.floorDiv(System.currentTimeMillis() - keep.toMillis(), period) * period;
+        int ledgers = 0;
+        long transactions = 0;
+        long written = 0;
+        long bytes = 0;
+
+        for (Map.Entry<LedgerKey, Ledger> entry : store.entrySet()) {
+            LedgerKey key = entry.getKey();
+            Ledger ledger = entry.getValue();
+            UUID from = ledger.removableFrom();
+
+            if (from == null) {
+                continue;
+            }
+
+            List<Period> periods = plan(ledger, from, highest(end - 1));
+
+            if (periods.isEmpty()) {
+                continue;
+            }
+
+            if (archive != null) {
+                archive(key, ledger, periods);
+            }
+
+            for (Period planned : periods) {
+                Long freed = install(key, ledger, planned, sequencer, journal);
+
+                // Changed since it was planned, the next pass looks again
+                if (freed == null) {
+                    continue;
+                }
+
+                transactions += planned.count();
+                written += summaries(planned, key.currency()).size();
+                bytes += freed;
+            }
+
+            ledgers++;
+        }
+
+        compacted.addAndGet(transactions);
+        summaries.addAndGet(written);
+        reclaimed.addAndGet(bytes);
+
+        if (transactions > 0) {
+            Log.infof("Compacted %d transactions of %d ledgers into %d summaries in %d ms, %d bytes reclaimed",
+                    transactions, ledgers, written, (System.nanoTime() - started) / 1_000_000, bytes);
+        }
+    }
+
+    /**
+     * Transactions replaced by summaries, summaries written and estimated
+     * memory reclaimed since boot.
+     */
+    InMemoryLedgerRepository.CompactionStats stats() {
+        return new InMemoryLedgerRepository.CompactionStats(compacted.get(), summaries.get(), reclaimed.get());
+    }
+
+    // Periods worth compacting that lie whole between from and to
+    private List<Period> plan(Ledger ledger, UUID from, UUID to) {
+        List<Period> periods = new ArrayList<>();
+
+        if (from.compareTo(to) > 0) {
+            return periods;
+        }
+
+        Tally tally = null;
+
+        try (Stream<Map.Entry<UUID, Transaction>> old = ledger.scan(from, to)) {
+            for (Iterator<Map.Entry<UUID, Transaction>> entries = old.iterator(); entries.hasNext();) {
+                Map.Entry<UUID, Transaction> entry = entries.next();
+                long index = indexOf(entry.getKey());
+
+                if (tally == null || tally.index != index) {
+                    add(periods, tally, from);
+                    tally = new Tally(index, summaryMsb(index));
+                }
+
+                tally.add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        add(periods, tally, from);
+
+        return periods;
+    }
+
+    private void add(List<Period> periods, Tally tally, UUID from) {
+        // The first period may have started in a part of the store that cannot be dropped
+        if (tally == null || lowest(tally.index * period).compareTo(from) < 0) {
+            return;
+        }
+
+        Period planned = tally.period();
+
+        if (planned != null && planned.worthIt()) {
+            periods.add(planned);
+        }
+    }
+
+    /**
+     * Swaps the summaries of the period in, then removes what they replace a
+     * slice at a time. Returns the bytes freed, or null when the period
+     * changed since it was planned.
+     */
+    private Long install(LedgerKey key, Ledger ledger, Period planned, Sequencer sequencer, Journal journal) {
+        UUID first = lowest(planned.index() * period);
+        UUID last = highest((planned.index() + 1) * period - 1);
+        WalRecord.Compacted record = new WalRecord.Compacted(key, first, last, summaries(planned, key.currency()));
+        long[] offset = { -1 };
+        long[] freed = { 0 };
+
+        Boolean swapped = sequencer.submitOrWait(key, () -> {
+            long bytes = ledger.estimatedBytes();
+
+            if (!swap(ledger, planned, record, journal, offset)) {
+                return false;
+            }
+
+            freed[0] += bytes - ledger.estimatedBytes();
+
+            return true;
+        }).join();
+
+        if (!swapped) {
+            return null;
+        }
+
+        try {
+            UUID from = first;
+
+            for (UUID to : planned.slices()) {
+                UUID slice = from;
+
+                sequencer.submitOrWait(key, () -> {
+                    long bytes = ledger.estimatedBytes();
+
+                    ledger.drop(slice, to);
+                    freed[0] += bytes - ledger.estimatedBytes();
+
+                    return null;
+                }).join();
+                from = Ids.successor(to);
+            }
+
+            UUID rest = from;
+
+            sequencer.submitOrWait(key, () -> {
+                long bytes = ledger.estimatedBytes();
+
+                ledger.drop(rest, last);
+                ledger.dropped();
+                freed[0] += bytes - ledger.estimatedBytes();
+
+                return null;
+            }).join();
+        } finally {
+            if (offset[0] >= 0) {
+                journal.applied(offset[0]);
+            }
+        }
+
+        return freed[0];
+    }
+
+    // Runs on the writer of the ledger, false when the period changed since it was planned
+    private boolean swap(Ledger ledger, Period planned, WalRecord.Compacted record, Journal journal,
+            long[] offset) {
+        UUID removable = ledger.removableFrom();
+
+        if (removable == null || record.first().compareTo(removable) < 0) {
+            return false;
+        }
+
+        // Every write to the period also lands in its hours, no need to tally it again
+        long firstHour = Checkpoints.bucketOf(planned.index() * period);
+        long lastHour = Checkpoints.bucketOf((planned.index() + 1) * period - 1);
+
+        if (!planned.totals().equals(ledger.hours(firstHour, lastHour))) {
+            return false;
+        }
+
+        offset[0] = journal.append(record);
+        ledger.summarise(record.first(), record.last(), record.summaries(), planned.dropped());
+
+        return true;
+    }
+
+    /**
+     * Writes the detail of the periods to one file per ledger and pass, before
+     * any of them is dropped. A period that changed before its swap is left
+     * for the next pass, and may then be archived again.
+     */
+    private void archive(LedgerKey key, Ledger ledger, List<Period> periods) {
+        Set<Long> indexes = periods.stream().map(Period::index).collect(Collectors.toSet());
+        UUID from = lowest(periods.getFirst().index() * period);
+        UUID to = highest((periods.getLast().index() + 1) * period - 1);
+        Path file = archive.resolve("%s-%s-%d.archive".formatted(key.id(), key.currency().value(),
+                System.currentTimeMillis()));
+
+        try (Stream<Map.Entry<UUID, Transaction>> old = ledger.scan(from, to)) {
+            int archived = ColdSegment.archive(file, key.currency(),
+                    old.filter(entry -> indexes.contains(indexOf(entry.getKey()))).iterator());
+
+            Log.debugf("Archived %d transactions of %s from %s to %s in %s", archived, key, millisOf(from),
+                    millisOf(to) + 1, file);
+        }
+    }
+
+    // Deposits first, withdrawals second, in the last millisecond of the period
+    private List<Map.Entry<UUID, Transaction>> summaries(Period planned, Currency currency) {
+        Instant start = Instant.ofEpochMilli(planned.index() * period);
+        Instant end = Instant.ofEpochMilli((planned.index() + 1) * period);
+        long msb = summaryMsb(planned.index());
+        List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>(2);
+
+        if (planned.deposits() > 0) {
+            entries.add(Map.entry(new UUID(msb, VARIANT), new Transaction(Transaction.Operation.DEPOSIT,
+                    planned.deposited(), "%d deposits from %s to %s".formatted(planned.deposits(), start, end),
+                    REFERENCE, currency)));
+        }
+
+        if (planned.withdrawals() > 0) {
+            entries.add(Map.entry(new UUID(msb, VARIANT + 1), new Transaction(Transaction.Operation.WITHDRAWAL,
+                    planned.withdrawn(), "%d withdrawals from %s to %s".formatted(planned.withdrawals(), start, end),
+                    REFERENCE, currency)));
+        }
+
+        return entries;
+    }
+
+    // High bits of the summary ids of a period
+    private long summaryMsb(long index) {
+        return ((index + 1) * period - 1) << 16 | VERSION;
+    }
+
+    private long indexOf(UUID id) {
+        return Math.floorDiv(millisOf(id), period);
+    }
+
+    private static long millisOf(UUID id) {
+        return id.getMostSignificantBits() >>> 16;
+    }
+
+    // Lowest UUID of the given millisecond
+    private static UUID lowest(long epochMillis) {
+        return new UUID(epochMillis << 16, Long.MIN_VALUE);
+    }
+
+    // Greatest UUID of the given millisecond
+    private static UUID highest(long epochMillis) {
+        return new UUID(epochMillis << 16 | 0xFFFF, Long.MAX_VALUE);
+    }
+
+    private static final class Tally {
+        private final long index;
+
+        private final long summaryMsb;
+
+        private int deposits;
+        private long deposited;
+        private int withdrawals;
+        private long withdrawn;
+        private Aggregate totals = Aggregate.EMPTY;
+        private long dropped;
+        private int count;
+        private final List<UUID> slices = new ArrayList<>();
+        private boolean overflow;
+
+        Tally(long index, long summaryMsb) {
+            this.index = index;
+            this.summaryMsb = summaryMsb;
+        }
+
+        void add(UUID id, Transaction transaction) {
+            totals = totals.plus(transaction);
+
+            if (++count % SLICE == 0) {
+                slices.add(id);
+            }
+
+            try {
+                if (transaction.operation() == Transaction.Operation.DEPOSIT) {
+                    deposited = Math.addExact(deposited, transaction.amount());
+                    deposits++;
+                } else {
+                    withdrawn = Math.addExact(withdrawn, transaction.amount());
+                    withdrawals++;
+                }
+
+                // Summaries of an earlier pass are kept, not dropped
+                if (id.getMostSignificantBits() != summaryMsb
+                        || (id.getLeastSignificantBits() != VARIANT && id.getLeastSignificantBits() != VARIANT + 1)) {
+                    dropped = Math.addExact(dropped, transaction.signedAmount());
+                }
+            } catch (ArithmeticException e) {
+                overflow = true;
+            }
+        }
+
+        // Null when a sum would not fit in a long
+        Period period() {
+            return overflow
+                    ? null
+                    : new Period(index, deposits, deposited, withdrawals, withdrawn, totals, dropped,
+                            List.copyOf(slices));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.acme.api.ledger.repository;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collector;
+
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Deposit and withdrawal totals of a ledger per hour, bucketed like
+ * {@link Checkpoints}. Updated on every append, so aggregating a period
+ * only adds up the hours it covers whole and scans the partial hours at its
+ * edges. Hours are immutable values replaced on update: a reader never sees
+ * the count of an hour without its sum.
+ *
+ * Demoted transactions keep their hours here, aggregating old periods does
+ * not read the cold tier. Compacted ones do not: their period is folded into
+ * its last hour and holds the summaries instead.
+ */
+final class Rollups {
+    private final ConcurrentSkipListMap<Long, Aggregate> hours = new ConcurrentSkipListMap<>();
+
+    void record(UUID id, Transaction transaction) {
+        hours.compute(Checkpoints.bucketOf(id.getMostSignificantBits() >>> 16),
+                (_, hour) -> (hour != null ? hour : Aggregate.EMPTY).plus(transaction));
+    }
+
+    /**
+     * Replaces the hours from first to last (both inclusive) by the totals of
+     * a compacted period's summaries, kept at last.
+     */
+    void compact(long first, long last, Aggregate summaries) {
+        hours.subMap(first, true, last, true).clear();
+
+        if (!summaries.equals(Aggregate.EMPTY)) {
+            hours.put(last, summaries);
+        }
+    }
+
+    /**
+     * Totals of the hours from first to last, both inclusive.
+     */
+    Aggregate between(long first, long last) {
+        Aggregate total = Aggregate.EMPTY;
+
+        for (Aggregate hour : hours.subMap(first, true, last, true).values()) {
+            total = total.plus(hour);
+        }
+
+        return total;
+    }
+
+    /**
+     * Folds transactions into an Aggregate with one mutable accumulator
+     * instead of two records per transaction.
+     */
+    static Collector<Transaction, ?, Aggregate> summing() {
+        return Collector.of(Accumulator::new, Accumulator::add, Accumulator::merge, Accumulator::toAggregate);
+    }
+
+    private static final class Accumulator {
+        private final long[] count = new long[2];
+        private final long[] sum = new long[2];
+        private final long[] min = { Long.MAX_VALUE, Long.MAX_VALUE };
+        private final long[] max = { Long.MIN_VALUE, Long.MIN_VALUE };
+
+        void add(Transaction transaction) {
+            int side = transaction.operation().ordinal();
+            long amount = transaction.amount();
+
+            count[side]++;
+            sum[side] = Aggregate.Totals.saturated(sum[side], amount);
+            min[side] = Math.min(min[side], amount);
+            max[side] = Math.max(max[side], amount);
+        }
+
+        Accumulator merge(Accumulator other) {
+            for (int side = 0; side < 2; side++) {
+                count[side] += other.count[side];
+                sum[side] = Aggregate.Totals.saturated(sum[side], other.sum[side]);
+                min[side] = Math.min(min[side], other.min[side]);
+                max[side] = Math.max(max[side], other.max[side]);
+            }
+
+            return this;
+        }
+
+        Aggregate toAggregate() {
+            int deposit = Transaction.Operation.DEPOSIT.ordinal();
+            int withdrawal = Transaction.Operation.WITHDRAWAL.ordinal();
+
+            return new Aggregate(
+                    new Aggregate.Totals(count[deposit], sum[deposit], min[deposit], max[deposit]),
+                    new Aggregate.Totals(count[withdrawal], sum[withdrawal], min[withdrawal], max[withdrawal]));
+        }
+    }
+}
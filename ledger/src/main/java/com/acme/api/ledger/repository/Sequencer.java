@@ -0,0 +1,353 @@
+package com.acme.api.ledger.repository;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import com.acme.api.ledger.exception.LedgerBusyException;
+import com.acme.api.ledger.model.LedgerKey;
+
+/**
+ * Single writer per shard: every ledger is mapped to one shard, and each
+ * shard is a bounded ring drained by its own thread. All the writes of a
+ * ledger run one after the other on that thread, so check-then-act on its
+ * balance needs no lock.
+ *
+ * Request threads only claim a ring slot with a CAS and wake the writer if
+ * it is parked. They never take a lock and never wait for room: when the ring
+ * is full the submit fails with {@link LedgerBusyException}, since a request
+ * thread may well be an event loop. Background work that may block uses
+ * {@link #submitOrWait(LedgerKey, Supplier)} instead, parked for a bounded
+ * time.
+ *
+ * Work on two ledgers holds both ledgers, not their writers, see
+ * {@link #submit(LedgerKey, LedgerKey, Supplier)}.
+ */
+final class Sequencer implements AutoCloseable {
+    // How long submitOrWait waits for room in a full ring
+    private static final long PATIENCE = 1_000_000_000L;
+
+    private final Shard[] shards;
+
+    Sequencer(int shards, int ringSize) {
+        int count = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize) - 1) << 1;
+
+        this.shards = new Shard[count];
+
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard(i, capacity);
+        }
+    }
+
+    /**
+     * Runs the work on the writer of the ledger, completes the future with its
+     * result or with whatever it threw.
+     *
+     * @throws LedgerBusyException if the ring of the writer is full
+     */
+    <T> CompletableFuture<T> submit(LedgerKey key, Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        shards[shardOf(key)].offer(new Task(key, task(work, result)), 0);
+
+        return result;
+    }
+
+    /**
+     * Like {@link #submit(LedgerKey, Supplier)}, for callers that may block:
+     * while the ring is full it parks, for up to a second, before giving up.
+     *
+     * @throws LedgerBusyException if the ring of the writer stayed full
+     */
+    <T> CompletableFuture<T> submitOrWait(LedgerKey key, Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        shards[shardOf(key)].offer(new Task(key, task(work, result)), PATIENCE);
+
+        return result;
+    }
+
+    /**
+     * Runs work that touches two ledgers while nothing else runs on either.
+     * On the same shard that is a plain submit. Otherwise the writer of the
+     * lower shard lends its ledger to the writer of the higher one, which
+     * runs the work and gives it back: meanwhile the lower writer keeps the
+     * work for that ledger aside and goes on with its other ledgers, no
+     * writer ever waits. Like ordered locking, ledgers are only lent to
+     * higher shards, so no cycle of loans can form.
+     */
+    <T> CompletableFuture<T> submit(LedgerKey first, LedgerKey second, Supplier<T> work) {
+        int a = shardOf(first);
+        int b = shardOf(second);
+
+        if (a == b) {
+            return submit(first, work);
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Shard lower = shards[Math.min(a, b)];
+        Shard higher = shards[Math.max(a, b)];
+        LedgerKey lent = a < b ? first : second;
+        LedgerKey kept = a < b ? second : first;
+        Runnable task = task(work, result);
+
+        lower.offer(new Task(lent, () -> {
+            lower.lend(lent);
+
+            try {
+                higher.offer(new Task(kept, () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        lower.giveBack(lent);
+                    }
+                }), 0);
+            } catch (Throwable e) {
+                lower.giveBack(lent);
+                result.completeExceptionally(e);
+            }
+        }), 0);
+
+        return result;
+    }
+
+    private int shardOf(LedgerKey key) {
+        return Math.floorMod(key.hashCode(), shards.length);
+    }
+
+    // Completes the future with the result of the work or with whatever it threw
+    private static <T> Runnable task(Supplier<T> work, CompletableFuture<T> result) {
+        return () -> {
+            try {
+                result.complete(work.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+    }
+
+    /**
+     * Stops taking work, waits for the writers to drain what was submitted.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.writer);
+        }
+
+        for (Shard shard : shards) {
+            try {
+                shard.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Work for the writer of the ledger
+    private record Task(LedgerKey key, Runnable work) {
+    }
+
+    /**
+     * Bounded multi-producer single-consumer ring (Vyukov's bounded queue).
+     * Each slot carries a sequence number: a producer may fill a slot once
+     * its sequence equals the claimed position, the writer may take it once
+     * it is one past it.
+     */
+    private static final class Shard implements Runnable {
+        private final AtomicReferenceArray<Task> slots;
+
+        private final AtomicLongArray sequences;
+
+        private final int mask;
+
+        private final AtomicLong tail = new AtomicLong();
+
+        // Only touched by the writer
+        private long head;
+
+        // Ledgers lent to a higher shard, with the work for them that came in
+        // meanwhile, in order. Only touched by the writer
+        private final Map<LedgerKey, ArrayDeque<Task>> lent = new HashMap<>();
+
+        // Ledgers given back, for the writer to pick up
+        private final Queue<LedgerKey> returned = new ConcurrentLinkedQueue<>();
+
+        private final Thread writer;
+
+        private volatile boolean running = true;
+
+        private volatile boolean parked;
+
+        Shard(int index, int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+
+            this.writer = Thread.ofPlatform().name("ledger-sequencer-" + index).daemon().start(this);
+        }
+
+        /**
+         * Claims a slot for the task. While the ring is full, parks with a
+         * growing backoff until the patience (nanoseconds) runs out, none by
+         * default: it never spins waiting on the writer.
+         */
+        void offer(Task task, long patience) {
+            long position;
+            long deadline = System.nanoTime() + patience;
+            long backoff = 10_000;
+
+            while (true) {
+                if (!running) {
+                    throw new RejectedExecutionException("Sequencer is closed");
+                }
+
+                position = tail.get();
+
+                long available = sequences.get((int) position & mask) - position;
+
+                if (available == 0 && tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+
+                if (available < 0) {
+                    // Full, the writer is behind
+                    long left = deadline - System.nanoTime();
+
+                    if (left <= 0) {
+                        throw new LedgerBusyException(
+                                "Writer %s is %d writes behind".formatted(writer.getName(), mask + 1));
+                    }
+
+                    LockSupport.parkNanos(this, Math.min(backoff, left));
+                    backoff = Math.min(backoff * 2, 1_000_000);
+                }
+            }
+
+            int slot = (int) position & mask;
+
+            slots.set(slot, task);
+            sequences.set(slot, position + 1);
+
+            // Pairs with the writer setting parked before it checks the ring
+            // again, one of the two always sees the other
+            if (parked) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        // On the writer, once the ledger is handed to a higher shard
+        void lend(LedgerKey key) {
+            lent.put(key, new ArrayDeque<>());
+        }
+
+        // From any thread, once the work on the lent ledger is done
+        void giveBack(LedgerKey key) {
+            returned.add(key);
+
+            if (parked) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        private Task poll() {
+            int slot = (int) head & mask;
+
+            if (sequences.get(slot) != head + 1) {
+                return null;
+            }
+
+            Task task = slots.get(slot);
+
+            slots.set(slot, null);
+            sequences.set(slot, head + mask + 1);
+            head++;
+
+            return task;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!returned.isEmpty()) {
+                    resume();
+
+                    continue;
+                }
+
+                Task task = poll();
+
+                if (task != null) {
+                    run(task);
+
+                    continue;
+                }
+
+                if (!running && tail.get() == head && lent.isEmpty()) {
+                    return;
+                }
+
+                parked = true;
+
+                if (!returned.isEmpty() || (task = poll()) != null) {
+                    parked = false;
+
+                    if (task != null) {
+                        run(task);
+                    }
+
+                    continue;
+                }
+
+                // A producer between its CAS and publishing the slot unparks
+                // us once it is done, the timeout is only a safety net
+                LockSupport.parkNanos(this, 1_000_000);
+                parked = false;
+            }
+        }
+
+        // Work for a lent ledger waits until it is given back
+        private void run(Task task) {
+            ArrayDeque<Task> waiting = lent.get(task.key());
+
+            if (waiting != null) {
+                waiting.add(task);
+            } else {
+                task.work().run();
+            }
+        }
+
+        // Runs the work kept aside for the ledgers given back, until one of
+        // them is lent again: the rest then waits for that loan, in order
+        private void resume() {
+            LedgerKey key;
+
+            while ((key = returned.poll()) != null) {
+                ArrayDeque<Task> waiting = lent.remove(key);
+
+                while (!waiting.isEmpty() && !lent.containsKey(key)) {
+                    waiting.poll().work().run();
+                }
+
+                if (!waiting.isEmpty()) {
+                    lent.get(key).addAll(waiting);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.acme.api.ledger.repository;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.model.Transaction;
+import com.fasterxml.uuid.Generators;
+import com.fasterxml.uuid.NoArgGenerator;
+
+/**
+ * Heap backend, one Transaction object per entry in a ConcurrentSkipListMap.
+ */
+final class SkipListTransactionStore implements TransactionStore {
+    // Skip list node and its share of index nodes (~40), UUID (32), Transaction
+    // (40) and two short strings (~2 x 48)
+    private static final long ESTIMATED_ENTRY_BYTES = 208;
+
+    // Only replaced by a bulk load into an empty store, see load()
+    private volatile ConcurrentSkipListMap<UUID, Transaction> transactions = new ConcurrentSkipListMap<>();
+
+    // ConcurrentSkipListMap.size() walks the whole map
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final NoArgGenerator ids;
+
+    SkipListTransactionStore() {
+        this(Generators.timeBasedEpochGenerator());
+    }
+
+    // Tests hand out ids of their own
+    SkipListTransactionStore(NoArgGenerator ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * An empty store sharing this one's id generator, so ids it hands out keep
+     * increasing past the ones handed out here.
+     */
+    SkipListTransactionStore sibling() {
+        return new SkipListTransactionStore(ids);
+    }
+
+    @Override
+    public UUID append(Transaction transaction, Consumer<UUID> writeAhead) {
+        UUID id = ids.generate();
+
+        // Only appends run here, an id free now is still free after logging it
+        if (transactions.containsKey(id)) {
+            return null;
+        }
+
+        writeAhead.accept(id);
+        transactions.put(id, transaction);
+        size.incrementAndGet();
+
+        return id;
+    }
+
+    @Override
+    public List<UUID> appendAll(List<Transaction> batch, Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead) {
+        List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>(batch.size());
+
+        for (Transaction transaction : batch) {
+            UUID id = ids.generate();
+
+            // New ids never repeat, only one restored on boot can be taken
+            while (transactions.containsKey(id)) {
+                id = ids.generate();
+            }
+
+            entries.add(Map.entry(id, transaction));
+        }
+
+        writeAhead.accept(entries);
+
+        List<UUID> appended = new ArrayList<>(entries.size());
+
+        for (Map.Entry<UUID, Transaction> entry : entries) {
+            if (transactions.put(entry.getKey(), entry.getValue()) == null) {
+                size.incrementAndGet();
+            }
+
+            appended.add(entry.getKey());
+        }
+
+        return appended;
+    }
+
+    @Override
+    public boolean put(UUID id, Transaction transaction) {
+        if (transactions.putIfAbsent(id, transaction) != null) {
+            return false;
+        }
+
+        size.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * Into an empty store the skip list is built from the sorted entries in
+     * one linear pass, instead of searching from the head for every put.
+     * Readers keep the empty map they already had until they read again.
+     */
+    @Override
+    public void load(List<Map.Entry<UUID, Transaction>> sorted) {
+        if (!transactions.isEmpty()) {
+            TransactionStore.super.load(sorted);
+
+            return;
+        }
+
+        transactions = new ConcurrentSkipListMap<>(new SortedEntries(sorted));
+        size.set(sorted.size());
+    }
+
+    @Override
+    public UUID last() {
+        Map.Entry<UUID, Transaction> last = transactions.lastEntry();
+
+        return last != null ? last.getKey() : null;
+    }
+
+    @Override
+    public UUID removableFrom() {
+        return Ids.FIRST;
+    }
+
+    /**
+     * Removes one key at a time, appends at the tail and readers go on
+     * meanwhile.
+     */
+    @Override
+    public void remove(UUID from, UUID to, Set<UUID> kept) {
+        int removed = 0;
+
+        for (Iterator<UUID> keys = transactions.subMap(from, true, to, true).keySet().iterator(); keys.hasNext();) {
+            if (!kept.contains(keys.next())) {
+                keys.remove();
+                removed++;
+            }
+        }
+
+        size.addAndGet(-removed);
+    }
+
+    @Override
+    public Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to) {
+        return transactions.subMap(from, true, to, true).entrySet().stream();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return size.get() * ESTIMATED_ENTRY_BYTES;
+    }
+
+    @Override
+    public void close() {
+        transactions.clear();
+        size.set(0);
+    }
+
+    /**
+     * Read-only view of entries already in key order, all the skip list
+     * constructor needs to build without comparing them. Sub-maps are views
+     * of a slice of the list, found by binary search.
+     */
+    static final class SortedEntries extends AbstractMap<UUID, Transaction> implements SortedMap<UUID, Transaction> {
+        private final List<Map.Entry<UUID, Transaction>> entries;
+
+        SortedEntries(List<Map.Entry<UUID, Transaction>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Set<Map.Entry<UUID, Transaction>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<UUID, Transaction>> iterator() {
+                    return Collections.unmodifiableList(entries).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super UUID> comparator() {
+            return null;
+        }
+
+        @Override
+        public UUID firstKey() {
+            if (entries.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            return entries.getFirst().getKey();
+        }
+
+        @Override
+        public UUID lastKey() {
+            if (entries.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            return entries.getLast().getKey();
+        }
+
+        @Override
+        public SortedMap<UUID, Transaction> subMap(UUID fromKey, UUID toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+
+            return new SortedEntries(entries.subList(indexOf(fromKey), indexOf(toKey)));
+        }
+
+        @Override
+        public SortedMap<UUID, Transaction> headMap(UUID toKey) {
+            return new SortedEntries(entries.subList(0, indexOf(toKey)));
+        }
+
+        @Override
+        public SortedMap<UUID, Transaction> tailMap(UUID fromKey) {
+            return new SortedEntries(entries.subList(indexOf(fromKey), entries.size()));
+        }
+
+        // Index of the first entry whose key is at or after the given one
+        private int indexOf(UUID key) {
+            int low = 0;
+            int high = entries.size();
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (entries.get(middle).getKey().compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+    }
+}
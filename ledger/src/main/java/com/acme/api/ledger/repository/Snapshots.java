@@ -0,0 +1,312 @@
+package com.acme.api.ledger.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Point-in-time copies of the store, so boot does not have to replay the whole
+ * write-ahead log. A snapshot is a directory named after the log offset it
+ * covers (snapshot-&lt;offset&gt;-&lt;millis&gt;) holding one file per shard;
+ * ledgers go to shard hash(key) % shards.
+ *
+ * Shard file, big endian:
+ *
+ * magic (int) | version (int) | log offset (long)
+ * per ledger: 1 (byte) | ledger id (2 longs) | currency (3 ASCII bytes) |
+ * per transaction: 1 (byte) | id (2 longs) | operation (byte) | amount (long) |
+ * description and reference (short length plus UTF-8 bytes) | ... | 0 (byte)
+ * 0 (byte) | CRC32C of everything before (int)
+ *
+ * Snapshots are written to a .tmp directory and renamed once every shard is
+ * on disk, so a crash halfway leaves the previous snapshot in place.
+ */
+final class Snapshots {
+    private static final int MAGIC = 0x544C534E;
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    private final int shards;
+
+    Snapshots(Path directory, int shards) {
+        this.directory = directory;
+        this.shards = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Writes the store as it is while the snapshot runs. Writers are not
+     * stopped: transactions appended meanwhile may or may not make it, the
+     * log from the given offset on has all of them anyway.
+     */
+    void write(long offset, Map<LedgerKey, Ledger> store) {
+        long started = System.nanoTime();
+        Path temp = directory.resolve(name(offset) + TEMP_SUFFIX);
+
+        List<List<Map.Entry<LedgerKey, Ledger>>> buckets = new ArrayList<>(shards);
+
+        for (int i = 0; i < shards; i++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        store.entrySet().forEach(entry -> buckets.get(shard(entry.getKey())).add(entry));
+
+        try {
+            Files.createDirectories(temp);
+
+            long transactions = 0;
+
+            // One shard at a time, the snapshotter should not compete with writers for cores
+            for (int i = 0; i < shards; i++) {
+                transactions += writeShard(temp.resolve(shardName(i)), offset, buckets.get(i));
+            }
+
+            Path target = directory.resolve(temp.getFileName().toString().replace(TEMP_SUFFIX, ""));
+
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            deleteOlderThan(target);
+
+            Log.infof("Snapshot %s written: %d ledgers, %d transactions in %d ms", target, store.size(),
+                    transactions, (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the latest snapshot, shards in parallel, one thread per core.
+     * Returns the log offset to replay from, 0 if there is no snapshot.
+     */
+    long load(Function<LedgerKey, Ledger> ledgers) {
+        long started = System.nanoTime();
+        Path latest = latest();
+
+        if (latest == null) {
+            Log.infof("No snapshot found in %s", directory);
+
+            return 0;
+        }
+
+        long offset = offsetOf(latest);
+        List<Callable<Long>> tasks = new ArrayList<>(shards);
+
+        try (Stream<Path> files = Files.list(latest)) {
+            files.forEach(file -> tasks.add(() -> readShard(file, offset, ledgers)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long transactions = 0;
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                Thread.ofPlatform().name("ledger-snapshot-loader-", 0).factory())) {
+            for (Future<Long> loaded : pool.invokeAll(tasks)) {
+                transactions += loaded.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot load snapshot " + latest, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted loading snapshot " + latest, e);
+        }
+
+        Log.infof("Loaded snapshot %s: %d transactions from %d shards in %d ms", latest, transactions, tasks.size(),
+                (System.nanoTime() - started) / 1_000_000);
+
+        return offset;
+    }
+
+    private long writeShard(Path file, long offset, List<Map.Entry<LedgerKey, Ledger>> ledgers) throws IOException {
+        long transactions = 0;
+
+        try (FileOutputStream fileOut = new FileOutputStream(file.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 256 * 1024),
+                    new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(offset);
+
+            for (Map.Entry<LedgerKey, Ledger> entry : ledgers) {
+                LedgerKey key = entry.getKey();
+
+                out.writeByte(1);
+                out.writeLong(key.id().getMostSignificantBits());
+                out.writeLong(key.id().getLeastSignificantBits());
+                out.write(key.currency().value().getBytes(StandardCharsets.US_ASCII));
+
+                try (Stream<Map.Entry<UUID, Transaction>> rows = entry.getValue().all()) {
+                    for (Map.Entry<UUID, Transaction> row : (Iterable<Map.Entry<UUID, Transaction>>) rows::iterator) {
+                        Transaction transaction = row.getValue();
+
+                        out.writeByte(1);
+                        out.writeLong(row.getKey().getMostSignificantBits());
+                        out.writeLong(row.getKey().getLeastSignificantBits());
+                        out.writeByte(transaction.operation().ordinal());
+                        out.writeLong(transaction.amount());
+                        writeString(out, transaction.description());
+                        writeString(out, transaction.reference());
+                        transactions++;
+                    }
+                }
+
+                out.writeByte(0);
+            }
+
+            out.writeByte(0);
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        return transactions;
+    }
+
+    private long readShard(Path file, long offset, Function<LedgerKey, Ledger> ledgers) throws IOException {
+        long transactions = 0;
+
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 256 * 1024), new CRC32C())) {
+            DataInputStream in = new DataInputStream(checked);
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != offset) {
+                throw new IllegalStateException("Not a snapshot shard of offset %d: %s".formatted(offset, file));
+            }
+
+            while (in.readByte() == 1) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                byte[] code = in.readNBytes(3);
+                Currency currency = Currency.of(new String(code, StandardCharsets.US_ASCII));
+                Ledger ledger = ledgers.apply(new LedgerKey(id, currency));
+
+                while (in.readByte() == 1) {
+                    UUID trxId = new UUID(in.readLong(), in.readLong());
+                    Transaction.Operation operation = Transaction.Operation.values()[in.readByte()];
+                    long amount = in.readLong();
+                    String description = readString(in);
+                    String reference = readString(in);
+
+                    ledger.restore(trxId, new Transaction(operation, amount, description, reference, currency));
+                    transactions++;
+                }
+            }
+
+            int expected = (int) checked.getChecksum().getValue();
+
+            if (in.readInt() != expected) {
+                throw new IllegalStateException("Snapshot shard %s fails its checksum".formatted(file));
+            }
+        }
+
+        return transactions;
+    }
+
+    private Path latest() {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+
+        try (Stream<Path> dirs = Files.list(directory)) {
+            return dirs
+                    .filter(Snapshots::isComplete)
+                    .max(Comparator.comparing(path -> path.getFileName().toString()))
+                    .orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops every snapshot before the given one, plus any half written one.
+     */
+    private void deleteOlderThan(Path snapshot) throws IOException {
+        String name = snapshot.getFileName().toString();
+
+        try (Stream<Path> dirs = Files.list(directory)) {
+            for (Path dir : dirs.filter(path -> path.getFileName().toString().startsWith(PREFIX)).toList()) {
+                if (!isComplete(dir) || dir.getFileName().toString().compareTo(name) < 0) {
+                    deleteRecursively(dir);
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(dir);
+    }
+
+    private int shard(LedgerKey key) {
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    private static boolean isComplete(Path dir) {
+        String name = dir.getFileName().toString();
+
+        return Files.isDirectory(dir) && name.startsWith(PREFIX) && !name.endsWith(TEMP_SUFFIX);
+    }
+
+    private static long offsetOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+
+        return Long.parseLong(name.substring(PREFIX.length(), name.indexOf('-', PREFIX.length())));
+    }
+
+    // Offset first so names sort by it, the timestamp tells apart snapshots of the same offset
+    private static String name(long offset) {
+        return "%s%020d-%020d".formatted(PREFIX, offset, System.currentTimeMillis());
+    }
+
+    private static String shardName(int shard) {
+        return "shard-%04d.bin".formatted(shard);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readUnsignedShort()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,250 @@
+package com.acme.api.ledger.repository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Transactions of one ledger in id order, for a single consumer thread that
+ * reads them with {@link #next(Duration)}.
+ *
+ * With a cursor it first replays the transactions after it from the store,
+ * and only subscribes to the {@link Feed} once that is done. A second, short
+ * replay then covers what was committed in the meantime; live transactions it
+ * already returned are skipped by id. From then on the writer hands every
+ * commit to a bounded buffer. When it is full the writer does not wait:
+ * {@code disconnect} ends the subscription (the consumer resumes from the
+ * last id it got, nothing is lost) and {@code drop} skips the transaction and
+ * counts it.
+ */
+public final class Subscription implements AutoCloseable {
+    // Transactions returned per read while replaying
+    private static final int REPLAY_CHUNK = 256;
+
+    private final LedgerKey key;
+
+    private final Ledger ledger;
+
+    private final Feed feed;
+
+    private final int capacity;
+
+    private final LedgerConfig.Overflow overflow;
+
+    // Waits until everything appended so far is durable
+    private final Runnable durable;
+
+    private final ConcurrentLinkedQueue<Map.Entry<UUID, Transaction>> buffer = new ConcurrentLinkedQueue<>();
+
+    // At least the size of the buffer, taken before an offer and given back after a poll
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean overflowed;
+
+    private volatile boolean ended;
+
+    private volatile Thread waiting;
+
+    // Consumer side only
+    private Stream<Map.Entry<UUID, Transaction>> replay;
+
+    private Iterator<Map.Entry<UUID, Transaction>> replayed;
+
+    private boolean subscribed;
+
+    private UUID last;
+
+    Subscription(LedgerKey key, Ledger ledger, Feed feed, UUID after, int capacity, LedgerConfig.Overflow overflow,
+            Runnable durable) {
+        this.key = key;
+        this.ledger = ledger;
+        this.feed = feed;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.durable = durable;
+        this.last = after;
+
+        if (after != null) {
+            replay(after);
+        } else {
+            feed.add(this);
+            subscribed = true;
+        }
+    }
+
+    public LedgerKey key() {
+        return key;
+    }
+
+    /**
+     * The next transactions, returned once they are durable. While replaying
+     * that is the next chunk from the store, live it is whatever is buffered,
+     * waiting up to the timeout for something to be committed. Empty when
+     * nothing was, null once the subscription has ended.
+     */
+    public List<Map.Entry<UUID, Transaction>> next(Duration timeout) {
+        if (ended || overflowed) {
+            return null;
+        }
+
+        // Empty once the replay is over, live from there on
+        List<Map.Entry<UUID, Transaction>> batch = replay != null ? replayed() : List.of();
+
+        if (batch.isEmpty()) {
+            batch = live(timeout);
+        }
+
+        if (!batch.isEmpty()) {
+            last = batch.getLast().getKey();
+            durable.run();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Transactions dropped since the last call, always 0 with the
+     * {@code disconnect} policy.
+     */
+    public long dropped() {
+        return dropped.getAndSet(0);
+    }
+
+    /**
+     * True when the subscription ended because its buffer was full.
+     */
+    public boolean overflowed() {
+        return overflowed;
+    }
+
+    @Override
+    public void close() {
+        ended = true;
+        feed.remove(this);
+
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+    }
+
+    /**
+     * Called by the ledger writer, never blocks.
+     */
+    void offer(Map.Entry<UUID, Transaction> entry) {
+        if (buffered.incrementAndGet() > capacity) {
+            buffered.decrementAndGet();
+
+            if (overflow == LedgerConfig.Overflow.DROP) {
+                dropped.incrementAndGet();
+                feed.dropped();
+
+                return;
+            }
+
+            overflowed = true;
+            feed.remove(this);
+            feed.disconnected();
+        } else {
+            buffer.offer(entry);
+        }
+
+        wake();
+    }
+
+    // Shutdown, from any thread
+    void end() {
+        ended = true;
+        wake();
+    }
+
+    private List<Map.Entry<UUID, Transaction>> replayed() {
+        while (true) {
+            List<Map.Entry<UUID, Transaction>> batch = new ArrayList<>(REPLAY_CHUNK);
+
+            while (batch.size() < REPLAY_CHUNK && replayed.hasNext()) {
+                batch.add(replayed.next());
+            }
+
+            if (!batch.isEmpty()) {
+                return batch;
+            }
+
+            replay.close();
+            replay = null;
+
+            if (subscribed) {
+                return batch;
+            }
+
+            // Anything published from now on is buffered, the catch-up replay
+            // covers what was committed before
+            feed.add(this);
+            subscribed = true;
+            replay(last);
+        }
+    }
+
+    private void replay(UUID after) {
+        replay = ledger.range(Ids.successor(after), Ids.LAST);
+        replayed = replay.iterator();
+    }
+
+    private List<Map.Entry<UUID, Transaction>> live(Duration timeout) {
+        List<Map.Entry<UUID, Transaction>> batch = drain();
+
+        if (!batch.isEmpty()) {
+            return batch;
+        }
+
+        waiting = Thread.currentThread();
+
+        try {
+            // Checked after waiting is set, an offer after it unparks us
+            if (buffer.isEmpty() && !ended && !overflowed) {
+                LockSupport.parkNanos(this, timeout.toNanos());
+            }
+        } finally {
+            waiting = null;
+        }
+
+        return drain();
+    }
+
+    private List<Map.Entry<UUID, Transaction>> drain() {
+        List<Map.Entry<UUID, Transaction>> batch = new ArrayList<>();
+        Map.Entry<UUID, Transaction> entry;
+
+        while ((entry = buffer.poll()) != null) {
+            buffered.decrementAndGet();
+
+            if (last == null || entry.getKey().compareTo(last) > 0) {
+                batch.add(entry);
+            }
+        }
+
+        return batch;
+    }
+
+    private void wake() {
+        Thread thread = waiting;
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.acme.api.ledger.repository;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Heap backend with a cold tier: the oldest transactions of the ledger are
+ * sealed into {@link ColdSegment}s on disk, the recent ones stay in a skip
+ * list. Every cold id is lower than every hot id, so a range is the cold
+ * segments it overlaps followed by the hot part.
+ *
+ * Readers take both tiers from a single volatile read. Demoting builds a new
+ * hot skip list and swaps the pair instead of trimming the current one, so a
+ * reader halfway through a range keeps the pair it started with.
+ */
+final class TieredTransactionStore implements TransactionStore {
+    private record Tiers(List<ColdSegment> cold, SkipListTransactionStore hot) {
+    }
+
+    /**
+     * Demotion prepared off the writer: the segment is on disk and the
+     * transactions after it are copied up to {@code copied}.
+     */
+    record Demotion(Tiers base, ColdSegment segment, SkipListTransactionStore hot, UUID copied) {
+    }
+
+    private final LedgerKey key;
+
+    private final Path directory;
+
+    private volatile Tiers tiers;
+
+    TieredTransactionStore(LedgerKey key, Path directory) {
+        this.key = key;
+        this.directory = directory;
+        this.tiers = new Tiers(List.of(), new SkipListTransactionStore());
+    }
+
+    @Override
+    public UUID append(Transaction transaction, Consumer<UUID> writeAhead) {
+        return tiers.hot().append(transaction, writeAhead);
+    }
+
+    @Override
+    public List<UUID> appendAll(List<Transaction> transactions,
+            Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead) {
+        return tiers.hot().appendAll(transactions, writeAhead);
+    }
+
+    /**
+     * Restored ids always land in the hot tier: recovery runs before anything
+     * is demoted, imports merge on the writer of the ledger like demotions
+     * complete, and followers do not tier.
+     */
+    @Override
+    public boolean put(UUID id, Transaction transaction) {
+        return tiers.hot().put(id, transaction);
+    }
+
+    // Ids of a bulk load are greater than every stored one, hot as well
+    @Override
+    public void load(List<Map.Entry<UUID, Transaction>> sorted) {
+        tiers.hot().load(sorted);
+    }
+
+    @Override
+    public UUID last() {
+        Tiers current = tiers;
+        UUID last = current.hot().last();
+
+        return last != null || current.cold().isEmpty() ? last : current.cold().getLast().last();
+    }
+
+    // Cold segments are kept whole, only the hot tier is compacted
+    @Override
+    public UUID removableFrom() {
+        Tiers current = tiers;
+
+        return current.cold().isEmpty() ? Ids.FIRST : Ids.successor(current.cold().getLast().last());
+    }
+
+    @Override
+    public void remove(UUID from, UUID to, Set<UUID> kept) {
+        tiers.hot().remove(from, to, kept);
+    }
+
+    @Override
+    public Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to) {
+        Tiers current = tiers;
+        Stream<Map.Entry<UUID, Transaction>> range = Stream.empty();
+
+        for (ColdSegment segment : current.cold()) {
+            if (segment.last().compareTo(from) >= 0 && segment.first().compareTo(to) <= 0) {
+                // Lazy, a segment is only read when the stream gets to it
+                range = Stream.concat(range, Stream.of(segment).flatMap(cold -> cold.range(from, to)));
+            }
+        }
+
+        return Stream.concat(range, current.hot().range(from, to));
+    }
+
+    @Override
+    public int size() {
+        Tiers current = tiers;
+        int size = current.hot().size();
+
+        for (ColdSegment segment : current.cold()) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Heap taken by the hot tier, the cold one is on disk.
+     */
+    @Override
+    public long estimatedBytes() {
+        return tiers.hot().estimatedBytes();
+    }
+
+    long coldBytes() {
+        long bytes = 0;
+
+        for (ColdSegment segment : tiers.cold()) {
+            bytes += segment.bytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes the hot transactions with ids before the cutoff to a new segment
+     * and copies the rest to a new hot tier. Runs off the writer, appends go
+     * on meanwhile. Returns null when fewer than {@code minimum} transactions
+     * are old enough, not worth a segment.
+     */
+    Demotion prepare(UUID cutoff, int minimum) {
+        Tiers base = tiers;
+
+        try (Stream<Map.Entry<UUID, Transaction>> old = base.hot().range(Ids.FIRST, cutoff)) {
+            if (old.limit(minimum).count() < minimum) {
+                return null;
+            }
+        }
+
+        ColdSegment segment;
+
+        try (Stream<Map.Entry<UUID, Transaction>> old = base.hot().range(Ids.FIRST, cutoff)) {
+            segment = ColdSegment.write(directory.resolve(fileName(base)), key.currency(), old.iterator());
+        }
+
+        SkipListTransactionStore hot = base.hot().sibling();
+        UUID copied = segment.last();
+
+        try (Stream<Map.Entry<UUID, Transaction>> recent = base.hot().range(Ids.successor(segment.last()),
+                Ids.LAST)) {
+            for (Iterator<Map.Entry<UUID, Transaction>> entries = recent.iterator(); entries.hasNext();) {
+                Map.Entry<UUID, Transaction> entry = entries.next();
+
+                hot.put(entry.getKey(), entry.getValue());
+                copied = entry.getKey();
+            }
+        }
+
+        return new Demotion(base, segment, hot, copied);
+    }
+
+    /**
+     * Copies what was appended since prepare and swaps the tiers. Must run on
+     * the writer of the ledger so nothing is appended while it does.
+     */
+    void complete(Demotion demotion) {
+        if (tiers != demotion.base()) {
+            throw new IllegalStateException("Ledger %s was demoted concurrently".formatted(key));
+        }
+
+        try (Stream<Map.Entry<UUID, Transaction>> late = demotion.base().hot()
+                .range(Ids.successor(demotion.copied()), Ids.LAST)) {
+            late.forEach(entry -> demotion.hot().put(entry.getKey(), entry.getValue()));
+        }
+
+        List<ColdSegment> cold = new ArrayList<>(demotion.base().cold());
+
+        cold.add(demotion.segment());
+        tiers = new Tiers(List.copyOf(cold), demotion.hot());
+    }
+
+    /**
+     * Drops a demotion that will not be completed.
+     */
+    void abort(Demotion demotion) {
+        demotion.segment().close();
+    }
+
+    @Override
+    public void close() {
+        Tiers current = tiers;
+
+        current.hot().close();
+        current.cold().forEach(ColdSegment::close);
+    }
+
+    private String fileName(Tiers base) {
+        return "%s-%s-%05d.seg".formatted(key.id(), key.currency().value(), base.cold().size());
+    }
+}
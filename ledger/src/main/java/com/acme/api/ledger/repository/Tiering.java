@@ -0,0 +1,140 @@
+package com.acme.api.ledger.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.LedgerKey;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Keeps the heap taken by transactions under a budget. When the hot tiers of
+ * all ledgers add up to more, the least recently used ledgers get their
+ * transactions older than keep-recent sealed into cold segments, until the
+ * total is back under.
+ *
+ * Segments are written and the new hot tier is filled on the tiering thread,
+ * only the final catch-up and swap run on the ledger writer.
+ */
+final class Tiering {
+    private final Path directory;
+
+    private final long budget;
+
+    private final Duration keepRecent;
+
+    // Warns once when the budget cannot be met, not on every pass
+    private boolean overBudget;
+
+    Tiering(LedgerConfig.Tiering config) {
+        this.directory = config.directory();
+        this.budget = config.heapBudget().asLongValue();
+        this.keepRecent = config.keepRecent();
+
+        // Whatever is here is also in the snapshot and the log, which are
+        // about to be loaded
+        try {
+            Files.createDirectories(directory);
+
+            try (Stream<Path> segments = Files.list(directory)) {
+                for (Path segment : segments.filter(path -> path.toString().endsWith(".seg")).toList()) {
+                    Files.delete(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    TieredTransactionStore newStore(LedgerKey key) {
+        return new TieredTransactionStore(key, directory);
+    }
+
+    /**
+     * One pass over the store, demoting until the hot tiers fit the budget or
+     * no ledger has enough old transactions left to be worth a segment.
+     */
+    void demote(Map<LedgerKey, Ledger> store, Sequencer sequencer) {
+        long hot = 0;
+        List<Map.Entry<LedgerKey, Ledger>> candidates = new ArrayList<>();
+
+        for (Map.Entry<LedgerKey, Ledger> entry : store.entrySet()) {
+            hot += entry.getValue().estimatedBytes();
+
+            if (entry.getValue().tiered() != null) {
+                candidates.add(entry);
+            }
+        }
+
+        if (hot <= budget) {
+            overBudget = false;
+
+            return;
+        }
+
+        long started = System.nanoTime();
+        long before = hot;
+        UUID cutoff = lowestId(System.currentTimeMillis() - keepRecent.toMillis());
+        int ledgers = 0;
+        long transactions = 0;
+
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().accessed()));
+
+        for (Map.Entry<LedgerKey, Ledger> entry : candidates) {
+            if (hot <= budget) {
+                break;
+            }
+
+            TieredTransactionStore tiered = entry.getValue().tiered();
+            long bytes = tiered.estimatedBytes();
+            TieredTransactionStore.Demotion demotion = tiered.prepare(cutoff, ColdSegment.BLOCK_ENTRIES);
+
+            if (demotion == null) {
+                continue;
+            }
+
+            try {
+                sequencer.submitOrWait(entry.getKey(), () -> {
+                    tiered.complete(demotion);
+
+                    return null;
+                }).join();
+            } catch (RuntimeException e) {
+                tiered.abort(demotion);
+
+                throw e;
+            }
+
+            hot -= bytes - tiered.estimatedBytes();
+            transactions += demotion.segment().size();
+            ledgers++;
+        }
+
+        if (ledgers > 0) {
+            Log.infof("Demoted %d transactions of %d ledgers to %s in %d ms, hot tier %d -> %d bytes",
+                    transactions, ledgers, directory, (System.nanoTime() - started) / 1_000_000, before, hot);
+        }
+
+        if (hot > budget && !overBudget) {
+            Log.warnf("Hot tier still %d bytes over the %d bytes budget, transactions are younger than %s",
+                    hot - budget, budget, keepRecent);
+        }
+
+        overBudget = hot > budget;
+    }
+
+    // Lowest UUIDv7 of the given millisecond, everything below is older
+    private static UUID lowestId(long epochMillis) {
+        return new UUID((epochMillis << 16) | (0x7L << 12), 0x8000_0000_0000_0000L);
+    }
+}
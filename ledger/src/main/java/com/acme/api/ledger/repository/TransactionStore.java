@@ -0,0 +1,84 @@
+package com.acme.api.ledger.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Transactions of a single ledger ordered by their UUIDv7 id. Implementations
+ * are safe for concurrent appends and reads.
+ */
+interface TransactionStore extends AutoCloseable {
+
+    /**
+     * Stores the transaction under a new UUIDv7, returns null if the generated
+     * id is already taken, without calling the write-ahead callback: the log
+     * only holds what the store took. Otherwise the callback gets the id
+     * before the transaction becomes visible; if it throws nothing is stored.
+     */
+    UUID append(Transaction transaction, Consumer<UUID> writeAhead);
+
+    /**
+     * Stores the transactions under new UUIDv7 ids, increasing in list order,
+     * and returns the ids in that order. The write-ahead callback gets the
+     * whole batch once, before any of it becomes visible; if it throws nothing
+     * is stored.
+     */
+    List<UUID> appendAll(List<Transaction> transactions, Consumer<List<Map.Entry<UUID, Transaction>>> writeAhead);
+
+    /**
+     * Stores a transaction that already has an id (recovery), returns false if
+     * the id is already taken.
+     */
+    boolean put(UUID id, Transaction transaction);
+
+    /**
+     * Stores a bulk import: ids already assigned, increasing in list order and
+     * all greater than the stored ones. Must run on the writer of the ledger.
+     */
+    default void load(List<Map.Entry<UUID, Transaction>> sorted) {
+        for (Map.Entry<UUID, Transaction> entry : sorted) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Greatest id stored, null when there is none.
+     */
+    UUID last();
+
+    /**
+     * Lowest id {@link #remove(UUID, UUID, Set)} can drop from, null when the
+     * store cannot drop transactions: the off-heap columns are append-only.
+     */
+    UUID removableFrom();
+
+    /**
+     * Drops the transactions with ids between from and to (both inclusive)
+     * but the kept ones, from no lower than {@link #removableFrom()}. Used by
+     * compaction, which has put summaries in the range first. Must run on the
+     * writer of the ledger.
+     */
+    void remove(UUID from, UUID to, Set<UUID> kept);
+
+    /**
+     * Transactions with ids between from and to (both inclusive), in id order.
+     */
+    Stream<Map.Entry<UUID, Transaction>> range(UUID from, UUID to);
+
+    int size();
+
+    /**
+     * Rough memory taken by the transactions, for metrics: heap for the heap
+     * backend, native memory for the off-heap one.
+     */
+    long estimatedBytes();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,251 @@
+package com.acme.api.ledger.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+/**
+ * Entries of the write-ahead log and their binary body:
+ *
+ * type (byte) | ledger id (2 longs) | currency (3 ASCII bytes) | payload
+ *
+ * The payload of a transaction is id (2 longs) | operation (byte) | amount
+ * (long) | description and reference, each as a short length plus UTF-8 bytes.
+ * A batch is a count (int) followed by that many transaction payloads, so it
+ * is replayed all or nothing. A transfer is the debit payload, then the
+ * credited ledger id (2 longs) and currency (3 ASCII bytes) and the credit
+ * payload: both legs are in the log or neither is. A dropped ledger, handed
+ * off to another node, has no payload. A compacted period is its first and
+ * last id (2 longs each) followed by its summaries, written like a batch.
+ * Framing (length and checksum) is done by {@link WriteAheadLog}.
+ */
+sealed interface WalRecord {
+    byte LEDGER_CREATED = 1;
+    byte TRANSACTION_APPENDED = 2;
+    byte TRANSACTIONS_APPENDED = 3;
+    byte TRANSFERRED = 4;
+    byte LEDGER_DROPPED = 5;
+    byte COMPACTED = 6;
+
+    LedgerKey key();
+
+    record LedgerCreated(LedgerKey key) implements WalRecord {
+    }
+
+    record TransactionAppended(LedgerKey key, UUID id, Transaction transaction) implements WalRecord {
+    }
+
+    record TransactionsAppended(LedgerKey key, List<Map.Entry<UUID, Transaction>> transactions) implements WalRecord {
+    }
+
+    /**
+     * Debit of the ledger of the key and credit of another one, see
+     * {@link InMemoryLedgerRepository#transferAsync}.
+     */
+    record Transferred(LedgerKey key, UUID debitId, Transaction debit, LedgerKey to, UUID creditId,
+            Transaction credit) implements WalRecord {
+    }
+
+    record LedgerDropped(LedgerKey key) implements WalRecord {
+    }
+
+    /**
+     * Transactions with ids from first to last replaced by the summaries, see
+     * {@link Retention}.
+     */
+    record Compacted(LedgerKey key, UUID first, UUID last, List<Map.Entry<UUID, Transaction>> summaries)
+            implements WalRecord {
+    }
+
+    /**
+     * Where records read back from the store go: an export, or the dump a
+     * follower starts from.
+     */
+    @FunctionalInterface
+    interface Sink {
+        void write(WalRecord record) throws IOException;
+    }
+
+    default byte[] encode() {
+        return switch (this) {
+            case LedgerCreated created -> header(ByteBuffer.allocate(1 + 16 + 3), LEDGER_CREATED, created.key())
+                    .array();
+            case LedgerDropped dropped -> header(ByteBuffer.allocate(1 + 16 + 3), LEDGER_DROPPED, dropped.key())
+                    .array();
+            case TransactionAppended appended -> {
+                byte[][] strings = strings(appended.transaction());
+                ByteBuffer buffer = header(ByteBuffer.allocate(1 + 16 + 3 + payloadSize(strings)),
+                        TRANSACTION_APPENDED, appended.key());
+
+                yield payload(buffer, appended.id(), appended.transaction(), strings).array();
+            }
+            case TransactionsAppended appended -> {
+                List<Map.Entry<UUID, Transaction>> transactions = appended.transactions();
+                byte[][][] strings = new byte[transactions.size()][][];
+                int size = 1 + 16 + 3 + Integer.BYTES;
+
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = strings(transactions.get(i).getValue());
+                    size += payloadSize(strings[i]);
+                }
+
+                ByteBuffer buffer = header(ByteBuffer.allocate(size), TRANSACTIONS_APPENDED, appended.key())
+                        .putInt(transactions.size());
+
+                for (int i = 0; i < strings.length; i++) {
+                    payload(buffer, transactions.get(i).getKey(), transactions.get(i).getValue(), strings[i]);
+                }
+
+                yield buffer.array();
+            }
+            case Transferred transferred -> {
+                byte[][] debit = strings(transferred.debit());
+                byte[][] credit = strings(transferred.credit());
+                ByteBuffer buffer = header(ByteBuffer.allocate(
+                        1 + 16 + 3 + payloadSize(debit) + 16 + 3 + payloadSize(credit)),
+                        TRANSFERRED, transferred.key());
+
+                payload(buffer, transferred.debitId(), transferred.debit(), debit)
+                        .putLong(transferred.to().id().getMostSignificantBits())
+                        .putLong(transferred.to().id().getLeastSignificantBits())
+                        .put(transferred.to().currency().value().getBytes(StandardCharsets.US_ASCII));
+
+                yield payload(buffer, transferred.creditId(), transferred.credit(), credit).array();
+            }
+            case Compacted compacted -> {
+                List<Map.Entry<UUID, Transaction>> summaries = compacted.summaries();
+                byte[][][] strings = new byte[summaries.size()][][];
+                int size = 1 + 16 + 3 + 16 + 16 + Integer.BYTES;
+
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = strings(summaries.get(i).getValue());
+                    size += payloadSize(strings[i]);
+                }
+
+                ByteBuffer buffer = header(ByteBuffer.allocate(size), COMPACTED, compacted.key())
+                        .putLong(compacted.first().getMostSignificantBits())
+                        .putLong(compacted.first().getLeastSignificantBits())
+                        .putLong(compacted.last().getMostSignificantBits())
+                        .putLong(compacted.last().getLeastSignificantBits())
+                        .putInt(summaries.size());
+
+                for (int i = 0; i < strings.length; i++) {
+                    payload(buffer, summaries.get(i).getKey(), summaries.get(i).getValue(), strings[i]);
+                }
+
+                yield buffer.array();
+            }
+        };
+    }
+
+    static WalRecord decode(ByteBuffer body) {
+        byte type = body.get();
+        UUID ledger = new UUID(body.getLong(), body.getLong());
+        byte[] code = new byte[3];
+
+        body.get(code);
+
+        Currency currency = Currency.of(new String(code, StandardCharsets.US_ASCII));
+        LedgerKey key = new LedgerKey(ledger, currency);
+
+        return switch (type) {
+            case LEDGER_CREATED -> new LedgerCreated(key);
+            case LEDGER_DROPPED -> new LedgerDropped(key);
+            case TRANSACTION_APPENDED -> {
+                Map.Entry<UUID, Transaction> entry = transaction(body, currency);
+
+                yield new TransactionAppended(key, entry.getKey(), entry.getValue());
+            }
+            case TRANSACTIONS_APPENDED -> {
+                int count = body.getInt();
+                List<Map.Entry<UUID, Transaction>> transactions = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    transactions.add(transaction(body, currency));
+                }
+
+                yield new TransactionsAppended(key, transactions);
+            }
+            case TRANSFERRED -> {
+                Map.Entry<UUID, Transaction> debit = transaction(body, currency);
+                UUID ledgerTo = new UUID(body.getLong(), body.getLong());
+
+                body.get(code);
+
+                Currency currencyTo = Currency.of(new String(code, StandardCharsets.US_ASCII));
+                Map.Entry<UUID, Transaction> credit = transaction(body, currencyTo);
+
+                yield new Transferred(key, debit.getKey(), debit.getValue(), new LedgerKey(ledgerTo, currencyTo),
+                        credit.getKey(), credit.getValue());
+            }
+            case COMPACTED -> {
+                UUID first = new UUID(body.getLong(), body.getLong());
+                UUID last = new UUID(body.getLong(), body.getLong());
+                int count = body.getInt();
+                List<Map.Entry<UUID, Transaction>> summaries = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    summaries.add(transaction(body, currency));
+                }
+
+                yield new Compacted(key, first, last, summaries);
+            }
+            default -> throw new IllegalStateException("Unknown write-ahead log record type " + type);
+        };
+    }
+
+    private static ByteBuffer header(ByteBuffer buffer, byte type, LedgerKey key) {
+        return buffer.put(type)
+                .putLong(key.id().getMostSignificantBits())
+                .putLong(key.id().getLeastSignificantBits())
+                .put(key.currency().value().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[][] strings(Transaction transaction) {
+        return new byte[][] {
+                transaction.description().getBytes(StandardCharsets.UTF_8),
+                transaction.reference().getBytes(StandardCharsets.UTF_8)
+        };
+    }
+
+    private static int payloadSize(byte[][] strings) {
+        return 16 + 1 + 8 + 2 + strings[0].length + 2 + strings[1].length;
+    }
+
+    private static ByteBuffer payload(ByteBuffer buffer, UUID id, Transaction transaction, byte[][] strings) {
+        return buffer.putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .put((byte) transaction.operation().ordinal())
+                .putLong(transaction.amount())
+                .putShort((short) strings[0].length)
+                .put(strings[0])
+                .putShort((short) strings[1].length)
+                .put(strings[1]);
+    }
+
+    private static Map.Entry<UUID, Transaction> transaction(ByteBuffer body, Currency currency) {
+        UUID id = new UUID(body.getLong(), body.getLong());
+        Transaction.Operation operation = Transaction.Operation.values()[body.get()];
+        long amount = body.getLong();
+        String description = string(body);
+        String reference = string(body);
+
+        return Map.entry(id, new Transaction(operation, amount, description, reference, currency));
+    }
+
+    private static String string(ByteBuffer body) {
+        byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+
+        body.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
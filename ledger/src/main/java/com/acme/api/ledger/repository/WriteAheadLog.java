@@ -0,0 +1,652 @@
+package com.acme.api.ledger.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.acme.api.ledger.config.LedgerConfig;
+
+import io.quarkus.logging.Log;
+
+/**
+ * Append-only log of everything that changes the store, split in segment files
+ * named after the log offset they start at (wal-00000000000000000000.log).
+ *
+ * Each record is framed as length (int) | CRC32C of the body (int) | body, see
+ * {@link WalRecord} for the body. On replay the first record that is truncated
+ * or fails the checksum marks the end of the log, the tail of the last segment
+ * is cut there.
+ *
+ * Durability:
+ * - SYNC: every append is written and fsynced before it returns.
+ * - BATCH: appends are buffered, a flusher thread writes and fsyncs whatever
+ * piled up while the previous fsync was running (group commit). Callers wait
+ * on {@link #flushed()} so concurrent commits share a single fsync.
+ * - ASYNC: same flusher, but it only runs every flush interval and nobody
+ * waits for it. A crash loses at most that interval.
+ *
+ * Only durable records are shipped to followers, see {@link Tail}.
+ *
+ * A failed write or fsync stops the log for good: what it was writing may or
+ * may not be on disk, so nothing after it can be acknowledged either. Waiting
+ * callers fail, later appends are refused and no snapshot is taken until a
+ * restart replays whatever made it to disk.
+ */
+final class WriteAheadLog implements AutoCloseable {
+    private static final int FRAME_HEADER = 2 * Integer.BYTES;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final LedgerConfig.Durability durability;
+
+    private final long segmentSize;
+
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition pending = lock.newCondition();
+
+    // Signalled whenever durable moves, for followers tailing the log
+    private final Condition advanced = lock.newCondition();
+
+    // Futures of callers waiting for an offset to be durable, ordered by offset
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    // Start offsets of records appended but not yet applied to the store
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+
+    private FileChannel segment;
+
+    private long segmentStart;
+
+    // Offsets: appended >= durable, both only move forward
+    private long appended;
+
+    private long durable;
+
+    private boolean closed;
+
+    // The first write or fsync that failed, the log is unusable once set
+    private IOException failure;
+
+    private Thread flusher;
+
+    private record Waiter(long offset, CompletableFuture<Void> future) {
+    }
+
+    WriteAheadLog(Path directory, LedgerConfig.Durability durability, long segmentSize, Duration flushInterval) {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+    }
+
+    /**
+     * Reads the log in order, starting at the given offset (0 for the whole
+     * log, or the offset a snapshot was taken at), and opens it for appends.
+     * Must be called once, before the first append.
+     */
+    void replay(long from, Consumer<WalRecord> apply) {
+        try {
+            Files.createDirectories(directory);
+
+            List<Path> segments = segments();
+            long records = 0;
+
+            for (int i = 0; i < segments.size(); i++) {
+                Path path = segments.get(i);
+                long start = startOf(path);
+                boolean last = i == segments.size() - 1;
+
+                // Entirely before the snapshot, nothing to apply or repair
+                if (!last && startOf(segments.get(i + 1)) <= from) {
+                    continue;
+                }
+
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    long size = channel.size();
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    long end = 0;
+
+                    while (true) {
+                        ByteBuffer body = next(mapped);
+
+                        if (body == null) {
+                            break;
+                        }
+
+                        // Records from the offset on, the snapshot has the rest
+                        if (start + end >= from) {
+                            apply.accept(WalRecord.decode(body));
+                            records++;
+                        }
+
+                        end = mapped.position();
+                    }
+
+                    if (end < size) {
+                        if (!last) {
+                            throw new IllegalStateException(
+                                    "Corrupted write-ahead log segment %s at offset %d".formatted(path, end));
+                        }
+
+                        Log.warnf("Truncating torn write-ahead log tail of %s at offset %d (%d bytes)", path, end,
+                                size - end);
+
+                        channel.truncate(end);
+                        channel.force(true);
+                    }
+
+                    appended = start + end;
+                }
+            }
+
+            if (segments.isEmpty()) {
+                // Log deleted (or never written) behind a snapshot: carry on from
+                // its offset so offsets keep growing across restarts
+                appended = from;
+            }
+
+            durable = appended;
+
+            openSegment(segments.isEmpty() ? from : startOf(segments.getLast()));
+
+            Log.infof("Replayed %d write-ahead log records from %s, durability %s", records, directory, durability);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (durability != LedgerConfig.Durability.SYNC) {
+            flusher = Thread.ofPlatform().name("ledger-wal-flusher").daemon().start(this::flushLoop);
+        }
+    }
+
+    /**
+     * Returns the offset the record starts at. The record counts as in flight
+     * until {@link #applied(long)} is called with that offset.
+     */
+    long append(WalRecord record) {
+        byte[] body = record.encode();
+        CRC32C crc = new CRC32C();
+
+        crc.update(body);
+
+        lock.lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+
+            checkHealthy();
+            ensureCapacity(FRAME_HEADER + body.length);
+
+            long offset = appended;
+
+            buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+
+            if (durability == LedgerConfig.Durability.SYNC) {
+                try {
+                    write(swap());
+                } catch (IOException e) {
+                    fail(e);
+
+                    throw new UncheckedIOException(e);
+                }
+
+                // Only once it is on disk, a record that failed is never in flight
+                appended += FRAME_HEADER + body.length;
+                durable = appended;
+                inFlight.add(offset);
+                advanced.signalAll();
+
+                return offset;
+            }
+
+            appended += FRAME_HEADER + body.length;
+            inFlight.add(offset);
+
+            if (durability == LedgerConfig.Durability.BATCH) {
+                pending.signal();
+            }
+
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The record at this offset is now visible in the store.
+     */
+    void applied(long offset) {
+        inFlight.remove(offset);
+    }
+
+    /**
+     * Offset of the oldest record not applied to the store yet, or the end of
+     * the log if there is none. Everything before it is in the store, so a
+     * snapshot started after this call only needs the log from here on.
+     *
+     * @throws IllegalStateException if the log failed, the store may hold
+     *                               records that are not on disk
+     */
+    long recoveryPoint() {
+        lock.lock();
+
+        try {
+            checkHealthy();
+
+            // Under the lock no record can be added meanwhile, and the ones
+            // removed concurrently only move the result forward
+            return inFlight.isEmpty() ? appended : inFlight.first();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold records before the given offset,
+     * once a snapshot covers them. The current segment is always kept.
+     */
+    void truncate(long before) {
+        try {
+            List<Path> segments = segments();
+
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (startOf(segments.get(i + 1)) > before) {
+                    break;
+                }
+
+                Files.delete(segments.get(i));
+
+                Log.debugf("Deleted write-ahead log segment %s", segments.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Completes once everything appended before this call is on disk. With
+     * ASYNC durability it is already complete. Fails if the log failed, before
+     * or while waiting.
+     */
+    CompletableFuture<Void> flushed() {
+        lock.lock();
+
+        try {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(new UncheckedIOException(failure));
+            }
+
+            if (durability == LedgerConfig.Durability.ASYNC || durable >= appended) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Void> future = new CompletableFuture<>();
+
+            waiters.add(new Waiter(appended, future));
+
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the log is durable past the given offset, or the timeout
+     * elapses, and returns the durable end of the log. It stays where it was
+     * if the log failed.
+     */
+    long awaitDurable(long offset, long timeoutNanos) throws InterruptedException {
+        lock.lock();
+
+        try {
+            long remaining = timeoutNanos;
+
+            while (durable <= offset && !closed && failure == null && remaining > 0) {
+                remaining = advanced.awaitNanos(remaining);
+            }
+
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the log as it is on disk, frames included, to ship it to a
+     * follower. Not thread safe, one per follower.
+     */
+    Tail tail() {
+        return new Tail();
+    }
+
+    final class Tail implements AutoCloseable {
+        private FileChannel channel;
+
+        private long start;
+
+        /**
+         * Bytes that can be copied from the given offset on, up to the other
+         * one or the end of the segment holding it, whichever comes first.
+         * Both offsets must be record boundaries, the result is whole records.
+         *
+         * @throws NoSuchFileException if the segment was deleted after a
+         *                             snapshot
+         */
+        long available(long from, long to) throws IOException {
+            // Appends only roll to the next segment once this one is complete
+            if (channel == null || from < start || from >= start + channel.size()) {
+                open(from);
+            }
+
+            return Math.min(to - from, channel.size() - (from - start));
+        }
+
+        /**
+         * Copies what {@link #available(long, long)} returned, straight from
+         * the page cache to the channel.
+         */
+        void transferTo(long from, long count, WritableByteChannel out) throws IOException {
+            long position = from - start;
+            long sent = 0;
+
+            while (sent < count) {
+                sent += channel.transferTo(position + sent, count - sent, out);
+            }
+        }
+
+        private void open(long offset) throws IOException {
+            close();
+
+            Path holding = null;
+
+            for (Path path : segments()) {
+                if (startOf(path) > offset) {
+                    break;
+                }
+
+                holding = path;
+            }
+
+            if (holding == null) {
+                throw new NoSuchFileException(name(offset), null, "Write-ahead log truncated past offset " + offset);
+            }
+
+            // Still readable if a snapshot deletes it meanwhile
+            channel = FileChannel.open(holding, StandardOpenOption.READ);
+            start = startOf(holding);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            pending.signal();
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (flusher != null) {
+                flusher.join();
+            }
+
+            lock.lock();
+
+            try {
+                // Nothing more goes to a failed log, its waiters already failed
+                if (segment != null && failure != null) {
+                    segment.close();
+                } else if (segment != null) {
+                    write(swap());
+                    durable = appended;
+                    completeWaiters();
+                    segment.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long offset;
+
+            lock.lock();
+
+            try {
+                try {
+                    // ASYNC appends never signal, the flusher just ticks every interval
+                    if (durability == LedgerConfig.Durability.ASYNC) {
+                        pending.awaitNanos(flushIntervalNanos);
+                    }
+
+                    while (!closed && buffer.position() == 0) {
+                        if (durability == LedgerConfig.Durability.ASYNC) {
+                            pending.awaitNanos(flushIntervalNanos);
+                        } else {
+                            pending.await();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+
+                if (closed) {
+                    return;
+                }
+
+                batch = swap();
+                offset = appended;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                // Appenders keep filling the other buffer while we write and fsync
+                write(batch);
+            } catch (IOException e) {
+                lock.lock();
+
+                try {
+                    fail(e);
+                } finally {
+                    lock.unlock();
+                }
+
+                return;
+            }
+
+            lock.lock();
+
+            try {
+                durable = offset;
+                advanced.signalAll();
+                completeWaiters();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Hands the filled buffer out and makes the spare one current. Called with
+     * the lock held; the returned buffer is ready to be written.
+     */
+    private ByteBuffer swap() {
+        ByteBuffer filled = buffer;
+
+        buffer = spare.clear();
+        spare = filled;
+
+        return filled.flip();
+    }
+
+    /**
+     * Writes and fsyncs a batch, rolling to a new segment when the current one
+     * is full. Only one thread writes at a time: the flusher, or the appender
+     * under the lock in SYNC mode.
+     */
+    private void write(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining()) {
+            segment.write(batch);
+        }
+
+        segment.force(false);
+
+        if (segment.size() >= segmentSize) {
+            long next = segmentStart + segment.size();
+
+            segment.close();
+            openSegment(next);
+        }
+    }
+
+    private void openSegment(long start) throws IOException {
+        segment = FileChannel.open(directory.resolve(name(start)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentStart = start;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+
+            buffer = larger.put(buffer.flip());
+        }
+    }
+
+    private void completeWaiters() {
+        while (!waiters.isEmpty() && waiters.peek().offset() <= durable) {
+            waiters.poll().future().complete(null);
+        }
+    }
+
+    /**
+     * Stops the log after a failed write or fsync. Called with the lock held.
+     */
+    private void fail(IOException e) {
+        Log.errorf(e, "Write-ahead log write failed at offset %d, refusing writes until restart", durable);
+
+        failure = e;
+        failWaiters(e);
+        advanced.signalAll();
+    }
+
+    private void checkHealthy() {
+        if (failure != null) {
+            throw new IllegalStateException("Write-ahead log failed, refusing writes until restart", failure);
+        }
+    }
+
+    private void failWaiters(IOException e) {
+        while (!waiters.isEmpty()) {
+            waiters.poll().future().completeExceptionally(new UncheckedIOException(e));
+        }
+    }
+
+    /**
+     * Next record body of the frames, or null at the end of the valid log.
+     */
+    static ByteBuffer next(ByteBuffer frames) {
+        if (frames.remaining() < FRAME_HEADER) {
+            return null;
+        }
+
+        int start = frames.position();
+        int length = frames.getInt();
+        int checksum = frames.getInt();
+
+        if (length <= 0 || length > frames.remaining()) {
+            frames.position(start);
+
+            return null;
+        }
+
+        ByteBuffer body = frames.slice(frames.position(), length);
+        CRC32C crc = new CRC32C();
+
+        crc.update(body.duplicate());
+
+        if ((int) crc.getValue() != checksum) {
+            frames.position(start);
+
+            return null;
+        }
+
+        frames.position(frames.position() + length);
+
+        return body;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static String name(long start) {
+        return "%s%020d%s".formatted(PREFIX, start, SUFFIX);
+    }
+}
@@ -0,0 +1,169 @@
+package com.acme.api.ledger.resource;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+
+import com.acme.api.ledger.apispec.dto.BackoffResponse;
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.metrics.LedgerMetrics;
+
+import io.quarkus.logging.Log;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.net.SocketAddress;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Token buckets per client and per ledger, so a client hammering one ledger
+ * only slows down itself. Checked on the event loop once the request is
+ * matched, before it is dispatched: a throttled request gets 429 with a
+ * Retry-After and does no other work.
+ *
+ * The ledger is the account and currency in the path, or the account alone on
+ * endpoints without a currency. The client is its remote address, or the
+ * value of the client header when the request comes from a trusted proxy:
+ * from anyone else the header is ignored, a client could name itself anew
+ * with every request. A request refused by its ledger's bucket gives the
+ * client's token back, it did no work.
+ *
+ * Throttled requests are counted in ledger.admission.throttled, and only
+ * logged at debug: under the load that trips the limits a line per request
+ * would be the bottleneck.
+ */
+@ApplicationScoped
+public class AdmissionControl {
+    private static final String ID = "id";
+
+    private static final String CURRENCY = "currency";
+
+    private final boolean enabled;
+
+    private final String clientHeader;
+
+    // As remote addresses print them
+    private final Set<String> trustedProxies;
+
+    private final TokenBuckets<String> clients;
+
+    private final TokenBuckets<LedgerPath> ledgers;
+
+    private final LedgerMetrics metrics;
+
+    @Inject
+    public AdmissionControl(LedgerConfig config, LedgerMetrics metrics) {
+        LedgerConfig.Admission admission = config.admission();
+
+        this.enabled = admission.enabled();
+        this.clientHeader = admission.clientHeader();
+        this.trustedProxies = addresses(admission.trustedProxies().orElse(List.of()));
+        this.clients = new TokenBuckets<>(admission.clientRate(), admission.clientBurst(), admission.buckets());
+        this.ledgers = new TokenBuckets<>(admission.ledgerRate(), admission.ledgerBurst(), admission.buckets());
+        this.metrics = metrics;
+
+        if (enabled) {
+            Log.infof("Admission control: %d req/s per ledger (burst %d), %d req/s per client (burst %d)",
+                    admission.ledgerRate(), admission.ledgerBurst(), admission.clientRate(),
+                    admission.clientBurst());
+        }
+    }
+
+    // Currency is null on endpoints without one
+    private record LedgerPath(String id, String currency) {
+    }
+
+    @ServerRequestFilter(nonBlocking = true)
+    public Response admit(ContainerRequestContext context, HttpServerRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        String client = client(request);
+        long wait = clients.take(client);
+
+        if (wait > 0) {
+            metrics.throttled(true);
+
+            return throttled("Rate limit exceeded for client %s".formatted(client), wait);
+        }
+
+        MultivaluedMap<String, String> path = context.getUriInfo().getPathParameters();
+        String id = path.getFirst(ID);
+
+        if (id == null) {
+            return null;
+        }
+
+        wait = ledgers.take(new LedgerPath(id, path.getFirst(CURRENCY)));
+
+        if (wait > 0) {
+            clients.refund(client);
+            metrics.throttled(false);
+
+            return throttled("Rate limit exceeded for ledger %s".formatted(id), wait);
+        }
+
+        return null;
+    }
+
+    /**
+     * The client the request is throttled as: the one named in the header by
+     * a trusted proxy, otherwise its remote address.
+     */
+    public String client(HttpServerRequest request) {
+        SocketAddress remote = request.remoteAddress();
+        String address = remote != null ? remote.hostAddress() : "";
+
+        if (trustedProxies.contains(address)) {
+            String client = request.getHeader(clientHeader);
+
+            if (client != null) {
+                return client;
+            }
+        }
+
+        return address;
+    }
+
+    private static Set<String> addresses(List<String> proxies) {
+        Set<String> addresses = new HashSet<>();
+
+        for (String proxy : proxies) {
+            try {
+                for (InetAddress address : InetAddress.getAllByName(proxy.trim())) {
+                    addresses.add(address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Unknown trusted proxy " + proxy, e);
+            }
+        }
+
+        return Set.copyOf(addresses);
+    }
+
+    private static Response throttled(String message, long waitNanos) {
+        int retryAfter = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        BackoffResponse dto = new BackoffResponse();
+
+        dto.setMessage(message);
+        dto.setRetryAfter(retryAfter);
+
+        Log.debugf("Throttled: %s, retry after %ds", message, retryAfter);
+
+        return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(dto)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.acme.api.ledger.resource;
+
+import java.util.regex.Pattern;
+
+import com.acme.api.ledger.App;
+import com.acme.api.ledger.config.LedgerConfig;
+
+import io.quarkus.logging.Log;
+import io.quarkus.vertx.http.runtime.RouteConstants;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Request body limits per route. Quarkus only has one for the whole server,
+ * quarkus.http.limits.max-body-size, checked before routing: it is set to the
+ * import limit, and right after it every other route is held to the much
+ * smaller ledger.limits.max-body-size. A Content-Length over the limit gets
+ * 413 before the body is read; a chunked body fails with 413 once it goes
+ * over, the request input stream counts it.
+ */
+@ApplicationScoped
+public class BodyLimit {
+    // Where the server-wide check leaves the limit for the request input stream
+    private static final String MAX_REQUEST_SIZE = "io.quarkus.max-request-size";
+
+    private static final Pattern IMPORT = Pattern
+            .compile(Pattern.quote(App.PATH) + "/ledgers/[^/]+/transactions/[^/]+/import/?");
+
+    private final long maxBodySize;
+
+    private final long importBodySize;
+
+    @Inject
+    public BodyLimit(LedgerConfig config) {
+        this.maxBodySize = config.limits().maxBodySize().asLongValue();
+        this.importBodySize = config.limits().importBodySize().asLongValue();
+    }
+
+    void routes(@Observes Router router) {
+        router.route().order(RouteConstants.ROUTE_ORDER_UPLOAD_LIMIT + 1).handler(this::limit);
+    }
+
+    private void limit(RoutingContext ctx) {
+        long limit = IMPORT.matcher(ctx.normalizedPath()).matches() ? importBodySize : maxBodySize;
+        String length = ctx.request().getHeader(HttpHeaders.CONTENT_LENGTH);
+
+        if (length != null && parse(length) > limit) {
+            Log.debugf("Body of %s %s over %d bytes: %s", ctx.request().method(), ctx.normalizedPath(), limit, length);
+
+            // Not read, so the connection cannot be reused
+            ctx.response()
+                    .putHeader(HttpHeaders.CONNECTION, HttpHeaders.CLOSE)
+                    .setStatusCode(413)
+                    .end();
+
+            return;
+        }
+
+        ctx.put(MAX_REQUEST_SIZE, limit);
+        ctx.next();
+    }
+
+    // Left to the server when it is not a number
+    private static long parse(String length) {
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
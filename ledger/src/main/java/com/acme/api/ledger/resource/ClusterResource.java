@@ -0,0 +1,165 @@
+package com.acme.api.ledger.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import com.acme.api.ledger.apispec.dto.ClusterMembership;
+import com.acme.api.ledger.apispec.dto.ClusterStatus;
+import com.acme.api.ledger.apispec.dto.RebalanceResponse;
+import com.acme.api.ledger.apispec.dto.ValidationResponse;
+import com.acme.api.ledger.cluster.Cluster;
+
+import io.quarkus.logging.Log;
+import io.smallrye.common.constraint.NotNull;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Membership of the cluster. {@code PUT /cluster} is the only call meant for
+ * operators, the others are the steps of a rebalance the coordinating node
+ * runs on every node, and the handoff of a ledger between two nodes.
+ */
+@Path("/cluster")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class ClusterResource {
+
+    @Inject
+    Cluster cluster;
+
+    @GET
+    public ClusterStatus status() {
+        return new ClusterStatus()
+                .enabled(cluster.enabled())
+                .self(cluster.self())
+                .nodes(cluster.nodes())
+                .ledgers(cluster.ledgers());
+    }
+
+    @PUT
+    public Response rebalance(@Valid ClusterMembership request) {
+        Response invalid = check(request);
+
+        if (invalid != null) {
+            return invalid;
+        }
+
+        try {
+
+            Cluster.Rebalance rebalance = cluster.rebalance(request.getNodes());
+            RebalanceResponse dto = new RebalanceResponse()
+                    .moved(rebalance.moved())
+                    .failed(rebalance.failed());
+
+            return Response.status(rebalance.failed() == 0 ? Response.Status.OK : Response.Status.BAD_GATEWAY)
+                    .entity(dto)
+                    .build();
+        } catch (IOException e) {
+            Log.errorf("Rebalance to %s failed: %s", request.getNodes(), e);
+
+            return error(Response.Status.BAD_GATEWAY, "Rebalance failed, run it again: %s".formatted(e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    @PUT
+    @Path("/ring")
+    public Response ring(@Valid ClusterMembership request) {
+        Response invalid = check(request);
+
+        if (invalid != null) {
+            return invalid;
+        }
+
+        cluster.ring(request.getNodes());
+
+        return Response.noContent().build();
+    }
+
+    @POST
+    @Path("/handoff")
+    public Response handoff() {
+        if (!cluster.enabled()) {
+            return disabled();
+        }
+
+        Cluster.Rebalance handoff = cluster.handoff();
+
+        return Response.ok(new RebalanceResponse().moved(handoff.moved()).failed(handoff.failed())).build();
+    }
+
+    @POST
+    @Path("/settle")
+    public Response settle() {
+        if (!cluster.enabled()) {
+            return disabled();
+        }
+
+        cluster.settle();
+
+        return Response.noContent().build();
+    }
+
+    @POST
+    @Path("/ledgers/{id}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response receive(@PathParam("id") @NotNull UUID id, InputStream body) {
+        if (!cluster.enabled()) {
+            return disabled();
+        }
+
+        try {
+
+            Log.debugf("Receiving ledger %s", id);
+
+            cluster.receive(id, body);
+
+            return Response.noContent().build();
+        } catch (IOException | IllegalArgumentException e) {
+            Log.errorf("Import of ledger %s failed: %s", id, e);
+
+            return error(Response.Status.BAD_REQUEST, "Invalid export of ledger %s: %s".formatted(id, e));
+        }
+    }
+
+    private Response check(ClusterMembership request) {
+        if (!cluster.enabled()) {
+            return disabled();
+        }
+
+        if (request == null || request.getNodes() == null || request.getNodes().isEmpty()) {
+            return error(Response.Status.BAD_REQUEST, "At least one node is required");
+        }
+
+        return null;
+    }
+
+    private static Response disabled() {
+        Log.warnf("Cluster call on a node with clustering disabled");
+
+        return error(Response.Status.CONFLICT, "Clustering is disabled");
+    }
+
+    private static Response error(Response.Status status, String message) {
+        ValidationResponse dto = new ValidationResponse();
+
+        dto.setMessage(message);
+
+        return Response.status(status).entity(dto).build();
+    }
+}
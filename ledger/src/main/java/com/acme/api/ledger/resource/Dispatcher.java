@@ -0,0 +1,92 @@
+package com.acme.api.ledger.resource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import com.acme.api.ledger.config.LedgerConfig;
+
+import io.quarkus.logging.Log;
+import io.quarkus.virtual.threads.VirtualThreads;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Runs request work where {@code ledger.execution.mode} says. Resource methods
+ * returning a CompletionStage start on the event loop. In event-loop mode the
+ * work runs right there, otherwise it hops to the worker pool or to a virtual
+ * thread the way a blocking JAX-RS method would. Only constant time work may
+ * stay on the event loop: reads that walk a range of transactions go through
+ * {@link #scan(Supplier)}, which never runs there.
+ */
+@ApplicationScoped
+public class Dispatcher {
+    private final LedgerConfig.ExecutionMode mode;
+
+    private final Executor executor;
+
+    // Where range reads run, never the event loop
+    private final Executor scans;
+
+    @Inject
+    public Dispatcher(LedgerConfig config, ExecutorService workers, @VirtualThreads ExecutorService virtualThreads) {
+        this.mode = config.execution().mode();
+        this.executor = switch (mode) {
+            case EVENT_LOOP -> null;
+            case WORKER -> workers;
+            case VIRTUAL_THREADS -> virtualThreads;
+        };
+        this.scans = executor != null ? executor : workers;
+
+        Log.infof("Request execution mode: %s", mode);
+    }
+
+    /**
+     * True when the work runs on the event loop, where nothing may block.
+     */
+    public boolean onEventLoop() {
+        return executor == null;
+    }
+
+    public <T> CompletionStage<T> dispatch(Supplier<CompletionStage<T>> work) {
+        if (executor == null) {
+            return work.get();
+        }
+
+        return CompletableFuture.supplyAsync(work, executor).thenCompose(stage -> stage);
+    }
+
+    public <T> CompletionStage<T> supply(Supplier<T> work) {
+        return dispatch(() -> CompletableFuture.completedFuture(work.get()));
+    }
+
+    /**
+     * Like {@link #supply(Supplier)} for work that takes as long as the range
+     * it reads (history pages, aggregates, balances as of an instant): in
+     * event-loop mode it hops to the worker pool instead of stalling every
+     * connection of the loop.
+     */
+    public <T> CompletionStage<T> scan(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, scans);
+    }
+
+    /**
+     * Moves the completion of a stage back to the event loop of the request.
+     * Stages completed by the ledger writer or the write-ahead log flusher
+     * would otherwise run the rest of the request on those threads.
+     */
+    public <T> CompletionStage<T> resume(CompletionStage<T> stage) {
+        Context context = Vertx.currentContext();
+
+        if (context == null) {
+            return stage;
+        }
+
+        return stage.whenCompleteAsync((_, _) -> {
+        }, task -> context.runOnContext(_ -> task.run()));
+    }
+}
@@ -1,31 +1,72 @@
 package com.acme.api.ledger.resource;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import com.acme.api.ledger.apispec.dto.AccountAggregate;
+import com.acme.api.ledger.apispec.dto.AccountBalance;
 import com.acme.api.ledger.apispec.dto.AddCurrencyRequest;
+import com.acme.api.ledger.apispec.dto.AggregateTotals;
+import com.acme.api.ledger.apispec.dto.AggregatesResponse;
+import com.acme.api.ledger.apispec.dto.BackoffResponse;
 import com.acme.api.ledger.apispec.dto.BalanceResponse;
+import com.acme.api.ledger.apispec.dto.BatchTransactionItem;
+import com.acme.api.ledger.apispec.dto.BatchTransactionRequest;
+import com.acme.api.ledger.apispec.dto.BatchTransactionResponse;
+import com.acme.api.ledger.apispec.dto.BatchTransactionResult;
 import com.acme.api.ledger.apispec.dto.CreateLedgerRequest;
 import com.acme.api.ledger.apispec.dto.CreateLedgerResponse;
 import com.acme.api.ledger.apispec.dto.CurrencyLedgerResponse;
+import com.acme.api.ledger.apispec.dto.ImportRejection;
+import com.acme.api.ledger.apispec.dto.ImportResponse;
+import com.acme.api.ledger.apispec.dto.LedgerResponse;
 import com.acme.api.ledger.apispec.dto.TransactionRequest;
 import com.acme.api.ledger.apispec.dto.TransactionResponse;
 import com.acme.api.ledger.apispec.dto.TransactionsResponse;
+import com.acme.api.ledger.apispec.dto.TransferRequest;
+import com.acme.api.ledger.apispec.dto.TransferResponse;
 import com.acme.api.ledger.apispec.dto.ValidationResponse;
+import com.acme.api.ledger.cluster.Cluster;
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.exception.InsufficientFundsException;
+import com.acme.api.ledger.exception.InvalidAmountException;
+import com.acme.api.ledger.exception.InvalidHistoryQueryException;
+import com.acme.api.ledger.exception.InvalidImportException;
+import com.acme.api.ledger.exception.LedgerBusyException;
+import com.acme.api.ledger.exception.LedgerChangedException;
+import com.acme.api.ledger.exception.LedgerMovedException;
 import com.acme.api.ledger.exception.TransactionAlreadyExistsException;
+import com.acme.api.ledger.mapper.BinaryCodec;
+import com.acme.api.ledger.mapper.RowCodec;
 import com.acme.api.ledger.mapper.TransactionMapper;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.CommitResult;
 import com.acme.api.ledger.model.Currency;
 import com.acme.api.ledger.model.LedgerKey;
 import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.model.Transfer;
+import com.acme.api.ledger.repository.BulkLoad;
+import com.acme.api.ledger.repository.Subscription;
 import com.acme.api.ledger.service.LedgerService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import io.quarkus.logging.Log;
 import io.smallrye.common.constraint.NotNull;
@@ -38,12 +79,21 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Pattern;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 
 @Path("/ledgers")
 @ApplicationScoped
@@ -57,20 +107,56 @@ public class LedgerResource {
     @Inject
     TransactionMapper mapper;
 
+    @Inject
+    RowCodec codec;
+
+    @Inject
+    ObjectMapper json;
+
+    @Inject
+    Dispatcher dispatcher;
+
+    @Inject
+    LedgerConfig config;
+
+    @Inject
+    Cluster cluster;
+
+    static final String NDJSON = "application/x-ndjson";
+    static final MediaType NDJSON_TYPE = MediaType.valueOf(NDJSON);
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 500;
+
     final String CURRENCY_REGEX = "^[A-Z]{3}$";
     final String CURRENCY_MESSAGE = "Currency must be a valid ISO 4217 code (3 uppercase letters)";
     final String JSON_BODY_MESSAGE = "JSON body is required";
+    final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    final String OVERFLOW_REGEX = "^(drop|disconnect)$";
+    final String OVERFLOW_MESSAGE = "Overflow must be drop or disconnect";
 
     @POST
-    public Response ledgers(@Valid CreateLedgerRequest request) {
+    public Response ledgers(@Valid CreateLedgerRequest request, @HeaderParam(Cluster.HOPS) Integer hops) {
         LedgerKey key = switch (request) {
-            case null -> new LedgerKey(UUID.randomUUID(), Currency.of("EUR"));
+            case null -> new LedgerKey(cluster.newLedgerId(), Currency.of("EUR"));
             case CreateLedgerRequest req -> new LedgerKey(req.getId(), Currency.of(req.getCurrency()));
         };
 
         try {
 
-            Log.infof("Creating service %s", key);
+            // The id is in the body, the cluster router cannot forward it
+            if (key.id() != null) {
+                Cluster.Route route = cluster.create(key.id(), hops != null ? hops : 0);
+
+                if (route instanceof Cluster.Forward forward) {
+                    return createOn(forward.node(), request, hops != null ? hops : 0);
+                }
+
+                if (!(route instanceof Cluster.Local)) {
+                    return moved(key, new LedgerMovedException("Ledger %s is moving".formatted(key.id())));
+                }
+            }
+
+            Log.debugf("Creating service %s", key);
 
             Boolean ok = svc.create(key);
 
@@ -86,15 +172,31 @@ public class LedgerResource {
             dto.setCurrency(key.currency().value());
 
             return Response.status(Response.Status.CREATED).entity(dto).build();
+        } catch (LedgerMovedException e) {
+            return moved(key, e);
         } catch (Exception e) {
             Log.errorf("Error creating service %s: %s", key, e);
 
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
         } finally {
-            Log.infof("Finished processing create service %s", key);
+            Log.debugf("Finished processing create service %s", key);
         }
     }
 
+    // Blocks the worker until the owner answers, creating ledgers is rare
+    private Response createOn(String node, CreateLedgerRequest request, int hops)
+            throws IOException, InterruptedException {
+        Log.debugf("Creating service %s on node %s", request.getId(), node);
+
+        HttpResponse<byte[]> response = cluster.forward(node, "POST", "/ledgers", json.writeValueAsBytes(request),
+                MediaType.APPLICATION_JSON, hops);
+
+        return Response.status(response.statusCode())
+                .entity(response.body())
+                .type(response.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(MediaType.APPLICATION_JSON))
+                .build();
+    }
+
     @POST
     @Path("/{id}/currencies")
     public Response currencies(@PathParam("id") @NotNull UUID id, @Valid AddCurrencyRequest request) {
@@ -104,7 +206,7 @@ public class LedgerResource {
 
         try {
 
-            Log.infof("Add currency %s to service %s", currency, key);
+            Log.debugf("Add currency %s to service %s", currency, key);
 
             Boolean ok = svc.create(key);
 
@@ -120,28 +222,174 @@ public class LedgerResource {
             dto.setBalance(BigDecimal.ZERO);
 
             return Response.status(Response.Status.CREATED).entity(dto).build();
+        } catch (LedgerMovedException e) {
+            return moved(key, e);
         } catch (Exception e) {
             Log.errorf("Error adding currency %s to service %s: %s", currency, key, e);
 
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
         } finally {
-            Log.infof("Finished adding currency %s to service %s", currency, key);
+            Log.debugf("Finished adding currency %s to service %s", currency, key);
+        }
+    }
+
+    @GET
+    @Path("/{id}")
+    public CompletionStage<Response> ledger(@PathParam("id") @NotNull UUID id) {
+        return dispatcher.supply(() -> readAccounts(id));
+    }
+
+    private Response readAccounts(UUID id) {
+        Log.debugf("Retrieving currency accounts of service %s", id);
+
+        try {
+
+            Map<Currency, Long> balances = svc.balances(id);
+
+            if (balances.isEmpty()) {
+                Log.warnf("Ledger not found: %s", id);
+
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+
+            List<AccountBalance> accounts = new ArrayList<>(balances.size());
+
+            balances.forEach((currency, balance) -> {
+                AccountBalance account = new AccountBalance();
+
+                account.setCurrency(currency.value());
+                account.setBalance(mapper.toDecimal(balance, currency));
+                accounts.add(account);
+            });
+
+            LedgerResponse dto = new LedgerResponse();
+
+            dto.setId(id);
+            dto.setAccounts(accounts);
+
+            return Response.ok().entity(dto).build();
+        } catch (Exception e) {
+            Log.errorf("Error retrieving currency accounts of service %s: %s", id, e);
+
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GET
+    @Path("/{id}/aggregates")
+    public CompletionStage<Response> aggregates(
+            @PathParam("id") @NotNull UUID id,
+            @QueryParam("start") Instant start,
+            @QueryParam("end") Instant end) {
+        return dispatcher.scan(() -> readAggregates(id, null, start, end));
+    }
+
+    @GET
+    @Path("/{id}/aggregates/{currency}")
+    public CompletionStage<Response> aggregate(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("start") Instant start,
+            @QueryParam("end") Instant end) {
+        return dispatcher.scan(() -> readAggregates(id, Currency.of(currency), start, end));
+    }
+
+    // All currency accounts of the ledger when the currency is null
+    private Response readAggregates(UUID id, Currency currency, Instant start, Instant end) {
+        Instant from = periodStart(start);
+        Instant to = periodEnd(from, end);
+
+        Log.debugf("Aggregating service %s in %s from %s to %s", id, currency, from, to);
+
+        try {
+
+            Map<Currency, Aggregate> aggregates;
+
+            if (currency == null) {
+                aggregates = svc.aggregate(id, from, to);
+            } else {
+                LedgerKey key = new LedgerKey(id, currency);
+
+                aggregates = svc.exists(key) ? Map.of(currency, svc.aggregate(key, from, to)) : Map.of();
+            }
+
+            if (aggregates.isEmpty()) {
+                Log.warnf("Ledger not found: %s %s", id, currency);
+
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+
+            List<AccountAggregate> accounts = new ArrayList<>(aggregates.size());
+
+            aggregates.forEach((account, aggregate) -> accounts.add(new AccountAggregate()
+                    .currency(account.value())
+                    .deposits(totals(aggregate.deposits(), account))
+                    .withdrawals(totals(aggregate.withdrawals(), account))));
+
+            AggregatesResponse dto = new AggregatesResponse();
+
+            dto.setId(id);
+            dto.setAccounts(accounts);
+
+            return Response.ok().entity(dto).build();
+        } catch (InvalidHistoryQueryException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage(e.getMessage());
+
+            Log.warnf("Validation error: %s", e.getMessage());
+
+            return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+        } catch (Exception e) {
+            Log.errorf("Error aggregating service %s: %s", id, e);
+
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    private AggregateTotals totals(Aggregate.Totals totals, Currency currency) {
+        AggregateTotals dto = new AggregateTotals()
+                .count(totals.count())
+                .sum(mapper.toDecimal(totals.sum(), currency));
+
+        if (totals.count() > 0) {
+            dto.setMin(mapper.toDecimal(totals.min(), currency));
+            dto.setMax(mapper.toDecimal(totals.max(), currency));
         }
+
+        return dto;
+    }
+
+    // Without a period, the current day (and the following week, for clocks
+    // running ahead)
+    private static Instant periodStart(Instant start) {
+        return start != null ? start : Instant.now().atZone(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).toInstant();
+    }
+
+    private static Instant periodEnd(Instant from, Instant end) {
+        return end != null ? end : from.plus(Duration.ofDays(7));
     }
 
     @GET
     @Path("/{id}/balance/{currency}")
-    public Response balance(
+    public CompletionStage<Response> balance(
             @PathParam("id") @NotNull UUID id,
-            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency) {
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("asOf") Instant asOf) {
+        // The current balance is one read, as of an instant it walks up to an hour
+        return asOf != null
+                ? dispatcher.scan(() -> readBalance(id, currency, asOf))
+                : dispatcher.supply(() -> readBalance(id, currency, null));
+    }
 
+    private Response readBalance(UUID id, String currency, Instant asOf) {
         // @Pattern only works with Strings, Currency is a custom model, ergo I
         // would need to create a custom validator. Not worthy for this assessment.
         Currency _currency = Currency.of(currency);
 
         LedgerKey key = new LedgerKey(id, _currency);
 
-        Log.infof("Retrieving balance for currency %s and service  %s", currency, key);
+        Log.debugf("Retrieving balance for currency %s and service  %s", currency, key);
 
         try {
 
@@ -155,7 +403,9 @@ public class LedgerResource {
 
             dto.setId(id);
             dto.setCurrency(currency);
-            dto.setBalance(svc.balance(key));
+            long balance = asOf != null ? svc.balance(key, asOf) : svc.balance(key);
+
+            dto.setBalance(mapper.toDecimal(balance, _currency));
 
             return Response.ok().entity(dto).build();
         } catch (Exception e) {
@@ -167,43 +417,216 @@ public class LedgerResource {
 
     @GET
     @Path("/{id}/transactions/{currency}")
-    public Response history(
+    public CompletionStage<Response> history(
             @PathParam("id") @NotNull UUID id,
-            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency) {
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("start") Instant start,
+            @QueryParam("end") Instant end,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") UUID after) {
+        return dispatcher.scan(() -> readHistory(id, currency, start, end, limit, after, null));
+    }
 
+    /**
+     * NDJSON and the binary format are streamed, so they are only limited
+     * when asked to. Writing the stream blocks, it always runs on the worker
+     * pool whatever the execution mode.
+     */
+    @GET
+    @Path("/{id}/transactions/{currency}")
+    @Produces(NDJSON)
+    public Response historyStream(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("start") Instant start,
+            @QueryParam("end") Instant end,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") UUID after) {
+        return readHistory(id, currency, start, end, limit, after, NDJSON_TYPE);
+    }
+
+    /**
+     * See {@link BinaryCodec}, about a third of the bytes of NDJSON and no
+     * decimal formatting.
+     */
+    @GET
+    @Path("/{id}/transactions/{currency}")
+    @Produces(BinaryCodec.MEDIA_TYPE)
+    public Response historyBinary(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("start") Instant start,
+            @QueryParam("end") Instant end,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") UUID after) {
+        return readHistory(id, currency, start, end, limit, after, BinaryCodec.MEDIA_TYPE_TYPE);
+    }
+
+    /**
+     * Server-sent events of the transactions committed to the ledger, a
+     * {@code transaction} event each with the transaction id as event id.
+     * Resuming, with the after parameter or the Last-Event-ID header of a
+     * reconnecting client, replays the transactions after it first. With the
+     * drop policy a {@code dropped} event tells how many transactions a full
+     * buffer skipped, with the disconnect policy the stream ends instead.
+     *
+     * Each subscriber is written by its own virtual thread, which waits for
+     * every event to be written: a slow client fills its own buffer and
+     * never holds the ledger writer.
+     */
+    @GET
+    @Path("/{id}/transactions/{currency}/feed")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void feed(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @QueryParam("after") UUID after,
+            @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) UUID lastEventId,
+            @QueryParam("overflow") @Pattern(regexp = OVERFLOW_REGEX, message = OVERFLOW_MESSAGE) String overflow,
+            @Context SseEventSink sink,
+            @Context Sse sse) {
+        LedgerKey key = new LedgerKey(id, Currency.of(currency));
+        UUID cursor = lastEventId != null ? lastEventId : after;
+
+        Log.debugf("Subscribing to service %s after %s", key, cursor);
+
+        if (!svc.exists(key)) {
+            Log.warnf("Ledger not found: %s", key);
+
+            throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).build());
+        }
+
+        Subscription subscription = svc.subscribe(key, cursor,
+                overflow != null ? LedgerConfig.Overflow.valueOf(overflow.toUpperCase()) : null);
+
+        Thread.ofVirtual().name("ledger-feed").start(() -> streamFeed(subscription, sink, sse));
+    }
+
+    private void streamFeed(Subscription subscription, SseEventSink sink, Sse sse) {
+        LedgerKey key = subscription.key();
+        Duration heartbeat = config.feed().heartbeat();
+        long sent = 0;
+
+        try (subscription; sink) {
+
+            List<Map.Entry<UUID, Transaction>> batch;
+
+            while (!sink.isClosed() && (batch = subscription.next(heartbeat)) != null) {
+                long dropped = subscription.dropped();
+
+                if (dropped > 0) {
+                    Log.warnf("Feed of service %s dropped %d transactions", key, dropped);
+
+                    send(sink, sse.newEventBuilder()
+                            .name("dropped")
+                            .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                            .data(Long.toString(dropped))
+                            .build());
+                }
+
+                if (batch.isEmpty()) {
+                    send(sink, sse.newEventBuilder().comment("heartbeat").build());
+                }
+
+                for (Map.Entry<UUID, Transaction> entry : batch) {
+                    send(sink, sse.newEventBuilder()
+                            .id(entry.getKey().toString())
+                            .name("transaction")
+                            .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                            .data(com.acme.api.ledger.apispec.dto.Transaction.class,
+                                    mapper.toDto(entry.getKey(), entry.getValue()))
+                            .build());
+                    sent++;
+                }
+            }
+
+            if (subscription.overflowed()) {
+                Log.warnf("Feed of service %s disconnected, its buffer is full", key);
+            }
+        } catch (CompletionException | IllegalStateException e) {
+            Log.debugf("Feed of service %s closed by the client: %s", key, e);
+        } catch (Exception e) {
+            Log.errorf("Error streaming feed of service %s: %s", key, e);
+        } finally {
+            Log.debugf("Finished feed of service %s, %d transactions sent", key, sent);
+        }
+    }
+
+    // Waits until the event is written, so the subscriber's buffer absorbs a slow client
+    private static void send(SseEventSink sink, OutboundSseEvent event) {
+        sink.send(event).toCompletableFuture().join();
+    }
+
+    // Streamed in the given type, or a JSON page when it is null
+    private Response readHistory(UUID id, String currency, Instant start, Instant end, Integer limit, UUID after,
+            MediaType stream) {
         // @Pattern only works with Strings, Currency is a custom model, ergo I
         // would need to create a custom validator. Not worthy for this assessment.
         Currency _currency = Currency.of(currency);
 
         LedgerKey key = new LedgerKey(id, _currency);
 
-        Log.infof("Retrieving last 24h history for service %s with currency %s", key, currency);
+        Instant from = periodStart(start);
+        Instant to = periodEnd(from, end);
+
+        Log.debugf("Retrieving history for service %s from %s to %s after %s", key, from, to, after);
 
         try {
 
+            if (limit != null && (limit < 1 || (stream == null && limit > MAX_PAGE_SIZE))) {
+                ValidationResponse dto = new ValidationResponse();
+
+                dto.setMessage("Limit must be between 1 and %d".formatted(MAX_PAGE_SIZE));
+
+                return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+            }
+
             if (!svc.exists(key)) {
                 Log.warnf("Ledger not found: %s", key);
 
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
 
-            Instant start = Instant.now()
-                    .atZone(ZoneOffset.UTC)
-                    .truncatedTo(ChronoUnit.DAYS)
-                    .toInstant();
+            if (stream != null) {
+                // Validates the period before the response is committed
+                svc.checkPeriod(from, to);
+
+                StreamingOutput body = stream.equals(NDJSON_TYPE)
+                        ? ndjsonHistory(key, from, to, limit, after)
+                        : binaryHistory(key, from, to, limit, after);
+
+                return Response.ok(body, stream).build();
+            }
+
+            int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+            List<Map.Entry<UUID, Transaction>> page;
 
-            Instant end = start.plus(Duration.ofDays(7));
+            // One extra entry tells whether there is a next page
+            try (Stream<Map.Entry<UUID, Transaction>> history = svc.history(key, from, to, after)) {
+                page = history.limit(pageSize + 1).toList();
+            }
 
             TransactionsResponse dto = new TransactionsResponse();
 
             dto.setId(id);
             dto.setCurrency(currency);
 
-            List<Map.Entry<UUID, com.acme.api.ledger.model.Transaction>> history = svc.history(key, start, end);
+            if (page.size() > pageSize) {
+                page = page.subList(0, pageSize);
+                dto.setNext(page.getLast().getKey());
+            }
 
-            dto.setTransactions(mapper.toDtoList(history));
+            dto.setTransactions(mapper.toDtoList(page));
 
-            return Response.ok().entity(dto).build();
+            return Response.ok().entity(dto).type(MediaType.APPLICATION_JSON_TYPE).build();
+        } catch (InvalidHistoryQueryException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage(e.getMessage());
+
+            Log.warnf("Validation error: %s", e.getMessage());
+
+            return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
         } catch (Exception e) {
             Log.errorf("Error checking history for service %s: %s", id, e);
 
@@ -211,86 +634,625 @@ public class LedgerResource {
         }
     }
 
+    private StreamingOutput ndjsonHistory(LedgerKey key, Instant from, Instant to, Integer limit, UUID after) {
+        ObjectWriter writer = json.writerFor(com.acme.api.ledger.apispec.dto.Transaction.class);
+
+        return output -> {
+            try (Stream<Map.Entry<UUID, Transaction>> history = svc.history(key, from, to, after)) {
+                Iterable<Map.Entry<UUID, Transaction>> entries = (limit != null
+                        ? history.limit(limit)
+                        : history)::iterator;
+
+                for (Map.Entry<UUID, Transaction> entry : entries) {
+                    output.write(writer.writeValueAsBytes(mapper.toDto(entry.getKey(), entry.getValue())));
+                    output.write('\n');
+                }
+            }
+        };
+    }
+
+    // Straight from the model, no DTO or BigDecimal on the way
+    private StreamingOutput binaryHistory(LedgerKey key, Instant from, Instant to, Integer limit, UUID after) {
+        return output -> {
+            BinaryCodec.HistoryWriter out = new BinaryCodec.HistoryWriter(output, key.currency());
+
+            try (Stream<Map.Entry<UUID, Transaction>> history = svc.history(key, from, to, after)) {
+                Iterable<Map.Entry<UUID, Transaction>> entries = (limit != null
+                        ? history.limit(limit)
+                        : history)::iterator;
+
+                for (Map.Entry<UUID, Transaction> entry : entries) {
+                    out.write(entry.getKey(), entry.getValue());
+                }
+            }
+
+            out.flush();
+        };
+    }
+
     @POST
     @Path("/{id}/transactions/{currency}/deposit")
-    public Response deposit(
+    public CompletionStage<Response> deposit(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey,
+            @Valid TransactionRequest request) {
+        LedgerKey key = new LedgerKey(id, Currency.of(currency));
+
+        return dispatcher.dispatch(() -> {
+            try {
+                Objects.requireNonNull(request, JSON_BODY_MESSAGE);
+
+                return processTransaction(key, request, Transaction.Operation.DEPOSIT, idempotencyKey);
+            } catch (Exception e) {
+                Log.errorf("Error processing %s on service %s: %s", Transaction.Operation.DEPOSIT, key, e);
+                return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR).build());
+            } finally {
+                Log.debugf("Finished processing %s on service %s", Transaction.Operation.DEPOSIT, key);
+            }
+        });
+    }
+
+    @POST
+    @Path("/{id}/transactions/{currency}/withdrawal")
+    public CompletionStage<Response> withdraw(
             @PathParam("id") @NotNull UUID id,
             @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey,
             @Valid TransactionRequest request) {
         LedgerKey key = new LedgerKey(id, Currency.of(currency));
 
+        return dispatcher.dispatch(() -> {
+            try {
+                Objects.requireNonNull(request, JSON_BODY_MESSAGE);
+
+                return processTransaction(key, request, Transaction.Operation.WITHDRAWAL, idempotencyKey);
+            } catch (Exception e) {
+                Log.errorf("Error processing %s on service %s: %s", Transaction.Operation.WITHDRAWAL, key, e);
+                return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR).build());
+            } finally {
+                Log.debugf("Finished processing %s on service %s", Transaction.Operation.WITHDRAWAL, key);
+            }
+        });
+    }
+
+    @POST
+    @Path("/{id}/transactions/{currency}/transfer")
+    public CompletionStage<Response> transfer(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey,
+            @Valid TransferRequest request) {
+        LedgerKey from = new LedgerKey(id, Currency.of(currency));
+
+        return dispatcher.dispatch(() -> {
+            try {
+                Objects.requireNonNull(request, JSON_BODY_MESSAGE);
+
+                return processTransfer(from, request, idempotencyKey);
+            } catch (Exception e) {
+                Log.errorf("Error processing transfer from service %s: %s", from, e);
+                return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR).build());
+            } finally {
+                Log.debugf("Finished processing transfer from service %s", from);
+            }
+        });
+    }
+
+    private CompletionStage<Response> processTransfer(LedgerKey from, TransferRequest request,
+            String idempotencyKey) {
+        LedgerKey to = new LedgerKey(request.getTo(),
+                request.getCurrency() != null ? Currency.of(request.getCurrency()) : from.currency());
+
+        Log.debugf("Transfer from service %s to %s: amount %s", from, to, request.getValue());
+
+        if (from.equals(to)) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage("Cannot transfer from %s to itself".formatted(from));
+
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST).entity(dto).build());
+        }
+
+        if (!svc.exists(to) && cluster.remote(to.id())) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage("Transfers between ledgers of different nodes are not supported: %s".formatted(to));
+
+            Log.warnf("Transfer from service %s to %s on another node", from, to);
+
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST).entity(dto).build());
+        }
+
+        if (!svc.exists(from) || !svc.exists(to)) {
+            Log.warnf("Ledger not found: %s or %s", from, to);
+            return CompletableFuture.completedFuture(Response.status(Response.Status.NOT_FOUND).build());
+        }
+
+        long debited;
+        long credited;
+
+        try {
+            debited = mapper.toMinorUnits(request.getValue(), from.currency());
+            credited = mapper.convert(debited, from.currency(), rate(from, to, request.getRate()), to.currency());
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(rejected(from, Transaction.Operation.WITHDRAWAL, e));
+        }
+
+        return processTransfer(from, to, debited, credited, request, idempotencyKey);
+    }
+
+    private CompletionStage<Response> processTransfer(LedgerKey from, LedgerKey to, long debited, long credited,
+            TransferRequest request, String idempotencyKey) {
+        CompletionStage<Transfer> committed;
+
+        try {
+            // On the event loop the commit must not be waited for
+            committed = dispatcher.onEventLoop()
+                    ? dispatcher.resume(svc.transferAsync(from, to, debited, credited, request.getDescription(),
+                            request.getReference(), idempotencyKey))
+                    : CompletableFuture.completedFuture(svc.transfer(from, to, debited, credited,
+                            request.getDescription(), request.getReference(), idempotencyKey));
+        } catch (RuntimeException e) {
+            committed = CompletableFuture.failedFuture(e);
+        }
+
+        return committed.handle((transfer, e) -> {
+            if (e == null) {
+                TransferResponse dto = new TransferResponse();
+
+                dto.setDebitId(transfer.debitId());
+                dto.setCreditId(transfer.creditId());
+                dto.setCredited(mapper.toDecimal(credited, to.currency()));
+
+                Log.debugf("Transfer successful from service %s to %s with %s", from, to, transfer);
+
+                return Response.status(Response.Status.CREATED).entity(dto).build();
+            }
+
+            return rejected(from, Transaction.Operation.WITHDRAWAL, e instanceof CompletionException ? e.getCause() : e);
+        });
+    }
+
+    // Between accounts of one currency the rate is 1, between two it must be given
+    private BigDecimal rate(LedgerKey from, LedgerKey to, BigDecimal rate) {
+        if (from.currency().equals(to.currency())) {
+            if (rate != null && rate.compareTo(BigDecimal.ONE) != 0) {
+                throw new InvalidAmountException("Rate must be 1 between accounts of the same currency");
+            }
+
+            return BigDecimal.ONE;
+        }
+
+        if (rate == null) {
+            throw new InvalidAmountException("Rate is required between %s and %s".formatted(from.currency(),
+                    to.currency()));
+        }
+
+        if (rate.signum() <= 0) {
+            throw new InvalidAmountException("Rate must be greater than zero");
+        }
+
+        return rate;
+    }
+
+    @POST
+    @Path("/{id}/transactions/{currency}/batch")
+    @Consumes({ MediaType.APPLICATION_JSON, BinaryCodec.MEDIA_TYPE })
+    public Response batch(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
+            @Valid BatchTransactionRequest request) {
+        LedgerKey key = new LedgerKey(id, Currency.of(currency));
+
         try {
             Objects.requireNonNull(request, JSON_BODY_MESSAGE);
 
-            return processTransaction(key, request, Transaction.Operation.DEPOSIT);
+            return processBatch(key, request);
         } catch (Exception e) {
-            Log.errorf("Error processing %s on service %s: %s", Transaction.Operation.DEPOSIT, key, e);
+            Log.errorf("Error processing batch on service %s: %s", key, e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
         } finally {
-            Log.infof("Finished processing %s on service %s", Transaction.Operation.DEPOSIT, key);
+            Log.debugf("Finished processing batch on service %s", key);
         }
     }
 
+    private Response processBatch(LedgerKey key, BatchTransactionRequest request) {
+        boolean atomic = Boolean.TRUE.equals(request.getAtomic());
+        List<BatchTransactionItem> items = request.getTransactions();
+
+        Log.debugf("Batch on service %s: %d transactions, atomic %s", key, items.size(), atomic);
+
+        if (!svc.exists(key)) {
+            Log.warnf("Ledger not found: %s", key);
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        // Null until the item is committed, invalid items get their result right away
+        List<BatchTransactionResult> results = new ArrayList<>(items.size());
+        List<Transaction> transactions = new ArrayList<>(items.size());
+        boolean invalid = false;
+
+        for (BatchTransactionItem item : items) {
+            try {
+                transactions.add(mapper.toModel(item, key.currency()));
+                results.add(null);
+            } catch (InvalidAmountException e) {
+                invalid = true;
+                results.add(new BatchTransactionResult()
+                        .status(Response.Status.BAD_REQUEST.getStatusCode())
+                        .message(e.getMessage()));
+            }
+        }
+
+        if (atomic && invalid) {
+            results.replaceAll(result -> result != null ? result : new BatchTransactionResult()
+                    .status(424)
+                    .message("Not recorded, another transaction of the atomic batch is invalid"));
+
+            Log.warnf("Atomic batch on service %s rejected, invalid transactions", key);
+
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new BatchTransactionResponse().results(results))
+                    .build();
+        }
+
+        List<CommitResult> committed;
+
+        try {
+            committed = svc.commitAll(key, transactions, atomic);
+        } catch (TransactionAlreadyExistsException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage(e.getMessage());
+
+            Log.warnf("Integrity error in service %s: %s", key, e);
+
+            return Response.status(Response.Status.CONFLICT).entity(dto).build();
+        } catch (InsufficientFundsException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage("Batch would take the balance of %s below zero".formatted(key));
+
+            Log.warnf("Insufficient funds in service %s: %s", key, e.getMessage());
+
+            return Response.status(Response.Status.CONFLICT).entity(dto).build();
+        } catch (ArithmeticException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage("Batch would overflow the balance of %s".formatted(key));
+
+            Log.warnf("Balance overflow in service %s: %s", key, e);
+
+            return Response.status(422).entity(dto).build();
+        } catch (LedgerMovedException e) {
+            return moved(key, e);
+        } catch (LedgerBusyException e) {
+            return busy(key, e);
+        }
+
+        int next = 0;
+        boolean all = true;
+
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) != null) {
+                all = false;
+
+                continue;
+            }
+
+            CommitResult result = committed.get(next++);
+
+            results.set(i, switch (result.status()) {
+                case COMMITTED, REPLAYED -> new BatchTransactionResult()
+                        .id(result.id())
+                        .status(Response.Status.CREATED.getStatusCode());
+                case CONFLICT -> new BatchTransactionResult()
+                        .status(Response.Status.CONFLICT.getStatusCode())
+                        .message("Reference already used by another transaction of %s".formatted(key));
+                case OVERFLOW -> new BatchTransactionResult()
+                        .status(422)
+                        .message("Transaction would overflow the balance of %s".formatted(key));
+                case INSUFFICIENT_FUNDS -> new BatchTransactionResult()
+                        .status(Response.Status.CONFLICT.getStatusCode())
+                        .message("Insufficient funds in %s".formatted(key));
+            });
+
+            all &= result.id() != null;
+        }
+
+        Log.debugf("Batch successful on service %s, %d of %d transactions recorded", key,
+                committed.stream().filter(result -> result.id() != null).count(), items.size());
+
+        return Response.status(all ? Response.Status.CREATED.getStatusCode() : 207)
+                .entity(new BatchTransactionResponse().results(results))
+                .build();
+    }
+
+    /**
+     * Bulk import, see {@link RowCodec} for the parsing and {@link BulkLoad}
+     * for the rules rows follow. The body is read as it arrives, on the worker
+     * pool whatever the execution mode. The valid rows are installed a chunk
+     * at a time as they come, or once all of it is read when the import is
+     * atomic.
+     */
     @POST
-    @Path("/{id}/transactions/{currency}/withdrawal")
-    public Response withdraw(
+    @Path("/{id}/transactions/{currency}/import")
+    @Consumes({ NDJSON, RowCodec.CSV })
+    public Response importTransactions(
             @PathParam("id") @NotNull UUID id,
             @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency,
-            @Valid TransactionRequest request) {
+            @QueryParam("atomic") boolean atomic,
+            @Context HttpHeaders headers,
+            InputStream body) {
         LedgerKey key = new LedgerKey(id, Currency.of(currency));
+        RowCodec.Format format = RowCodec.CSV_TYPE.isCompatible(headers.getMediaType())
+                ? RowCodec.Format.CSV
+                : RowCodec.Format.NDJSON;
+        long started = System.nanoTime();
+
+        Log.debugf("Import into service %s: %s, atomic %s", key, format, atomic);
 
         try {
-            Objects.requireNonNull(request, JSON_BODY_MESSAGE);
 
-            return processTransaction(key, request, Transaction.Operation.WITHDRAWAL);
+            if (!svc.exists(key)) {
+                Log.warnf("Ledger not found: %s", key);
+
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+
+            BulkLoad load = svc.bulkLoad(key, atomic);
+            long rows = codec.read(body, format, key.currency(), row -> {
+                if (row.error() != null) {
+                    load.reject(row.line(), row.error());
+                } else {
+                    load.stage(row.line(), row.id(), row.timestamp(), row.transaction());
+                }
+            });
+            int imported = svc.load(load);
+            long elapsed = System.nanoTime() - started;
+
+            ImportResponse dto = new ImportResponse()
+                    .imported((long) imported)
+                    .rejected(load.rejected())
+                    .rejections(load.rejections().stream()
+                            .map(rejection -> new ImportRejection()
+                                    .line(rejection.line())
+                                    .message(rejection.message()))
+                            .toList())
+                    .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsed))
+                    .rowsPerSecond(rows * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed));
+
+            Log.debugf("Import into service %s: %d rows, %d imported, %d rejected in %d ms (%d rows/s)", key, rows,
+                    imported, load.rejected(), dto.getElapsedMillis(), dto.getRowsPerSecond());
+
+            if (load.rejected() == 0) {
+                return Response.status(Response.Status.CREATED).entity(dto).build();
+            }
+
+            if (atomic) {
+                Log.warnf("Atomic import into service %s rejected, %d invalid rows", key, load.rejected());
+            }
+
+            return Response.status(atomic ? Response.Status.BAD_REQUEST.getStatusCode() : 207).entity(dto).build();
+        } catch (InvalidImportException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage(e.getMessage());
+
+            Log.warnf("Validation error: %s", e.getMessage());
+
+            return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+        } catch (LedgerChangedException e) {
+            ValidationResponse dto = new ValidationResponse();
+
+            dto.setMessage(e.getMessage());
+
+            Log.warnf("Import conflict in service %s: %s", key, e.getMessage());
+
+            return Response.status(Response.Status.CONFLICT).entity(dto).build();
+        } catch (LedgerMovedException e) {
+            return moved(key, e);
+        } catch (LedgerBusyException e) {
+            return busy(key, e);
         } catch (Exception e) {
-            Log.errorf("Error processing %s on service %s: %s", Transaction.Operation.WITHDRAWAL, key, e);
+            Log.errorf("Error importing into service %s: %s", key, e);
+
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
-        } finally {
-            Log.infof("Finished processing %s on service %s", Transaction.Operation.WITHDRAWAL, key);
         }
     }
 
-    private Response processTransaction(LedgerKey key, TransactionRequest request, Transaction.Operation operation) {
+    /**
+     * Every transaction of the ledger in id order, rows that import as they
+     * are. Streamed straight from the store like NDJSON history, whatever the
+     * size of the ledger.
+     */
+    @GET
+    @Path("/{id}/transactions/{currency}/export")
+    @Produces(NDJSON)
+    public Response exportNdjson(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency) {
+        return readExport(id, currency, RowCodec.Format.NDJSON);
+    }
+
+    @GET
+    @Path("/{id}/transactions/{currency}/export")
+    @Produces(RowCodec.CSV)
+    public Response exportCsv(
+            @PathParam("id") @NotNull UUID id,
+            @PathParam("currency") @Pattern(regexp = CURRENCY_REGEX, message = CURRENCY_MESSAGE) @NotBlank String currency) {
+        return readExport(id, currency, RowCodec.Format.CSV);
+    }
+
+    private Response readExport(UUID id, String currency, RowCodec.Format format) {
+        LedgerKey key = new LedgerKey(id, Currency.of(currency));
+
+        Log.debugf("Exporting service %s as %s", key, format);
+
         try {
-            Log.infof("%s on service: %s amount %d", operation, key, request.getValue().longValue());
 
             if (!svc.exists(key)) {
                 Log.warnf("Ledger not found: %s", key);
+
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
 
-            Map.Entry<UUID, Transaction> trx = svc.commit(
-                    key,
-                    operation,
-                    request.getValue(),
-                    request.getDescription(),
-                    request.getReference(),
-                    key.currency());
+            StreamingOutput body = output -> {
+                RowCodec.RowWriter out = codec.writer(output, format);
 
-            TransactionResponse dto = new TransactionResponse();
+                try (Stream<Map.Entry<UUID, Transaction>> transactions = svc.export(key)) {
+                    for (Map.Entry<UUID, Transaction> entry : (Iterable<Map.Entry<UUID, Transaction>>) transactions::iterator) {
+                        out.write(entry.getKey(), entry.getValue());
+                    }
+                }
 
-            dto.setId(trx.getKey());
+                out.flush();
+            };
+            boolean csv = format == RowCodec.Format.CSV;
 
-            Log.infof("%s successful on service %s with transaction %s", operation, key, trx);
+            return Response.ok(body, csv ? RowCodec.CSV_TYPE : NDJSON_TYPE)
+                    .header("Content-Disposition", "attachment; filename=\"%s-%s.%s\"".formatted(id, currency,
+                            csv ? "csv" : "ndjson"))
+                    .build();
+        } catch (Exception e) {
+            Log.errorf("Error exporting service %s: %s", key, e);
 
-            return Response.status(Response.Status.CREATED).entity(dto).build();
-        } catch (TransactionAlreadyExistsException e) {
-            Log.errorf("Integrity error in service %s: %s", key, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
 
-            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
-        } catch (ConstraintViolationException e) {
-            String violations = e.getConstraintViolations().stream()
-                    .map(ConstraintViolation::getMessage)
-                    .collect(Collectors.joining(", "));
+    private CompletionStage<Response> processTransaction(
+            LedgerKey key,
+            TransactionRequest request,
+            Transaction.Operation operation,
+            String idempotencyKey) {
+        CompletionStage<Map.Entry<UUID, Transaction>> committed;
 
-            ValidationResponse dto = new ValidationResponse();
+        try {
+            Log.debugf("%s on service: %s amount %d", operation, key, request.getValue().longValue());
 
-            dto.setMessage(violations);
+            if (!svc.exists(key)) {
+                Log.warnf("Ledger not found: %s", key);
+                return CompletableFuture.completedFuture(Response.status(Response.Status.NOT_FOUND).build());
+            }
 
-            Log.warnf("Validation error: %s", violations);
+            long amount = mapper.toMinorUnits(request.getValue(), key.currency());
 
-            return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+            // On the event loop the commit must not be waited for
+            committed = dispatcher.onEventLoop()
+                    ? dispatcher.resume(svc.commitAsync(key, operation, amount, request.getDescription(),
+                            request.getReference(), key.currency(), idempotencyKey))
+                    : CompletableFuture.completedFuture(svc.commit(key, operation, amount,
+                            request.getDescription(), request.getReference(), key.currency(), idempotencyKey));
+        } catch (RuntimeException e) {
+            committed = CompletableFuture.failedFuture(e);
+        }
+
+        return committed.handle((trx, e) -> {
+            if (e == null) {
+                TransactionResponse dto = new TransactionResponse();
+
+                dto.setId(trx.getKey());
+
+                Log.debugf("%s successful on service %s with transaction %s", operation, key, trx);
+
+                return Response.status(Response.Status.CREATED).entity(dto).build();
+            }
+
+            return rejected(key, operation, e instanceof CompletionException ? e.getCause() : e);
+        });
+    }
+
+    private Response rejected(LedgerKey key, Transaction.Operation operation, Throwable error) {
+        switch (error) {
+            case TransactionAlreadyExistsException e -> {
+                Log.errorf("Integrity error in service %s: %s", key, e);
+
+                return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+            }
+            case InsufficientFundsException e -> {
+                ValidationResponse dto = new ValidationResponse();
+
+                dto.setMessage("Insufficient funds in %s: %s".formatted(key, e.getMessage()));
+
+                Log.warnf("Insufficient funds in service %s: %s", key, e.getMessage());
+
+                return Response.status(Response.Status.CONFLICT).entity(dto).build();
+            }
+            case InvalidAmountException e -> {
+                ValidationResponse dto = new ValidationResponse();
+
+                dto.setMessage(e.getMessage());
+
+                Log.warnf("Validation error: %s", e.getMessage());
+
+                return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+            }
+            case ArithmeticException e -> {
+                ValidationResponse dto = new ValidationResponse();
+
+                dto.setMessage("Transaction would overflow the balance of %s".formatted(key));
+
+                Log.warnf("Balance overflow in service %s: %s", key, e);
+
+                return Response.status(422).entity(dto).build();
+            }
+            case LedgerMovedException e -> {
+                return moved(key, e);
+            }
+            case LedgerBusyException e -> {
+                return busy(key, e);
+            }
+            case ConstraintViolationException e -> {
+                String violations = e.getConstraintViolations().stream()
+                        .map(ConstraintViolation::getMessage)
+                        .collect(Collectors.joining(", "));
+
+                ValidationResponse dto = new ValidationResponse();
+
+                dto.setMessage(violations);
+
+                Log.warnf("Validation error: %s", violations);
+
+                return Response.status(Response.Status.BAD_REQUEST).entity(dto).build();
+            }
+            default -> {
+                Log.errorf("Error processing %s on service %s: %s", operation, key, error);
+
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+            }
         }
     }
+
+    // Sealed while it is handed off to another node, the retry gets forwarded there
+    private static Response moved(LedgerKey key, LedgerMovedException e) {
+        BackoffResponse dto = new BackoffResponse();
+
+        dto.setMessage(e.getMessage());
+        dto.setRetryAfter(1);
+
+        Log.warnf("Ledger moving %s: %s", key, e.getMessage());
+
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, 1)
+                .entity(dto)
+                .build();
+    }
+
+    // The writer of the ledger is behind, at debug level since a line per
+    // refused request is what an overloaded node can least afford
+    private static Response busy(LedgerKey key, LedgerBusyException e) {
+        BackoffResponse dto = new BackoffResponse();
+
+        dto.setMessage(e.getMessage());
+        dto.setRetryAfter(1);
+
+        Log.debugf("Ledger busy %s: %s", key, e.getMessage());
+
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, 1)
+                .entity(dto)
+                .build();
+    }
 }
@@ -0,0 +1,143 @@
+package com.acme.api.ledger.resource;
+
+import java.util.UUID;
+
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+import org.jboss.resteasy.reactive.server.SimpleResourceInfo;
+
+import com.acme.api.ledger.apispec.dto.BackoffResponse;
+import com.acme.api.ledger.apispec.dto.ValidationResponse;
+import com.acme.api.ledger.metrics.LedgerMetrics;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.service.LedgerService;
+
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Ledger requests on a follower: writes are refused with 405, they go to the
+ * leader. A read with an X-Read-After header waits, off the event loop, until
+ * the follower has that transaction, so a client reads its own writes. Every
+ * response of a follower carries its lag behind the leader.
+ *
+ * Refused writes and reads still behind are counted in
+ * ledger.replication.refused.writes and ledger.replication.lagging.reads and
+ * only logged at debug, a client that keeps writing to a follower, or reading
+ * from one that lags, would otherwise flood the log.
+ *
+ * Nothing to do on other nodes.
+ */
+@ApplicationScoped
+public class ReplicaFilter {
+    public static final String READ_AFTER = "X-Read-After";
+
+    public static final String LAG = "X-Replication-Lag";
+
+    private static final String ID = "id";
+
+    private static final String CURRENCY = "currency";
+
+    private final LedgerService svc;
+
+    private final LedgerMetrics metrics;
+
+    private final boolean following;
+
+    @Inject
+    public ReplicaFilter(LedgerService svc, LedgerMetrics metrics) {
+        this.svc = svc;
+        this.metrics = metrics;
+        this.following = svc.following();
+    }
+
+    @ServerRequestFilter(nonBlocking = true)
+    public Response readOnly(ContainerRequestContext context, SimpleResourceInfo resource) {
+        if (!following || resource.getResourceClass() != LedgerResource.class) {
+            return null;
+        }
+
+        String method = context.getMethod();
+
+        if (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) {
+            return null;
+        }
+
+        metrics.refusedWrite();
+
+        Log.debugf("Write %s %s on a follower", method, context.getUriInfo().getPath());
+
+        return error(Response.Status.METHOD_NOT_ALLOWED,
+                "This node is a read-only follower of %s, send writes to the leader"
+                        .formatted(svc.replication().leader()));
+    }
+
+    @ServerRequestFilter(nonBlocking = true)
+    public Uni<Response> readAfter(ContainerRequestContext context, SimpleResourceInfo resource) {
+        String header = context.getHeaderString(READ_AFTER);
+
+        if (!following || header == null || resource.getResourceClass() != LedgerResource.class) {
+            return Uni.createFrom().nullItem();
+        }
+
+        MultivaluedMap<String, String> path = context.getUriInfo().getPathParameters();
+        String currency = path.getFirst(CURRENCY);
+        UUID id;
+        UUID transactionId;
+
+        try {
+            id = UUID.fromString(path.getFirst(ID));
+            transactionId = UUID.fromString(header);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            Log.warnf("Invalid %s %s on %s", READ_AFTER, header, context.getUriInfo().getPath());
+
+            return Uni.createFrom().item(error(Response.Status.BAD_REQUEST,
+                    "%s must be a transaction id of the ledger in the path".formatted(READ_AFTER)));
+        }
+
+        return Uni.createFrom()
+                .completionStage(svc.replicated(id, currency != null ? Currency.of(currency) : null, transactionId))
+                .map(replicated -> replicated ? null : behind(transactionId));
+    }
+
+    @ServerResponseFilter
+    public void lag(ContainerResponseContext response) {
+        if (following) {
+            response.getHeaders().putSingle(LAG, svc.replication().lagMillis());
+        }
+    }
+
+    private Response behind(UUID transactionId) {
+        BackoffResponse dto = new BackoffResponse();
+
+        dto.setMessage("Transaction %s is not on this follower yet".formatted(transactionId));
+        dto.setRetryAfter(1);
+
+        metrics.laggingRead();
+
+        Log.debugf("Unavailable: %s", dto.getMessage());
+
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, 1)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(dto)
+                .build();
+    }
+
+    private static Response error(Response.Status status, String message) {
+        ValidationResponse dto = new ValidationResponse();
+
+        dto.setMessage(message);
+
+        return Response.status(status).type(MediaType.APPLICATION_JSON_TYPE).entity(dto).build();
+    }
+}
@@ -0,0 +1,39 @@
+package com.acme.api.ledger.resource;
+
+import com.acme.api.ledger.apispec.dto.ReplicationStatus;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+import com.acme.api.ledger.service.LedgerService;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Replication role of this node and, on a follower, how far behind its leader
+ * it is. Replication itself runs over its own TCP port, not HTTP.
+ */
+@Path("/replication")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+public class ReplicationResource {
+
+    @Inject
+    LedgerService svc;
+
+    @GET
+    public ReplicationStatus status() {
+        InMemoryLedgerRepository.ReplicationStats stats = svc.replication();
+
+        return new ReplicationStatus()
+                .role(ReplicationStatus.RoleEnum.fromValue(stats.role().name().toLowerCase()))
+                .leader(stats.leader())
+                .connected(stats.connected())
+                .appliedOffset(stats.appliedOffset())
+                .leaderOffset(stats.leaderOffset())
+                .lagMillis(stats.lagMillis())
+                .followers(stats.followers());
+    }
+}
@@ -0,0 +1,131 @@
+package com.acme.api.ledger.resource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per key, compared by equals so two keys never share tokens.
+ *
+ * A bucket is a single long, the time at which it will be full again (the
+ * generic cell rate algorithm). Taking a token moves that time one interval
+ * later, and is refused when it would end up more than a burst ahead of now.
+ * Taking a token is one compare-and-set.
+ *
+ * A full bucket looks like one never used, so it can be dropped without
+ * losing anything: once the table holds max keys, the full ones are swept
+ * out. Keys that still find no room share one of a few overflow buckets,
+ * picked by hash, until some fill up: that only ever throttles them earlier,
+ * and a flood of new keys throttles the keys of its own overflow buckets,
+ * not every key left out.
+ */
+final class TokenBuckets<K> {
+    // A table at max keys is swept at most this often
+    private static final long SWEEP_INTERVAL = 100_000_000L;
+
+    // A power of two
+    private static final int OVERFLOW = 64;
+
+    private final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong[] overflow = new AtomicLong[OVERFLOW];
+
+    private final int maxKeys;
+
+    // Nanoseconds per token
+    private final long interval;
+
+    // How far ahead of now a bucket may be, a burst of tokens
+    private final long capacity;
+
+    // Times are relative to it so that 0, an unused bucket, is in the past
+    private final long origin = System.nanoTime();
+
+    private final AtomicLong sweptAt = new AtomicLong(-SWEEP_INTERVAL);
+
+    TokenBuckets(int rate, int burst, int maxKeys) {
+        this.maxKeys = Math.max(maxKeys, 1);
+        this.interval = 1_000_000_000L / Math.max(rate, 1);
+        this.capacity = interval * Math.max(burst, 1);
+
+        for (int i = 0; i < OVERFLOW; i++) {
+            overflow[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of the key: 0 when there was one,
+     * otherwise the nanoseconds until there is. A refused request takes
+     * nothing.
+     */
+    long take(K key) {
+        long now = System.nanoTime() - origin + 1;
+        AtomicLong bucket = bucket(key, now);
+
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + interval;
+            long wait = next - now - capacity;
+
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken from the bucket of the key, for a request that
+     * was refused further on.
+     */
+    void refund(K key) {
+        AtomicLong bucket = buckets.get(key);
+
+        (bucket != null ? bucket : overflow(key)).addAndGet(-interval);
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    private AtomicLong bucket(K key, long now) {
+        AtomicLong bucket = buckets.get(key);
+
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (buckets.size() >= maxKeys) {
+            sweep(now);
+
+            if (buckets.size() >= maxKeys) {
+                return overflow(key);
+            }
+        }
+
+        return buckets.computeIfAbsent(key, _ -> new AtomicLong());
+    }
+
+    private AtomicLong overflow(K key) {
+        int hash = key.hashCode();
+
+        return overflow[(hash ^ hash >>> 16) & OVERFLOW - 1];
+    }
+
+    /**
+     * Drops the full buckets, one thread at a time. A token taken from a
+     * bucket while it is dropped is lost, its key gets a full bucket again:
+     * at most one extra burst for a key that was idle.
+     */
+    private void sweep(long now) {
+        long last = sweptAt.get();
+
+        if (now - last < SWEEP_INTERVAL || !sweptAt.compareAndSet(last, now)) {
+            return;
+        }
+
+        buckets.values().removeIf(bucket -> bucket.get() <= now);
+    }
+}
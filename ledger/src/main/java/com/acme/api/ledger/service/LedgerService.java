@@ -1,21 +1,31 @@
 package com.acme.api.ledger.service;
 
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.exception.InsufficientFundsException;
 import com.acme.api.ledger.exception.InvalidHistoryQueryException;
+import com.acme.api.ledger.exception.TransactionAlreadyExistsException;
+import com.acme.api.ledger.metrics.LedgerMetrics;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.CommitResult;
 import com.acme.api.ledger.model.Currency;
 import com.acme.api.ledger.model.LedgerKey;
 import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.model.Transfer;
+import com.acme.api.ledger.repository.BulkLoad;
 import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+import com.acme.api.ledger.repository.Subscription;
 
 import io.quarkus.logging.Log;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.Positive;
 
 @ApplicationScoped
@@ -23,6 +33,9 @@ public class LedgerService {
     @Inject
     InMemoryLedgerRepository store;
 
+    @Inject
+    LedgerMetrics metrics;
+
     public Boolean create(LedgerKey key) {
         if (store.exists(key)) {
             Log.warnf("Ledger already exists: %s, conflict", key);
@@ -35,29 +48,113 @@ public class LedgerService {
         return true;
     }
 
-    public BigDecimal balance(LedgerKey key) {
+    public long balance(LedgerKey key) {
+        metrics.balance(false);
+
         return store.balance(key);
     }
 
-    public List<Map.Entry<UUID, Transaction>> history(LedgerKey key, Instant start, Instant end) {
+    public long balance(LedgerKey key, Instant asOf) {
+        metrics.balance(true);
+
+        return store.balance(key, asOf);
+    }
+
+    public void checkPeriod(Instant start, Instant end) {
         if (start.isAfter(end)) {
             throw new InvalidHistoryQueryException(start, end);
         }
+    }
+
+    /**
+     * The number of transactions actually read is recorded when the stream is
+     * closed.
+     */
+    public Stream<Map.Entry<UUID, Transaction>> history(LedgerKey key, Instant start, Instant end, UUID after) {
+        checkPeriod(start, end);
+
+        long[] read = new long[1];
+
+        return store.history(key, start, end, after)
+                .peek(_ -> read[0]++)
+                .onClose(() -> metrics.history(read[0]));
+    }
+
+    public Map<Currency, Long> balances(UUID id) {
+        return store.balances(id);
+    }
+
+    public Aggregate aggregate(LedgerKey key, Instant start, Instant end) {
+        checkPeriod(start, end);
+
+        return store.aggregate(key, start, end);
+    }
+
+    public Map<Currency, Aggregate> aggregate(UUID id, Instant start, Instant end) {
+        checkPeriod(start, end);
 
-        return store.history(key, start, end);
+        return store.aggregate(id, start, end);
     }
 
     public boolean exists(LedgerKey key) {
         return store.exists(key);
     }
 
+    /**
+     * Live transactions of the ledger, replayed from after the given id first
+     * when there is one. See {@link Subscription}.
+     */
+    public Subscription subscribe(LedgerKey key, UUID after, LedgerConfig.Overflow overflow) {
+        return store.subscribe(key, after, overflow);
+    }
+
+    public boolean following() {
+        return store.following();
+    }
+
+    public InMemoryLedgerRepository.ReplicationStats replication() {
+        return store.replicationStats();
+    }
+
+    /**
+     * Read-your-writes on a follower, see
+     * {@link InMemoryLedgerRepository#replicated(UUID, Currency, UUID)}.
+     */
+    public CompletableFuture<Boolean> replicated(UUID id, Currency currency, UUID transactionId) {
+        return store.replicated(id, currency, transactionId);
+    }
+
     public Map.Entry<UUID, Transaction> commit(
             LedgerKey key,
             Transaction.Operation operation,
-            @Digits(integer = 15, fraction = 2) @Positive(message = "Amount must be greater than zero") BigDecimal amount,
+            @Positive(message = "Amount must be greater than zero") long amount,
+            String description,
+            String reference,
+            Currency currency,
+            String idempotencyKey) {
+        try {
+            return commitAsync(key, operation, amount, description, reference, currency, idempotencyKey).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Same as commit without blocking, for callers on the event loop. The
+     * stage fails with the exceptions commit throws.
+     */
+    public CompletableFuture<Map.Entry<UUID, Transaction>> commitAsync(
+            LedgerKey key,
+            Transaction.Operation operation,
+            @Positive(message = "Amount must be greater than zero") long amount,
             String description,
             String reference,
-            Currency currency) {
+            Currency currency,
+            String idempotencyKey) {
         Transaction trx = new Transaction(
                 operation,
                 amount,
@@ -65,6 +162,114 @@ public class LedgerService {
                 reference,
                 currency);
 
-        return store.add(key, trx);
+        return store.addAsync(key, trx, idempotencyKey).whenComplete((_, e) -> {
+            CommitResult.Status status = switch (e instanceof CompletionException ? e.getCause() : e) {
+                case null -> CommitResult.Status.COMMITTED;
+                case TransactionAlreadyExistsException _ -> CommitResult.Status.CONFLICT;
+                case InsufficientFundsException _ -> CommitResult.Status.INSUFFICIENT_FUNDS;
+                case ArithmeticException _ -> CommitResult.Status.OVERFLOW;
+                default -> null;
+            };
+
+            if (status != null) {
+                metrics.commit(operation, status);
+            }
+        });
+    }
+
+    public Transfer transfer(LedgerKey from, LedgerKey to,
+            @Positive(message = "Amount must be greater than zero") long debited,
+            @Positive(message = "Converted amount must be greater than zero") long credited,
+            String description,
+            String reference,
+            String idempotencyKey) {
+        try {
+            return transferAsync(from, to, debited, credited, description, reference, idempotencyKey).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws the debited amount from one ledger and deposits the credited
+     * one, already converted to the currency of the other, in a single commit.
+     * See {@link InMemoryLedgerRepository#transferAsync}.
+     */
+    public CompletableFuture<Transfer> transferAsync(LedgerKey from, LedgerKey to,
+            @Positive(message = "Amount must be greater than zero") long debited,
+            @Positive(message = "Converted amount must be greater than zero") long credited,
+            String description,
+            String reference,
+            String idempotencyKey) {
+        Transaction debit = new Transaction(Transaction.Operation.WITHDRAWAL, debited, description, reference,
+                from.currency());
+        Transaction credit = new Transaction(Transaction.Operation.DEPOSIT, credited, description, reference,
+                to.currency());
+
+        return store.transferAsync(from, debit, to, credit, idempotencyKey).whenComplete((_, e) -> {
+            CommitResult.Status status = switch (e instanceof CompletionException ? e.getCause() : e) {
+                case null -> CommitResult.Status.COMMITTED;
+                case TransactionAlreadyExistsException _ -> CommitResult.Status.CONFLICT;
+                case InsufficientFundsException _ -> CommitResult.Status.INSUFFICIENT_FUNDS;
+                case ArithmeticException _ -> CommitResult.Status.OVERFLOW;
+                default -> null;
+            };
+
+            if (status != null) {
+                metrics.transfer(status);
+            }
+        });
+    }
+
+    /**
+     * Commits a batch to one ledger, see
+     * {@link InMemoryLedgerRepository#addAll(LedgerKey, List, boolean)}.
+     */
+    public List<CommitResult> commitAll(LedgerKey key, List<Transaction> transactions, boolean atomic) {
+        List<CommitResult> results = store.addAll(key, transactions, atomic);
+
+        for (CommitResult result : results) {
+            metrics.batched(result.status());
+        }
+
+        return results;
+    }
+
+    /**
+     * Starts a bulk import, rows are staged on the returned load and
+     * installed with {@link #load(BulkLoad)}, a chunk at a time unless the
+     * import is atomic.
+     */
+    public BulkLoad bulkLoad(LedgerKey key, boolean atomic) {
+        return store.bulkLoad(key, atomic);
+    }
+
+    /**
+     * Installs the rows left staged, or nothing when the import is atomic and
+     * a row was rejected. Returns the number of rows imported. See
+     * {@link InMemoryLedgerRepository#load(BulkLoad)}.
+     */
+    public int load(BulkLoad load) {
+        int imported = load.atomic() && load.rejected() > 0 ? 0 : store.load(load);
+
+        metrics.imported(imported, load.staged() + load.rejected() - imported);
+
+        return imported;
+    }
+
+    /**
+     * Every transaction of the ledger for an export, the number read is
+     * recorded when the stream is closed like for history.
+     */
+    public Stream<Map.Entry<UUID, Transaction>> export(LedgerKey key) {
+        long[] read = new long[1];
+
+        return store.transactions(key)
+                .peek(_ -> read[0]++)
+                .onClose(() -> metrics.history(read[0]));
     }
 }
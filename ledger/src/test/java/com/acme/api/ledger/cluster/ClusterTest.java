@@ -0,0 +1,367 @@
+package com.acme.api.ledger.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.App;
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.exception.LedgerMovedException;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+import com.acme.api.ledger.repository.InMemoryLedgerRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Two nodes in one JVM: a and b, each with its own repository. Node b
+ * answers the calls between nodes on a local port, node a is never called.
+ */
+public class ClusterTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final Currency USD = Currency.of("USD");
+
+    private static final int VIRTUAL_NODES = 256;
+
+    private static final String A = "http://127.0.0.1:1";
+
+    @TempDir
+    Path data;
+
+    private HttpServer server;
+
+    private String b;
+
+    private final List<InMemoryLedgerRepository> repositories = new ArrayList<>();
+
+    private Cluster nodeB;
+
+    // Node b fails handoffs to it without reading them while set
+    private volatile boolean refusing;
+
+    private int references;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(App.PATH + "/cluster/ledgers/", this::receive);
+        server.createContext(App.PATH + "/hops", this::hops);
+        server.start();
+        b = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+        repositories.forEach(InMemoryLedgerRepository::close);
+    }
+
+    @Test
+    public void testRouteWithoutRebalance() {
+        Cluster a = cluster("a", A, List.of(A, b));
+        UUID here = owned(List.of(A, b), A);
+        UUID there = owned(List.of(A, b), b);
+
+        // Owned here but not created yet, the resource answers 404
+        assertInstanceOf(Cluster.Local.class, a.route(here, 0));
+        assertEquals(new Cluster.Forward(b), a.route(there, 0));
+        assertEquals(new Cluster.Forward(b), a.route(there, Cluster.MAX_HOPS - 1));
+        assertTrue(a.remote(there));
+        assertFalse(a.remote(here));
+
+        // Held here, served here whoever owns it
+        ledger(a, repository(a), there);
+
+        assertInstanceOf(Cluster.Local.class, a.route(there, 0));
+        assertFalse(a.remote(there));
+
+        // New ledgers are created on their owner
+        assertInstanceOf(Cluster.Local.class, a.create(here, 0));
+        assertEquals(new Cluster.Forward(b), a.create(there, 0));
+        assertEquals(A, a.self());
+        assertEquals(List.of(A, b).stream().sorted().toList(), a.nodes());
+        assertEquals(A, new HashRing(a.nodes(), VIRTUAL_NODES).owner(a.newLedgerId()));
+    }
+
+    @Test
+    public void testHopLimit() throws IOException, InterruptedException {
+        Cluster a = cluster("a", A, List.of(A, b));
+        UUID there = owned(List.of(A, b), b);
+
+        // Nodes that disagree about the ring stop bouncing a request after MAX_HOPS
+        assertInstanceOf(Cluster.Lost.class, a.route(there, Cluster.MAX_HOPS));
+        assertInstanceOf(Cluster.Lost.class, a.create(there, Cluster.MAX_HOPS));
+
+        // A forwarded request carries one hop more than it came with
+        HttpResponse<byte[]> response = a.forward(b, "POST", "/hops", "{}".getBytes(StandardCharsets.UTF_8),
+                "application/json", Cluster.MAX_HOPS - 1);
+
+        assertEquals(200, response.statusCode());
+        assertEquals(String.valueOf(Cluster.MAX_HOPS), new String(response.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPreviousRingIsKeptUntilSettle() {
+        // Node a joins a cluster of b alone: b still has what a now owns
+        Cluster a = cluster("a", A, List.of(b));
+        UUID moving = owned(List.of(A, b), A);
+        UUID stays = owned(List.of(A, b), b);
+
+        a.ring(List.of(A, b));
+
+        // Owned here, asked from the previous owner until it hands it off
+        assertEquals(new Cluster.Forward(b), a.route(moving, 0));
+        // Asked here by the previous owner: it has the last word, nothing more to ask
+        assertInstanceOf(Cluster.Local.class, a.route(moving, Cluster.MAX_HOPS));
+        assertEquals(new Cluster.Forward(b), a.route(stays, 0));
+
+        // A second change before settling keeps the oldest ring
+        a.ring(List.of(A, b));
+
+        assertEquals(new Cluster.Forward(b), a.route(moving, 0));
+
+        a.settle();
+
+        assertInstanceOf(Cluster.Local.class, a.route(moving, 0));
+        assertEquals(new Cluster.Forward(b), a.route(stays, 0));
+    }
+
+    @Test
+    public void testHandoffRoundTrip() throws IOException {
+        // Node b joins a cluster of a alone, and gets its share of a's ledgers
+        Cluster a = cluster("a", A, List.of(A));
+        InMemoryLedgerRepository here = repository(a);
+        UUID id = owned(List.of(A, b), b);
+        UUID kept = owned(List.of(A, b), A);
+
+        nodeB = cluster("b", b, List.of(A));
+
+        ledger(a, here, id);
+        ledger(a, here, kept);
+
+        List<Map.Entry<UUID, Transaction>> euros = history(here, new LedgerKey(id, EUR));
+        List<Map.Entry<UUID, Transaction>> dollars = history(here, new LedgerKey(id, USD));
+        Map<Currency, Long> balances = here.balances(id);
+
+        a.ring(List.of(A, b));
+        nodeB.ring(List.of(A, b));
+
+        // Still on a: a serves it, b sends its requests there
+        assertInstanceOf(Cluster.Local.class, a.route(id, 0));
+        assertEquals(new Cluster.Forward(A), nodeB.route(id, 0));
+
+        assertEquals(new Cluster.Rebalance(1, 0), a.handoff());
+
+        InMemoryLedgerRepository there = repository(nodeB);
+
+        assertFalse(here.holds(id));
+        assertTrue(here.holds(kept));
+        assertTrue(there.holds(id));
+        assertEquals(balances, there.balances(id));
+        assertEquals(euros, history(there, new LedgerKey(id, EUR)));
+        assertEquals(dollars, history(there, new LedgerKey(id, USD)));
+
+        // Handed off: a knows b has it, even before the previous ring is dropped
+        assertEquals(new Cluster.Forward(b), a.route(id, 0));
+        assertInstanceOf(Cluster.Local.class, nodeB.route(id, 0));
+
+        // Writes go on at the new owner
+        there.add(new LedgerKey(id, EUR), transaction(Transaction.Operation.DEPOSIT, 5));
+
+        assertEquals(balances.get(EUR) + 5, there.balances(id).get(EUR));
+
+        a.settle();
+        nodeB.settle();
+
+        assertEquals(new Cluster.Forward(b), a.route(id, 0));
+        assertInstanceOf(Cluster.Local.class, nodeB.route(id, 0));
+
+        // Nothing left to hand off
+        assertEquals(new Cluster.Rebalance(0, 0), a.handoff());
+    }
+
+    @Test
+    public void testFailedHandoffStaysSealedUntilRetried() throws IOException {
+        Cluster a = cluster("a", A, List.of(A));
+        InMemoryLedgerRepository here = repository(a);
+        UUID id = owned(List.of(A, b), b);
+        LedgerKey key = new LedgerKey(id, EUR);
+
+        nodeB = cluster("b", b, List.of(A));
+        here.save(key);
+
+        // More than the pipe holds, the export blocks until the pipe is closed
+        for (int batch = 0; batch < 10; batch++) {
+            List<Transaction> transactions = new ArrayList<>(1000);
+
+            for (int i = 0; i < 1000; i++) {
+                transactions.add(transaction(Transaction.Operation.DEPOSIT, 1 + i));
+            }
+
+            here.addAll(key, transactions, false);
+        }
+
+        long balance = here.balance(key);
+
+        a.ring(List.of(A, b));
+        nodeB.ring(List.of(A, b));
+        refusing = true;
+
+        assertEquals(new Cluster.Rebalance(0, 1), a.handoff());
+
+        // Kept, and sealed: reads answer 503 and writes are refused until it moves
+        assertTrue(here.holds(id));
+        assertInstanceOf(Cluster.Moving.class, a.route(id, 0));
+        assertThrows(LedgerMovedException.class,
+                () -> here.add(key, transaction(Transaction.Operation.DEPOSIT, 1)));
+        assertFalse(repository(nodeB).holds(id));
+
+        refusing = false;
+
+        assertEquals(new Cluster.Rebalance(1, 0), a.handoff());
+        assertFalse(here.holds(id));
+        assertEquals(balance, repository(nodeB).balance(key));
+        assertEquals(10_000, history(repository(nodeB), key).size());
+    }
+
+    @Test
+    public void testSealedLedgerOwnedAgainIsUnsealed() {
+        Cluster a = cluster("a", A, List.of(A));
+        InMemoryLedgerRepository here = repository(a);
+        UUID id = owned(List.of(A, b), b);
+        LedgerKey key = new LedgerKey(id, EUR);
+
+        nodeB = cluster("b", b, List.of(A));
+        here.save(key);
+        a.ring(List.of(A, b));
+        refusing = true;
+
+        assertEquals(new Cluster.Rebalance(0, 1), a.handoff());
+
+        // The rebalance is called off: back to a alone
+        a.ring(List.of(A));
+        a.settle();
+
+        assertEquals(new Cluster.Rebalance(0, 0), a.handoff());
+        assertInstanceOf(Cluster.Local.class, a.route(id, 0));
+        here.add(key, transaction(Transaction.Operation.DEPOSIT, 1));
+        assertEquals(1, here.balance(key));
+    }
+
+    // What ClusterResource.receive does for node b
+    private void receive(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            if (refusing) {
+                exchange.sendResponseHeaders(500, -1);
+
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            UUID id = UUID.fromString(path.substring(path.lastIndexOf('/') + 1));
+
+            try {
+                nodeB.receive(id, body);
+                exchange.sendResponseHeaders(204, -1);
+            } catch (IOException | IllegalArgumentException e) {
+                exchange.sendResponseHeaders(400, -1);
+            }
+        }
+    }
+
+    private void hops(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] hops = exchange.getRequestHeaders().getFirst(Cluster.HOPS).getBytes(StandardCharsets.UTF_8);
+
+            exchange.sendResponseHeaders(200, hops.length);
+            exchange.getResponseBody().write(hops);
+        }
+    }
+
+    private Cluster cluster(String name, String self, List<String> nodes) {
+        Map<String, String> properties = new HashMap<>(TestConfig.under(data.resolve(name)));
+
+        properties.put("ledger.cluster.enabled", "true");
+        properties.put("ledger.cluster.self", self);
+        properties.put("ledger.cluster.nodes", String.join(",", nodes));
+        properties.put("ledger.cluster.virtual-nodes", String.valueOf(VIRTUAL_NODES));
+
+        LedgerConfig config = TestConfig.of(properties);
+        InMemoryLedgerRepository repository = new InMemoryLedgerRepository(config);
+
+        repositories.add(repository);
+
+        return new Cluster(config, repository, new ObjectMapper());
+    }
+
+    // Repositories are made in the same order as the clusters
+    private InMemoryLedgerRepository repository(Cluster cluster) {
+        return repositories.get(cluster == nodeB ? 1 : 0);
+    }
+
+    // Two currency accounts with a few transactions each
+    private void ledger(Cluster cluster, InMemoryLedgerRepository repository, UUID id) {
+        for (Currency currency : List.of(EUR, USD)) {
+            LedgerKey key = new LedgerKey(id, currency);
+
+            repository.save(key);
+            repository.add(key, transaction(Transaction.Operation.DEPOSIT, 1_000, currency));
+            repository.add(key, transaction(Transaction.Operation.WITHDRAWAL, 250, currency));
+            repository.add(key, transaction(Transaction.Operation.DEPOSIT, 75, currency));
+        }
+
+        assertTrue(cluster.ledgers() > 0);
+    }
+
+    private static List<Map.Entry<UUID, Transaction>> history(InMemoryLedgerRepository repository, LedgerKey key) {
+        try (Stream<Map.Entry<UUID, Transaction>> history = repository.history(key, Instant.EPOCH,
+                Instant.now().plusSeconds(60), null)) {
+            return history.toList();
+        }
+    }
+
+    // A random id the ring of the given nodes puts on the given one
+    private static UUID owned(List<String> nodes, String node) {
+        HashRing ring = new HashRing(nodes, VIRTUAL_NODES);
+        UUID id = UUID.randomUUID();
+
+        while (!ring.owner(id).equals(node)) {
+            id = UUID.randomUUID();
+        }
+
+        return id;
+    }
+
+    private Transaction transaction(Transaction.Operation operation, long amount) {
+        return transaction(operation, amount, EUR);
+    }
+
+    private Transaction transaction(Transaction.Operation operation, long amount, Currency currency) {
+        return new Transaction(operation, amount, operation.name(), "CLUSTER-" + ++references, currency);
+    }
+}
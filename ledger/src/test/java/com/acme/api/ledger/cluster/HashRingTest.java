@@ -0,0 +1,111 @@
+package com.acme.api.ledger.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class HashRingTest {
+    private static final int IDS = 20_000;
+
+    private static final int VIRTUAL_NODES = 256;
+
+    private static final List<String> NODES = List.of("http://node-a:8080", "http://node-b:8080",
+            "http://node-c:8080", "http://node-d:8080");
+
+    private final List<UUID> ids = ids();
+
+    @Test
+    public void testOwnerIsStable() {
+        HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+
+        // Same owner for the same id, whatever the order the nodes are listed in
+        HashRing reversed = new HashRing(NODES.reversed(), VIRTUAL_NODES);
+
+        for (UUID id : ids) {
+            assertEquals(ring.owner(id), ring.owner(id));
+            assertEquals(ring.owner(id), reversed.owner(id));
+        }
+
+        assertEquals(NODES, ring.nodes());
+        assertEquals(NODES, new HashRing(List.of(NODES.get(1), NODES.get(1), NODES.get(0), NODES.get(2),
+                NODES.get(3)), VIRTUAL_NODES).nodes());
+    }
+
+    @Test
+    public void testLedgersAreSpreadEvenly() {
+        HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+        Map<String, Integer> owned = new HashMap<>();
+
+        ids.forEach(id -> owned.merge(ring.owner(id), 1, Integer::sum));
+
+        // A quarter each, give or take a fifth of it
+        for (String node : NODES) {
+            assertTrue(Math.abs(owned.get(node) - IDS / 4) < IDS / 20, node + " owns " + owned.get(node));
+        }
+    }
+
+    @Test
+    public void testAddingANodeMovesAboutOneNth() {
+        HashRing before = new HashRing(NODES, VIRTUAL_NODES);
+        List<String> more = new ArrayList<>(NODES);
+
+        more.add("http://node-e:8080");
+
+        HashRing after = new HashRing(more, VIRTUAL_NODES);
+        int moved = 0;
+
+        for (UUID id : ids) {
+            if (!before.owner(id).equals(after.owner(id))) {
+                // Only to the new node, never between the old ones
+                assertEquals("http://node-e:8080", after.owner(id));
+                moved++;
+            }
+        }
+
+        assertAboutOneNth(moved, more.size());
+    }
+
+    @Test
+    public void testRemovingANodeMovesOnlyItsLedgers() {
+        HashRing before = new HashRing(NODES, VIRTUAL_NODES);
+        HashRing after = new HashRing(NODES.subList(0, 3), VIRTUAL_NODES);
+        int moved = 0;
+
+        for (UUID id : ids) {
+            if (!before.owner(id).equals(after.owner(id))) {
+                assertEquals(NODES.get(3), before.owner(id));
+                moved++;
+            }
+        }
+
+        assertAboutOneNth(moved, NODES.size());
+    }
+
+    @Test
+    public void testRingNeedsANode() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), VIRTUAL_NODES));
+    }
+
+    // Within a fifth of IDS / nodes
+    private static void assertAboutOneNth(int moved, int nodes) {
+        assertTrue(Math.abs(moved - IDS / nodes) < IDS / nodes / 5, moved + " of " + IDS + " moved");
+    }
+
+    private static List<UUID> ids() {
+        List<UUID> ids = new ArrayList<>(IDS);
+
+        for (int i = 0; i < IDS; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        return ids;
+    }
+}
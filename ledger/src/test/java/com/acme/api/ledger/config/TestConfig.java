@@ -0,0 +1,51 @@
+package com.acme.api.ledger.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.runtime.configuration.MemorySizeConverter;
+import io.quarkus.runtime.configuration.PathConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+
+/**
+ * LedgerConfig for tests that build the repository by hand, outside Quarkus:
+ * the defaults of the mapping plus the given properties, named like in
+ * application.yml (e.g. {@code ledger.wal.enabled}).
+ */
+public final class TestConfig {
+    private TestConfig() {
+    }
+
+    public static LedgerConfig of(Map<String, String> properties) {
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .withMapping(LedgerConfig.class)
+                .withConverter(Duration.class, 200, new DurationConverter())
+                .withConverter(MemorySize.class, 200, new MemorySizeConverter())
+                .withConverter(Path.class, 200, new PathConverter())
+                .withSources(new PropertiesConfigSource(new HashMap<>(properties), "test", 500))
+                .build();
+
+        return config.getConfigMapping(LedgerConfig.class);
+    }
+
+    /**
+     * Only what a repository needs on disk under the given directory, every
+     * background task off.
+     */
+    public static Map<String, String> under(Path data) {
+        Map<String, String> properties = new HashMap<>();
+
+        properties.put("ledger.wal.directory", data.resolve("wal").toString());
+        properties.put("ledger.snapshot.directory", data.resolve("snapshots").toString());
+        properties.put("ledger.tiering.directory", data.resolve("cold").toString());
+        properties.put("ledger.sequencer.shards", "2");
+
+        return properties;
+    }
+}
@@ -0,0 +1,83 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class CheckpointsTest {
+    private final Checkpoints checkpoints = new Checkpoints();
+
+    private final long now = Checkpoints.bucketOf(System.currentTimeMillis());
+
+    @Test
+    public void testOutOfOrderIds() {
+        // Ten hours of history, recorded newest first
+        for (long hour = 0; hour < 10; hour++) {
+            checkpoints.record(id(now - hour), 1 << hour);
+        }
+
+        assertEquals(0, checkpoints.totalBefore(now - 9));
+        assertEquals(0b1111100000, checkpoints.totalBefore(now - 4));
+        assertEquals(0b1111111110, checkpoints.totalBefore(now));
+        assertEquals(0b1111111111, checkpoints.totalBefore(now + 1));
+    }
+
+    @Test
+    public void testWriteToSealedHourMovesLaterTotals() {
+        checkpoints.record(id(now - 6), 100);
+        checkpoints.record(id(now - 4), 10);
+        checkpoints.record(id(now), 1);
+
+        // Caches the running totals of the sealed hours
+        assertEquals(111, checkpoints.totalBefore(now + 1));
+
+        // Late, in the middle of the cached history
+        checkpoints.record(id(now - 5), 1_000);
+
+        assertEquals(100, checkpoints.totalBefore(now - 5));
+        assertEquals(1_100, checkpoints.totalBefore(now - 4));
+        assertEquals(1_110, checkpoints.totalBefore(now - 3));
+        assertEquals(1_111, checkpoints.totalBefore(now + 1));
+    }
+
+    @Test
+    public void testHourSealedNext() {
+        checkpoints.record(id(now - 3), 100);
+        checkpoints.record(id(now - 2), 10);
+
+        assertEquals(110, checkpoints.totalBefore(now - 1));
+
+        // The hour the clock seals next, then the one it just sealed
+        checkpoints.record(id(now - 1), 1);
+        checkpoints.record(id(now - 2), 1_000);
+
+        assertEquals(100, checkpoints.totalBefore(now - 2));
+        assertEquals(1_110, checkpoints.totalBefore(now - 1));
+        assertEquals(1_111, checkpoints.totalBefore(now));
+    }
+
+    @Test
+    public void testCompact() {
+        for (long hour = 8; hour >= 0; hour--) {
+            checkpoints.record(id(now - hour), 1);
+        }
+
+        assertEquals(9, checkpoints.totalBefore(now + 1));
+
+        // Hours 8 to 5 ago summed up in the last of them, with a correction
+        checkpoints.compact(now - 8, now - 5, 5);
+
+        assertEquals(0, checkpoints.totalBefore(now - 5));
+        assertEquals(5, checkpoints.totalBefore(now - 4));
+        assertEquals(10, checkpoints.totalBefore(now + 1));
+    }
+
+    // A UUIDv7 in the middle of the given hour
+    private static UUID id(long bucket) {
+        long millis = bucket * Checkpoints.BUCKET_MILLIS + Checkpoints.BUCKET_MILLIS / 2;
+
+        return new UUID(millis << 16 | 0x7000, Long.MIN_VALUE);
+    }
+}
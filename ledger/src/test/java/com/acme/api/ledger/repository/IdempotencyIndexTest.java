@@ -0,0 +1,139 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class IdempotencyIndexTest {
+    private static final LedgerKey LEDGER = new LedgerKey(UUID.randomUUID(), Currency.of("EUR"));
+
+    private static final long NOW = System.currentTimeMillis();
+
+    private final IdempotencyIndex index = new IdempotencyIndex(Duration.ofSeconds(10), 2);
+
+    @Test
+    public void testPendingClaimsOutliveTheSizeBound() {
+        IdempotencyIndex.Claim pending = claim("A", NOW);
+
+        assertNull(index.claim(pending));
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(index.claim(completed("B" + i, NOW + i)));
+        }
+
+        // Over the bound while A commits, a retry still waits for it
+        assertSame(pending, index.claim(claim("A", NOW + 10)));
+
+        UUID id = UUID.randomUUID();
+
+        pending.id().complete(id);
+
+        assertEquals(id, index.committed(LEDGER, "A"));
+
+        // Resolved, the next claim evicts it and whatever piled up behind it
+        assertNull(index.claim(completed("C", NOW + 20)));
+        assertNull(index.committed(LEDGER, "A"));
+        assertNull(index.committed(LEDGER, "B0"));
+        assertEquals(UUID.nameUUIDFromBytes("C".getBytes()), index.committed(LEDGER, "C"));
+    }
+
+    @Test
+    public void testPendingClaimsOutliveTheTtl() {
+        IdempotencyIndex.Claim pending = claim("A", NOW);
+
+        assertNull(index.claim(pending));
+
+        // Far past the TTL, the commit behind A is slow but still running
+        long later = NOW + Duration.ofMinutes(1).toMillis();
+
+        assertNull(index.claim(completed("B", later)));
+        assertSame(pending, index.claim(claim("A", later)));
+
+        // Once it failed the key is free again
+        index.release(pending, new IllegalStateException("Commit failed"));
+
+        IdempotencyIndex.Claim retry = claim("A", later + 1);
+
+        assertNull(index.claim(retry));
+        assertSame(retry, index.claim(claim("A", later + 2)));
+    }
+
+    @Test
+    public void testExpiredClaimsAreEvicted() {
+        assertNull(index.claim(completed("A", NOW)));
+
+        long later = NOW + Duration.ofMinutes(1).toMillis();
+
+        // Expired, the key can be claimed again
+        IdempotencyIndex.Claim again = claim("A", later);
+
+        assertNull(index.claim(again));
+        assertSame(again, index.claim(claim("A", later + 1)));
+    }
+
+    @Test
+    public void testReleasedClaimsStayBounded() {
+        IdempotencyIndex bounded = new IdempotencyIndex(Duration.ofHours(24), 100);
+
+        // A stream of rejected withdrawals, each claims its key then fails
+        for (int i = 0; i < 10_000; i++) {
+            IdempotencyIndex.Claim rejected = claim("R" + i, NOW + i);
+
+            assertNull(bounded.claim(rejected));
+            bounded.release(rejected, new IllegalStateException("Insufficient funds"));
+
+            assertTrue(bounded.size() <= 101);
+        }
+
+        // Committed keys are still found, and evicted oldest first
+        for (int i = 0; i < 100; i++) {
+            assertNull(bounded.claim(completed("C" + i, NOW + 10_000 + i)));
+        }
+
+        assertEquals(100, bounded.size());
+        assertEquals(UUID.nameUUIDFromBytes("C0".getBytes()), bounded.committed(LEDGER, "C0"));
+    }
+
+    @Test
+    public void testPendingHeadKeepsTheOrder() {
+        IdempotencyIndex.Claim pending = claim("A", NOW);
+
+        assertNull(index.claim(pending));
+        assertNull(index.claim(completed("B", NOW + 1)));
+        assertNull(index.claim(completed("C", NOW + 2)));
+
+        pending.id().complete(UUID.randomUUID());
+
+        // A is evicted first once it resolved, then B, C is the youngest
+        assertNull(index.claim(completed("D", NOW + 3)));
+        assertNull(index.committed(LEDGER, "A"));
+        assertNull(index.committed(LEDGER, "B"));
+        assertEquals(UUID.nameUUIDFromBytes("C".getBytes()), index.committed(LEDGER, "C"));
+        assertEquals(2, index.size());
+    }
+
+    private static IdempotencyIndex.Claim claim(String key, long createdMillis) {
+        return new IdempotencyIndex.Claim(new IdempotencyIndex.Key(LEDGER, key), transaction(key),
+                new CompletableFuture<>(), createdMillis);
+    }
+
+    private static IdempotencyIndex.Claim completed(String key, long createdMillis) {
+        return new IdempotencyIndex.Claim(new IdempotencyIndex.Key(LEDGER, key), transaction(key),
+                CompletableFuture.completedFuture(UUID.nameUUIDFromBytes(key.getBytes())), createdMillis);
+    }
+
+    private static Transaction transaction(String reference) {
+        return new Transaction(Transaction.Operation.DEPOSIT, 100, "Deposit", reference, LEDGER.currency());
+    }
+}
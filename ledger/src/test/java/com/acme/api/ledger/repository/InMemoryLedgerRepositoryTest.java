@@ -0,0 +1,297 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.exception.InsufficientFundsException;
+import com.acme.api.ledger.exception.LedgerChangedException;
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class InMemoryLedgerRepositoryTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final int THREADS = 8;
+
+    private static final int ATTEMPTS = 200;
+
+    @TempDir
+    Path data;
+
+    private Sequencer sequencer;
+
+    private InMemoryLedgerRepository store;
+
+    private final ExecutorService requests = Executors.newFixedThreadPool(THREADS);
+
+    private final AtomicInteger references = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() {
+        sequencer = new Sequencer(2, 1024);
+        store = new InMemoryLedgerRepository(TestConfig.of(TestConfig.under(data)), sequencer);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        requests.shutdownNow();
+        store.close();
+    }
+
+    @Test
+    public void testConcurrentWithdrawalsCannotOverdraw() throws Exception {
+        LedgerKey key = ledger();
+
+        store.add(key, transaction(Transaction.Operation.DEPOSIT, 1_000));
+
+        // 8 x 200 x 7 = 11200, far more than the 1000 funded
+        List<Integer> committed = race(() -> {
+            try {
+                store.add(key, transaction(Transaction.Operation.WITHDRAWAL, 7));
+
+                return 1;
+            } catch (InsufficientFundsException e) {
+                return 0;
+            }
+        });
+        int withdrawals = committed.stream().mapToInt(Integer::intValue).sum();
+
+        assertEquals(1_000 / 7, withdrawals);
+        assertEquals(1_000 - 7L * withdrawals, store.balance(key));
+        assertTrue(store.balance(key) >= 0);
+        assertEquals(1 + withdrawals, store.transactions(key).count());
+    }
+
+    @Test
+    public void testConcurrentSavesKeepTheLedger() throws Exception {
+        LedgerKey key = ledger();
+
+        store.add(key, transaction(Transaction.Operation.DEPOSIT, 100));
+
+        // Saving it again never replaces it, not even racing
+        List<Integer> saved = race(() -> store.save(key) ? 1 : 0);
+
+        assertEquals(0, saved.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(100, store.balance(key));
+        assertEquals(1, store.transactions(key).count());
+    }
+
+    @Test
+    public void testConcurrentTransfersAndWithdrawalsCannotOverdraw() throws Exception {
+        LedgerKey from = ledger();
+        LedgerKey to = ledger();
+
+        // Different writers, so the transfers take the two-shard path
+        while (Math.floorMod(to.hashCode(), 2) == Math.floorMod(from.hashCode(), 2)) {
+            to = ledger();
+        }
+
+        LedgerKey target = to;
+
+        store.add(from, transaction(Transaction.Operation.DEPOSIT, 1_000));
+
+        // Half the requests withdraw, the other half move the money out
+        List<Integer> moved = race(() -> {
+            try {
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    store.addAsync(from, transaction(Transaction.Operation.WITHDRAWAL, 3), null).join();
+
+                    return 3;
+                }
+
+                store.transferAsync(from, transaction(Transaction.Operation.WITHDRAWAL, 5), target,
+                        transaction(Transaction.Operation.DEPOSIT, 5), null).join();
+
+                return 5;
+            } catch (CompletionException e) {
+                assertInstanceOf(InsufficientFundsException.class, e.getCause());
+
+                return 0;
+            }
+        });
+        long withdrawn = moved.stream().mapToInt(Integer::intValue).filter(amount -> amount == 3).sum();
+        long transferred = moved.stream().mapToInt(Integer::intValue).filter(amount -> amount == 5).sum();
+
+        assertTrue(store.balance(from) >= 0);
+        assertTrue(store.balance(from) < 5);
+        assertEquals(1_000 - withdrawn - transferred, store.balance(from));
+        assertEquals(transferred, store.balance(target));
+    }
+
+    @Test
+    public void testAtomicBatchWaitsForAnotherRequestsClaim() throws Exception {
+        LedgerKey key = ledger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Transaction withdrawal = transaction(Transaction.Operation.WITHDRAWAL, 100);
+
+        // The writer is busy, the withdrawal claims its reference and waits
+        sequencer.submit(key, () -> {
+            running.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return null;
+        });
+        running.await();
+
+        CompletableFuture<?> single = store.addAsync(key, withdrawal, null);
+
+        // The batch retries that withdrawal along with a deposit too small for it
+        Future<List<CommitResult>> batch = requests.submit(() -> store.addAll(key,
+                List.of(transaction(Transaction.Operation.DEPOSIT, 50), withdrawal), true));
+
+        Thread.sleep(50);
+
+        assertFalse(batch.isDone());
+
+        release.countDown();
+
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> batch.get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(InsufficientFundsException.class, failed.getCause());
+        assertInstanceOf(InsufficientFundsException.class,
+                assertThrows(CompletionException.class, single::join).getCause());
+
+        // Neither the deposit nor the withdrawal was kept
+        assertEquals(0, store.balance(key));
+        assertEquals(0, store.transactions(key).count());
+    }
+
+    @Test
+    public void testBulkLoadInstallsChunksAsTheyAreStaged() {
+        LedgerKey key = ledger();
+        BulkLoad load = store.bulkLoad(key, false);
+
+        for (int i = 0; i < BulkLoad.CHUNK; i++) {
+            load.stage(i + 1, null, null, transaction(Transaction.Operation.DEPOSIT, 1));
+        }
+
+        // The first chunk is in before the rest of the body is read
+        assertEquals(BulkLoad.CHUNK, store.transactions(key).count());
+        assertEquals(BulkLoad.CHUNK, store.balance(key));
+
+        for (int i = 0; i < 10; i++) {
+            load.stage(BulkLoad.CHUNK + i + 1, null, null, transaction(Transaction.Operation.DEPOSIT, 1));
+        }
+
+        assertEquals(BulkLoad.CHUNK + 10, store.load(load));
+        assertEquals(BulkLoad.CHUNK + 10, store.transactions(key).count());
+        assertEquals(BulkLoad.CHUNK + 10, store.balance(key));
+    }
+
+    @Test
+    public void testCommitBetweenChunksStopsTheLoad() {
+        LedgerKey key = ledger();
+        BulkLoad load = store.bulkLoad(key, false);
+
+        for (int i = 0; i < BulkLoad.CHUNK; i++) {
+            load.stage(i + 1, null, null, transaction(Transaction.Operation.DEPOSIT, 1));
+        }
+
+        store.add(key, transaction(Transaction.Operation.DEPOSIT, 5));
+
+        assertThrows(LedgerChangedException.class, () -> {
+            for (int i = 0; i < BulkLoad.CHUNK; i++) {
+                load.stage(BulkLoad.CHUNK + i + 1, null, null, transaction(Transaction.Operation.DEPOSIT, 1));
+            }
+        });
+
+        // The chunk installed before the commit stays
+        assertEquals(BulkLoad.CHUNK, load.installed());
+        assertEquals(BulkLoad.CHUNK + 1, store.transactions(key).count());
+        assertEquals(BulkLoad.CHUNK + 5, store.balance(key));
+    }
+
+    @Test
+    public void testAtomicBulkLoadIsInvisibleUntilInstalled() {
+        LedgerKey key = ledger();
+        BulkLoad load = store.bulkLoad(key, true);
+
+        for (int i = 0; i < 2 * BulkLoad.CHUNK + 1; i++) {
+            load.stage(i + 1, null, null, transaction(Transaction.Operation.DEPOSIT, 1));
+        }
+
+        assertEquals(0, store.transactions(key).count());
+        assertEquals(2 * BulkLoad.CHUNK + 1, store.load(load));
+        assertEquals(2 * BulkLoad.CHUNK + 1, store.balance(key));
+
+        // The ledger takes commits again once the last chunk is in
+        store.add(key, transaction(Transaction.Operation.DEPOSIT, 1));
+
+        assertEquals(2 * BulkLoad.CHUNK + 2, store.balance(key));
+    }
+
+    // Runs the attempt ATTEMPTS times on each of the request threads, all at once
+    private List<Integer> race(Callable<Integer> attempt) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> threads = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(requests.submit(() -> {
+                List<Integer> results = new ArrayList<>();
+
+                start.await();
+
+                for (int j = 0; j < ATTEMPTS; j++) {
+                    results.add(attempt.call());
+                }
+
+                return results;
+            }));
+        }
+
+        start.countDown();
+
+        List<Integer> results = new ArrayList<>();
+
+        for (Future<List<Integer>> thread : threads) {
+            results.addAll(thread.get());
+        }
+
+        return results;
+    }
+
+    private LedgerKey ledger() {
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+
+        assertTrue(store.save(key));
+
+        return key;
+    }
+
+    private Transaction transaction(Transaction.Operation operation, long amount) {
+        return new Transaction(operation, amount, operation.name(), "REF-" + references.incrementAndGet(), EUR);
+    }
+}
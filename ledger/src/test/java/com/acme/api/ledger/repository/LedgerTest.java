@@ -0,0 +1,52 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.model.Transaction;
+
+public class LedgerTest {
+    private final Ledger ledger = new Ledger(new SkipListTransactionStore());
+
+    @Test
+    public void testBalanceMovesAfterTheWriteAhead() {
+        ledger.append(SkipListTransactionStoreTest.transaction(100), _ -> {
+        });
+
+        long[] seen = new long[2];
+
+        // Still the previous balance while the log write runs
+        ledger.append(SkipListTransactionStoreTest.transaction(20), _ -> seen[0] = ledger.balance());
+        ledger.appendAll(List.of(SkipListTransactionStoreTest.transaction(3)), true,
+                _ -> seen[1] = ledger.balance());
+
+        assertEquals(100, seen[0]);
+        assertEquals(120, seen[1]);
+        assertEquals(123, ledger.balance());
+    }
+
+    @Test
+    public void testFailedWriteAheadIsNeverSeen() {
+        ledger.append(SkipListTransactionStoreTest.transaction(100), _ -> {
+        });
+
+        Transaction withdrawal = new Transaction(Transaction.Operation.WITHDRAWAL, 60, "Withdrawal", "REF-W",
+                SkipListTransactionStoreTest.transaction(1).currency());
+
+        assertThrows(UncheckedIOException.class, () -> ledger.append(withdrawal, _ -> {
+            throw new UncheckedIOException(new IOException("Disk full"));
+        }));
+        assertThrows(UncheckedIOException.class, () -> ledger.appendAll(List.of(withdrawal), false, _ -> {
+            throw new UncheckedIOException(new IOException("Disk full"));
+        }));
+
+        assertEquals(100, ledger.balance());
+        assertEquals(1, ledger.all().count());
+    }
+}
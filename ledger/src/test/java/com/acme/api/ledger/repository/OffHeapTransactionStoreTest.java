@@ -0,0 +1,163 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+
+public class OffHeapTransactionStoreTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final UUID FIRST = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+
+    private static final UUID LAST = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final OffHeapTransactionStore offHeap = new OffHeapTransactionStore(EUR);
+
+    private final SkipListTransactionStore heap = new SkipListTransactionStore();
+
+    @AfterEach
+    public void tearDown() {
+        offHeap.close();
+        heap.close();
+    }
+
+    @Test
+    public void testSameRangesAsTheHeapStore() {
+        // Past the geometric chunks and many index strides, descriptions of every length
+        List<Map.Entry<UUID, Transaction>> entries = SkipListTransactionStoreTest.entries(20_000);
+
+        for (Map.Entry<UUID, Transaction> entry : entries) {
+            Transaction transaction = entry.getValue();
+            Transaction varied = new Transaction(
+                    transaction.amount() % 3 == 0 ? Transaction.Operation.WITHDRAWAL : Transaction.Operation.DEPOSIT,
+                    transaction.amount(), "é".repeat((int) (transaction.amount() % 50)), transaction.reference(), EUR);
+
+            assertTrue(offHeap.put(entry.getKey(), varied));
+            assertTrue(heap.put(entry.getKey(), varied));
+        }
+
+        assertEquals(heap.size(), offHeap.size());
+        assertEquals(heap.last(), offHeap.last());
+        assertParity(FIRST, LAST);
+
+        // Bounds on rows, between rows, on chunk and stride edges, outside the ids
+        int[] rows = { 0, 1, 63, 64, 191, 192, 255, 256, 257, 8_127, 8_128, 16_319, 16_320, 19_999 };
+
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = i; j < rows.length; j++) {
+                UUID from = entries.get(rows[i]).getKey();
+                UUID to = entries.get(rows[j]).getKey();
+
+                assertParity(from, to);
+                assertParity(before(from), before(to));
+            }
+        }
+
+        assertParity(FIRST, entries.get(100).getKey());
+        assertParity(entries.get(19_000).getKey(), LAST);
+    }
+
+    @Test
+    public void testAppendsAndPuts() {
+        assertNull(offHeap.last());
+        assertEquals(0, offHeap.range(FIRST, LAST).count());
+
+        List<UUID> logged = new ArrayList<>();
+        UUID first = offHeap.append(SkipListTransactionStoreTest.transaction(1), logged::add);
+        List<UUID> batch = offHeap.appendAll(
+                List.of(SkipListTransactionStoreTest.transaction(2), SkipListTransactionStoreTest.transaction(3)),
+                entries -> entries.forEach(entry -> logged.add(entry.getKey())));
+
+        // Logged with the ids they are stored under, in order
+        assertEquals(List.of(first, batch.get(0), batch.get(1)), logged);
+        assertTrue(first.compareTo(batch.get(0)) < 0 && batch.get(0).compareTo(batch.get(1)) < 0);
+        assertEquals(batch.get(1), offHeap.last());
+
+        // Replayed like the write-ahead log does, the heap store gets the same rows
+        for (Map.Entry<UUID, Transaction> entry : offHeap.range(FIRST, LAST).toList()) {
+            assertTrue(heap.put(entry.getKey(), entry.getValue()));
+        }
+
+        assertParity(FIRST, LAST);
+
+        // An id already stored is skipped, an older one cannot be put after it
+        assertFalse(offHeap.put(batch.get(0), SkipListTransactionStoreTest.transaction(9)));
+        assertFalse(heap.put(batch.get(0), SkipListTransactionStoreTest.transaction(9)));
+        assertThrows(IllegalStateException.class,
+                () -> offHeap.put(before(first), SkipListTransactionStoreTest.transaction(9)));
+        assertEquals(3, offHeap.size());
+
+        // Compaction leaves the off-heap store alone
+        assertNull(offHeap.removableFrom());
+        offHeap.remove(FIRST, LAST, Set.of());
+        assertEquals(3, offHeap.size());
+    }
+
+    @Test
+    public void testCloseWaitsForOpenReaders() {
+        List<Map.Entry<UUID, Transaction>> entries = SkipListTransactionStoreTest.entries(1_000);
+
+        entries.forEach(entry -> offHeap.put(entry.getKey(), entry.getValue()));
+
+        Stream<Map.Entry<UUID, Transaction>> exhausted = offHeap.range(FIRST, LAST);
+
+        assertEquals(entries, exhausted.toList());
+
+        Stream<Map.Entry<UUID, Transaction>> reading = offHeap.range(FIRST, LAST);
+        Iterator<Map.Entry<UUID, Transaction>> iterator = reading.iterator();
+
+        assertEquals(entries.get(0), iterator.next());
+
+        Stream<Map.Entry<UUID, Transaction>> unread = offHeap.range(FIRST, LAST);
+
+        // Memory stays until both streams are done with it
+        offHeap.close();
+
+        assertThrows(IllegalStateException.class, () -> offHeap.range(FIRST, LAST));
+        assertThrows(IllegalStateException.class, () -> offHeap.append(SkipListTransactionStoreTest.transaction(1),
+                id -> {
+                }));
+
+        List<Map.Entry<UUID, Transaction>> rest = new ArrayList<>();
+
+        iterator.forEachRemaining(rest::add);
+
+        assertEquals(entries.subList(1, entries.size()), rest);
+
+        unread.close();
+        reading.close();
+
+        // Closing again, or a stream twice, changes nothing
+        offHeap.close();
+        reading.close();
+        assertThrows(IllegalStateException.class, () -> offHeap.range(FIRST, LAST));
+    }
+
+    private void assertParity(UUID from, UUID to) {
+        try (Stream<Map.Entry<UUID, Transaction>> expected = heap.range(from, to);
+                Stream<Map.Entry<UUID, Transaction>> actual = offHeap.range(from, to)) {
+            assertEquals(expected.toList(), actual.toList(), () -> from + " to " + to);
+        }
+    }
+
+    // Right below the given id, between it and the one before
+    private static UUID before(UUID id) {
+        return new UUID(id.getMostSignificantBits() - 1, Long.MAX_VALUE);
+    }
+}
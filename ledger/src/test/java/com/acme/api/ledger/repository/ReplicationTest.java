@@ -0,0 +1,299 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.metrics.LedgerMetrics;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * A leader and a follower in one JVM over a local port, or one side of the
+ * protocol against a socket the test drives.
+ */
+public class ReplicationTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final long WAIT_MILLIS = 10_000;
+
+    @TempDir
+    Path data;
+
+    private final List<AutoCloseable> closed = new ArrayList<>();
+
+    private int references;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : closed.reversed()) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    public void testFollowerAppliesTheLeadersLog() {
+        int port = freePort();
+        InMemoryLedgerRepository leader = leader(port, Map.of());
+        InMemoryLedgerRepository follower = follower(port, Map.of());
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+        LedgerKey other = new LedgerKey(UUID.randomUUID(), EUR);
+
+        eventually(() -> follower.replicationStats().connected());
+
+        leader.save(key);
+        leader.save(other);
+        leader.add(key, transaction(Transaction.Operation.DEPOSIT, 10_000));
+        leader.add(key, transaction(Transaction.Operation.WITHDRAWAL, 2_500));
+        leader.addAll(other, List.of(transaction(Transaction.Operation.DEPOSIT, 300),
+                transaction(Transaction.Operation.DEPOSIT, 400)), true);
+
+        eventually(() -> follower.exists(other) && history(follower, other).size() == 2);
+
+        assertEquals(leader.balance(key), follower.balance(key));
+        assertEquals(leader.balance(other), follower.balance(other));
+        assertEquals(history(leader, key), history(follower, key));
+        assertEquals(history(leader, other), history(follower, other));
+
+        // A dropped ledger goes away on the follower too
+        leader.drop(other.id());
+
+        eventually(() -> !follower.exists(other));
+        eventually(() -> follower.replicationStats().appliedOffset()
+                == follower.replicationStats().leaderOffset());
+
+        assertTrue(follower.replicationStats().appliedOffset() > 0);
+        assertEquals(1, leader.replicationStats().followers());
+    }
+
+    @Test
+    public void testFollowerBehindTheTruncatedLogGetsTheStore() throws IOException {
+        int port = freePort();
+        InMemoryLedgerRepository leader = leader(port, Map.of(
+                "ledger.wal.segment-size", "1K",
+                "ledger.snapshot.enabled", "true",
+                "ledger.snapshot.interval", "1h"));
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+
+        leader.save(key);
+
+        for (int i = 0; i < 100; i++) {
+            leader.add(key, transaction(Transaction.Operation.DEPOSIT, 1 + i));
+        }
+
+        // The segment holding offset 0 goes
+        leader.snapshot();
+
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // A follower that applied the log from offset 0 on, and lost the connection
+            out.writeLong(0);
+            out.flush();
+
+            assertEquals(LogShipper.BOOTSTRAP, in.readByte());
+
+            List<WalRecord> dumped = new ArrayList<>();
+            byte type;
+
+            while ((type = in.readByte()) == LogShipper.DUMP) {
+                byte[] body = new byte[in.readInt()];
+
+                in.readFully(body);
+                dumped.add(WalRecord.decode(ByteBuffer.wrap(body)));
+            }
+
+            // The log goes on from where the dump started
+            assertTrue(type == LogShipper.LOG || type == LogShipper.HEARTBEAT);
+            assertEquals(new WalRecord.LedgerCreated(key), dumped.getFirst());
+            assertEquals(history(leader, key), dumped.stream()
+                    .filter(WalRecord.TransactionsAppended.class::isInstance)
+                    .flatMap(record -> ((WalRecord.TransactionsAppended) record).transactions().stream())
+                    .toList());
+        }
+
+        // A real follower ends up with the same ledger
+        InMemoryLedgerRepository follower = follower(port, Map.of());
+
+        eventually(() -> follower.exists(key) && follower.balance(key) == leader.balance(key));
+
+        assertEquals(history(leader, key), history(follower, key));
+    }
+
+    @Test
+    public void testLagMetric() throws Exception {
+        int port = freePort();
+        InMemoryLedgerRepository leader = leader(port, Map.of());
+        Map<String, String> properties = followerProperties(port, Map.of());
+        InMemoryLedgerRepository follower = new InMemoryLedgerRepository(TestConfig.of(properties));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        closed.add(follower);
+        new LedgerMetrics(registry, follower, TestConfig.of(properties));
+
+        leader.save(new LedgerKey(UUID.randomUUID(), EUR));
+
+        // Kept at zero by heartbeats while it keeps up
+        eventually(() -> follower.replicationStats().connected()
+                && registry.get("ledger.replication.lag").gauge().value() == 0);
+
+        leader.close();
+        closed.remove(leader);
+
+        eventually(() -> !follower.replicationStats().connected()
+                && registry.get("ledger.replication.lag").gauge().value() > 300);
+        assertEquals(follower.replicationStats().lagMillis(),
+                registry.get("ledger.replication.lag").gauge().value(), 1_000);
+    }
+
+    @Test
+    public void testReadAfterWaitsForTheTransaction() throws Exception {
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+        UUID shipped = new UUID(System.currentTimeMillis() << 16 | 0x7000, Long.MIN_VALUE);
+        UUID never = new UUID(shipped.getMostSignificantBits(), Long.MIN_VALUE + 1);
+
+        try (ServerSocket leader = new ServerSocket(0)) {
+            InMemoryLedgerRepository follower = follower(leader.getLocalPort(), Map.of(
+                    "ledger.replication.heartbeat", "10s",
+                    "ledger.replication.read-timeout", "300ms"));
+
+            try (Socket socket = leader.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+                assertEquals(-1, in.readLong());
+
+                out.writeByte(LogShipper.BOOTSTRAP);
+                dump(out, new WalRecord.LedgerCreated(key));
+                out.flush();
+
+                CompletableFuture<Boolean> waiting = follower.replicated(key.id(), EUR, shipped);
+
+                // Nothing shipped yet, the read waits
+                Thread.sleep(100);
+                assertFalse(waiting.isDone());
+
+                dump(out, new WalRecord.TransactionsAppended(key,
+                        List.of(Map.entry(shipped, transaction(Transaction.Operation.DEPOSIT, 100)))));
+                out.writeByte(LogShipper.HEARTBEAT);
+                out.writeLong(0);
+                out.writeLong(0);
+                out.flush();
+
+                assertTrue(waiting.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+                // Already there, no wait
+                assertTrue(follower.replicated(key.id(), null, shipped).getNow(false));
+
+                // Never shipped: false once the read timeout is over
+                long started = System.nanoTime();
+
+                assertFalse(follower.replicated(key.id(), EUR, never).get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(250));
+            }
+        }
+    }
+
+    private InMemoryLedgerRepository leader(int port, Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>(TestConfig.under(data.resolve("leader")));
+
+        properties.put("ledger.wal.enabled", "true");
+        properties.put("ledger.wal.durability", "sync");
+        properties.put("ledger.replication.role", "leader");
+        properties.put("ledger.replication.port", String.valueOf(port));
+        properties.put("ledger.replication.heartbeat", "100ms");
+        properties.putAll(overrides);
+
+        return opened(new InMemoryLedgerRepository(TestConfig.of(properties)));
+    }
+
+    private InMemoryLedgerRepository follower(int port, Map<String, String> overrides) {
+        return opened(new InMemoryLedgerRepository(TestConfig.of(followerProperties(port, overrides))));
+    }
+
+    private Map<String, String> followerProperties(int port, Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>(TestConfig.under(data.resolve("follower")));
+
+        properties.put("ledger.replication.role", "follower");
+        properties.put("ledger.replication.leader", "127.0.0.1:" + port);
+        properties.put("ledger.replication.heartbeat", "100ms");
+        properties.putAll(overrides);
+
+        return properties;
+    }
+
+    private InMemoryLedgerRepository opened(InMemoryLedgerRepository repository) {
+        closed.add(repository);
+
+        return repository;
+    }
+
+    private static void dump(DataOutputStream out, WalRecord record) throws IOException {
+        byte[] body = record.encode();
+
+        out.writeByte(LogShipper.DUMP);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    private static List<Map.Entry<UUID, Transaction>> history(InMemoryLedgerRepository repository, LedgerKey key) {
+        try (Stream<Map.Entry<UUID, Transaction>> history = repository.transactions(key)) {
+            return history.toList();
+        }
+    }
+
+    private static void eventually(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Still not the case after " + WAIT_MILLIS + " ms");
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Transaction transaction(Transaction.Operation operation, long amount) {
+        return new Transaction(operation, amount, operation.name(), "REPLICA-" + ++references, EUR);
+    }
+}
@@ -0,0 +1,365 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.model.Aggregate;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class RetentionTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final long HOUR = Checkpoints.BUCKET_MILLIS;
+
+    @TempDir
+    Path data;
+
+    private final LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+
+    private final Map<LedgerKey, Ledger> store = new ConcurrentHashMap<>();
+
+    private final List<WalRecord.Compacted> installed = new ArrayList<>();
+
+    private final List<Long> applied = new ArrayList<>();
+
+    // Hands out offsets like the log, nothing to log here
+    private final Retention.Journal journal = new Retention.Journal() {
+        @Override
+        public long append(WalRecord.Compacted record) {
+            installed.add(record);
+
+            return installed.size() - 1;
+        }
+
+        @Override
+        public void applied(long offset) {
+            applied.add(offset);
+        }
+    };
+
+    private Sequencer sequencer;
+
+    private Retention retention;
+
+    // Start of an hour three days ago, past the one day kept
+    private long old;
+
+    private int sequence;
+
+    @BeforeEach
+    public void setUp() {
+        sequencer = new Sequencer(1, 64);
+        old = Math.floorDiv(System.currentTimeMillis() - 3 * 24 * HOUR, HOUR) * HOUR;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sequencer.close();
+        store.values().forEach(Ledger::close);
+    }
+
+    @Test
+    public void testCompactionKeepsBalance() {
+        Ledger ledger = ledger();
+        List<Map.Entry<UUID, Transaction>> first = List.of(
+                restore(ledger, old + 1_000, deposit(10_000)),
+                restore(ledger, old + 2_000, deposit(20_000)),
+                restore(ledger, old + 3_000, withdrawal(5_000)),
+                restore(ledger, old + 4_000, deposit(30_000)));
+        List<Map.Entry<UUID, Transaction>> second = List.of(
+                restore(ledger, old + HOUR + 1_000, withdrawal(1_000)),
+                restore(ledger, old + HOUR + 2_000, withdrawal(2_000)));
+        Map.Entry<UUID, Transaction> recent = restore(ledger, System.currentTimeMillis() - 2 * HOUR, deposit(7));
+        long balance = ledger.balance();
+
+        retention(Map.of()).compact(store, sequencer, journal);
+
+        assertEquals(balance, ledger.balance());
+        assertEquals(balance, sum(ledger.all()));
+        assertEquals(2, installed.size());
+
+        List<Map.Entry<UUID, Transaction>> history = ledger.all().toList();
+
+        // One deposit and one withdrawal summary, one withdrawal summary, the recent transaction
+        assertEquals(4, history.size());
+        assertSummary(history.get(0), Transaction.Operation.DEPOSIT, 60_000, "3 deposits from ", old);
+        assertSummary(history.get(1), Transaction.Operation.WITHDRAWAL, 5_000, "1 withdrawals from ", old);
+        assertSummary(history.get(2), Transaction.Operation.WITHDRAWAL, 3_000, "2 withdrawals from ", old + HOUR);
+        assertEquals(recent, history.get(3));
+
+        // Summaries sit in the last millisecond of their period
+        assertEquals(old + HOUR - 1, history.get(0).getKey().getMostSignificantBits() >>> 16);
+        assertEquals(old + 2 * HOUR - 1, history.get(2).getKey().getMostSignificantBits() >>> 16);
+
+        // Checkpoints and rollups follow
+        long bucket = Checkpoints.bucketOf(old);
+
+        assertEquals(55_000, ledger.balanceBefore(bucket + 1));
+        assertEquals(52_000, ledger.balanceBefore(bucket + 2));
+
+        Aggregate hour = ledger.hours(bucket, bucket);
+
+        assertEquals(1, hour.deposits().count());
+        assertEquals(60_000, hour.deposits().sum());
+        assertEquals(1, hour.withdrawals().count());
+        assertEquals(3_000, ledger.hours(bucket + 1, bucket + 1).withdrawals().sum());
+
+        InMemoryLedgerRepository.CompactionStats stats = retention.stats();
+
+        assertEquals(first.size() + second.size(), stats.transactions());
+        assertEquals(3, stats.summaries());
+        assertTrue(stats.reclaimedBytes() > 0);
+    }
+
+    @Test
+    public void testRecentAndCompactedPeriodsAreLeftAlone() {
+        Ledger ledger = ledger();
+        long recent = Math.floorDiv(System.currentTimeMillis() - 2 * HOUR, HOUR) * HOUR;
+
+        for (int i = 0; i < 5; i++) {
+            restore(ledger, recent + i, deposit(100));
+        }
+
+        // One transaction per operation, already as small as it gets
+        restore(ledger, old + 1, deposit(100));
+        restore(ledger, old + 2, withdrawal(50));
+
+        List<Map.Entry<UUID, Transaction>> before = ledger.all().toList();
+
+        retention(Map.of()).compact(store, sequencer, journal);
+
+        assertEquals(before, ledger.all().toList());
+        assertTrue(installed.isEmpty());
+
+        // Compacted periods are not compacted again
+        restore(ledger, old + HOUR + 1, deposit(100));
+        restore(ledger, old + HOUR + 2, deposit(100));
+
+        retention.compact(store, sequencer, journal);
+        retention.compact(store, sequencer, journal);
+
+        assertEquals(1, installed.size());
+        assertEquals(2, retention.stats().transactions());
+        assertEquals(8, ledger.size());
+    }
+
+    @Test
+    public void testLargePeriodIsRemovedInSlices() {
+        Ledger ledger = ledger();
+        int count = 2 * Retention.SLICE + 10;
+
+        for (int i = 0; i < count; i++) {
+            restore(ledger, old + i * 100, i % 5 == 0 ? withdrawal(3) : deposit(7));
+        }
+
+        long balance = ledger.balance();
+
+        retention(Map.of()).compact(store, sequencer, journal);
+
+        assertEquals(1, installed.size());
+        assertEquals(List.of(0L), applied);
+        assertEquals(2, ledger.size());
+        assertEquals(balance, ledger.balance());
+        assertEquals(balance, sum(ledger.all()));
+        assertEquals(count, retention.stats().transactions());
+    }
+
+    @Test
+    public void testReplacedTransactionsAreHiddenUntilDropped() {
+        Ledger ledger = ledger();
+        List<Map.Entry<UUID, Transaction>> originals = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            originals.add(restore(ledger, old + i * 1_000, deposit(100)));
+        }
+
+        long balance = ledger.balance();
+
+        retention(Map.of()).compact(store, sequencer, journal);
+
+        WalRecord.Compacted record = installed.getFirst();
+        Ledger swapped = new Ledger(new SkipListTransactionStore());
+
+        originals.forEach(entry -> swapped.restore(entry.getKey(), entry.getValue()));
+        swapped.summarise(record.first(), record.last(), record.summaries(), balance);
+
+        // Still in the store, but no read sees them
+        assertEquals(record.summaries(), swapped.all().toList());
+        assertEquals(record.summaries(), swapped.scan(record.first(), record.last()).toList());
+        assertEquals(balance, swapped.balance());
+
+        swapped.drop(record.first(), originals.get(2).getKey());
+        assertEquals(record.summaries(), swapped.all().toList());
+
+        swapped.drop(Ids.successor(originals.get(2).getKey()), record.last());
+        swapped.dropped();
+        assertEquals(record.summaries(), swapped.all().toList());
+        assertEquals(1, swapped.size());
+    }
+
+    @Test
+    public void testReplayIsIdempotent() {
+        Ledger ledger = ledger();
+        List<Map.Entry<UUID, Transaction>> originals = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            originals.add(restore(ledger, old + i * 1_000, i % 3 == 0 ? withdrawal(10) : deposit(100)));
+        }
+
+        retention(Map.of()).compact(store, sequencer, journal);
+
+        assertEquals(1, installed.size());
+
+        // Through the log encoding, like a replay or a follower
+        WalRecord.Compacted record = (WalRecord.Compacted) WalRecord
+                .decode(ByteBuffer.wrap(installed.getFirst().encode()));
+        List<Map.Entry<UUID, Transaction>> compacted = ledger.all().toList();
+        long balance = ledger.balance();
+
+        assertEquals(installed.getFirst(), record);
+
+        // Again over the compacted ledger, e.g. a snapshot taken after it
+        assertTrue(ledger.compact(record.first(), record.last(), record.summaries()));
+        assertState(ledger, compacted, balance);
+
+        // Over the transactions it replaces, the log replayed from before it
+        Ledger replayed = new Ledger(new SkipListTransactionStore());
+
+        originals.forEach(entry -> replayed.restore(entry.getKey(), entry.getValue()));
+        replayed.compact(record.first(), record.last(), record.summaries());
+        assertState(replayed, compacted, balance);
+        replayed.compact(record.first(), record.last(), record.summaries());
+        assertState(replayed, compacted, balance);
+
+        // Over a snapshot taken halfway, the summaries and some of the transactions
+        Ledger halfway = new Ledger(new SkipListTransactionStore());
+
+        record.summaries().forEach(entry -> halfway.restore(entry.getKey(), entry.getValue()));
+        originals.subList(6, 10).forEach(entry -> halfway.restore(entry.getKey(), entry.getValue()));
+        halfway.compact(record.first(), record.last(), record.summaries());
+        assertState(halfway, compacted, balance);
+    }
+
+    @Test
+    public void testArchiveMatchesDroppedRows() throws IOException {
+        Ledger ledger = ledger();
+        List<Map.Entry<UUID, Transaction>> dropped = new ArrayList<>();
+
+        for (int hour = 0; hour < 3; hour++) {
+            for (int i = 0; i < 300; i++) {
+                dropped.add(restore(ledger, old + hour * HOUR + i * 10, i % 4 == 0 ? withdrawal(1) : deposit(5)));
+            }
+        }
+
+        // Alone in its period, not compacted so not archived
+        restore(ledger, old + 3 * HOUR + 1, deposit(5));
+
+        Path archive = data.resolve("archive");
+
+        retention(Map.of("ledger.retention.archive", archive.toString())).compact(store, sequencer, journal);
+
+        assertEquals(3, installed.size());
+
+        List<Path> files;
+
+        try (Stream<Path> listing = Files.list(archive)) {
+            files = listing.toList();
+        }
+
+        assertEquals(1, files.size());
+        assertTrue(files.getFirst().getFileName().toString().startsWith(key.id() + "-EUR-"));
+        assertTrue(files.getFirst().getFileName().toString().endsWith(".archive"));
+        assertEquals(dropped, ColdSegment.read(files.getFirst(), EUR));
+    }
+
+    @Test
+    public void testPeriodMustBeWholeHours() {
+        assertThrows(IllegalStateException.class, () -> retention(Map.of("ledger.retention.period", "30m")));
+        assertThrows(IllegalStateException.class, () -> retention(Map.of("ledger.retention.period", "90m")));
+    }
+
+    private Retention retention(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>(TestConfig.under(data));
+
+        properties.put("ledger.retention.enabled", "true");
+        properties.put("ledger.retention.keep", "1d");
+        properties.put("ledger.retention.period", "1h");
+        properties.putAll(overrides);
+
+        LedgerConfig config = TestConfig.of(properties);
+
+        retention = new Retention(config.retention());
+
+        return retention;
+    }
+
+    private Ledger ledger() {
+        Ledger ledger = new Ledger(new SkipListTransactionStore());
+
+        store.put(key, ledger);
+
+        return ledger;
+    }
+
+    // A transaction with a UUIDv7 of the given time, ids increase with the calls
+    private Map.Entry<UUID, Transaction> restore(Ledger ledger, long millis, Transaction transaction) {
+        UUID id = new UUID(millis << 16 | 0x7000 | (sequence++ & 0xFFF), Long.MIN_VALUE | 42);
+
+        assertTrue(ledger.restore(id, transaction));
+
+        return Map.entry(id, transaction);
+    }
+
+    private static void assertSummary(Map.Entry<UUID, Transaction> entry, Transaction.Operation operation,
+            long amount, String description, long start) {
+        assertEquals(operation, entry.getValue().operation());
+        assertEquals(amount, entry.getValue().amount());
+        assertEquals("COMPACTED", entry.getValue().reference());
+        assertTrue(entry.getValue().description().startsWith(description), entry.getValue().description());
+        assertTrue(entry.getValue().description().contains(Instant.ofEpochMilli(start).toString()));
+    }
+
+    private static void assertState(Ledger ledger, List<Map.Entry<UUID, Transaction>> history, long balance) {
+        assertEquals(history, ledger.all().toList());
+        assertEquals(balance, ledger.balance());
+        assertEquals(history.size(), ledger.size());
+        assertEquals(balance, ledger.balanceBefore(Long.MAX_VALUE));
+    }
+
+    private static long sum(Stream<Map.Entry<UUID, Transaction>> entries) {
+        try (entries) {
+            return entries.mapToLong(entry -> entry.getValue().signedAmount()).sum();
+        }
+    }
+
+    private static Transaction deposit(long amount) {
+        return new Transaction(Transaction.Operation.DEPOSIT, amount, "Deposit", "REF", EUR);
+    }
+
+    private static Transaction withdrawal(long amount) {
+        return new Transaction(Transaction.Operation.WITHDRAWAL, amount, "Withdrawal", "REF", EUR);
+    }
+}
@@ -0,0 +1,172 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.exception.LedgerBusyException;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+
+public class SequencerTest {
+    private final LedgerKey key = new LedgerKey(UUID.randomUUID(), Currency.of("EUR"));
+
+    // One writer, two slots
+    private final Sequencer sequencer = new Sequencer(1, 2);
+
+    private final CountDownLatch running = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        sequencer.close();
+    }
+
+    @Test
+    public void testFullRingFailsFast() throws InterruptedException {
+        fill();
+
+        long started = System.nanoTime();
+
+        assertThrows(LedgerBusyException.class, () -> sequencer.submit(key, () -> "refused"));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(100));
+
+        // Room again once the writer moves on
+        release.countDown();
+
+        assertEquals("accepted", sequencer.submitOrWait(key, () -> "accepted").join());
+    }
+
+    @Test
+    public void testSubmitOrWaitParksForRoom() throws InterruptedException {
+        fill();
+
+        Thread.ofPlatform().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            release.countDown();
+        });
+
+        assertEquals("accepted", sequencer.submitOrWait(key, () -> "accepted").join());
+    }
+
+    @Test
+    public void testSubmitOrWaitGivesUp() throws InterruptedException {
+        fill();
+
+        assertThrows(LedgerBusyException.class, () -> sequencer.submitOrWait(key, () -> "refused"));
+    }
+
+    @Test
+    public void testLentLedgerHoldsUpNoOtherLedger() throws Exception {
+        try (Sequencer two = new Sequencer(2, 64)) {
+            LedgerKey lent = onShard(0);
+            LedgerKey other = onShard(0);
+            LedgerKey higher = onShard(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+
+            // The writer of the higher shard is busy, the transfer waits for it
+            two.submit(higher, () -> {
+                running.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return null;
+            });
+            running.await();
+
+            CompletableFuture<?> transfer = two.submit(lent, higher, () -> order.add("transfer"));
+
+            // The lower writer still runs the other ledgers of its shard
+            assertEquals("other", two.submit(other, () -> "other").get(5, TimeUnit.SECONDS));
+
+            // but keeps what comes for the lent ledger until it is given back
+            CompletableFuture<?> after = two.submit(lent, () -> order.add("after"));
+
+            Thread.sleep(50);
+
+            assertFalse(transfer.isDone() || after.isDone());
+
+            release.countDown();
+            after.get(5, TimeUnit.SECONDS);
+
+            assertTrue(transfer.isDone());
+            assertEquals(List.of("transfer", "after"), order);
+        }
+    }
+
+    @Test
+    public void testTransfersBothWays() throws Exception {
+        try (Sequencer two = new Sequencer(2, 4096)) {
+            LedgerKey a = onShard(0);
+            LedgerKey b = onShard(1);
+            long[] writes = new long[1];
+            List<CompletableFuture<?>> done = new ArrayList<>();
+
+            // A is written by both writers, never by two at once: no write is lost
+            for (int i = 0; i < 500; i++) {
+                done.add(two.submit(a, b, () -> writes[0]++));
+                done.add(two.submit(b, a, () -> writes[0]++));
+                done.add(two.submit(a, () -> writes[0]++));
+            }
+
+            CompletableFuture.allOf(done.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+            assertEquals(1_500, two.submit(a, () -> writes[0]).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    // A key the sequencer maps to the given shard of two
+    private static LedgerKey onShard(int shard) {
+        while (true) {
+            LedgerKey key = new LedgerKey(UUID.randomUUID(), Currency.of("EUR"));
+
+            if (Math.floorMod(key.hashCode(), 2) == shard) {
+                return key;
+            }
+        }
+    }
+
+    // Holds the writer, then takes every slot of the ring
+    private void fill() throws InterruptedException {
+        sequencer.submit(key, () -> {
+            running.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return null;
+        });
+        running.await();
+
+        CompletableFuture<?> first = sequencer.submit(key, () -> null);
+        CompletableFuture<?> second = sequencer.submit(key, () -> null);
+
+        assertTrue(!first.isDone() && !second.isDone());
+    }
+}
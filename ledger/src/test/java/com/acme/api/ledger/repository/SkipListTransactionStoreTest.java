@@ -0,0 +1,130 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.Transaction;
+import com.fasterxml.uuid.NoArgGenerator;
+import com.fasterxml.uuid.UUIDType;
+
+public class SkipListTransactionStoreTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    @Test
+    public void testSortedEntriesViews() {
+        List<Map.Entry<UUID, Transaction>> entries = entries(10);
+        SkipListTransactionStore.SortedEntries sorted = new SkipListTransactionStore.SortedEntries(entries);
+
+        assertEquals(entries.getFirst().getKey(), sorted.firstKey());
+        assertEquals(entries.getLast().getKey(), sorted.lastKey());
+
+        SortedMap<UUID, Transaction> sub = sorted.subMap(entries.get(2).getKey(), entries.get(5).getKey());
+
+        assertEquals(List.of(entries.get(2).getKey(), entries.get(3).getKey(), entries.get(4).getKey()),
+                List.copyOf(sub.keySet()));
+        assertEquals(entries.get(2).getKey(), sub.firstKey());
+        assertEquals(entries.get(4).getKey(), sub.lastKey());
+
+        assertEquals(3, sorted.headMap(entries.get(3).getKey()).size());
+        assertEquals(7, sorted.tailMap(entries.get(3).getKey()).size());
+        assertEquals(1, sub.headMap(entries.get(3).getKey()).size());
+
+        // Keys between two entries fall on the next one
+        UUID between = new UUID(entries.get(6).getKey().getMostSignificantBits() - 1, 0);
+
+        assertEquals(entries.get(6).getKey(), sorted.tailMap(between).firstKey());
+        assertTrue(sorted.tailMap(new UUID(Long.MAX_VALUE, Long.MAX_VALUE)).isEmpty());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> sorted.subMap(entries.get(5).getKey(), entries.get(2).getKey()));
+        assertThrows(UnsupportedOperationException.class, () -> sorted.entrySet().iterator().remove());
+    }
+
+    @Test
+    public void testLoadIntoEmptyStore() {
+        SkipListTransactionStore store = new SkipListTransactionStore();
+        List<Map.Entry<UUID, Transaction>> entries = entries(1000);
+
+        store.load(entries);
+
+        assertEquals(1000, store.size());
+        assertEquals(entries.getLast().getKey(), store.last());
+        assertEquals(entries.subList(100, 201),
+                store.range(entries.get(100).getKey(), entries.get(200).getKey()).toList());
+
+        // Appends go on after the loaded ids
+        UUID appended = store.append(transaction(1), id -> {
+        });
+
+        assertNotNull(appended);
+        assertTrue(appended.compareTo(entries.getLast().getKey()) > 0);
+        assertEquals(1001, store.size());
+    }
+
+    @Test
+    public void testLoadIntoStoreWithTransactions() {
+        SkipListTransactionStore store = new SkipListTransactionStore();
+
+        store.append(transaction(1), id -> {
+        });
+
+        List<Map.Entry<UUID, Transaction>> entries = entries(10);
+
+        store.load(entries);
+
+        assertEquals(11, store.size());
+    }
+
+    @Test
+    public void testTakenIdIsNotLogged() {
+        UUID taken = entries(1).getFirst().getKey();
+        SkipListTransactionStore store = new SkipListTransactionStore(new NoArgGenerator() {
+            @Override
+            public UUIDType getType() {
+                return UUIDType.TIME_BASED_EPOCH;
+            }
+
+            @Override
+            public UUID generate() {
+                return taken;
+            }
+        });
+        List<UUID> logged = new ArrayList<>();
+
+        assertTrue(store.put(taken, transaction(1)));
+        assertNull(store.append(transaction(2), logged::add));
+
+        // Replay must not find a record the store turned down
+        assertTrue(logged.isEmpty());
+        assertEquals(1, store.size());
+        assertEquals(1, store.range(taken, taken).findFirst().orElseThrow().getValue().amount());
+    }
+
+    // Ids increasing by one millisecond from an hour ago
+    static List<Map.Entry<UUID, Transaction>> entries(int count) {
+        long millis = System.currentTimeMillis() - 3_600_000;
+        List<Map.Entry<UUID, Transaction>> entries = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            entries.add(Map.entry(new UUID((millis + i) << 16 | 0x7000, Long.MIN_VALUE), transaction(i + 1)));
+        }
+
+        return entries;
+    }
+
+    static Transaction transaction(long amount) {
+        return new Transaction(Transaction.Operation.DEPOSIT, amount, "Deposit " + amount, "REF-" + amount, EUR);
+    }
+}
@@ -0,0 +1,318 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class SnapshotsTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final Currency USD = Currency.of("USD");
+
+    @TempDir
+    Path data;
+
+    private final Map<LedgerKey, Ledger> store = new HashMap<>();
+
+    private final Map<LedgerKey, Ledger> loaded = new ConcurrentHashMap<>();
+
+    private int references;
+
+    @AfterEach
+    public void tearDown() {
+        store.values().forEach(Ledger::close);
+        loaded.values().forEach(Ledger::close);
+    }
+
+    @Test
+    public void testWriteAndRestore() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            Currency currency = i % 2 == 0 ? EUR : USD;
+            Ledger ledger = ledger(new LedgerKey(UUID.randomUUID(), currency));
+
+            for (int j = 0; j < i * 10; j++) {
+                ledger.restore(id(j), j % 5 == 4
+                        ? withdrawal(1, currency)
+                        : deposit(100 + j, "Déposé " + j, currency));
+            }
+        }
+
+        // An account without transactions is restored too
+        ledger(new LedgerKey(UUID.randomUUID(), EUR));
+
+        Snapshots snapshots = new Snapshots(data.resolve("snapshots"), 3);
+
+        snapshots.write(1_234, store);
+
+        assertEquals(1_234, snapshots.load(this::loaded));
+        assertSameStore();
+
+        // A newer snapshot replaces the older one
+        snapshots.write(5_678, store);
+
+        assertEquals(1, snapshots().size());
+        loaded.clear();
+
+        assertEquals(5_678, new Snapshots(data.resolve("snapshots"), 3).load(this::loaded));
+        assertSameStore();
+    }
+
+    @Test
+    public void testLaterLogRecordsAreReplayedOnTop() throws IOException {
+        Path crashed = data.resolve("crashed");
+        Map<String, String> snapshotsOn = Map.of("ledger.snapshot.enabled", "true");
+        LedgerKey eur = new LedgerKey(UUID.randomUUID(), EUR);
+        LedgerKey usd = new LedgerKey(eur.id(), USD);
+        Map<LedgerKey, List<Map.Entry<UUID, Transaction>>> history = new HashMap<>();
+        long offset;
+
+        try (WriteAheadLogTest.Repository repository = new WriteAheadLogTest.Repository(data,
+                LedgerConfig.Durability.SYNC, snapshotsOn)) {
+            repository.store.save(eur);
+            repository.store.save(usd);
+
+            for (int i = 0; i < 10; i++) {
+                repository.store.add(eur, deposit(100 + i, "Before"));
+            }
+
+            repository.store.snapshot();
+            offset = offsetOf(snapshots().getFirst());
+
+            // Taken at the end of the log, nothing was in flight
+            assertTrue(offset > 0);
+
+            for (int i = 0; i < 10; i++) {
+                repository.store.add(eur, deposit(200 + i, "After"));
+                repository.store.add(usd, deposit(300 + i, "After", USD));
+            }
+
+            for (LedgerKey key : List.of(eur, usd)) {
+                try (Stream<Map.Entry<UUID, Transaction>> transactions = repository.store.transactions(key)) {
+                    history.put(key, transactions.toList());
+                }
+            }
+
+            // Killed here: the image has the snapshot and the whole log, the
+            // shutdown snapshot is never taken
+            copy(data.resolve("wal"), crashed.resolve("wal"));
+            copy(snapshots().getFirst(), crashed.resolve("snapshots").resolve(snapshots().getFirst().getFileName()));
+        }
+
+        // Only what came after the snapshot is replayed
+        AtomicInteger replayed = new AtomicInteger();
+
+        try (WriteAheadLog wal = new WriteAheadLog(crashed.resolve("wal"), LedgerConfig.Durability.SYNC, 1 << 20,
+                Duration.ofMillis(10))) {
+            wal.replay(offset, _ -> replayed.incrementAndGet());
+        }
+
+        assertEquals(20, replayed.get());
+
+        try (WriteAheadLogTest.Repository repository = new WriteAheadLogTest.Repository(crashed,
+                LedgerConfig.Durability.SYNC, snapshotsOn)) {
+            for (LedgerKey key : List.of(eur, usd)) {
+                try (Stream<Map.Entry<UUID, Transaction>> transactions = repository.store.transactions(key)) {
+                    assertEquals(history.get(key), transactions.toList());
+                }
+
+                assertEquals(sum(history.get(key)), repository.store.balance(key));
+            }
+
+            // The next snapshot covers the appends made since the restart
+            repository.store.add(eur, deposit(1, "Restarted"));
+            repository.store.snapshot();
+
+            assertTrue(offsetOf(snapshots(crashed.resolve("snapshots")).getFirst()) > offset);
+        }
+    }
+
+    @Test
+    public void testRecordsInFlightAreReplayedAgain() throws IOException {
+        LedgerKey key = new LedgerKey(UUID.randomUUID(), EUR);
+        Ledger ledger = ledger(key);
+        List<Long> offsets = new ArrayList<>();
+
+        try (WriteAheadLog wal = new WriteAheadLog(data.resolve("wal"), LedgerConfig.Durability.SYNC, 1 << 20,
+                Duration.ofMillis(10))) {
+            wal.replay(0, _ -> {
+            });
+            wal.applied(wal.append(new WalRecord.LedgerCreated(key)));
+
+            for (int i = 0; i < 6; i++) {
+                Transaction transaction = deposit(10 + i, "Deposit");
+                UUID id = id(i);
+
+                offsets.add(wal.append(new WalRecord.TransactionAppended(key, id, transaction)));
+                ledger.restore(id, transaction);
+            }
+
+            // The third one is still in flight: a snapshot taken now has every
+            // transaction but covers the log from the third on
+            for (int i = 0; i < offsets.size(); i++) {
+                if (i != 2) {
+                    wal.applied(offsets.get(i));
+                }
+            }
+
+            assertEquals(offsets.get(2), wal.recoveryPoint());
+
+            new Snapshots(data.resolve("snapshots"), 2).write(wal.recoveryPoint(), store);
+
+            wal.applied(offsets.get(2));
+        }
+
+        // Replaying the log past the snapshot puts nothing twice
+        try (WriteAheadLogTest.Repository repository = new WriteAheadLogTest.Repository(data,
+                LedgerConfig.Durability.SYNC, Map.of("ledger.snapshot.enabled", "true"))) {
+            try (Stream<Map.Entry<UUID, Transaction>> transactions = repository.store.transactions(key)) {
+                assertEquals(ledger.all().toList(), transactions.toList());
+            }
+
+            assertEquals(ledger.balance(), repository.store.balance(key));
+        }
+    }
+
+    @Test
+    public void testCorruptOrPartialSnapshot() throws IOException {
+        Ledger ledger = ledger(new LedgerKey(UUID.randomUUID(), EUR));
+
+        for (int i = 0; i < 100; i++) {
+            ledger.restore(id(i), deposit(100 + i, "Deposit"));
+        }
+
+        Snapshots snapshots = new Snapshots(data.resolve("snapshots"), 1);
+
+        snapshots.write(42, store);
+
+        Path shard;
+
+        try (Stream<Path> files = Files.list(snapshots().getFirst())) {
+            shard = files.toList().getFirst();
+        }
+
+        byte[] good = Files.readAllBytes(shard);
+
+        // A byte flipped in the middle of the transactions fails the checksum
+        byte[] flipped = good.clone();
+
+        flipped[good.length / 2] ^= 0x01;
+        Files.write(shard, flipped);
+
+        assertThrows(IllegalStateException.class, () -> snapshots.load(this::loaded));
+
+        // Cut short, like a disk that lost the end of it
+        Files.write(shard, Arrays.copyOf(good, good.length - 10));
+
+        assertThrows(IllegalStateException.class, () -> new Snapshots(data.resolve("snapshots"), 1).load(this::loaded));
+
+        // A snapshot that was still being written when the process died is
+        // left aside, the complete one is loaded and the other one deleted
+        Path partial = data.resolve("snapshots").resolve("snapshot-00000000000000000099-00000000000000000000.tmp");
+
+        Files.write(shard, good);
+        Files.createDirectories(partial);
+        Files.write(partial.resolve("shard-0000.bin"), new byte[] { 1, 2, 3 });
+        loaded.clear();
+
+        assertEquals(42, snapshots.load(this::loaded));
+        assertSameStore();
+
+        snapshots.write(43, store);
+
+        assertEquals(1, snapshots().size());
+        assertTrue(Files.notExists(partial));
+    }
+
+    private Ledger ledger(LedgerKey key) {
+        Ledger ledger = new Ledger(new SkipListTransactionStore());
+
+        store.put(key, ledger);
+
+        return ledger;
+    }
+
+    private Ledger loaded(LedgerKey key) {
+        return loaded.computeIfAbsent(key, _ -> new Ledger(new SkipListTransactionStore()));
+    }
+
+    private void assertSameStore() {
+        assertEquals(store.keySet(), loaded.keySet());
+
+        store.forEach((key, ledger) -> {
+            assertEquals(ledger.all().toList(), loaded.get(key).all().toList());
+            assertEquals(ledger.balance(), loaded.get(key).balance());
+            assertEquals(ledger.size(), loaded.get(key).size());
+        });
+    }
+
+    private List<Path> snapshots() throws IOException {
+        return snapshots(data.resolve("snapshots"));
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        try (Stream<Path> dirs = Files.list(directory)) {
+            return dirs.filter(path -> path.getFileName().toString().startsWith("snapshot-")).sorted().toList();
+        }
+    }
+
+    private Transaction deposit(long amount, String description) {
+        return deposit(amount, description, EUR);
+    }
+
+    private Transaction deposit(long amount, String description, Currency currency) {
+        return new Transaction(Transaction.Operation.DEPOSIT, amount, description, "REF-" + references++, currency);
+    }
+
+    private Transaction withdrawal(long amount, Currency currency) {
+        return new Transaction(Transaction.Operation.WITHDRAWAL, amount, "Withdrawal", "REF-" + references++,
+                currency);
+    }
+
+    // UUIDv7 ids a millisecond apart from an hour ago
+    private static UUID id(int i) {
+        return new UUID((System.currentTimeMillis() - 3_600_000 + i) << 16 | 0x7000, Long.MIN_VALUE | i);
+    }
+
+    private static long offsetOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+
+        return Long.parseLong(name.substring("snapshot-".length(), name.indexOf('-', "snapshot-".length())));
+    }
+
+    private static long sum(List<Map.Entry<UUID, Transaction>> entries) {
+        return entries.stream().mapToLong(entry -> entry.getValue().signedAmount()).sum();
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class TieredTransactionStoreTest {
+    private static final UUID FIRST = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+
+    private static final UUID LAST = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    @TempDir
+    Path cold;
+
+    private final LedgerKey key = new LedgerKey(UUID.randomUUID(), Currency.of("EUR"));
+
+    private final List<AutoCloseable> closed = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : closed) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    public void testPrepareAndComplete() {
+        TieredTransactionStore store = store();
+        // An hour ago, a millisecond apart
+        List<Map.Entry<UUID, Transaction>> old = SkipListTransactionStoreTest.entries(1_000);
+
+        old.forEach(entry -> store.put(entry.getKey(), entry.getValue()));
+
+        List<UUID> recent = append(store, 10);
+        long heap = store.estimatedBytes();
+
+        TieredTransactionStore.Demotion demotion = store.prepare(halfAnHourAgo(), ColdSegment.BLOCK_ENTRIES);
+
+        assertNotNull(demotion);
+        assertEquals(1_000, demotion.segment().size());
+        assertEquals(1, segments().size());
+
+        // Nothing changes for readers until it completes, appends go on
+        assertEquals(0, store.coldBytes());
+        recent.addAll(append(store, 5));
+
+        store.complete(demotion);
+
+        assertEquals(1_015, store.size());
+        assertTrue(store.coldBytes() > 0);
+        assertTrue(store.estimatedBytes() < heap);
+        assertEquals(recent.getLast(), store.last());
+
+        // The transactions appended between prepare and complete are in the hot tier
+        assertEquals(recent, ids(store.range(successor(old.getLast().getKey()), LAST)));
+
+        // Cold only, across both tiers, hot only
+        assertEquals(old.subList(100, 201), store.range(old.get(100).getKey(), old.get(200).getKey()).toList());
+        assertEquals(old.subList(990, 1_000), store.range(old.get(990).getKey(), recent.get(3)).limit(10).toList());
+        assertEquals(recent.subList(0, 4), ids(store.range(old.get(990).getKey(), recent.get(3)).skip(10)));
+        assertEquals(recent.subList(2, 6), ids(store.range(recent.get(2), recent.get(5))));
+
+        List<Map.Entry<UUID, Transaction>> all = store.range(FIRST, LAST).toList();
+
+        assertEquals(old, all.subList(0, 1_000));
+        assertEquals(recent, ids(all.subList(1_000, all.size()).stream()));
+    }
+
+    @Test
+    public void testSeveralSegments() {
+        TieredTransactionStore store = store();
+        List<Map.Entry<UUID, Transaction>> old = SkipListTransactionStoreTest.entries(2_000);
+
+        // Demoted in two steps, the first thousand then the rest
+        old.subList(0, 1_000).forEach(entry -> store.put(entry.getKey(), entry.getValue()));
+        store.complete(store.prepare(successor(old.get(999).getKey()), 1));
+        old.subList(1_000, 2_000).forEach(entry -> store.put(entry.getKey(), entry.getValue()));
+        store.complete(store.prepare(halfAnHourAgo(), 1));
+
+        List<UUID> recent = append(store, 3);
+
+        assertEquals(2, segments().size());
+        assertEquals(2_003, store.size());
+        assertEquals(old.subList(500, 1_501), store.range(old.get(500).getKey(), old.get(1_500).getKey()).toList());
+        assertEquals(old, store.range(FIRST, recent.getFirst()).limit(2_000).toList());
+
+        // Compaction may only touch the hot tier
+        assertEquals(successor(old.getLast().getKey()), store.removableFrom());
+
+        store.remove(store.removableFrom(), LAST, Set.of(recent.get(1)));
+
+        assertEquals(2_001, store.size());
+        assertEquals(recent.get(1), store.last());
+
+        // Closing deletes the segment files
+        store.close();
+
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    public void testTooFewToDemote() {
+        TieredTransactionStore store = store();
+
+        SkipListTransactionStoreTest.entries(100).forEach(entry -> store.put(entry.getKey(), entry.getValue()));
+        append(store, 1_000);
+
+        assertNull(store.prepare(halfAnHourAgo(), ColdSegment.BLOCK_ENTRIES));
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    public void testAbort() {
+        TieredTransactionStore store = store();
+        List<Map.Entry<UUID, Transaction>> old = SkipListTransactionStoreTest.entries(500);
+
+        old.forEach(entry -> store.put(entry.getKey(), entry.getValue()));
+
+        TieredTransactionStore.Demotion demotion = store.prepare(halfAnHourAgo(), 1);
+
+        store.abort(demotion);
+
+        assertTrue(segments().isEmpty());
+        assertEquals(0, store.coldBytes());
+        assertEquals(old, store.range(FIRST, LAST).toList());
+
+        // A demotion completed from tiers that changed since it was prepared is refused
+        TieredTransactionStore.Demotion again = store.prepare(halfAnHourAgo(), 1);
+
+        store.complete(again);
+
+        assertThrows(IllegalStateException.class, () -> store.complete(again));
+        assertEquals(old, store.range(FIRST, LAST).toList());
+    }
+
+    @Test
+    public void testDemoteOverBudget() {
+        Map<String, String> properties = new HashMap<>();
+
+        properties.put("ledger.tiering.enabled", "true");
+        properties.put("ledger.tiering.directory", cold.toString());
+        properties.put("ledger.tiering.heap-budget", "1K");
+        properties.put("ledger.tiering.keep-recent", "30m");
+
+        Tiering tiering = new Tiering(TestConfig.of(properties).tiering());
+        Sequencer sequencer = new Sequencer(1, 64);
+        Map<LedgerKey, Ledger> store = new ConcurrentHashMap<>();
+        Ledger ledger = new Ledger(tiering.newStore(key));
+        List<Map.Entry<UUID, Transaction>> old = SkipListTransactionStoreTest.entries(1_000);
+
+        closed.add(sequencer);
+        closed.add(ledger);
+        store.put(key, ledger);
+        old.forEach(entry -> ledger.restore(entry.getKey(), entry.getValue()));
+
+        long balance = ledger.balance();
+
+        tiering.demote(store, sequencer);
+
+        assertEquals(1, segments().size());
+        assertTrue(ledger.tiered().coldBytes() > 0);
+        assertEquals(old, ledger.all().toList());
+        assertEquals(balance, ledger.balance());
+
+        // Nothing old enough is left, the next pass leaves it alone
+        tiering.demote(store, sequencer);
+
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    public void testRestartDeletesStaleSegments() throws IOException {
+        Files.write(cold.resolve("stale-EUR-00000.seg"), new byte[] { 1, 2, 3 });
+        Files.write(cold.resolve("stale-EUR-00001.seg"), new byte[] { 4, 5, 6 });
+        Files.write(cold.resolve("notes.txt"), new byte[] { 7 });
+        // Retention may archive to the same directory
+        Files.write(cold.resolve("stale-EUR-1767225600000.archive"), new byte[] { 8 });
+
+        Map<String, String> properties = new HashMap<>();
+
+        properties.put("ledger.tiering.directory", cold.toString());
+
+        new Tiering(TestConfig.of(properties).tiering());
+
+        // The snapshot and the log have everything, segments are rebuilt from them
+        assertTrue(segments().isEmpty());
+        assertTrue(Files.exists(cold.resolve("notes.txt")));
+        assertTrue(Files.exists(cold.resolve("stale-EUR-1767225600000.archive")));
+    }
+
+    private TieredTransactionStore store() {
+        TieredTransactionStore store = new TieredTransactionStore(key, cold);
+
+        closed.add(store);
+
+        return store;
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(cold)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).toList();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Appended now, so younger than any cutoff
+    private static List<UUID> append(TieredTransactionStore store, int count) {
+        List<UUID> ids = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            ids.add(store.append(SkipListTransactionStoreTest.transaction(i + 1), id -> {
+            }));
+        }
+
+        return ids;
+    }
+
+    private static List<UUID> ids(Stream<Map.Entry<UUID, Transaction>> entries) {
+        try (entries) {
+            return entries.map(Map.Entry::getKey).toList();
+        }
+    }
+
+    // Lowest UUIDv7 of half an hour ago, between the old entries and the appended ones
+    private static UUID halfAnHourAgo() {
+        return new UUID((System.currentTimeMillis() - 1_800_000) << 16 | 0x7000, Long.MIN_VALUE);
+    }
+
+    private static UUID successor(UUID id) {
+        return new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits() + 1);
+    }
+}
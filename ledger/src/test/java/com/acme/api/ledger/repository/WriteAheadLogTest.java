@@ -0,0 +1,351 @@
+package com.acme.api.ledger.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.acme.api.ledger.config.LedgerConfig;
+import com.acme.api.ledger.config.TestConfig;
+import com.acme.api.ledger.model.CommitResult;
+import com.acme.api.ledger.model.Currency;
+import com.acme.api.ledger.model.LedgerKey;
+import com.acme.api.ledger.model.Transaction;
+
+public class WriteAheadLogTest {
+    private static final Currency EUR = Currency.of("EUR");
+
+    private static final Currency USD = Currency.of("USD");
+
+    @TempDir
+    Path data;
+
+    private final UUID id = UUID.randomUUID();
+
+    private final LedgerKey eur = new LedgerKey(id, EUR);
+
+    private final LedgerKey usd = new LedgerKey(id, USD);
+
+    private int references;
+
+    @ParameterizedTest
+    @EnumSource(LedgerConfig.Durability.class)
+    public void testReplayAfterKill(LedgerConfig.Durability durability) throws Exception {
+        Path crashed = data.resolve("crashed");
+        Map<LedgerKey, List<Map.Entry<UUID, Transaction>>> history;
+        Map<LedgerKey, Long> balances;
+
+        try (Repository repository = new Repository(data, durability)) {
+            write(repository.store);
+
+            // Async commits return before the flusher ticks, give it a few
+            if (durability == LedgerConfig.Durability.ASYNC) {
+                Thread.sleep(500);
+            }
+
+            history = history(repository.store);
+            balances = balances(repository.store);
+
+            // What the disk holds if the process died right now, closing the
+            // repository would flush whatever is still buffered
+            copy(data.resolve("wal"), crashed.resolve("wal"));
+        }
+
+        try (Repository repository = new Repository(crashed, durability)) {
+            assertEquals(history, history(repository.store));
+            assertEquals(balances, balances(repository.store));
+
+            // Appends carry on after the replayed log
+            repository.store.add(eur, deposit(eur, 1));
+        }
+
+        try (Repository repository = new Repository(crashed, durability)) {
+            assertEquals(history.get(eur).size() + 1, repository.store.transactions(eur).count());
+            assertEquals(balances.get(eur) + 1, repository.store.balance(eur));
+        }
+    }
+
+    @Test
+    public void testTruncatedFinalFrame() throws IOException {
+        List<Map.Entry<UUID, Transaction>> history;
+
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.SYNC)) {
+            write(repository.store);
+            history = history(repository.store).get(eur);
+        }
+
+        // Torn in the middle of the last record, an EUR deposit
+        Path segment = lastSegment();
+        long size = Files.size(segment);
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.SYNC)) {
+            List<Map.Entry<UUID, Transaction>> replayed = history(repository.store).get(eur);
+
+            assertEquals(history.subList(0, history.size() - 1), replayed);
+            assertEquals(sum(replayed), repository.store.balance(eur));
+
+            repository.store.add(eur, deposit(eur, 5));
+        }
+
+        // Cut at the last whole record, the new one went right after it
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.SYNC)) {
+            assertEquals(history.size(), repository.store.transactions(eur).count());
+        }
+    }
+
+    @Test
+    public void testBadChecksum() throws IOException {
+        List<Map.Entry<UUID, Transaction>> history;
+
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.BATCH)) {
+            write(repository.store);
+            history = history(repository.store).get(eur);
+        }
+
+        Path segment = lastSegment();
+
+        flip(segment, Files.size(segment) - 1);
+
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.BATCH)) {
+            assertEquals(history.subList(0, history.size() - 1), history(repository.store).get(eur));
+        }
+    }
+
+    @Test
+    public void testCorruptionBeforeTheLastSegment() throws IOException {
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.SYNC,
+                Map.of("ledger.wal.segment-size", "1K"))) {
+            write(repository.store);
+        }
+
+        List<Path> segments;
+
+        try (Stream<Path> files = Files.list(data.resolve("wal"))) {
+            segments = files.sorted().toList();
+        }
+
+        assertTrue(segments.size() > 2, "segments: " + segments.size());
+
+        // Past the first frame header, in the body of a record
+        flip(segments.getFirst(), 20);
+
+        assertThrows(IllegalStateException.class, () -> new Repository(data, LedgerConfig.Durability.SYNC,
+                Map.of("ledger.wal.segment-size", "1K")).close());
+    }
+
+    @Test
+    public void testFailedSyncWriteStopsTheLog() throws IOException, InterruptedException {
+        Path directory = data.resolve("wal");
+
+        // One byte segments, every write rolls to a new file
+        try (WriteAheadLog wal = new WriteAheadLog(directory, LedgerConfig.Durability.SYNC, 1,
+                Duration.ofMillis(10))) {
+            wal.replay(0, _ -> {
+            });
+            wal.applied(wal.append(new WalRecord.LedgerCreated(eur)));
+
+            long recoveryPoint = wal.recoveryPoint();
+
+            delete(directory);
+
+            // Written, but the next segment cannot be created
+            assertThrows(UncheckedIOException.class, () -> wal.append(new WalRecord.LedgerCreated(usd)));
+            assertThrows(IllegalStateException.class, () -> wal.append(new WalRecord.LedgerCreated(usd)));
+            assertThrows(IllegalStateException.class, wal::recoveryPoint);
+            assertTrue(wal.flushed().isCompletedExceptionally());
+            assertEquals(recoveryPoint, wal.awaitDurable(recoveryPoint, Duration.ofSeconds(5).toNanos()));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = LedgerConfig.Durability.class, names = { "BATCH", "ASYNC" })
+    public void testFailedFlushStopsTheLog(LedgerConfig.Durability durability)
+            throws IOException, InterruptedException {
+        Path directory = data.resolve("wal");
+
+        try (WriteAheadLog wal = new WriteAheadLog(directory, durability, 1, Duration.ofMillis(10))) {
+            wal.replay(0, _ -> {
+            });
+            wal.applied(wal.append(new WalRecord.LedgerCreated(eur)));
+            wal.flushed().join();
+
+            delete(directory);
+
+            long offset = wal.append(new WalRecord.LedgerCreated(usd));
+
+            // Never acknowledged, and the log takes nothing after it
+            if (durability == LedgerConfig.Durability.BATCH) {
+                assertThrows(CompletionException.class, () -> wal.flushed().join());
+            }
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+
+            while (!wal.flushed().isCompletedExceptionally() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(wal.flushed().isCompletedExceptionally());
+            assertThrows(IllegalStateException.class, () -> wal.append(new WalRecord.LedgerCreated(usd)));
+            assertThrows(IllegalStateException.class, wal::recoveryPoint);
+            assertTrue(wal.awaitDurable(offset, 0) <= offset);
+        }
+    }
+
+    @Test
+    public void testFailedLogRefusesCommits() throws IOException {
+        try (Repository repository = new Repository(data, LedgerConfig.Durability.BATCH,
+                Map.of("ledger.wal.segment-size", "1"))) {
+            repository.store.save(eur);
+            repository.store.add(eur, deposit(eur, 100));
+
+            delete(data.resolve("wal"));
+
+            assertThrows(RuntimeException.class, () -> repository.store.add(eur, deposit(eur, 10)));
+            assertThrows(RuntimeException.class, () -> repository.store.add(eur, deposit(eur, 20)));
+
+            // The refused append left the ledger as it was
+            assertFalse(repository.store.balance(eur) > 110);
+        }
+    }
+
+    // Single commits, a batch and withdrawals in two currencies, the last record an EUR deposit
+    private void write(InMemoryLedgerRepository store) {
+        store.save(eur);
+        store.save(usd);
+
+        for (int i = 0; i < 20; i++) {
+            store.add(usd, deposit(usd, 100 + i));
+            store.add(eur, i % 4 == 3 ? withdrawal(eur, 50) : deposit(eur, 1_000 + i));
+        }
+
+        List<Transaction> batch = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            batch.add(deposit(usd, 10 + i));
+        }
+
+        assertTrue(store.addAll(usd, batch, true).stream()
+                .allMatch(result -> result.status() == CommitResult.Status.COMMITTED));
+
+        store.add(eur, deposit(eur, 42));
+    }
+
+    private Map<LedgerKey, List<Map.Entry<UUID, Transaction>>> history(InMemoryLedgerRepository store) {
+        Map<LedgerKey, List<Map.Entry<UUID, Transaction>>> history = new HashMap<>();
+
+        for (LedgerKey key : List.of(eur, usd)) {
+            try (Stream<Map.Entry<UUID, Transaction>> transactions = store.transactions(key)) {
+                history.put(key, transactions.toList());
+            }
+        }
+
+        return history;
+    }
+
+    private Map<LedgerKey, Long> balances(InMemoryLedgerRepository store) {
+        return Map.of(eur, store.balance(eur), usd, store.balance(usd));
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(data.resolve("wal"))) {
+            return files.sorted().toList().getLast();
+        }
+    }
+
+    private Transaction deposit(LedgerKey key, long amount) {
+        return new Transaction(Transaction.Operation.DEPOSIT, amount, "Deposit", "REF-" + references++,
+                key.currency());
+    }
+
+    private Transaction withdrawal(LedgerKey key, long amount) {
+        return new Transaction(Transaction.Operation.WITHDRAWAL, amount, "Withdrawal", "REF-" + references++,
+                key.currency());
+    }
+
+    private static long sum(List<Map.Entry<UUID, Transaction>> entries) {
+        return entries.stream().mapToLong(entry -> entry.getValue().signedAmount()).sum();
+    }
+
+    private static void flip(Path file, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+
+            channel.read(one, position);
+            one.put(0, (byte) (one.get(0) ^ 0xFF));
+            channel.write(one.rewind(), position);
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(directory);
+    }
+
+    /**
+     * A repository with the write-ahead log on under the given directory,
+     * snapshots and every background task off.
+     */
+    static final class Repository implements AutoCloseable {
+        final InMemoryLedgerRepository store;
+
+        Repository(Path data, LedgerConfig.Durability durability) {
+            this(data, durability, Map.of());
+        }
+
+        Repository(Path data, LedgerConfig.Durability durability, Map<String, String> overrides) {
+            Map<String, String> properties = new HashMap<>(TestConfig.under(data));
+
+            properties.put("ledger.wal.enabled", "true");
+            properties.put("ledger.wal.durability", durability.name().toLowerCase());
+            properties.put("ledger.wal.flush-interval", "10ms");
+            properties.putAll(overrides);
+
+            store = new InMemoryLedgerRepository(TestConfig.of(properties));
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+    }
+}
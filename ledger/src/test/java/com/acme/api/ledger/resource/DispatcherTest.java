@@ -0,0 +1,136 @@
+package com.acme.api.ledger.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.acme.api.ledger.config.TestConfig;
+
+import io.vertx.core.Vertx;
+
+public class DispatcherTest {
+    private final ExecutorService workers = Executors.newFixedThreadPool(1,
+            Thread.ofPlatform().name("test-worker").factory());
+
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        workers.shutdownNow();
+        virtualThreads.shutdownNow();
+    }
+
+    @Test
+    public void testEventLoopRunsInPlace() {
+        Dispatcher dispatcher = dispatcher("event-loop");
+        Thread caller = Thread.currentThread();
+
+        assertTrue(dispatcher.onEventLoop());
+        assertSame(caller, join(dispatcher.supply(Thread::currentThread)));
+
+        // Not even wrapped, the stage of the work is returned as is
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        assertSame(pending, dispatcher.dispatch(() -> pending));
+    }
+
+    @Test
+    public void testWorkerHopsToThePool() {
+        Dispatcher dispatcher = dispatcher("worker");
+
+        assertFalse(dispatcher.onEventLoop());
+        assertEquals("test-worker", join(dispatcher.supply(() -> Thread.currentThread().getName())));
+
+        // The stage returned by the work is flattened, its failure too
+        assertEquals("done", join(dispatcher.dispatch(() -> CompletableFuture.completedFuture("done"))));
+
+        CompletionException thrown = assertThrows(CompletionException.class,
+                () -> join(dispatcher.supply(() -> {
+                    throw new IllegalStateException("failed");
+                })));
+
+        assertInstanceOf(IllegalStateException.class, thrown.getCause());
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        Dispatcher dispatcher = dispatcher("virtual-threads");
+
+        assertFalse(dispatcher.onEventLoop());
+        assertTrue(join(dispatcher.supply(() -> Thread.currentThread().isVirtual())));
+    }
+
+    @Test
+    public void testScansNeverRunInPlace() {
+        // Not even on the event loop, they hop to the worker pool
+        assertEquals("test-worker",
+                join(dispatcher("event-loop").scan(() -> Thread.currentThread().getName())));
+        assertEquals("test-worker", join(dispatcher("worker").scan(() -> Thread.currentThread().getName())));
+        assertTrue(join(dispatcher("virtual-threads").scan(() -> Thread.currentThread().isVirtual())));
+    }
+
+    @Test
+    public void testResumeOnTheEventLoop() throws Exception {
+        Dispatcher dispatcher = dispatcher("event-loop");
+
+        // Outside Vert.x there is nothing to go back to
+        CompletableFuture<String> plain = new CompletableFuture<>();
+
+        assertSame(plain, dispatcher.resume(plain));
+
+        Vertx vertx = Vertx.vertx();
+
+        try {
+            CompletableFuture<String> stage = new CompletableFuture<>();
+            CompletableFuture<String> resumed = new CompletableFuture<>();
+            CompletableFuture<Thread> loop = new CompletableFuture<>();
+
+            vertx.runOnContext(_ -> {
+                loop.complete(Thread.currentThread());
+                dispatcher.resume(stage).thenAccept(value -> resumed.complete(
+                        value + " on " + Thread.currentThread().getName()));
+            });
+
+            // Completed by another thread, like the ledger writer would
+            Thread writer = Thread.ofPlatform().name("test-writer").start(() -> {
+                loop.join();
+                stage.complete("committed");
+            });
+
+            writer.join();
+
+            assertEquals("committed on " + loop.get(5, TimeUnit.SECONDS).getName(), get(resumed));
+        } finally {
+            vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private Dispatcher dispatcher(String mode) {
+        return new Dispatcher(TestConfig.of(Map.of("ledger.execution.mode", mode)), workers, virtualThreads);
+    }
+
+    private static <T> T join(CompletionStage<T> stage) {
+        return stage.toCompletableFuture().join();
+    }
+
+    private static <T> T get(CompletableFuture<T> future)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,60 @@
+package com.acme.api.ledger.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketsTest {
+    @Test
+    public void testKeysWithTheSameHashDoNotShare() {
+        // One token per second, a burst of 3
+        TokenBuckets<String> buckets = new TokenBuckets<>(1, 3, 16);
+
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, buckets.take("Aa"));
+        }
+
+        assertTrue(buckets.take("Aa") > 0);
+        assertEquals(0, buckets.take("BB"));
+    }
+
+    @Test
+    public void testRefund() {
+        TokenBuckets<String> buckets = new TokenBuckets<>(1, 2, 16);
+
+        assertEquals(0, buckets.take("client"));
+        assertEquals(0, buckets.take("client"));
+        assertTrue(buckets.take("client") > 0);
+
+        // The last token taken was given back
+        buckets.refund("client");
+
+        assertEquals(0, buckets.take("client"));
+        assertTrue(buckets.take("client") > 0);
+    }
+
+    @Test
+    public void testFullBucketsMakeRoom() throws InterruptedException {
+        // A token every millisecond, so buckets are full again quickly
+        TokenBuckets<Integer> buckets = new TokenBuckets<>(1_000, 1, 4);
+
+        for (int key = 0; key < 4; key++) {
+            assertEquals(0, buckets.take(key));
+        }
+
+        // No room yet, new keys share an overflow bucket with the keys of the same hash only
+        assertEquals(0, buckets.take(4));
+        assertTrue(buckets.take(4 + 64) > 0);
+        assertEquals(0, buckets.take(5));
+        assertEquals(4, buckets.size());
+
+        Thread.sleep(150);
+
+        // The first four are full again, the sweep drops them
+        assertEquals(0, buckets.take(6));
+        assertEquals(1, buckets.size());
+    }
+}
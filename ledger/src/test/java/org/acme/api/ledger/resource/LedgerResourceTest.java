@@ -3,18 +3,43 @@ package org.acme.api.ledger.resource;
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import com.acme.api.ledger.apispec.dto.BatchTransactionItem;
+import com.acme.api.ledger.apispec.dto.BatchTransactionRequest;
+import com.acme.api.ledger.mapper.BinaryCodec;
+
+import io.quarkus.test.common.http.TestHTTPResource;
 import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.path.json.config.JsonPathConfig;
+import io.restassured.path.json.config.JsonPathConfig.NumberReturnType;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.sse.SseEventSource;
 
 @QuarkusTest
 public class LedgerResourceTest {
 
+    @TestHTTPResource("/api/v1/ledgers/")
+    URI ledgers;
+
     @Test
     public void testLedgersEndpoint() {
         String id = given()
@@ -49,6 +74,175 @@ public class LedgerResourceTest {
         assertEquals("USD", currency);
     }
 
+    @Test
+    public void testBalanceOverflow() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // 92 of the largest amounts still fit in the balance, in cents
+        StringBuilder items = new StringBuilder();
+
+        for (int i = 0; i < 92; i++) {
+            items.append(i > 0 ? "," : "")
+                    .append("{\"type\":\"DEPOSIT\",\"value\":999999999999999.99,\"description\":\"Max\",")
+                    .append("\"reference\":\"MAX-").append(i).append("\"}");
+        }
+
+        given()
+                .contentType("application/json")
+                .body("{\"atomic\":true,\"transactions\":[" + items + "]}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(201);
+
+        // One more does not
+        given()
+                .contentType("application/json")
+                .body("{\"value\":999999999999999.99,\"description\":\"Max\",\"reference\":\"MAX-92\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(422);
+
+        // Beyond what a double holds exactly
+        BigDecimal balance = given()
+                .contentType("application/json")
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath(new JsonPathConfig(NumberReturnType.BIG_DECIMAL)).get("balance");
+
+        assertEquals(new BigDecimal("91999999999999999.08"), balance);
+    }
+
+    @Test
+    public void testAmountScale() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // Cents at most
+        given()
+                .contentType("application/json")
+                .body("{\"value\":10.005,\"description\":\"Dust\",\"reference\":\"DEP-EUR\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(400);
+
+        given()
+                .contentType("application/json")
+                .body("{\"currency\":\"JPY\"}")
+                .when().post("/api/v1/ledgers/" + id + "/currencies")
+                .then()
+                .statusCode(201);
+
+        // No minor unit at all for yen
+        given()
+                .contentType("application/json")
+                .body("{\"value\":12.50,\"description\":\"Dust\",\"reference\":\"DEP-JPY-1\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/JPY/deposit")
+                .then()
+                .statusCode(400);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":1500,\"description\":\"Salary\",\"reference\":\"DEP-JPY-2\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/JPY/deposit")
+                .then()
+                .statusCode(201);
+
+        Integer balance = given()
+                .contentType("application/json")
+                .when().get("/api/v1/ledgers/" + id + "/balance/JPY")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(1500, balance);
+    }
+
+    @Test
+    public void testLedgerAccountsEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"currency\":\"USD\"}")
+                .when().post("/api/v1/ledgers/" + id + "/currencies")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":25.50,\"description\":\"Salary\",\"reference\":\"DEP-USD\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/USD/deposit")
+                .then()
+                .statusCode(201);
+
+        List<String> currencies = given()
+                .when().get("/api/v1/ledgers/" + id)
+                .then()
+                .statusCode(200)
+                .extract().path("accounts.currency");
+
+        Float balance = given()
+                .when().get("/api/v1/ledgers/" + id)
+                .then()
+                .statusCode(200)
+                .extract().path("accounts[1].balance");
+
+        assertEquals(List.of("EUR", "USD"), currencies);
+        assertEquals(BigDecimal.valueOf(25.50), BigDecimal.valueOf(balance));
+
+        given()
+                .when().get("/api/v1/ledgers/" + UUID.randomUUID())
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    public void testAdmissionControl() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // The test profile allows 10 at once per ledger, then one per second
+        int admitted = 0;
+        ExtractableResponse<Response> throttled;
+
+        while ((throttled = given()
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .extract()).statusCode() == 200 && admitted < 100) {
+            admitted++;
+        }
+
+        assertTrue(admitted >= 10);
+        assertEquals(429, throttled.statusCode());
+        assertEquals("1", throttled.header("Retry-After"));
+        assertEquals(Integer.valueOf(1), throttled.path("retryAfter"));
+
+        // Other ledgers are not affected
+        given()
+                .when().get("/api/v1/ledgers/" + id + "/balance/USD")
+                .then()
+                .statusCode(404);
+    }
+
     @Test
     public void testAddDepositEndpoint() {
         String id = given()
@@ -75,6 +269,288 @@ public class LedgerResourceTest {
         assertEquals(BigDecimal.valueOf(1000.00), BigDecimal.valueOf(balance));
     }
 
+    @Test
+    public void testBalanceAfterWithdrawalEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":1000.00,\"description\":\"Salary\",\"reference\":\"DEP-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":250.50,\"description\":\"Crocery shopping\",\"reference\":\"WITH-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/withdrawal")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":750.00,\"description\":\"Overdraft\",\"reference\":\"WITH-002\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/withdrawal")
+                .then()
+                .statusCode(409);
+
+        Float balance = given()
+                .contentType("application/json")
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(BigDecimal.valueOf(749.50), BigDecimal.valueOf(balance));
+
+        Float before = given()
+                .contentType("application/json")
+                .queryParam("asOf", "2025-01-01T00:00:00Z")
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(0, BigDecimal.valueOf(before).signum());
+    }
+
+    @Test
+    public void testTransferEndpoint() {
+        String from = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String to = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"currency\":\"USD\"}")
+                .when().post("/api/v1/ledgers/" + to + "/currencies")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":100.00,\"description\":\"Funding\",\"reference\":\"DEP-TRF\"}")
+                .when().post("/api/v1/ledgers/" + from + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType("application/json")
+                .body("{\"to\":\"" + to + "\",\"currency\":\"USD\",\"value\":40.00,"
+                        + "\"description\":\"Rebalance\",\"reference\":\"TRF-001\"}")
+                .when().post("/api/v1/ledgers/" + from + "/transactions/EUR/transfer")
+                .then()
+                .statusCode(400);
+
+        Float credited = given()
+                .contentType("application/json")
+                .body("{\"to\":\"" + to + "\",\"currency\":\"USD\",\"value\":40.00,\"rate\":1.1,"
+                        + "\"description\":\"Rebalance\",\"reference\":\"TRF-001\"}")
+                .when().post("/api/v1/ledgers/" + from + "/transactions/EUR/transfer")
+                .then()
+                .statusCode(201)
+                .extract().path("credited");
+
+        given()
+                .contentType("application/json")
+                .body("{\"to\":\"" + to + "\",\"currency\":\"USD\",\"value\":80.00,\"rate\":1.1,"
+                        + "\"description\":\"Rebalance\",\"reference\":\"TRF-002\"}")
+                .when().post("/api/v1/ledgers/" + from + "/transactions/EUR/transfer")
+                .then()
+                .statusCode(409);
+
+        Float debitedBalance = given()
+                .when().get("/api/v1/ledgers/" + from + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        Float creditedBalance = given()
+                .when().get("/api/v1/ledgers/" + to + "/balance/USD")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(BigDecimal.valueOf(44.00), BigDecimal.valueOf(credited));
+        assertEquals(BigDecimal.valueOf(60.00), BigDecimal.valueOf(debitedBalance));
+        assertEquals(BigDecimal.valueOf(44.00), BigDecimal.valueOf(creditedBalance));
+    }
+
+    @Test
+    public void testAggregatesEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        for (String body : List.of(
+                "{\"value\":10.00,\"description\":\"First\",\"reference\":\"AGG-001\"}",
+                "{\"value\":30.00,\"description\":\"Second\",\"reference\":\"AGG-002\"}")) {
+            given()
+                    .contentType("application/json")
+                    .body(body)
+                    .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                    .then()
+                    .statusCode(201);
+        }
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":5.00,\"description\":\"Third\",\"reference\":\"AGG-003\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/withdrawal")
+                .then()
+                .statusCode(201);
+
+        Integer deposits = given()
+                .when().get("/api/v1/ledgers/" + id + "/aggregates/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("accounts[0].deposits.count");
+
+        Float largest = given()
+                .when().get("/api/v1/ledgers/" + id + "/aggregates")
+                .then()
+                .statusCode(200)
+                .extract().path("accounts[0].deposits.max");
+
+        Float withdrawn = given()
+                .when().get("/api/v1/ledgers/" + id + "/aggregates")
+                .then()
+                .statusCode(200)
+                .extract().path("accounts[0].withdrawals.sum");
+
+        assertEquals(2, deposits);
+        assertEquals(BigDecimal.valueOf(30.00), BigDecimal.valueOf(largest));
+        assertEquals(BigDecimal.valueOf(5.00), BigDecimal.valueOf(withdrawn));
+
+        given()
+                .when().get("/api/v1/ledgers/" + id + "/aggregates/USD")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    public void testBatchEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        List<Integer> statuses = given()
+                .contentType("application/json")
+                .body("{\"transactions\":["
+                        + "{\"type\":\"DEPOSIT\",\"value\":100.00,\"description\":\"Salary\",\"reference\":\"B-001\"},"
+                        + "{\"type\":\"WITHDRAWAL\",\"value\":30.25,\"description\":\"Rent\",\"reference\":\"B-002\"},"
+                        + "{\"type\":\"DEPOSIT\",\"value\":1.001,\"description\":\"Dust\",\"reference\":\"B-003\"}]}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(207)
+                .extract().path("results.status");
+
+        assertEquals(List.of(201, 201, 400), statuses);
+
+        // Atomic: the invalid item keeps the valid one out
+        given()
+                .contentType("application/json")
+                .body("{\"atomic\":true,\"transactions\":["
+                        + "{\"type\":\"DEPOSIT\",\"value\":100.00,\"description\":\"Salary\",\"reference\":\"B-004\"},"
+                        + "{\"type\":\"DEPOSIT\",\"value\":0,\"description\":\"Nothing\",\"reference\":\"B-005\"}]}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(400);
+
+        Float balance = given()
+                .contentType("application/json")
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(BigDecimal.valueOf(69.75), BigDecimal.valueOf(balance));
+    }
+
+    @Test
+    public void testBinaryBatchAndHistoryEndpoint() throws IOException {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        BatchTransactionRequest batch = new BatchTransactionRequest().atomic(true).transactions(List.of(
+                new BatchTransactionItem().type(BatchTransactionItem.TypeEnum.DEPOSIT).value(new BigDecimal("12.50"))
+                        .description("One").reference("BIN-001"),
+                new BatchTransactionItem().type(BatchTransactionItem.TypeEnum.WITHDRAWAL).value(new BigDecimal("2"))
+                        .description("Two").reference("BIN-002")));
+
+        given()
+                .contentType(BinaryCodec.MEDIA_TYPE)
+                .body(BinaryCodec.writeBatch(batch, 2))
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(201);
+
+        given()
+                .contentType(BinaryCodec.MEDIA_TYPE)
+                .body(new byte[] { 1, 0, 2 })
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(400);
+
+        byte[] history = given()
+                .accept(BinaryCodec.MEDIA_TYPE)
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(200)
+                .contentType(BinaryCodec.MEDIA_TYPE)
+                .extract().asByteArray();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(history));
+
+        assertEquals(1, in.readByte());
+        assertEquals(2, in.readByte());
+
+        List<Long> amounts = new ArrayList<>();
+
+        while (in.available() > 0) {
+            in.readLong();
+            in.readLong();
+            in.readByte();
+            amounts.add(in.readLong());
+            in.readNBytes(in.readUnsignedShort());
+            in.readNBytes(in.readUnsignedShort());
+        }
+
+        assertEquals(List.of(1250L, 200L), amounts);
+
+        given()
+                .accept(BinaryCodec.MEDIA_TYPE)
+                .queryParam("limit", 0)
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     public void testHistoryEndpoint() {
         String id = given()
@@ -100,4 +576,401 @@ public class LedgerResourceTest {
 
         assertEquals(1, transactions.size());
     }
+
+    @Test
+    public void testHistoryPagingEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"transactions\":["
+                        + "{\"type\":\"DEPOSIT\",\"value\":1,\"description\":\"One\",\"reference\":\"P-001\"},"
+                        + "{\"type\":\"DEPOSIT\",\"value\":2,\"description\":\"Two\",\"reference\":\"P-002\"},"
+                        + "{\"type\":\"DEPOSIT\",\"value\":3,\"description\":\"Three\",\"reference\":\"P-003\"}]}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/batch")
+                .then()
+                .statusCode(201);
+
+        String next = given()
+                .queryParam("limit", 2)
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("next");
+
+        List<String> references = given()
+                .queryParam("limit", 2)
+                .queryParam("after", next)
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("transactions.reference");
+
+        assertEquals(List.of("P-003"), references);
+
+        String lines = given()
+                .accept("application/x-ndjson")
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        assertEquals(3, lines.lines().count());
+    }
+
+    @Test
+    public void testImportExportEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // Line 4 would overdraw and line 5 has too many decimals, the others go in
+        ExtractableResponse<Response> report = given()
+                .contentType("text/csv")
+                .body("type,value,description,reference\n"
+                        + "DEPOSIT,100.00,\"Salary, March\",IMP-001\n"
+                        + "WITHDRAWAL,30.25,Rent,IMP-002\n"
+                        + "WITHDRAWAL,500,Car,IMP-003\n"
+                        + "DEPOSIT,1.001,Dust,IMP-004\n")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/import")
+                .then()
+                .statusCode(207)
+                .extract();
+
+        assertEquals(2, (int) report.path("imported"));
+        assertEquals(2, (int) report.path("rejected"));
+        assertEquals(List.of(4, 5), report.path("rejections.line"));
+
+        // Atomic: the invalid row keeps the valid one out
+        given()
+                .contentType("application/x-ndjson")
+                .queryParam("atomic", true)
+                .body(("{\"type\":\"DEPOSIT\",\"value\":\"5.00\",\"description\":\"Bonus\",\"reference\":\"IMP-005\"}\n"
+                        + "{\"type\":\"DEPOSIT\",\"value\":\"0\",\"description\":\"Nothing\",\"reference\":\"IMP-006\"}\n")
+                        .getBytes(StandardCharsets.UTF_8))
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/import")
+                .then()
+                .statusCode(400);
+
+        given()
+                .contentType("text/csv")
+                .body("value,description\n1.00,No type\n")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/import")
+                .then()
+                .statusCode(400);
+
+        Float balance = given()
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(BigDecimal.valueOf(69.75), BigDecimal.valueOf(balance));
+
+        String csv = given()
+                .accept("text/csv")
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR/export")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        List<String> rows = csv.lines().toList();
+
+        assertEquals(3, rows.size());
+        assertEquals("id,type,value,description,reference,timestamp", rows.get(0));
+        assertTrue(rows.get(1).contains(",DEPOSIT,100.00,\"Salary, March\",IMP-001,"));
+
+        String lines = given()
+                .accept("application/x-ndjson")
+                .when().get("/api/v1/ledgers/" + id + "/transactions/EUR/export")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        assertEquals(2, lines.lines().count());
+
+        // A description with a CRLF in it comes back the same through export and import
+        String source = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("text/csv")
+                .body("type,value,description,reference\r\n"
+                        + "DEPOSIT,10.00,\"First line\r\nsecond line\",IMP-CRLF\r\n"
+                        + "DEPOSIT,1.00,\"Only\nLF\",IMP-LF\r\n")
+                .when().post("/api/v1/ledgers/" + source + "/transactions/EUR/import")
+                .then()
+                .statusCode(201);
+
+        String exported = given()
+                .accept("text/csv")
+                .when().get("/api/v1/ledgers/" + source + "/transactions/EUR/export")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        assertTrue(exported.contains("\"First line\r\nsecond line\""));
+
+        String copy = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("text/csv")
+                .body(exported)
+                .when().post("/api/v1/ledgers/" + copy + "/transactions/EUR/import")
+                .then()
+                .statusCode(201);
+
+        List<String> descriptions = given()
+                .when().get("/api/v1/ledgers/" + copy + "/transactions/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("transactions.description");
+
+        assertEquals(List.of("First line\r\nsecond line", "Only\nLF"), descriptions);
+    }
+
+    @Test
+    public void testBodyLimit() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // 64K in the test profile, only imports may send more
+        String description = "x".repeat(100_000);
+
+        given()
+                .contentType("application/json")
+                .body("{\"type\":\"DEPOSIT\",\"value\":\"1.00\",\"description\":\"" + description
+                        + "\",\"reference\":\"BIG-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR")
+                .then()
+                .statusCode(413);
+
+        StringBuilder csv = new StringBuilder("type,value,description,reference\n");
+
+        for (int row = 0; csv.length() <= 100_000; row++) {
+            csv.append("DEPOSIT,1.00,Row ").append(row).append(",BIG-").append(row).append('\n');
+        }
+
+        int rows = (int) csv.chars().filter(c -> c == '\n').count() - 1;
+
+        ExtractableResponse<Response> report = given()
+                .contentType("text/csv")
+                .body(csv.toString())
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/import")
+                .then()
+                .statusCode(201)
+                .extract();
+
+        assertEquals(rows, (int) report.path("imported"));
+    }
+
+    @Test
+    public void testTransactionFeedEndpoint() throws InterruptedException {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String first = given()
+                .contentType("application/json")
+                .body("{\"value\":10,\"description\":\"First\",\"reference\":\"F-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":20,\"description\":\"Second\",\"reference\":\"F-002\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201);
+
+        given()
+                .accept("text/event-stream")
+                .when().get("/api/v1/ledgers/" + UUID.randomUUID() + "/transactions/EUR/feed")
+                .then()
+                .statusCode(404);
+
+        // The client reuses its event objects, what is needed is read as they come
+        BlockingQueue<List<String>> events = new LinkedBlockingQueue<>();
+        Client client = ClientBuilder.newClient();
+
+        // Resumes after the first deposit: the second is replayed, the third comes live
+        try (SseEventSource source = SseEventSource.target(client.target(ledgers)
+                .path(id + "/transactions/EUR/feed")
+                .queryParam("after", first)).build()) {
+            source.register(event -> {
+                if ("transaction".equals(event.getName())) {
+                    events.add(List.of(event.getId(), event.readData()));
+                }
+            });
+            source.open();
+
+            List<String> replayed = events.poll(10, TimeUnit.SECONDS);
+
+            assertNotNull(replayed);
+            assertTrue(replayed.get(1).contains("F-002"));
+
+            given()
+                    .contentType("application/json")
+                    .body("{\"value\":30,\"description\":\"Third\",\"reference\":\"F-003\"}")
+                    .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                    .then()
+                    .statusCode(201);
+
+            List<String> live = events.poll(10, TimeUnit.SECONDS);
+
+            assertNotNull(live);
+            assertTrue(live.get(1).contains("F-003"));
+            assertTrue(UUID.fromString(live.get(0)).compareTo(UUID.fromString(replayed.get(0))) > 0);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testIdempotentDepositEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String first = given()
+                .contentType("application/json")
+                .body("{\"value\":10.00,\"description\":\"Salary\",\"reference\":\"IDEM-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String retry = given()
+                .contentType("application/json")
+                .body("{\"value\":10.00,\"description\":\"Salary\",\"reference\":\"IDEM-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        assertEquals(first, retry);
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":99.00,\"description\":\"Salary\",\"reference\":\"IDEM-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(409);
+
+        Float balance = given()
+                .contentType("application/json")
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract().path("balance");
+
+        assertEquals(BigDecimal.valueOf(10.00), BigDecimal.valueOf(balance));
+    }
+
+    @Test
+    public void testMetricsEndpoint() {
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .contentType("application/json")
+                .body("{\"value\":1.00,\"description\":\"Salary\",\"reference\":\"METRICS-001\"}")
+                .when().post("/api/v1/ledgers/" + id + "/transactions/EUR/deposit")
+                .then()
+                .statusCode(201);
+
+        String metrics = given()
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        assertTrue(metrics.contains("ledger_commits_total{operation=\"deposit\",status=\"committed\"}"));
+        assertTrue(metrics.contains("ledger_store_bytes{backend=\"heap\"}"));
+        assertTrue(metrics.contains("ledger_compaction_reclaimed_bytes_total"));
+        assertTrue(metrics.contains("ledger_replication_refused_writes_total 0.0"));
+        assertTrue(metrics.contains("ledger_replication_lagging_reads_total 0.0"));
+        assertTrue(metrics.contains("http_server_requests_seconds_bucket"));
+    }
+
+    @Test
+    public void testClusterDisabled() {
+        ExtractableResponse<Response> status = given()
+                .when().get("/api/v1/cluster")
+                .then()
+                .statusCode(200)
+                .extract();
+
+        assertEquals(false, status.path("enabled"));
+        assertEquals(List.of(), status.path("nodes"));
+
+        given()
+                .contentType("application/json")
+                .body("{\"nodes\":[\"http://localhost:28082\"]}")
+                .when().put("/api/v1/cluster")
+                .then()
+                .statusCode(409);
+    }
+
+    @Test
+    public void testReplicationDisabled() {
+        ExtractableResponse<Response> status = given()
+                .when().get("/api/v1/replication")
+                .then()
+                .statusCode(200)
+                .extract();
+
+        assertEquals("none", status.path("role"));
+        assertEquals(0, (int) status.path("followers"));
+
+        String id = given()
+                .contentType("application/json")
+                .when().post("/api/v1/ledgers")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        // Only followers wait for the transaction, and only they report a lag
+        ExtractableResponse<Response> balance = given()
+                .header("X-Read-After", UUID.randomUUID().toString())
+                .when().get("/api/v1/ledgers/" + id + "/balance/EUR")
+                .then()
+                .statusCode(200)
+                .extract();
+
+        assertEquals(null, balance.header("X-Replication-Lag"));
+    }
 }
@@ -0,0 +1,75 @@
+#!/bin/sh
+
+# Bulk import and export round trip against a running instance: imports a
+# file (or ROWS generated transactions) into a new ledger, then exports the
+# ledger back. Prints the import report, rows per second included, and the
+# time the export took.
+#
+#   sh scripts/bulk.sh [rows|file] [ndjson|csv]
+#
+# rows: transactions to generate (default 1000000), two deposits for every
+# withdrawal so the balance never goes below zero. A file is imported as it
+# is, its extension gives the format.
+
+# Configuration
+API_URL="http://localhost:28081/api/v1"
+SOURCE="${1:-1000000}"
+FORMAT="${2:-csv}"
+CURRENCY="EUR"
+DATA="data/bulk"
+
+mkdir -p "$DATA"
+
+if [ -f "$SOURCE" ]; then
+  FILE="$SOURCE"
+  FORMAT="${FILE##*.}"
+else
+  FILE="$DATA/import-$SOURCE.$FORMAT"
+
+  if [ ! -f "$FILE" ]; then
+    echo "Generating $SOURCE rows in $FILE"
+
+    awk -v rows="$SOURCE" -v format="$FORMAT" 'BEGIN {
+      if (format == "csv") print "type,value,description,reference"
+
+      for (i = 1; i <= rows; i++) {
+        type = i % 3 == 0 ? "WITHDRAWAL" : "DEPOSIT"
+        value = sprintf("%d.%02d", type == "DEPOSIT" ? 100 : 50, i % 100)
+
+        if (format == "csv")
+          printf "%s,%s,\"Bulk row %d, generated\",BULK-%d\n", type, value, i, i
+        else
+          printf "{\"type\":\"%s\",\"value\":\"%s\",\"description\":\"Bulk row %d, generated\",\"reference\":\"BULK-%d\"}\n", type, value, i, i
+      }
+    }' > "$FILE"
+  fi
+fi
+
+case "$FORMAT" in
+  csv) TYPE="text/csv" ;;
+  ndjson) TYPE="application/x-ndjson" ;;
+  *) echo "Error: format must be ndjson or csv, got $FORMAT"; exit 1 ;;
+esac
+
+if command -v uuidgen >/dev/null 2>&1; then
+  ID=$(uuidgen | tr 'A-Z' 'a-z')
+else
+  ID=$(cat /proc/sys/kernel/random/uuid)
+fi
+
+curl -sS -o /dev/null -X POST "$API_URL/ledgers" \
+  -H "Content-Type: application/json" \
+  -d "{\"id\":\"$ID\",\"currency\":\"$CURRENCY\"}" || exit 1
+
+echo "Importing $FILE ($(wc -c < "$FILE") bytes) into ledger $ID"
+
+# -T streams the file instead of reading it into memory first
+curl -sS -X POST -T "$FILE" -H "Content-Type: $TYPE" \
+  "$API_URL/ledgers/$ID/transactions/$CURRENCY/import" \
+  -w "\nHTTP %{http_code}, %{time_total} s\n"
+
+echo "Exporting ledger $ID to $DATA/export-$ID.$FORMAT"
+
+curl -sS -H "Accept: $TYPE" -o "$DATA/export-$ID.$FORMAT" \
+  "$API_URL/ledgers/$ID/transactions/$CURRENCY/export" \
+  -w "HTTP %{http_code}, %{size_download} bytes in %{time_total} s\n"
@@ -0,0 +1,63 @@
+#!/bin/sh
+
+# Starts a local cluster of ledger nodes from the JVM build, one per port from
+# 28081 up, each with its own data directory under data/cluster. Stops them
+# all on Ctrl-C.
+#
+#   sh scripts/cluster.sh [nodes] [members]
+#
+# nodes: instances to start (default 3)
+# members: how many of them are in the ring at first (default all), the others
+#   join with PUT /api/v1/cluster on any node, e.g. to go from 2 to 3 nodes:
+#
+#   curl -X PUT -H "Content-Type: application/json" \
+#     -d '{"nodes":["http://localhost:28081","http://localhost:28082","http://localhost:28083"]}' \
+#     http://localhost:28081/api/v1/cluster
+
+# Configuration
+NODES="${1:-3}"
+MEMBERS="${2:-$NODES}"
+BASE_PORT=28081
+JAR="ledger/target/quarkus-app/quarkus-run.jar"
+DATA="data/cluster"
+
+if [ ! -f "$JAR" ]; then
+  echo "Error: $JAR not found, run 'make build-jvm' first."
+  exit 1
+fi
+
+# Base URLs of the first MEMBERS nodes, comma separated
+members=""
+i=0
+while [ "$i" -lt "$MEMBERS" ]; do
+  members="${members:+$members,}http://localhost:$((BASE_PORT + i))"
+  i=$((i + 1))
+done
+
+pids=""
+trap 'kill $pids 2>/dev/null; wait' INT TERM EXIT
+
+i=0
+while [ "$i" -lt "$NODES" ]; do
+  port=$((BASE_PORT + i))
+  dir="$DATA/$port"
+
+  mkdir -p "$dir"
+
+  java \
+    -Dquarkus.http.port="$port" \
+    -Dledger.wal.directory="$dir/wal" \
+    -Dledger.snapshot.directory="$dir/snapshots" \
+    -Dledger.tiering.directory="$dir/cold" \
+    -Dledger.cluster.enabled=true \
+    -Dledger.cluster.self="http://localhost:$port" \
+    -Dledger.cluster.nodes="$members" \
+    -jar "$JAR" > "$dir/node.log" 2>&1 &
+
+  pids="$pids $!"
+  echo "Node http://localhost:$port started, log in $dir/node.log"
+  i=$((i + 1))
+done
+
+echo "Ring: $members"
+wait
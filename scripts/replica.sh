@@ -0,0 +1,57 @@
+#!/bin/sh
+
+# Starts a replication leader on port 28081 and followers on the ports after
+# it, from the JVM build. The leader keeps its data under data/replica, the
+# followers keep nothing and copy the leader's store when they connect.
+# Stops them all on Ctrl-C.
+#
+#   sh scripts/replica.sh [followers]
+#
+# followers: read-only followers to start (default 1). Writes go to the
+# leader, reads to any of them; GET /api/v1/replication shows the lag.
+
+# Configuration
+FOLLOWERS="${1:-1}"
+BASE_PORT=28081
+REPLICATION_PORT=28181
+JAR="ledger/target/quarkus-app/quarkus-run.jar"
+DATA="data/replica"
+
+if [ ! -f "$JAR" ]; then
+  echo "Error: $JAR not found, run 'make build-jvm' first."
+  exit 1
+fi
+
+mkdir -p "$DATA"
+
+pids=""
+trap 'kill $pids 2>/dev/null; wait' INT TERM EXIT
+
+java \
+  -Dquarkus.http.port="$BASE_PORT" \
+  -Dledger.wal.directory="$DATA/wal" \
+  -Dledger.snapshot.directory="$DATA/snapshots" \
+  -Dledger.tiering.directory="$DATA/cold" \
+  -Dledger.replication.role=leader \
+  -Dledger.replication.port="$REPLICATION_PORT" \
+  -jar "$JAR" > "$DATA/leader.log" 2>&1 &
+
+pids="$pids $!"
+echo "Leader http://localhost:$BASE_PORT started, log in $DATA/leader.log"
+
+i=1
+while [ "$i" -le "$FOLLOWERS" ]; do
+  port=$((BASE_PORT + i))
+
+  java \
+    -Dquarkus.http.port="$port" \
+    -Dledger.replication.role=follower \
+    -Dledger.replication.leader="localhost:$REPLICATION_PORT" \
+    -jar "$JAR" > "$DATA/follower-$port.log" 2>&1 &
+
+  pids="$pids $!"
+  echo "Follower http://localhost:$port started, log in $DATA/follower-$port.log"
+  i=$((i + 1))
+done
+
+wait